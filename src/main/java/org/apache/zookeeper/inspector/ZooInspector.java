@@ -24,6 +24,8 @@ import java.awt.GraphicsEnvironment;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 
+import java.util.Properties;
+
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.UIManager;
@@ -31,6 +33,7 @@ import javax.swing.UIManager;
 import org.apache.zookeeper.inspector.gui.ZooInspectorPanel;
 import org.apache.zookeeper.inspector.logger.LoggerFactory;
 import org.apache.zookeeper.inspector.manager.ZooInspectorManagerImpl;
+import org.apache.zookeeper.inspector.manager.ZooInspectorSnapshotManager;
 
 /**
  *
@@ -38,8 +41,8 @@ import org.apache.zookeeper.inspector.manager.ZooInspectorManagerImpl;
 public class ZooInspector {
     /**
      * @param args
-     *            - not used. The value of these parameters will have no effect
-     *            on the application
+     *            - optionally the path of a server snapshot file, which is
+     *            then opened read only instead of connecting to an ensemble
      */
     public static void main(String[] args) {
         try {
@@ -57,8 +60,10 @@ public class ZooInspector {
 //            frame.setSize(screenWidth * 2 / 3, screenHeight);
 //            frame.setVisible(true);
 
+            ZooInspectorManagerImpl manager = args.length > 0 ? new ZooInspectorSnapshotManager()
+                    : new ZooInspectorManagerImpl();
             final ZooInspectorPanel zooInspectorPanel = new ZooInspectorPanel(
-                    new ZooInspectorManagerImpl());
+                    manager);
             frame.addWindowListener(new WindowAdapter() {
                 @Override
                 public void windowClosed(WindowEvent e) {
@@ -71,6 +76,11 @@ public class ZooInspector {
             frame.setSize(1024, 768);
 //            frame.setSize(screenWidth * 2 / 3, screenHeight);
             frame.setVisible(true);
+            if (args.length > 0) {
+                Properties snapshotProps = new Properties();
+                snapshotProps.setProperty(ZooInspectorSnapshotManager.SNAPSHOT_FILE, args[0]);
+                zooInspectorPanel.connect(snapshotProps);
+            }
         } catch (Exception e) {
             LoggerFactory.getLogger().error(
                     "Error occurred loading ZooInspector", e);
@@ -0,0 +1,126 @@
+package org.apache.zookeeper.inspector;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.SwingWorker;
+
+import org.apache.zookeeper.inspector.logger.LoggerFactory;
+
+/**
+ * Where background work runs: node viewer loads, batch reads of the thread
+ * pool mode and toaster animations. With {@link #VIRTUAL_THREADS} set and a
+ * Java runtime that has virtual threads (21+), each task gets its own virtual
+ * thread, so thousands of blocking ZooKeeper calls can wait at once. Otherwise
+ * the platform threads used so far are kept. Virtual threads are looked up by
+ * reflection so the code still builds and runs on older runtimes
+ */
+public class ZooInspectorExecutors
+{
+  /**
+   * System property to run background work on virtual threads
+   */
+  public static final String VIRTUAL_THREADS = "zooinspector.virtualThreads";
+
+  private static final Method newVirtualThreadPerTaskExecutor;
+  private static final Method startVirtualThread;
+  private static final ExecutorService virtualExecutor;
+
+  static
+  {
+    Method newExecutor = null;
+    Method start = null;
+    ExecutorService executor = null;
+    if (Boolean.getBoolean(VIRTUAL_THREADS))
+    {
+      try
+      {
+        newExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        start = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        executor = (ExecutorService) newExecutor.invoke(null);
+      }
+      catch (Exception e)
+      {
+        LoggerFactory.getLogger().warn("Virtual threads are not available in this Java runtime ("
+            + System.getProperty("java.version") + "), using platform threads");
+        newExecutor = null;
+        start = null;
+        executor = null;
+      }
+    }
+    newVirtualThreadPerTaskExecutor = newExecutor;
+    startVirtualThread = start;
+    virtualExecutor = executor;
+  }
+
+  /**
+   * @return true if background work runs on virtual threads
+   */
+  public static boolean isVirtual()
+  {
+    return virtualExecutor != null;
+  }
+
+  /**
+   * run worker in the background, on a virtual thread or on the shared
+   * {@link SwingWorker} threads
+   * @param worker
+   */
+  public static void execute(SwingWorker<?, ?> worker)
+  {
+    if (virtualExecutor != null)
+    {
+      virtualExecutor.execute(worker);
+    }
+    else
+    {
+      worker.execute();
+    }
+  }
+
+  /**
+   * @param nThreads
+   *          - the number of platform threads, ignored for virtual threads
+   * @return an executor running each task on a new virtual thread, or a fixed
+   *         pool of nThreads platform threads
+   */
+  public static ExecutorService newPool(int nThreads)
+  {
+    if (newVirtualThreadPerTaskExecutor != null)
+    {
+      try
+      {
+        return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+      }
+      catch (Exception e)
+      {
+        // checked on startup, cannot happen
+      }
+    }
+    return Executors.newFixedThreadPool(nThreads);
+  }
+
+  /**
+   * start task on a new virtual thread, or on a new platform thread
+   * @param task
+   * @param name
+   *          - the name of a platform thread
+   */
+  public static void start(Runnable task, String name)
+  {
+    if (startVirtualThread != null)
+    {
+      try
+      {
+        startVirtualThread.invoke(null, task);
+        return;
+      }
+      catch (Exception e)
+      {
+        // checked on startup, cannot happen
+      }
+    }
+    new Thread(task, name).start();
+  }
+}
@@ -32,6 +32,7 @@ import javax.swing.tree.TreePath;
 
 import org.apache.zookeeper.inspector.gui.nodeviewer.ZooInspectorNodeViewer;
 import org.apache.zookeeper.inspector.manager.ZooInspectorManager;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache;
 import org.apache.zookeeper.inspector.manager.ZooInspectorNodeManager;
 
 /**
@@ -141,7 +142,9 @@ public class ZooInspectorNodeViewersPanel extends JPanel implements
                     }
                 }
             }
-            if (appended) {
+            // the placeholder shown while children load is not a real node
+            if (appended
+                    && !ZooInspectorManagerCache.isLoadingPath(sb.toString())) {
                 selectedNodes.add(sb.toString());
             }
         }
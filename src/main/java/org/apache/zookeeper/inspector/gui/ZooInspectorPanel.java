@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
@@ -32,11 +33,14 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JToolBar;
+import javax.swing.ProgressMonitor;
 import javax.swing.SwingWorker;
 
 import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.inspector.ZooInspectorExecutors;
 import org.apache.zookeeper.inspector.gui.nodeviewer.ZooInspectorNodeViewer;
 import org.apache.zookeeper.inspector.logger.LoggerFactory;
+import org.apache.zookeeper.inspector.manager.ZooInspectorDeleter;
 import org.apache.zookeeper.inspector.manager.ZooInspectorManager;
 
 /**
@@ -185,7 +189,7 @@ public class ZooInspectorPanel extends JPanel implements
                               treeViewer.refreshViewAfterAdd(selectedNodes.get(0), nodeName);
                             }
                         };
-                        worker.execute();
+                        ZooInspectorExecutors.execute(worker);
                     }
                 } else {
                     JOptionPane.showMessageDialog(ZooInspectorPanel.this,
@@ -202,36 +206,35 @@ public class ZooInspectorPanel extends JPanel implements
                     JOptionPane.showMessageDialog(ZooInspectorPanel.this,
                             "Please select at least 1 node to be deleted");
                 } else {
-                    int answer = JOptionPane.showConfirmDialog(
-                            ZooInspectorPanel.this,
-                            "Are you sure you want to delete the selected nodes?"
-                                    + "(This action cannot be reverted)",
-                            "Confirm Delete", JOptionPane.YES_NO_OPTION,
-                            JOptionPane.WARNING_MESSAGE);
-                    if (answer == JOptionPane.YES_OPTION) {
-                        SwingWorker<Boolean, Void> worker = new SwingWorker<Boolean, Void>() {
+                    // count first, so the confirmation can say how much goes
+                    final ZooInspectorDeleter dryRun = zooInspectorManager
+                            .deleteSubtrees(selectedNodes, true);
+                    if (dryRun == null) {
+                        return;
+                    }
+                    SwingWorker<Long, Void> worker = new SwingWorker<Long, Void>() {
 
-                            @Override
-                            protected Boolean doInBackground() throws Exception {
-                                for (String nodePath : selectedNodes) {
-                                    boolean result = ZooInspectorPanel.this.zooInspectorManager
-                                            .deleteNode(nodePath);
-                                    if (!result) {
-                                      return false;
-                                    }
-                                }
-                                return true;
-                            }
+                        @Override
+                        protected Long doInBackground() throws Exception {
+                            dryRun.await(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                            return dryRun.getListed();
+                        }
 
-                            @Override
-                            protected void done() {
-//                                treeViewer.refreshView();
-
-                              treeViewer.refreshViewAfterDelete(selectedNodes);
+                        @Override
+                        protected void done() {
+                            int answer = JOptionPane.showConfirmDialog(
+                                    ZooInspectorPanel.this,
+                                    "Are you sure you want to delete the selected nodes and all "
+                                            + dryRun.getListed() + " nodes below and including them?"
+                                            + "(This action cannot be reverted)",
+                                    "Confirm Delete", JOptionPane.YES_NO_OPTION,
+                                    JOptionPane.WARNING_MESSAGE);
+                            if (answer == JOptionPane.YES_OPTION) {
+                                deleteSubtrees(selectedNodes, dryRun.getListed());
                             }
-                        };
-                        worker.execute();
-                    }
+                        }
+                    };
+                    ZooInspectorExecutors.execute(worker);
                 }
             }
         });
@@ -261,6 +264,56 @@ public class ZooInspectorPanel extends JPanel implements
         this.add(toolbar, BorderLayout.NORTH);
     }
 
+    /**
+     * delete the subtrees below nodePaths in the background, showing the
+     * progress in a dialog that can cancel the delete
+     *
+     * @param nodePaths
+     * @param total
+     *            - the number of nodes a dry run found
+     */
+    private void deleteSubtrees(final List<String> nodePaths, long total) {
+        final ZooInspectorDeleter deleter = zooInspectorManager.deleteSubtrees(
+                nodePaths, false);
+        if (deleter == null) {
+            return;
+        }
+        final ProgressMonitor monitor = new ProgressMonitor(this,
+                "Deleting nodes", null, 0, (int) Math.min(Integer.MAX_VALUE, total));
+        monitor.setMillisToDecideToPopup(200);
+        SwingWorker<Boolean, Long> worker = new SwingWorker<Boolean, Long>() {
+
+            @Override
+            protected Boolean doInBackground() throws Exception {
+                while (!deleter.await(200, TimeUnit.MILLISECONDS)) {
+                    publish(deleter.getDeleted());
+                }
+                return deleter.isSuccessful();
+            }
+
+            @Override
+            protected void process(List<Long> chunks) {
+                if (monitor.isCanceled()) {
+                    deleter.cancel();
+                }
+                monitor.setProgress((int) Math.min(Integer.MAX_VALUE,
+                        chunks.get(chunks.size() - 1)));
+                monitor.setNote(deleter.toString());
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                treeViewer.refreshViewAfterDelete(nodePaths);
+                if (!deleter.isSuccessful()) {
+                    JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+                            "Not all nodes were deleted: " + deleter);
+                }
+            }
+        };
+        ZooInspectorExecutors.execute(worker);
+    }
+
     /**
      * @param connectionProps
      *            the {@link Properties} for connecting to the zookeeper
@@ -284,8 +337,11 @@ public class ZooInspectorPanel extends JPanel implements
                         connectButton.setEnabled(false);
                         disconnectButton.setEnabled(true);
                         refreshButton.setEnabled(true);
-                        addNodeButton.setEnabled(true);
-                        deleteNodeButton.setEnabled(true);
+                        // a snapshot is read only
+                        boolean writable = zooInspectorManager
+                                .getZookeeperStates() == States.CONNECTED;
+                        addNodeButton.setEnabled(writable);
+                        deleteNodeButton.setEnabled(writable);
 
                         // save successful connect string in default properties
                         zooInspectorManager.updateDefaultConnectionFile(connectionProps);
@@ -314,7 +370,7 @@ public class ZooInspectorPanel extends JPanel implements
             }
 
         };
-        worker.execute();
+        ZooInspectorExecutors.execute(worker);
     }
 
     /**
@@ -364,7 +420,7 @@ public class ZooInspectorPanel extends JPanel implements
             }
 
         };
-        worker.execute();
+        ZooInspectorExecutors.execute(worker);
         if (wait) {
             while (!worker.isDone()) {
                 try {
@@ -19,27 +19,45 @@ package org.apache.zookeeper.inspector.gui;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Component;
+import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.JTree;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.event.TreeWillExpandListener;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -50,9 +68,19 @@ import javax.swing.tree.TreePath;
 
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.inspector.ZooInspectorExecutors;
 import org.apache.zookeeper.inspector.ZooInspectorUtil;
 import org.apache.zookeeper.inspector.manager.NodeListener;
+import org.apache.zookeeper.inspector.manager.ZooInspectorCopy;
+import org.apache.zookeeper.inspector.manager.ZooInspectorCrawl;
+import org.apache.zookeeper.inspector.manager.ZooInspectorDiff;
+import org.apache.zookeeper.inspector.manager.ZooInspectorExport;
+import org.apache.zookeeper.inspector.manager.ZooInspectorImport;
 import org.apache.zookeeper.inspector.manager.ZooInspectorManager;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerImpl;
+import org.apache.zookeeper.inspector.manager.ZooInspectorNodeTreeManager;
+import org.apache.zookeeper.inspector.manager.ZooInspectorPrefetcher;
 import org.apache.zookeeper.inspector.toaster.Toaster;
 
 // import com.nitido.utils.toaster.Toaster;
@@ -74,6 +102,14 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
      */
     private final Set<String> skipRefreshPaths = Collections.synchronizedSet(new HashSet<String>());
     private final ZooInspectorPanel zooInspectorPanel;
+    private final AtomicBoolean cacheRefreshPending = new AtomicBoolean(false);
+    // paths the cache changed since the tree was last updated
+    private final Set<String> changedPaths = Collections.synchronizedSet(new HashSet<String>());
+    private volatile ZooInspectorCrawl crawl;
+    private volatile ZooInspectorExport export;
+    private volatile ZooInspectorImport importer;
+    private volatile ZooInspectorCopy copy;
+    private volatile ZooInspectorDiff diff;
 
     /**
      * @param zooInspectorManager
@@ -114,6 +150,106 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
                 zooInspectorManager.removeWatchers(selectedNodes);
             }
         });
+        final JMenuItem loadSubtree = new JMenuItem("Load Subtree");
+        loadSubtree.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                List<String> selected = getSelectedNodes();
+                if (!selected.isEmpty()) {
+                    loadSubtree(selected.get(0));
+                }
+            }
+        });
+        final JMenuItem cancelLoad = new JMenuItem("Cancel Subtree Load");
+        cancelLoad.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                ZooInspectorCrawl running = crawl;
+                if (running != null) {
+                    running.cancel();
+                }
+            }
+        });
+        final JMenuItem exportSubtree = new JMenuItem("Export Subtree...");
+        exportSubtree.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                List<String> selected = getSelectedNodes();
+                if (!selected.isEmpty()) {
+                    exportSubtree(selected.get(0));
+                }
+            }
+        });
+        final JMenuItem cancelExport = new JMenuItem("Cancel Subtree Export");
+        cancelExport.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                ZooInspectorExport running = export;
+                if (running != null) {
+                    running.cancel();
+                }
+            }
+        });
+        final JMenuItem importSubtree = new JMenuItem("Import Subtree...");
+        importSubtree.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                List<String> selected = getSelectedNodes();
+                if (!selected.isEmpty()) {
+                    importSubtree(selected.get(0));
+                }
+            }
+        });
+        final JMenuItem cancelImport = new JMenuItem("Cancel Subtree Import");
+        cancelImport.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                ZooInspectorImport running = importer;
+                if (running != null) {
+                    running.cancel();
+                }
+            }
+        });
+        final JMenuItem copySubtree = new JMenuItem("Copy Subtree...");
+        copySubtree.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                List<String> selected = getSelectedNodes();
+                if (!selected.isEmpty()) {
+                    copySubtree(selected.get(0));
+                }
+            }
+        });
+        final JMenuItem cancelCopy = new JMenuItem("Cancel Subtree Copy");
+        cancelCopy.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                ZooInspectorCopy running = copy;
+                if (running != null) {
+                    running.cancel();
+                }
+            }
+        });
+        final JMenuItem diffSubtree = new JMenuItem("Compare Subtree...");
+        diffSubtree.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                List<String> selected = getSelectedNodes();
+                if (!selected.isEmpty()) {
+                    diffSubtree(selected.get(0));
+                }
+            }
+        });
+        final JMenuItem cancelDiff = new JMenuItem("Cancel Subtree Compare");
+        cancelDiff.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                ZooInspectorDiff running = diff;
+                if (running != null) {
+                    running.cancel();
+                }
+            }
+        });
 
         tree = new JTree(new DefaultMutableTreeNode());
         System.out.println("init jtree: " + tree);
@@ -131,6 +267,22 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
                     popupMenu.removeAll();
                     popupMenu.add(addNotify);
                     popupMenu.add(removeNotify);
+                    popupMenu.addSeparator();
+                    ZooInspectorCrawl running = crawl;
+                    popupMenu.add(running == null || running.isDone() ? loadSubtree
+                            : cancelLoad);
+                    ZooInspectorExport exporting = export;
+                    popupMenu.add(exporting == null || exporting.isDone() ? exportSubtree
+                            : cancelExport);
+                    ZooInspectorImport importing = importer;
+                    popupMenu.add(importing == null || importing.isDone() ? importSubtree
+                            : cancelImport);
+                    ZooInspectorCopy copying = copy;
+                    popupMenu.add(copying == null || copying.isDone() ? copySubtree
+                            : cancelCopy);
+                    ZooInspectorDiff comparing = diff;
+                    popupMenu.add(comparing == null || comparing.isDone() ? diffSubtree
+                            : cancelDiff);
                     popupMenu.show(ZooInspectorTreeViewer.this, e.getX(), e
                             .getY());
                 }
@@ -139,6 +291,35 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
 
 
         tree.addTreeWillExpandListener(this);
+        tree.addTreeExpansionListener(new TreeExpansionListener() {
+            @Override
+            public void treeExpanded(TreeExpansionEvent event) {
+                updatePinnedPaths();
+            }
+
+            @Override
+            public void treeCollapsed(TreeExpansionEvent event) {
+                updatePinnedPaths();
+            }
+        });
+
+        zooInspectorManager.addCacheListener(new NodeListener() {
+            @Override
+            public void processEvent(String nodePath, String eventType,
+                    Map<String, String> eventInfo) {
+                // one tree update for a whole batch of cache updates
+                changedPaths.add(nodePath);
+                if (cacheRefreshPending.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            cacheRefreshPending.set(false);
+                            refreshChangedNodes();
+                        }
+                    });
+                }
+            }
+        });
 
         this.add(tree, BorderLayout.CENTER);
     }
@@ -150,12 +331,19 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
       System.out.println("treeWillExpand invoked. willExpandPath: " + znodePath);
 //      System.out.println("Skip refresh " + skipRefreshPaths.size() + " paths");
 
+      ZooInspectorManagerCache cache = zooInspectorManager.getCache();
       if (skipRefreshPaths.contains(znodePath)) {
 //        System.out.println("Skip refresh path: " + znodePath);
-      } else {
+      } else if (cache != null) {
+        ZooInspectorPrefetcher prefetcher = cache.getPrefetcher();
         try
         {
-          zooInspectorManager.getCache().refresh(Arrays.asList(znodePath), 1);
+          if (prefetcher == null || !prefetcher.isReady(znodePath)) {
+            cache.refresh(Arrays.asList(znodePath), 1);
+          }
+          if (prefetcher != null) {
+            prefetcher.expanded(znodePath);
+          }
         }
         catch (KeeperException e)
         {
@@ -171,6 +359,431 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
       // System.out.println("collapsePath: " + event.getPath());
     }
 
+    /**
+     * read the subtree below path into the cache in the background, within
+     * the node and time budgets of {@link ZooInspectorCrawl#MAX_NODES} and
+     * {@link ZooInspectorCrawl#TIMEOUT_MS}. The tree is updated once the crawl
+     * is over, and a notification reports the throughput
+     * @param path
+     */
+    private void loadSubtree(String path) {
+        long maxNodes = Long.getLong(ZooInspectorCrawl.MAX_NODES, 1000000);
+        long deadline = System.currentTimeMillis()
+                + Long.getLong(ZooInspectorCrawl.TIMEOUT_MS, 300000);
+        final ZooInspectorCrawl running = zooInspectorManager.crawl(path,
+                Integer.MAX_VALUE, maxNodes, deadline);
+        if (running == null) {
+            return;
+        }
+        crawl = running;
+        final ProgressMonitor monitor = progressMonitor("Loading " + path, running);
+        SwingWorker<Boolean, String> worker = new SwingWorker<Boolean, String>() {
+            @Override
+            protected Boolean doInBackground() throws Exception {
+                while (!running.await(200, TimeUnit.MILLISECONDS)) {
+                    publish(running.toString());
+                }
+                return true;
+            }
+
+            @Override
+            protected void process(List<String> chunks) {
+                if (showProgress(monitor, chunks)) {
+                    running.cancel();
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                toasterManager.showToaster(ZooInspectorIconResources
+                        .getInformationIcon(), "Subtree loaded\n" + running);
+            }
+        };
+        ZooInspectorExecutors.execute(worker);
+    }
+
+    /**
+     * ask for a file and export the subtree below path to it in the
+     * background. A notification reports the result once the export is over
+     * @param path
+     */
+    private void exportSubtree(String path) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export " + path);
+        chooser.setSelectedFile(new File((path.equals("/") ? "root" : path
+                .substring(1).replace('/', '_')) + ".zie"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        final File file = chooser.getSelectedFile();
+        final ZooInspectorExport running;
+        try {
+            running = zooInspectorManager.exportSubtree(path, file);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Unable to write "
+                    + file.getAbsolutePath() + ": " + e.getMessage());
+            return;
+        }
+        if (running == null) {
+            return;
+        }
+        export = running;
+        final ProgressMonitor monitor = progressMonitor("Exporting " + path, running);
+        SwingWorker<Boolean, String> worker = new SwingWorker<Boolean, String>() {
+            @Override
+            protected Boolean doInBackground() throws Exception {
+                while (!running.await(200, TimeUnit.MILLISECONDS)) {
+                    publish(running.toString());
+                }
+                return running.isCompleted();
+            }
+
+            @Override
+            protected void process(List<String> chunks) {
+                if (showProgress(monitor, chunks)) {
+                    running.cancel();
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                toasterManager.showToaster(ZooInspectorIconResources
+                        .getInformationIcon(), (running.isCompleted() ? "Subtree exported\n"
+                        : "Subtree export failed\n") + running);
+            }
+        };
+        ZooInspectorExecutors.execute(worker);
+    }
+
+    /**
+     * ask for an export or JSON file and a conflict policy, and import the
+     * file below path in the background. An import of the same file to path
+     * that was cancelled or broken off goes on where it stopped. The subtree
+     * is read again and a notification reports the result once the import is
+     * over
+     * @param path
+     */
+    private void importSubtree(final String path) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Import into " + path);
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        ZooInspectorImport.Conflict conflict = (ZooInspectorImport.Conflict) JOptionPane
+                .showInputDialog(this, "Nodes that exist already:", "Import into " + path,
+                        JOptionPane.QUESTION_MESSAGE, null,
+                        ZooInspectorImport.Conflict.values(),
+                        ZooInspectorImport.Conflict.SKIP);
+        if (conflict == null) {
+            return;
+        }
+        final ZooInspectorImport running;
+        try {
+            running = zooInspectorManager.importSubtree(file, path, conflict);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Unable to read "
+                    + file.getAbsolutePath() + ": " + e.getMessage());
+            return;
+        }
+        if (running == null) {
+            return;
+        }
+        importer = running;
+        final ProgressMonitor monitor = progressMonitor("Importing into " + path, running);
+        SwingWorker<Boolean, String> worker = new SwingWorker<Boolean, String>() {
+            @Override
+            protected Boolean doInBackground() throws Exception {
+                while (!running.await(200, TimeUnit.MILLISECONDS)) {
+                    publish(running.toString());
+                }
+                zooInspectorManager.getCache().refresh(Arrays.asList(path), 1);
+                return running.isCompleted();
+            }
+
+            @Override
+            protected void process(List<String> chunks) {
+                if (showProgress(monitor, chunks)) {
+                    running.cancel();
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                toasterManager.showToaster(ZooInspectorIconResources
+                        .getInformationIcon(), (running.isCompleted() ? "Subtree imported\n"
+                        : "Subtree import stopped\n") + running);
+            }
+        };
+        ZooInspectorExecutors.execute(worker);
+    }
+
+    /**
+     * ask where to copy the subtree below path to, on this ensemble or on
+     * another one, and copy it in the background. A move deletes the subtree
+     * once the copy is found to match it. A notification reports the result
+     * once the copy is over
+     * @param path
+     */
+    private void copySubtree(final String path) {
+        JTextField targetPath = new JTextField(path.equals("/") ? "" : path + "-copy", 20);
+        JTextField hosts = new JTextField(20);
+        JComboBox<ZooInspectorImport.Conflict> conflictChoice =
+                new JComboBox<ZooInspectorImport.Conflict>(ZooInspectorImport.Conflict.values());
+        conflictChoice.setSelectedItem(ZooInspectorImport.Conflict.SKIP);
+        JCheckBox move = new JCheckBox("Delete " + path + " once copied");
+        JPanel options = new JPanel(new GridLayout(0, 2, 5, 5));
+        options.add(new JLabel("Target path:"));
+        options.add(targetPath);
+        options.add(new JLabel("Target hosts (blank for this ensemble):"));
+        options.add(hosts);
+        options.add(new JLabel("Nodes that exist already:"));
+        options.add(conflictChoice);
+        options.add(new JLabel());
+        options.add(move);
+        if (JOptionPane.showConfirmDialog(this, options, "Copy " + path,
+                JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION
+                || !targetPath.getText().trim().startsWith("/")) {
+            return;
+        }
+        ZooInspectorNodeTreeManager target = zooInspectorManager;
+        ZooInspectorManagerImpl other = null;
+        if (hosts.getText().trim().length() > 0) {
+            other = connect(hosts.getText().trim());
+            if (other == null) {
+                return;
+            }
+            target = other;
+        }
+        final ZooInspectorCopy running;
+        try {
+            running = zooInspectorManager.copySubtree(path, target, targetPath.getText()
+                    .trim(), (ZooInspectorImport.Conflict) conflictChoice.getSelectedItem(),
+                    move.isSelected());
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage());
+            if (other != null) {
+                other.disconnect();
+            }
+            return;
+        }
+        final ZooInspectorManagerImpl connection = other;
+        final List<String> changed = new ArrayList<String>();
+        changed.add(path.substring(0, Math.max(1, path.lastIndexOf('/'))));
+        if (connection == null) {
+            String to = targetPath.getText().trim();
+            changed.add(to.substring(0, Math.max(1, to.lastIndexOf('/'))));
+        }
+        if (running == null) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return;
+        }
+        copy = running;
+        final ProgressMonitor monitor = progressMonitor("Copying " + path, running);
+        SwingWorker<Boolean, String> worker = new SwingWorker<Boolean, String>() {
+            @Override
+            protected Boolean doInBackground() throws Exception {
+                try {
+                    while (!running.await(200, TimeUnit.MILLISECONDS)) {
+                        publish(running.toString());
+                    }
+                } finally {
+                    if (connection != null) {
+                        connection.disconnect();
+                    }
+                }
+                zooInspectorManager.getCache().refresh(changed, 1);
+                return running.isSuccessful();
+            }
+
+            @Override
+            protected void process(List<String> chunks) {
+                if (showProgress(monitor, chunks)) {
+                    running.cancel();
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                toasterManager.showToaster(ZooInspectorIconResources
+                        .getInformationIcon(), (running.isSuccessful() ? (running.isMove()
+                        ? "Subtree moved\n" : "Subtree copied\n")
+                        : "Subtree copy stopped\n") + running);
+            }
+        };
+        ZooInspectorExecutors.execute(worker);
+    }
+
+    /**
+     * ask for the subtree to compare the one below path with, on this
+     * ensemble or on another one, and compare them in the background. The
+     * differences are shown once the diff is over
+     * @param path
+     */
+    private void diffSubtree(final String path) {
+        JTextField otherPath = new JTextField(path, 20);
+        JTextField hosts = new JTextField(20);
+        JPanel options = new JPanel(new GridLayout(0, 2, 5, 5));
+        options.add(new JLabel("Compare with path:"));
+        options.add(otherPath);
+        options.add(new JLabel("On hosts (blank for this ensemble):"));
+        options.add(hosts);
+        if (JOptionPane.showConfirmDialog(this, options, "Compare " + path,
+                JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION
+                || !otherPath.getText().trim().startsWith("/")) {
+            return;
+        }
+        final ZooInspectorManagerImpl connection = hosts.getText().trim().length() > 0
+                ? connect(hosts.getText().trim()) : null;
+        if (connection == null && hosts.getText().trim().length() > 0) {
+            return;
+        }
+        final ZooInspectorDiff running;
+        try {
+            running = zooInspectorManager.diffSubtree(path,
+                    connection != null ? connection : zooInspectorManager, otherPath.getText()
+                            .trim());
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage());
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return;
+        }
+        if (running == null) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return;
+        }
+        diff = running;
+        final ProgressMonitor monitor = progressMonitor("Comparing " + path, running);
+        SwingWorker<String, String> worker = new SwingWorker<String, String>() {
+            @Override
+            protected String doInBackground() throws Exception {
+                try {
+                    while (!running.await(200, TimeUnit.MILLISECONDS)) {
+                        publish(running.toString());
+                    }
+                } finally {
+                    if (connection != null) {
+                        connection.disconnect();
+                    }
+                }
+                StringBuilder sb = new StringBuilder();
+                sb.append(running).append("\n\n");
+                for (ZooInspectorDiff.Difference difference : running.getDifferences()) {
+                    sb.append(difference).append('\n');
+                    if (difference.kind == ZooInspectorDiff.Kind.CHANGED) {
+                        sb.append(difference.getDataDiff()).append('\n');
+                    }
+                }
+                return sb.toString();
+            }
+
+            @Override
+            protected void process(List<String> chunks) {
+                if (showProgress(monitor, chunks)) {
+                    running.cancel();
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                String report;
+                try {
+                    report = get();
+                } catch (Exception e) {
+                    report = running.toString();
+                }
+                JTextArea text = new JTextArea(report, 25, 80);
+                text.setEditable(false);
+                JOptionPane.showMessageDialog(ZooInspectorTreeViewer.this,
+                        new JScrollPane(text), running.isSame() ? "Subtrees match"
+                                : "Subtree differences", JOptionPane.INFORMATION_MESSAGE);
+            }
+        };
+        ZooInspectorExecutors.execute(worker);
+    }
+
+    /**
+     * @param message
+     * @param running
+     *            - the operation whose state is shown as the note
+     * @return a dialog that pops up once a background operation takes a while
+     */
+    private ProgressMonitor progressMonitor(String message, Object running) {
+        ProgressMonitor monitor = new ProgressMonitor(this, message, running
+                .toString(), 0, 1);
+        monitor.setMillisToDecideToPopup(500);
+        return monitor;
+    }
+
+    /**
+     * @param monitor
+     * @param notes
+     *            - the states published since the last call, the latest last
+     * @return true if the user cancelled the operation in the dialog
+     */
+    private static boolean showProgress(ProgressMonitor monitor, List<String> notes) {
+        monitor.setProgress(0);
+        monitor.setNote(notes.get(notes.size() - 1));
+        return monitor.isCanceled();
+    }
+
+    /**
+     * connect to another ensemble with the settings of the current connection
+     * @param hosts
+     * @return the connected manager, to disconnect once done, or null after
+     *         telling the user it could not connect
+     */
+    private ZooInspectorManagerImpl connect(String hosts) {
+        Properties props = new Properties();
+        Properties last = zooInspectorManager.getLastConnectionProps();
+        if (last != null) {
+            props.putAll(last);
+        }
+        props.setProperty(ZooInspectorManagerImpl.CONNECT_STRING, hosts);
+        ZooInspectorManagerImpl other;
+        try {
+            other = new ZooInspectorManagerImpl();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Unable to connect to " + hosts + ": "
+                    + e.getMessage());
+            return null;
+        }
+        if (!other.connect(props)) {
+            JOptionPane.showMessageDialog(this, "Unable to connect to " + hosts);
+            return null;
+        }
+        return other;
+    }
+
+    /**
+     * keep every row currently shown in the tree (which includes all expanded
+     * nodes) from being evicted from the cache
+     */
+    private void updatePinnedPaths() {
+        ZooInspectorManagerCache cache = zooInspectorManager.getCache();
+        if (cache == null) {
+            return;
+        }
+        List<String> shownPaths = new ArrayList<String>();
+        int rowCount = tree.getRowCount();
+        for (int i = 0; i < rowCount; i++) {
+            shownPaths.add(ZooInspectorUtil.treePathToZnodePath(tree
+                    .getPathForRow(i)));
+        }
+        cache.setPinnedPaths(shownPaths);
+    }
+
     private List<String> getExpandedNodes()
     {
       List<String> expandedPaths = new ArrayList<String>();
@@ -184,6 +797,66 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
       return expandedPaths;
     }
 
+    /**
+     * update the rows of the nodes the cache changed, keeping what is
+     * expanded and selected below them. Nodes not shown are left alone, they
+     * are read from the cache when they are shown
+     */
+    private void refreshChangedNodes() {
+        List<String> changed;
+        synchronized (changedPaths) {
+            changed = new ArrayList<String>(changedPaths);
+            changedPaths.clear();
+        }
+        if (!(tree.getModel() instanceof DefaultTreeModel)
+                || !(tree.getModel().getRoot() instanceof ZooInspectorTreeNode)) {
+            // not connected
+            return;
+        }
+        DefaultTreeModel model = (DefaultTreeModel) tree.getModel();
+        Map<String, TreePath> shown = new HashMap<String, TreePath>();
+        List<TreePath> expanded = new ArrayList<TreePath>();
+        int rowCount = tree.getRowCount();
+        for (int i = 0; i < rowCount; i++) {
+            TreePath path = tree.getPathForRow(i);
+            shown.put(ZooInspectorUtil.treePathToZnodePath(path), path);
+            if (tree.isExpanded(path)) {
+                expanded.add(path);
+            }
+        }
+        List<TreePath> updated = new ArrayList<TreePath>();
+        for (String nodePath : changed) {
+            TreePath path = shown.get(nodePath);
+            if (path != null) {
+                updated.add(path);
+            }
+        }
+        if (updated.isEmpty()) {
+            return;
+        }
+        TreePath[] selectedNodes = tree.getSelectionPaths();
+        for (TreePath path : updated) {
+            model.nodeStructureChanged((TreeNode) path.getLastPathComponent());
+        }
+        // expanded again from the cache, not read again
+        List<String> skipped = new ArrayList<String>();
+        for (TreePath path : expanded) {
+            String znodePath = ZooInspectorUtil.treePathToZnodePath(path);
+            if (skipRefreshPaths.add(znodePath)) {
+                skipped.add(znodePath);
+            }
+        }
+        try {
+            for (TreePath path : expanded) {
+                tree.expandPath(path);
+            }
+        } finally {
+            skipRefreshPaths.removeAll(skipped);
+        }
+        tree.getSelectionModel().setSelectionPaths(selectedNodes);
+        updatePinnedPaths();
+    }
+
     private void doRefresh(final TreePath[] selectedNodes) {
       System.out.println("\tdoRefresh#selectedTreePaths: " + Arrays.toString(selectedNodes));
 
@@ -217,9 +890,10 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
               tree.getSelectionModel().setSelectionPaths(selectedNodes);
 
               skipRefreshPaths.clear();
+              updatePinnedPaths();
           }
       };
-      worker.execute();
+      ZooInspectorExecutors.execute(worker);
     }
 
     /**
@@ -242,7 +916,10 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
 
         for (int i = 0; i < rowCount; i++) {
             TreePath path = tree.getPathForRow(i);
-            visiblePaths.add(ZooInspectorUtil.treePathToZnodePath(path));
+            String znodePath = ZooInspectorUtil.treePathToZnodePath(path);
+            if (!ZooInspectorManagerCache.isLoadingPath(znodePath)) {
+                visiblePaths.add(znodePath);
+            }
 //            if (tree.isExpanded(path)) {
 //                expandedNodes.add(path);
 //            }
@@ -253,7 +930,10 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
 //        System.out.println("selectedNodes: " + selectedPaths);
         try
         {
-          zooInspectorManager.getCache().refresh(visiblePaths, 0);
+          // a snapshot has no cache and nothing to refresh
+          if (zooInspectorManager.getCache() != null) {
+            zooInspectorManager.getCache().refresh(visiblePaths, 0);
+          }
         }
         catch (KeeperException e)
         {
@@ -278,7 +958,7 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
 
         for (String path : deletedNodes) {
           expandedNodes.remove(path);
-          zooInspectorManager.getCache().removePrefix(path);
+          zooInspectorManager.getCache().removeSubtree(path);
           String parent = new File(path).getParent();
           System.out.println("parent: " + parent);
           try
@@ -345,6 +1025,22 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
             setOpenIcon(ZooInspectorIconResources.getTreeOpenIcon());
             setClosedIcon(ZooInspectorIconResources.getTreeClosedIcon());
         }
+
+        @Override
+        public Component getTreeCellRendererComponent(JTree tree, Object value,
+                boolean sel, boolean expanded, boolean leaf, int row,
+                boolean hasFocus) {
+            super.getTreeCellRendererComponent(tree, value, sel, expanded,
+                    leaf, row, hasFocus);
+            if (value instanceof ZooInspectorTreeNode
+                    && ((ZooInspectorTreeNode) value).isLoading()) {
+                setText(ZooInspectorManagerCache
+                        .isLoadFailedPath(((ZooInspectorTreeNode) value).nodePath)
+                        ? "Failed to load" : "Loading...");
+                setIcon(null);
+            }
+            return this;
+        }
     }
 
     /**
@@ -369,6 +1065,14 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
             // System.out.println("init treeNode: " + nodePath + ", parent: " + parent);
         }
 
+        /**
+         * @return true if this is the placeholder shown while the children of
+         *         its parent are loaded in the background
+         */
+        boolean isLoading() {
+            return ZooInspectorManagerCache.isLoadingPath(this.nodePath);
+        }
+
         /*
          * (non-Javadoc)
          *
@@ -376,6 +1080,9 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
          */
         @Override
         public Enumeration<TreeNode> children() {
+            if (isLoading()) {
+                return Collections.enumeration(Collections.<TreeNode> emptyList());
+            }
             List<String> children = zooInspectorManager
                     .getChildren(this.nodePath);
 //            Collections.sort(children);
@@ -396,6 +1103,9 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
          */
         @Override
         public boolean getAllowsChildren() {
+            if (isLoading()) {
+                return false;
+            }
             return zooInspectorManager.isAllowsChildren(this.nodePath);
         }
 
@@ -424,6 +1134,9 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
          */
         @Override
         public int getChildCount() {
+            if (isLoading()) {
+                return 0;
+            }
             return zooInspectorManager.getNumChildren(this.nodePath);
         }
 
@@ -434,9 +1147,14 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
          */
         @Override
         public int getIndex(TreeNode node) {
-            int idx = zooInspectorManager.getNodeIndex(this.nodePath);
-            System.out.println("getIndex: " + node + ", idx: " + idx);
-            return idx;
+            if (!(node instanceof ZooInspectorTreeNode)) {
+                return -1;
+            }
+            if (((ZooInspectorTreeNode) node).isLoading()) {
+                return 0;
+            }
+            return zooInspectorManager
+                    .getNodeIndex(((ZooInspectorTreeNode) node).nodePath);
         }
 
         /*
@@ -456,6 +1174,9 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
          */
         @Override
         public boolean isLeaf() {
+            if (isLoading()) {
+                return true;
+            }
             return !zooInspectorManager.hasChildren(this.nodePath);
         }
 
@@ -523,7 +1244,9 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
                         sb.append(o.toString());
                     }
                 }
-                selectedNodes.add(sb.toString());
+                if (!ZooInspectorManagerCache.isLoadingPath(sb.toString())) {
+                    selectedNodes.add(sb.toString());
+                }
             }
         }
         return selectedNodes;
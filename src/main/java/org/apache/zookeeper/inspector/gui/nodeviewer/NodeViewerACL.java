@@ -34,6 +34,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.SwingWorker;
 
+import org.apache.zookeeper.inspector.ZooInspectorExecutors;
 import org.apache.zookeeper.inspector.logger.LoggerFactory;
 import org.apache.zookeeper.inspector.manager.ZooInspectorNodeManager;
 
@@ -169,7 +170,7 @@ public class NodeViewerACL extends ZooInspectorNodeViewer {
                     NodeViewerACL.this.aclDataPanel.repaint();
                 }
             };
-            worker.execute();
+            ZooInspectorExecutors.execute(worker);
         }
     }
 
@@ -39,6 +39,7 @@ import javax.swing.text.DefaultHighlighter.DefaultHighlightPainter;
 import javax.swing.text.DefaultStyledDocument;
 
 import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.inspector.ZooInspectorExecutors;
 import org.apache.zookeeper.inspector.gui.NodeDataViewerFindDialog;
 import org.apache.zookeeper.inspector.gui.ZooInspectorIconResources;
 import org.apache.zookeeper.inspector.logger.LoggerFactory;
@@ -258,7 +259,7 @@ public class NodeViewerData extends ZooInspectorNodeViewer {
 
         }
       };
-      worker.execute();
+      ZooInspectorExecutors.execute(worker);
     }
   }
 
@@ -34,6 +34,7 @@ import javax.swing.JTextField;
 import javax.swing.SwingWorker;
 
 import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.ZooInspectorExecutors;
 import org.apache.zookeeper.inspector.logger.LoggerFactory;
 import org.apache.zookeeper.inspector.manager.ZooInspectorNodeManager;
 
@@ -167,7 +168,7 @@ public class NodeViewerMetaData extends ZooInspectorNodeViewer {
                     NodeViewerMetaData.this.metaDataPanel.repaint();                    
                 }
             };
-            worker.execute();
+            ZooInspectorExecutors.execute(worker);
         }
     }
 
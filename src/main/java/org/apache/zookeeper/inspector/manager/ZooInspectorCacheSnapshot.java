@@ -0,0 +1,321 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache.Item;
+
+/**
+ * Saves the children cache of one ensemble to disk and loads it back, so a
+ * reconnect can paint the tree before anything is read from the server.
+ *
+ * <pre>
+ * file    := MAGIC VERSION connectString(str) lastZxid(long) count(int) entry*
+ * entry   := sharedPrefix(var) pathSuffix(str) stat(11 x var) numChilds(var) child(str)*
+ * str     := length(var) utf8-bytes
+ * var     := zigzag LEB128 encoded long
+ * </pre>
+ *
+ * Entries are written in path order and each path only stores what differs
+ * from the previous one.
+ */
+public class ZooInspectorCacheSnapshot
+{
+  private static final int MAGIC = 0x5a494353; // "ZICS"
+  private static final int VERSION = 1;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * System property to turn off saving and loading cache snapshots
+   */
+  public static final String SNAPSHOTS = "zooinspector.cache.snapshots";
+
+  private final File dir;
+
+  /**
+   * @param dir
+   *          - the directory holding one snapshot file per connect string
+   */
+  public ZooInspectorCacheSnapshot(File dir)
+  {
+    this.dir = dir;
+  }
+
+  /**
+   * @return false if snapshots were turned off with {@link #SNAPSHOTS}
+   */
+  public static boolean isEnabled()
+  {
+    return !"false".equalsIgnoreCase(System.getProperty(SNAPSHOTS));
+  }
+
+  File getFile(String connectString)
+  {
+    return new File(dir, fileName(connectString, ".snapshot"));
+  }
+
+  /**
+   * @param connectString
+   * @param suffix
+   * @return a file name for per ensemble state, connectString with every
+   *         character that is not safe in a file name replaced
+   */
+  static String fileName(String connectString, String suffix)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (char c : connectString.toCharArray())
+    {
+      sb.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' ? c : '_');
+    }
+    sb.append(suffix);
+    return sb.toString();
+  }
+
+  /**
+   * @param cache
+   * @param connectString
+   * @param lastZxid
+   *          - the last zxid seen by the session that filled the cache
+   * @throws IOException
+   */
+  public void save(ZooInspectorManagerCache cache, String connectString, long lastZxid)
+      throws IOException
+  {
+    if (!dir.exists() && !dir.mkdirs())
+    {
+      throw new IOException("Failed to create cache directory: " + dir.getAbsolutePath());
+    }
+    File file = getFile(connectString);
+    File tmp = new File(dir, file.getName() + ".tmp");
+
+    List<Map.Entry<String, Item>> entries =
+        new ArrayList<Map.Entry<String, Item>>(cache.cache.entrySet());
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+    try
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, connectString);
+      out.writeLong(lastZxid);
+      out.writeInt(entries.size());
+      String previous = "";
+      for (Map.Entry<String, Item> entry : entries)
+      {
+        String path = entry.getKey();
+        Item item = entry.getValue();
+        int shared = sharedPrefix(previous, path);
+        writeVar(out, shared);
+        writeString(out, path.substring(shared));
+        writeStat(out, item.zkStat == null ? new Stat() : item.zkStat);
+        writeVar(out, item.childs.length);
+        for (String child : item.childs)
+        {
+          writeString(out, child);
+        }
+        previous = path;
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+    if (file.exists() && !file.delete())
+    {
+      throw new IOException("Failed to replace cache snapshot: " + file.getAbsolutePath());
+    }
+    if (!tmp.renameTo(file))
+    {
+      throw new IOException("Failed to write cache snapshot: " + file.getAbsolutePath());
+    }
+  }
+
+  /**
+   * @param cache
+   *          - the cache to fill
+   * @param connectString
+   * @return the last zxid recorded in the snapshot, or -1 if there is no
+   *         usable snapshot for connectString
+   * @throws IOException
+   */
+  public long load(ZooInspectorManagerCache cache, String connectString) throws IOException
+  {
+    File file = getFile(connectString);
+    if (!file.exists())
+    {
+      return -1;
+    }
+
+    FileInputStream in = new FileInputStream(file);
+    try
+    {
+      FileChannel channel = in.getChannel();
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION)
+      {
+        return -1;
+      }
+      if (!connectString.equals(readString(buf)))
+      {
+        return -1;
+      }
+      long lastZxid = buf.getLong();
+      int count = buf.getInt();
+      String previous = "";
+      for (int i = 0; i < count; i++)
+      {
+        int shared = (int) readVar(buf);
+        String path = previous.substring(0, shared) + readString(buf);
+        Stat stat = readStat(buf);
+        String[] childs = new String[readLength(buf)];
+        for (int j = 0; j < childs.length; j++)
+        {
+          childs[j] = readString(buf);
+        }
+        cache.putItem(path, new Item(Arrays.asList(childs), stat));
+        previous = path;
+      }
+      return lastZxid;
+    }
+    catch (RuntimeException e)
+    {
+      // truncated or corrupt file, start from an empty cache
+      cache.clear();
+      throw new IOException("Invalid cache snapshot: " + file.getAbsolutePath(), e);
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * @param connectString
+   */
+  public void delete(String connectString)
+  {
+    File file = getFile(connectString);
+    if (file.exists())
+    {
+      file.delete();
+    }
+  }
+
+  static int sharedPrefix(String a, String b)
+  {
+    int n = Math.min(a.length(), b.length());
+    int i = 0;
+    while (i < n && a.charAt(i) == b.charAt(i))
+    {
+      i++;
+    }
+    // never split a surrogate pair
+    if (i > 0 && Character.isHighSurrogate(b.charAt(i - 1)))
+    {
+      i--;
+    }
+    return i;
+  }
+
+  static void writeStat(DataOutputStream out, Stat stat) throws IOException
+  {
+    writeVar(out, stat.getCzxid());
+    writeVar(out, stat.getMzxid());
+    writeVar(out, stat.getCtime());
+    writeVar(out, stat.getMtime());
+    writeVar(out, stat.getVersion());
+    writeVar(out, stat.getCversion());
+    writeVar(out, stat.getAversion());
+    writeVar(out, stat.getEphemeralOwner());
+    writeVar(out, stat.getDataLength());
+    writeVar(out, stat.getNumChildren());
+    writeVar(out, stat.getPzxid());
+  }
+
+  static Stat readStat(ByteBuffer buf)
+  {
+    return new Stat(readVar(buf),
+                    readVar(buf),
+                    readVar(buf),
+                    readVar(buf),
+                    (int) readVar(buf),
+                    (int) readVar(buf),
+                    (int) readVar(buf),
+                    readVar(buf),
+                    (int) readVar(buf),
+                    (int) readVar(buf),
+                    readVar(buf));
+  }
+
+  static void writeString(DataOutputStream out, String s) throws IOException
+  {
+    byte[] bytes = s.getBytes(UTF8);
+    writeVar(out, bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(ByteBuffer buf)
+  {
+    byte[] bytes = new byte[readLength(buf)];
+    buf.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * @param buf
+   * @return a count of items that each take at least one more byte of buf
+   * @throws BufferUnderflowException
+   *           - if the count is negative or larger than what is left, so a
+   *           corrupt count is never allocated
+   */
+  static int readLength(ByteBuffer buf)
+  {
+    long length = readVar(buf);
+    if (length < 0 || length > buf.remaining())
+    {
+      throw new BufferUnderflowException();
+    }
+    return (int) length;
+  }
+
+  static void writeVar(OutputStream out, long value) throws IOException
+  {
+    long v = (value << 1) ^ (value >> 63);
+    while ((v & ~0x7FL) != 0)
+    {
+      out.write((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.write((int) v);
+  }
+
+  static long readVar(ByteBuffer buf)
+  {
+    long v = 0;
+    int shift = 0;
+    byte b;
+    do
+    {
+      b = buf.get();
+      v |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    }
+    while ((b & 0x80) != 0);
+    return (v >>> 1) ^ -(v & 1);
+  }
+}
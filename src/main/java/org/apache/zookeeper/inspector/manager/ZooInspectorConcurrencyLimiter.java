@@ -0,0 +1,211 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.Arrays;
+
+import org.apache.zookeeper.inspector.manager.ZooInspectorPriority.Lane;
+
+/**
+ * AIMD limit on the number of outstanding requests. Completions are collected
+ * in windows of about one limit's worth of requests, i.e. one round trip. After
+ * each window the limit
+ * <ul>
+ * <li>shrinks by a quarter if the window saw an error or its p99 latency
+ * exceeded the target</li>
+ * <li>grows by one if callers had to wait for a slot</li>
+ * <li>stays the same otherwise</li>
+ * </ul>
+ * Latency is measured on the client, from issuing a request to its reply, so it
+ * includes the network and the server's queue but not what other clients see.
+ * <p>
+ * Waiting callers are served by {@link Lane}: a lane only gets a slot when no
+ * caller of a higher lane waits, so queued background work yields to
+ * interactive reads. {@link Lane#BACKGROUND} may also use at most three
+ * quarters of the limit, which keeps slots free for reads the user waits for
+ */
+public class ZooInspectorConcurrencyLimiter
+{
+  /**
+   * System property for the p99 latency (ms) batch reads aim to stay below
+   */
+  public static final String LATENCY_TARGET_MS = "zooinspector.fetch.latencyTargetMs";
+  /**
+   * System property for the lowest the limit may go
+   */
+  public static final String MIN_IN_FLIGHT = "zooinspector.fetch.minInFlight";
+  /**
+   * System property for the limit to start from
+   */
+  public static final String INITIAL_IN_FLIGHT = "zooinspector.fetch.initialInFlight";
+
+  private static final int MIN_WINDOW = 16;
+  private static final int MAX_WINDOW = 1024;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long targetNanos;
+
+  private int limit;
+  private int inFlight;
+  private final int[] waiting = new int[Lane.values().length];
+  private final long[] latencies = new long[MAX_WINDOW];
+  private int samples;
+  private int completions;
+  private boolean errors;
+  private boolean saturated;
+  private volatile long lastP99Nanos;
+
+  /**
+   * @param maxLimit
+   *          - the highest the limit may go
+   */
+  public ZooInspectorConcurrencyLimiter(int maxLimit)
+  {
+    this(Integer.getInteger(MIN_IN_FLIGHT, 1),
+        Integer.getInteger(INITIAL_IN_FLIGHT, Math.min(32, maxLimit)), maxLimit,
+        Long.getLong(LATENCY_TARGET_MS, 50));
+  }
+
+  ZooInspectorConcurrencyLimiter(int minLimit, int initialLimit, int maxLimit,
+      long targetMillis)
+  {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    this.targetNanos = targetMillis * 1000000L;
+  }
+
+  /**
+   * wait until fewer than limit requests are outstanding and take a slot
+   * @throws InterruptedException
+   */
+  public void acquire() throws InterruptedException
+  {
+    acquire(ZooInspectorPriority.current());
+  }
+
+  /**
+   * wait until fewer than limit requests are outstanding and no caller of a
+   * higher lane is waiting, then take a slot
+   * @param lane
+   * @throws InterruptedException
+   */
+  public synchronized void acquire(Lane lane) throws InterruptedException
+  {
+    if (!canRun(lane)) {
+      waiting[lane.ordinal()]++;
+      try {
+        do {
+          if (inFlight >= laneLimit(lane)) {
+            saturated = true;
+          }
+          wait();
+        } while (!canRun(lane));
+      } finally {
+        waiting[lane.ordinal()]--;
+      }
+    }
+    inFlight++;
+  }
+
+  private int laneLimit(Lane lane)
+  {
+    return lane == Lane.BACKGROUND ? Math.max(1, limit - limit / 4) : limit;
+  }
+
+  private boolean canRun(Lane lane)
+  {
+    if (inFlight >= laneLimit(lane)) {
+      return false;
+    }
+    for (int i = 0; i < lane.ordinal(); i++) {
+      if (waiting[i] > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * give a slot back
+   * @param latencyNanos
+   *          - how long the request took
+   * @param error
+   *          - true if the request failed for a reason other than the node not
+   *          existing
+   */
+  public synchronized void release(long latencyNanos, boolean error)
+  {
+    inFlight--;
+    completions++;
+    if (error) {
+      errors = true;
+    } else if (samples < latencies.length) {
+      latencies[samples++] = latencyNanos;
+    }
+    if (completions >= Math.min(MAX_WINDOW, Math.max(MIN_WINDOW, limit))) {
+      adjust();
+    }
+    notifyAll();
+  }
+
+  private void adjust()
+  {
+    long p99 = 0;
+    if (samples > 0) {
+      long[] sorted = Arrays.copyOf(latencies, samples);
+      Arrays.sort(sorted);
+      p99 = sorted[(int) Math.ceil(0.99 * samples) - 1];
+      lastP99Nanos = p99;
+    }
+    if (errors || p99 > targetNanos) {
+      limit = Math.max(minLimit, Math.min(limit - 1, limit * 3 / 4));
+    } else if (saturated) {
+      limit = Math.min(maxLimit, limit + 1);
+    }
+    samples = 0;
+    completions = 0;
+    errors = false;
+    saturated = false;
+  }
+
+  /**
+   * @return the current limit on outstanding requests
+   */
+  public synchronized int getLimit()
+  {
+    return limit;
+  }
+
+  /**
+   * @return the number of requests outstanding right now
+   */
+  public synchronized int getInFlight()
+  {
+    return inFlight;
+  }
+
+  /**
+   * @param lane
+   * @return the number of callers of lane waiting for a slot
+   */
+  public synchronized int getWaiting(Lane lane)
+  {
+    return waiting[lane.ordinal()];
+  }
+
+  /**
+   * @return the p99 latency of the last completed window in ms
+   */
+  public double getRecentP99Millis()
+  {
+    return lastP99Nanos / 1000000.0;
+  }
+
+  /**
+   * @return the p99 latency the limit is adjusted against in ms
+   */
+  public long getLatencyTargetMillis()
+  {
+    return targetNanos / 1000000L;
+  }
+}
@@ -0,0 +1,418 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.inspector.ZooInspectorExecutors;
+import org.apache.zookeeper.inspector.logger.LoggerFactory;
+import org.apache.zookeeper.inspector.manager.ZooInspectorExportFile.Entry;
+import org.apache.zookeeper.inspector.manager.ZooInspectorImport.Conflict;
+
+/**
+ * Copies a subtree to another path of the same ensemble or to another
+ * ensemble. A {@link ZooInspectorExport} walk reads the source session and a
+ * {@link ZooInspectorImport} writes to the target session, both pipelined,
+ * with a bounded buffer of {@link #BUFFER_NODES} nodes and at most
+ * {@link ZooInspectorExport#MAX_BUFFERED_BYTES} of data between them, so
+ * memory stays flat however large the subtree is.
+ * <p>
+ * A move then walks the source and the copy again, side by side, and deletes
+ * the source only if both hold the same nodes with the same data and ACLs.
+ * That also keeps a source that changed during the copy. Stats are not
+ * compared, they always differ.
+ * <p>
+ * Created and started by
+ * {@link ZooInspectorManagerImpl#copySubtree(String, ZooInspectorNodeTreeManager, String, Conflict, boolean)}
+ */
+public class ZooInspectorCopy implements Runnable
+{
+  /**
+   * System property for the most nodes read but not yet written
+   */
+  public static final String BUFFER_NODES = "zooinspector.copy.bufferNodes";
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Hands the nodes read from the source to the import, holding at most
+   * maxNodes of them and, past the first, at most maxBytes of data
+   */
+  private static class Buffer
+  {
+    private final String root;
+    private final int maxNodes;
+    private final long maxBytes;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+    private long bytes = 0;
+    private boolean closed = false;
+    private boolean aborted = false;
+
+    Buffer(String root, int maxNodes, long maxBytes)
+    {
+      this.root = root;
+      this.maxNodes = maxNodes;
+      this.maxBytes = maxBytes;
+    }
+
+    private static long size(Entry entry)
+    {
+      return entry.data == null ? 0 : entry.data.length;
+    }
+
+    synchronized void put(Entry entry) throws IOException
+    {
+      try {
+        while (!aborted && (entries.size() >= maxNodes
+            || (bytes >= maxBytes && !entries.isEmpty()))) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Copy interrupted");
+      }
+      if (aborted) {
+        throw new IOException("The target stopped taking nodes");
+      }
+      entries.add(entry);
+      bytes += size(entry);
+      notifyAll();
+    }
+
+    synchronized Entry take() throws IOException
+    {
+      try {
+        while (entries.isEmpty() && !closed && !aborted) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Copy interrupted");
+      }
+      if (entries.isEmpty()) {
+        if (aborted) {
+          throw new IOException("Reading the source failed");
+        }
+        return null;
+      }
+      Entry entry = entries.poll();
+      bytes -= size(entry);
+      notifyAll();
+      return entry;
+    }
+
+    synchronized void close(boolean abort)
+    {
+      closed = true;
+      aborted |= abort;
+      notifyAll();
+    }
+
+    final ZooInspectorExport.Output output = new ZooInspectorExport.Output()
+    {
+      @Override
+      public void add(Entry entry) throws IOException
+      {
+        put(entry);
+      }
+
+      @Override
+      public void close()
+      {
+        Buffer.this.close(false);
+      }
+
+      @Override
+      public void abort()
+      {
+        Buffer.this.close(true);
+      }
+
+      @Override
+      public long getOffset()
+      {
+        return 0;
+      }
+    };
+
+    final ZooInspectorImportSource input = new ZooInspectorImportSource()
+    {
+      @Override
+      public String getRoot()
+      {
+        return root;
+      }
+
+      @Override
+      public Entry next() throws IOException
+      {
+        return take();
+      }
+
+      @Override
+      public long skip(long count) throws IOException
+      {
+        long skipped = 0;
+        while (skipped < count && take() != null) {
+          skipped++;
+        }
+        return skipped;
+      }
+
+      @Override
+      public void close()
+      {
+        // stops the walk if the import ended early
+        Buffer.this.close(true);
+      }
+    };
+  }
+
+  /**
+   * Hashes the relative paths, data and ACLs of a walk
+   */
+  private static class Digest implements ZooInspectorExport.Output
+  {
+    private final String root;
+    private final MessageDigest digest;
+
+    Digest(String root) throws NoSuchAlgorithmException
+    {
+      this.root = root;
+      this.digest = MessageDigest.getInstance("SHA-1");
+    }
+
+    private void update(String s)
+    {
+      byte[] bytes = s.getBytes(UTF8);
+      update(bytes.length);
+      digest.update(bytes);
+    }
+
+    private void update(int n)
+    {
+      digest.update(new byte[] {(byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n});
+    }
+
+    @Override
+    public void add(Entry entry)
+    {
+      String relative = entry.path.equals(root) ? "" : root.equals("/") ? entry.path
+          : entry.path.substring(root.length());
+      update(relative);
+      if (entry.data == null) {
+        update(-1);
+      } else {
+        update(entry.data.length);
+        digest.update(entry.data);
+      }
+      update(entry.acl.size());
+      for (ACL acl : entry.acl) {
+        update(acl.getPerms());
+        update(acl.getId().getScheme());
+        update(acl.getId().getId());
+      }
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public void abort()
+    {
+    }
+
+    @Override
+    public long getOffset()
+    {
+      return 0;
+    }
+
+    byte[] get()
+    {
+      return digest.digest();
+    }
+  }
+
+  private final ZooKeeper source;
+  private final String sourcePath;
+  private final ZooKeeper target;
+  private final String targetPath;
+  private final Conflict conflict;
+  private final boolean move;
+  private final Buffer buffer;
+  private final ZooInspectorExport reader;
+  private final ZooInspectorImport writer;
+  private volatile ZooInspectorDeleter deleter = null;
+  // null until a move compared source and copy
+  private volatile Boolean verified = null;
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile boolean cancelled = false;
+
+  ZooInspectorCopy(ZooKeeper source, String sourcePath, ZooKeeper target, String targetPath,
+      Conflict conflict, boolean move)
+  {
+    this(source, sourcePath, target, targetPath, conflict, move,
+        Integer.getInteger(BUFFER_NODES, 1000),
+        Long.getLong(ZooInspectorExport.MAX_BUFFERED_BYTES, 16 * 1024 * 1024));
+  }
+
+  ZooInspectorCopy(ZooKeeper source, String sourcePath, ZooKeeper target, String targetPath,
+      Conflict conflict, boolean move, int bufferNodes, long bufferBytes)
+  {
+    this.source = source;
+    this.sourcePath = sourcePath;
+    this.target = target;
+    this.targetPath = targetPath;
+    this.conflict = conflict;
+    this.move = move;
+    this.buffer = new Buffer(sourcePath, bufferNodes, bufferBytes);
+    this.reader = new ZooInspectorExport(source, sourcePath, buffer.output);
+    this.writer = new ZooInspectorImport(target, buffer.input, targetPath, conflict, null, null);
+  }
+
+  @Override
+  public void run()
+  {
+    try {
+      ZooInspectorExecutors.start(reader, "ZooInspectorCopy");
+      writer.run();
+      reader.await(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      if (move && !cancelled && reader.isSuccessful() && writer.isSuccessful()) {
+        verified = verify();
+        if (verified && !cancelled) {
+          deleter = new ZooInspectorDeleter(source, Arrays.asList(sourcePath), false);
+          deleter.run();
+        }
+      }
+    } catch (InterruptedException e) {
+      cancel();
+    } catch (Exception e) {
+      LoggerFactory.getLogger().error("Error occurred copying " + sourcePath + " to "
+          + targetPath, e);
+    } finally {
+      done.countDown();
+    }
+  }
+
+  /**
+   * @return true if the source and the copy hold the same nodes with the
+   *         same data and ACLs
+   */
+  private boolean verify() throws NoSuchAlgorithmException, InterruptedException
+  {
+    Digest sourceDigest = new Digest(sourcePath);
+    Digest targetDigest = new Digest(targetPath);
+    ZooInspectorExport sourceWalk = new ZooInspectorExport(source, sourcePath, sourceDigest);
+    ZooInspectorExport targetWalk = new ZooInspectorExport(target, targetPath, targetDigest);
+    ZooInspectorExecutors.start(sourceWalk, "ZooInspectorCopy");
+    targetWalk.run();
+    sourceWalk.await(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    boolean same = sourceWalk.isSuccessful() && targetWalk.isSuccessful()
+        && sourceWalk.getNodes() == targetWalk.getNodes()
+        && Arrays.equals(sourceDigest.get(), targetDigest.get());
+    if (!same) {
+      LoggerFactory.getLogger().warn("Not deleting " + sourcePath + ": " + sourceWalk.getNodes()
+          + " nodes there and " + targetWalk.getNodes() + " below " + targetPath
+          + " differ");
+    }
+    return same;
+  }
+
+  /**
+   * stop reading and writing, and do not delete anything. Calls already sent
+   * still complete
+   */
+  public void cancel()
+  {
+    cancelled = true;
+    reader.cancel();
+    writer.cancel();
+    ZooInspectorDeleter running = deleter;
+    if (running != null) {
+      running.cancel();
+    }
+  }
+
+  public boolean isCancelled()
+  {
+    return cancelled;
+  }
+
+  public boolean isMove()
+  {
+    return move;
+  }
+
+  public boolean isDone()
+  {
+    return done.getCount() == 0;
+  }
+
+  /**
+   * @param timeout
+   * @param unit
+   * @return true if the copy is over
+   * @throws InterruptedException
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    return done.await(timeout, unit);
+  }
+
+  /**
+   * @return the walk reading the source
+   */
+  public ZooInspectorExport getReader()
+  {
+    return reader;
+  }
+
+  /**
+   * @return the import writing the target
+   */
+  public ZooInspectorImport getWriter()
+  {
+    return writer;
+  }
+
+  /**
+   * @return for a move, true if the copy matched the source, false if it did
+   *         not, or null if they were not compared
+   */
+  public Boolean isVerified()
+  {
+    return verified;
+  }
+
+  /**
+   * @return true if every node was copied, and for a move, the source deleted
+   */
+  public boolean isSuccessful()
+  {
+    ZooInspectorDeleter d = deleter;
+    return isDone() && !cancelled && reader.isSuccessful() && writer.isSuccessful()
+        && (!move || (d != null && d.isSuccessful()));
+  }
+
+  @Override
+  public String toString()
+  {
+    String moved = "";
+    if (move && isDone()) {
+      ZooInspectorDeleter d = deleter;
+      moved = d != null && d.isSuccessful() ? ", source deleted"
+          : Boolean.FALSE.equals(verified) ? ", copy differs from the source, source kept"
+          : ", source kept";
+    }
+    return writer + moved;
+  }
+}
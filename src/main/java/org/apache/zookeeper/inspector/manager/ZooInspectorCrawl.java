@@ -0,0 +1,337 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.inspector.logger.LoggerFactory;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache.Item;
+import org.apache.zookeeper.inspector.manager.ZooInspectorPriority.Lane;
+import org.apache.zookeeper.inspector.manager.ZooInspectorSingleFlight.Listener;
+
+/**
+ * A crawl of one or more subtrees into a {@link ZooInspectorManagerCache}.
+ * Nodes to read wait in a queue; each completed read stores its result in the
+ * cache and queues the children at once, so a slow or large parent only
+ * delays its own subtree. The crawl stops when it is cancelled, has read its
+ * budget of nodes or reaches its deadline. The cache listeners are told once,
+ * when it is over, so the tree is rebuilt a single time.
+ * <p>
+ * Created and started by
+ * {@link ZooInspectorManagerCache#crawl(List, int, long, long)}
+ */
+public class ZooInspectorCrawl implements Runnable
+{
+  /**
+   * System property for the most nodes a "Load Subtree" crawl reads
+   */
+  public static final String MAX_NODES = "zooinspector.crawl.maxNodes";
+  /**
+   * System property for the time (ms) a "Load Subtree" crawl may run
+   */
+  public static final String TIMEOUT_MS = "zooinspector.crawl.timeoutMs";
+
+  // how often the cache is brought back within its budget while crawling
+  static final long EVICT_INTERVAL_MS = 500;
+  // how long replies to reads already sent are waited for after a stop
+  static final long DRAIN_TIMEOUT_MS = 10000;
+
+  private static class Node
+  {
+    final String path;
+    final int depth;
+
+    Node(String path, int depth)
+    {
+      this.path = path;
+      this.depth = depth;
+    }
+  }
+
+  private final ZooInspectorManagerCache cache;
+  private final List<String> roots;
+  private final int maxDepth;
+  private final long maxNodes;
+  private final long deadline;
+  private final BlockingQueue<Node> queue = new LinkedBlockingQueue<Node>();
+  // nodes queued or being read, the crawl is over when it drops to 0
+  private final AtomicInteger pending = new AtomicInteger();
+  // bounds the reads in flight in the thread pool mode, where nothing else does
+  private final Semaphore outstanding =
+      new Semaphore(Integer.getInteger(ZooInspectorFetchEngine.MAX_IN_FLIGHT, 1000));
+  private final Set<String> changed =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile boolean cancelled = false;
+  // no more nodes are queued once set
+  private volatile boolean stopped = false;
+  private volatile String stopReason = null;
+
+  private final AtomicLong nodes = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final long startNanos = System.nanoTime();
+  private volatile long endNanos = 0;
+  private volatile Boolean consistent = null;
+
+  ZooInspectorCrawl(ZooInspectorManagerCache cache, List<String> roots, int maxDepth,
+      long maxNodes, long deadline)
+  {
+    this.cache = cache;
+    this.roots = new ArrayList<String>(roots);
+    this.maxDepth = maxDepth;
+    this.maxNodes = maxNodes;
+    this.deadline = deadline;
+  }
+
+  @Override
+  public void run()
+  {
+    // crawls yield to every read the user is waiting for
+    Lane previous = ZooInspectorPriority.set(Lane.BACKGROUND);
+    try {
+      ZooInspectorManagerImpl manager = cache.manager;
+      if (manager == null) {
+        return;
+      }
+      // reads without a watch may be spread over several ensemble members
+      Boolean before = manager.checkReadSessions();
+      for (String root : roots) {
+        enqueue(root, 0);
+      }
+      long issued = 0;
+      long nextEvict = System.currentTimeMillis() + EVICT_INTERVAL_MS;
+      while (true) {
+        if (cancelled) {
+          stop("cancelled");
+          break;
+        } else if (issued >= maxNodes) {
+          stop("node budget reached");
+          break;
+        } else if (System.currentTimeMillis() >= deadline) {
+          stop("deadline reached");
+          break;
+        }
+        Node node = queue.poll(50, TimeUnit.MILLISECONDS);
+        if (node != null) {
+          outstanding.acquire();
+          issued++;
+          read(manager, node);
+        } else if (pending.get() == 0) {
+          break;
+        }
+        if (System.currentTimeMillis() >= nextEvict) {
+          cache.evictIfNeeded();
+          nextEvict = System.currentTimeMillis() + EVICT_INTERVAL_MS;
+        }
+      }
+      // replies to reads already sent still go into the cache
+      pending.addAndGet(-queue.drainTo(new ArrayList<Node>()));
+      long drainUntil = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+      while (pending.get() > 0 && System.currentTimeMillis() < drainUntil) {
+        Thread.sleep(10);
+      }
+      if (before != null) {
+        consistent = before && manager.checkReadSessions();
+      }
+    } catch (InterruptedException e) {
+      cancelled = true;
+      stop("cancelled");
+    } catch (RuntimeException e) {
+      LoggerFactory.getLogger().error("Error occurred crawling " + roots, e);
+    } finally {
+      ZooInspectorPriority.set(previous);
+      endNanos = System.nanoTime();
+      publish();
+      done.countDown();
+    }
+  }
+
+  private void enqueue(String path, int depth)
+  {
+    Node node = new Node(path, depth);
+    pending.incrementAndGet();
+    queue.add(node);
+    // a stop between the caller's check and the add has drained the queue
+    // already: take the node back out, unless the drain got it after all
+    if (stopped && queue.remove(node)) {
+      pending.decrementAndGet();
+    }
+  }
+
+  private void stop(String reason)
+  {
+    stopReason = reason;
+    stopped = true;
+  }
+
+  private void read(ZooInspectorManagerImpl manager, final Node node)
+      throws InterruptedException
+  {
+    manager.getChildren(node.path, new Listener<Item>()
+    {
+      @Override
+      public void completed(Item item, Exception error)
+      {
+        outstanding.release();
+        try {
+          if (cache.store(node.path, item)) {
+            nodes.incrementAndGet();
+            bytes.addAndGet(responseBytes(item));
+            if (node.depth < maxDepth && !stopped) {
+              for (String child : item.childs) {
+                enqueue(ZooInspectorManagerCache.childPath(node.path, child), node.depth + 1);
+              }
+            }
+          } else if (item == null || !item.isNoNode()) {
+            failures.incrementAndGet();
+          }
+          changed.add(node.path);
+        } finally {
+          pending.decrementAndGet();
+        }
+      }
+    });
+  }
+
+  /**
+   * @return the approximate size of a getChildren reply on the wire: header,
+   *         {@link org.apache.zookeeper.data.Stat} and the child names
+   */
+  static long responseBytes(Item item)
+  {
+    long size = 16 + 68 + 4;
+    for (String child : item.childs) {
+      size += 4 + child.length();
+    }
+    return size;
+  }
+
+  private void publish()
+  {
+    if (changed.isEmpty()) {
+      return;
+    }
+    List<String> paths = new ArrayList<String>(changed);
+    changed.removeAll(paths);
+    cache.evictIfNeeded();
+    cache.fireCacheChanged(paths);
+  }
+
+  /**
+   * stop queueing reads. Reads already sent still complete into the cache
+   * before the crawl is over
+   */
+  public void cancel()
+  {
+    cancelled = true;
+  }
+
+  public boolean isCancelled()
+  {
+    return cancelled;
+  }
+
+  public boolean isDone()
+  {
+    return done.getCount() == 0;
+  }
+
+  /**
+   * @return why the crawl stopped before reading the whole subtree, or null
+   *         if it did not
+   */
+  public String getStopReason()
+  {
+    return stopReason;
+  }
+
+  /**
+   * @param timeout
+   * @param unit
+   * @return true if the crawl is over
+   * @throws InterruptedException
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    return done.await(timeout, unit);
+  }
+
+  /**
+   * @return the number of nodes read and cached so far
+   */
+  public long getNodes()
+  {
+    return nodes.get();
+  }
+
+  /**
+   * @return the approximate number of bytes received so far
+   */
+  public long getBytes()
+  {
+    return bytes.get();
+  }
+
+  /**
+   * @return the number of reads that failed for a reason other than the node
+   *         not existing
+   */
+  public long getFailures()
+  {
+    return failures.get();
+  }
+
+  /**
+   * @return the time the crawl has been running, or took
+   */
+  public long getElapsedMillis()
+  {
+    long end = endNanos != 0 ? endNanos : System.nanoTime();
+    return (end - startNanos) / 1000000L;
+  }
+
+  /**
+   * @return true if the read sessions were consistent with the main session
+   *         before and after the crawl, null if the crawl used only the main
+   *         session or did not finish
+   */
+  public Boolean isConsistent()
+  {
+    return consistent;
+  }
+
+  public double getNodesPerSecond()
+  {
+    return perSecond(nodes.get());
+  }
+
+  public double getBytesPerSecond()
+  {
+    return perSecond(bytes.get());
+  }
+
+  private double perSecond(long count)
+  {
+    long millis = Math.max(1, getElapsedMillis());
+    return count * 1000.0 / millis;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("%d nodes in %.1f s (%.0f nodes/s, %.0f KB/s)%s%s",
+        getNodes(), getElapsedMillis() / 1000.0, getNodesPerSecond(),
+        getBytesPerSecond() / 1024, stopReason != null ? ", " + stopReason : "",
+        Boolean.FALSE.equals(consistent) ? ", read sessions out of step" : "");
+  }
+}
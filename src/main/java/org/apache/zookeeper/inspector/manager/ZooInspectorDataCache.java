@@ -0,0 +1,244 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.Watcher.WatcherType;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * A byte-bounded LRU cache of node data. An entry is read together with a
+ * data watch and stays valid until that watch fires, or while a newer
+ * {@link Stat} of the node still shows the same modification. The data watch
+ * of an evicted entry is removed, so evictions do not leave watches behind on
+ * the server.
+ */
+public class ZooInspectorDataCache
+{
+  /**
+   * System property for the maximum size of the cached data in bytes
+   */
+  public static final String MAX_BYTES = "zooinspector.dataCache.maxBytes";
+
+  static class Entry
+  {
+    final byte[] data;
+    final Stat stat;
+    final long size;
+    // cleared once the data watch set when reading this entry fires
+    volatile boolean watched;
+
+    Entry(String path, byte[] data, Stat stat, boolean watched)
+    {
+      this.data = data;
+      this.stat = stat;
+      this.watched = watched;
+      this.size = 150 + 2 * path.length() + (data == null ? 0 : data.length);
+    }
+
+    boolean isSameVersion(Stat other)
+    {
+      return other != null
+          && stat.getCzxid() == other.getCzxid()
+          && stat.getMzxid() == other.getMzxid()
+          && stat.getVersion() == other.getVersion();
+    }
+  }
+
+  private final long maxBytes = Long.getLong(MAX_BYTES, 16L * 1024 * 1024);
+  private final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long numBytes = 0;
+  // number of watch events seen, to detect a watch firing during a read
+  private long invalidations = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private final Watcher dataWatcher = new DataWatcher();
+  private final ZooKeeper zooKeeper;
+
+  /**
+   * @param zooKeeper
+   *          - the session the data watches are set through, to remove them
+   *          again on eviction, or null to leave them
+   */
+  public ZooInspectorDataCache(ZooKeeper zooKeeper)
+  {
+    this.zooKeeper = zooKeeper;
+  }
+
+  /**
+   * @return the {@link Watcher} to pass to getData() when filling this cache
+   */
+  public Watcher getWatcher()
+  {
+    return dataWatcher;
+  }
+
+  /**
+   * @param nodePath
+   * @param freshStat
+   *          - a {@link Stat} of the node known to be current, or null
+   * @return the cached entry for nodePath if it is still valid, otherwise null
+   */
+  public synchronized Entry get(String nodePath, Stat freshStat)
+  {
+    Entry entry = entries.get(nodePath);
+    if (entry != null && (entry.watched || entry.isSameVersion(freshStat)))
+    {
+      hits++;
+      return entry;
+    }
+    misses++;
+    return null;
+  }
+
+  /**
+   * @return a token to pass to {@link #put(String, byte[], Stat, long)} for a
+   *         read with a data watch from {@link #getWatcher()} started now
+   */
+  public synchronized long startRead()
+  {
+    return invalidations;
+  }
+
+  /**
+   * @param nodePath
+   * @param data
+   * @param stat
+   *          - the {@link Stat} returned together with data
+   * @param readToken
+   *          - from {@link #startRead()} before the read, or -1 if no data
+   *          watch was set
+   */
+  public void put(String nodePath, byte[] data, Stat stat, long readToken)
+  {
+    List<String> evicted = new ArrayList<String>();
+    synchronized (this)
+    {
+      // if any watch fired meanwhile it may have been this one, so only trust
+      // the watch when nothing was invalidated during the read
+      boolean watched = readToken >= 0 && readToken == invalidations;
+      Entry entry = new Entry(nodePath, data, stat, watched);
+      if (entry.size > maxBytes)
+      {
+        remove(nodePath);
+        if (watched)
+        {
+          evicted.add(nodePath);
+        }
+      }
+      else
+      {
+        Entry old = entries.put(nodePath, entry);
+        numBytes += entry.size - (old == null ? 0 : old.size);
+
+        Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+        while (numBytes > maxBytes && iter.hasNext())
+        {
+          Map.Entry<String, Entry> eldest = iter.next();
+          iter.remove();
+          numBytes -= eldest.getValue().size;
+          if (eldest.getValue().watched)
+          {
+            evicted.add(eldest.getKey());
+          }
+        }
+      }
+    }
+    for (String path : evicted)
+    {
+      removeWatch(path);
+    }
+  }
+
+  private void removeWatch(String nodePath)
+  {
+    if (zooKeeper == null)
+    {
+      return;
+    }
+    // local: drop it on the client even when the server cannot be reached;
+    // NOWATCHER just means it fired meanwhile
+    zooKeeper.removeWatches(nodePath, dataWatcher, WatcherType.Data, true,
+        new VoidCallback()
+        {
+          @Override
+          public void processResult(int rc, String path, Object ctx)
+          {
+          }
+        }, null);
+  }
+
+  /**
+   * @param nodePath
+   */
+  public synchronized void remove(String nodePath)
+  {
+    Entry old = entries.remove(nodePath);
+    if (old != null)
+    {
+      numBytes -= old.size;
+    }
+  }
+
+  public synchronized void clear()
+  {
+    // like any other invalidation, a read in flight must not trust its watch
+    invalidations++;
+    entries.clear();
+    numBytes = 0;
+  }
+
+  public synchronized long getEstimatedBytes()
+  {
+    return numBytes;
+  }
+
+  public synchronized long getHits()
+  {
+    return hits;
+  }
+
+  public synchronized long getMisses()
+  {
+    return misses;
+  }
+
+  /**
+   * Drops the entry of a node once its data changes or it is deleted
+   */
+  private class DataWatcher implements Watcher
+  {
+    @Override
+    public void process(WatchedEvent event)
+    {
+      if (event.getPath() == null)
+      {
+        if (event.getState() == KeeperState.Expired)
+        {
+          clear();
+        }
+        return;
+      }
+      if (event.getType() == EventType.NodeDataChanged
+          || event.getType() == EventType.NodeDeleted
+          || event.getType() == EventType.NodeCreated)
+      {
+        synchronized (ZooInspectorDataCache.this)
+        {
+          invalidations++;
+          remove(event.getPath());
+        }
+      }
+    }
+  }
+}
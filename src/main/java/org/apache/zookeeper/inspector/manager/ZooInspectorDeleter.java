@@ -0,0 +1,300 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.logger.LoggerFactory;
+
+/**
+ * Deletes whole subtrees leaves first with pipelined asynchronous calls.
+ * Listing and deleting overlap: every node is listed as soon as its parent's
+ * children are known, a node without children is deleted right away, and a
+ * parent is deleted once its last listed child is gone. A parent that gained
+ * children in the meantime fails with NOTEMPTY and is listed again.
+ * <p>
+ * Everything goes through the main session, which sees its own deletes, and
+ * the number of calls in flight is bounded by
+ * {@link ZooInspectorFetchEngine#MAX_IN_FLIGHT}. A dry run only lists, to
+ * count the nodes a delete would remove.
+ * <p>
+ * Created and started by
+ * {@link ZooInspectorManagerImpl#deleteSubtrees(List, boolean)}
+ */
+public class ZooInspectorDeleter implements Runnable
+{
+  // how long replies to calls already sent are waited for after a cancel
+  static final long DRAIN_TIMEOUT_MS = 10000;
+
+  private static class Op
+  {
+    final String path;
+    final boolean delete;
+
+    Op(String path, boolean delete)
+    {
+      this.path = path;
+      this.delete = delete;
+    }
+  }
+
+  private final ZooKeeper zooKeeper;
+  private final List<String> roots;
+  private final boolean dryRun;
+  private final BlockingQueue<Op> queue = new LinkedBlockingQueue<Op>();
+  // calls queued or in flight, the delete is over when it drops to 0
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Semaphore outstanding =
+      new Semaphore(Integer.getInteger(ZooInspectorFetchEngine.MAX_IN_FLIGHT, 1000));
+  // children of each listed node that are not deleted yet
+  private final Map<String, AtomicInteger> remaining =
+      new ConcurrentHashMap<String, AtomicInteger>();
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile boolean cancelled = false;
+
+  private final AtomicLong listed = new AtomicLong();
+  private final AtomicLong deleted = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final long startNanos = System.nanoTime();
+  private volatile long endNanos = 0;
+
+  ZooInspectorDeleter(ZooKeeper zooKeeper, List<String> roots, boolean dryRun)
+  {
+    this.zooKeeper = zooKeeper;
+    this.roots = new ArrayList<String>(roots);
+    this.dryRun = dryRun;
+  }
+
+  @Override
+  public void run()
+  {
+    try {
+      for (String root : roots) {
+        submit(root, false);
+      }
+      while (!cancelled) {
+        Op op = queue.poll(50, TimeUnit.MILLISECONDS);
+        if (op != null) {
+          outstanding.acquire();
+          if (op.delete) {
+            delete(op.path);
+          } else {
+            list(op.path);
+          }
+        } else if (pending.get() == 0) {
+          break;
+        }
+      }
+      pending.addAndGet(-queue.drainTo(new ArrayList<Op>()));
+      long drainUntil = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+      while (pending.get() > 0 && System.currentTimeMillis() < drainUntil) {
+        Thread.sleep(10);
+      }
+    } catch (InterruptedException e) {
+      cancelled = true;
+    } catch (RuntimeException e) {
+      LoggerFactory.getLogger().error("Error occurred deleting " + roots, e);
+      failures.incrementAndGet();
+    } finally {
+      endNanos = System.nanoTime();
+      done.countDown();
+    }
+  }
+
+  private void submit(String path, boolean delete)
+  {
+    if (cancelled) {
+      return;
+    }
+    pending.incrementAndGet();
+    queue.add(new Op(path, delete));
+  }
+
+  private void list(final String path)
+  {
+    zooKeeper.getChildren(path, false, new Children2Callback()
+    {
+      @Override
+      public void processResult(int rc, String p, Object ctx, List<String> children,
+          Stat stat)
+      {
+        outstanding.release();
+        try {
+          if (rc == Code.OK.intValue()) {
+            listed.incrementAndGet();
+            if (children.isEmpty()) {
+              if (!dryRun) {
+                submit(path, true);
+              }
+            } else {
+              remaining.put(path, new AtomicInteger(children.size()));
+              for (String child : children) {
+                submit(ZooInspectorManagerCache.childPath(path, child), false);
+              }
+            }
+          } else if (rc == Code.NONODE.intValue()) {
+            // deleted by someone else
+            gone(path);
+          } else {
+            fail(path, rc);
+          }
+        } finally {
+          pending.decrementAndGet();
+        }
+      }
+    }, null);
+  }
+
+  private void delete(final String path)
+  {
+    zooKeeper.delete(path, -1, new VoidCallback()
+    {
+      @Override
+      public void processResult(int rc, String p, Object ctx)
+      {
+        outstanding.release();
+        try {
+          if (rc == Code.OK.intValue()) {
+            deleted.incrementAndGet();
+            gone(path);
+          } else if (rc == Code.NONODE.intValue()) {
+            gone(path);
+          } else if (rc == Code.NOTEMPTY.intValue()) {
+            // children were added since it was listed
+            submit(path, false);
+          } else {
+            fail(path, rc);
+          }
+        } finally {
+          pending.decrementAndGet();
+        }
+      }
+    }, null);
+  }
+
+  /**
+   * path no longer exists: delete its parent if that was waiting for it
+   */
+  private void gone(String path)
+  {
+    if (dryRun) {
+      return;
+    }
+    remaining.remove(path);
+    String parent = ZooInspectorManagerCache.parentPath(path);
+    AtomicInteger left = parent == null ? null : remaining.get(parent);
+    if (left != null && left.decrementAndGet() == 0) {
+      submit(parent, true);
+    }
+  }
+
+  private void fail(String path, int rc)
+  {
+    // the ancestors of path stay as well
+    failures.incrementAndGet();
+    LoggerFactory.getLogger().error("Error occurred deleting node: " + path,
+        KeeperException.create(Code.get(rc), path));
+  }
+
+  /**
+   * stop sending calls. Calls already sent still complete
+   */
+  public void cancel()
+  {
+    cancelled = true;
+  }
+
+  public boolean isCancelled()
+  {
+    return cancelled;
+  }
+
+  public boolean isDryRun()
+  {
+    return dryRun;
+  }
+
+  public boolean isDone()
+  {
+    return done.getCount() == 0;
+  }
+
+  /**
+   * @param timeout
+   * @param unit
+   * @return true if the delete is over
+   * @throws InterruptedException
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    return done.await(timeout, unit);
+  }
+
+  /**
+   * @return the number of nodes found so far, for a dry run the number of
+   *         nodes a delete would remove
+   */
+  public long getListed()
+  {
+    return listed.get();
+  }
+
+  /**
+   * @return the number of nodes deleted so far
+   */
+  public long getDeleted()
+  {
+    return deleted.get();
+  }
+
+  /**
+   * @return the number of calls that failed, each leaving its node and the
+   *         node's ancestors in place
+   */
+  public long getFailures()
+  {
+    return failures.get();
+  }
+
+  /**
+   * @return true if the delete ran to the end without a failure
+   */
+  public boolean isSuccessful()
+  {
+    return isDone() && !cancelled && failures.get() == 0;
+  }
+
+  /**
+   * @return the time the delete has been running, or took
+   */
+  public long getElapsedMillis()
+  {
+    long end = endNanos != 0 ? endNanos : System.nanoTime();
+    return (end - startNanos) / 1000000L;
+  }
+
+  @Override
+  public String toString()
+  {
+    double seconds = Math.max(1, getElapsedMillis()) / 1000.0;
+    long count = dryRun ? getListed() : getDeleted();
+    return String.format("%s %d nodes in %.1f s (%.0f nodes/s)%s%s",
+        dryRun ? "found" : "deleted", count, seconds, count / seconds,
+        failures.get() > 0 ? ", " + failures.get() + " failed" : "",
+        cancelled ? ", cancelled" : "");
+  }
+}
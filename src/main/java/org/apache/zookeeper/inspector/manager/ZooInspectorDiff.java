@@ -0,0 +1,580 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.logger.LoggerFactory;
+
+/**
+ * Compares two subtrees, on one ensemble or on two, and lists the nodes only
+ * one of them has and the nodes whose data differs. Both sides are walked in
+ * step with pipelined asynchronous calls: a node is read on both sides at
+ * once, its children are listed only if one side has any, and only children
+ * both sides have are compared further. A subtree only one side has is
+ * reported by its root and not read.
+ * <p>
+ * ZooKeeper keeps no hash of a node or a subtree, and zxids and versions
+ * differ between ensembles even when the data is the same, so nothing short
+ * of reading every node shows two subtrees are equal. Comparing data and
+ * child lists as they arrive needs no more reads than hashing would.
+ * <p>
+ * The calls in flight are bounded by
+ * {@link ZooInspectorFetchEngine#MAX_IN_FLIGHT} on each side and the
+ * differences kept by {@link #MAX_DIFFERENCES}, further differences are only
+ * counted. /zookeeper is not compared.
+ * <p>
+ * Created and started by
+ * {@link ZooInspectorManagerImpl#diffSubtree(String, ZooInspectorReadOnlyManager, String)}
+ */
+public class ZooInspectorDiff implements Runnable
+{
+  /**
+   * System property for the most differences kept
+   */
+  public static final String MAX_DIFFERENCES = "zooinspector.diff.maxDifferences";
+
+  // how long replies to calls already sent are waited for after a cancel
+  static final long DRAIN_TIMEOUT_MS = 10000;
+
+  // text diffs compare at most this many pairs of lines
+  private static final int MAX_DIFF_CELLS = 4 * 1024 * 1024;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  public enum Kind
+  {
+    /** only the right side has the node, and what is below it */
+    ADDED,
+    /** only the left side has the node, and what is below it */
+    REMOVED,
+    /** the node has different data on the two sides */
+    CHANGED
+  }
+
+  /**
+   * A node only one side has or whose data differs
+   */
+  public static class Difference
+  {
+    public final Kind kind;
+    public final String leftPath;
+    public final String rightPath;
+    // null if the side lacks the node or the node has no data
+    public final byte[] leftData;
+    public final byte[] rightData;
+    // of the side that has the node, for an added or removed one
+    public final int numChildren;
+
+    Difference(Kind kind, String leftPath, String rightPath, byte[] leftData,
+        byte[] rightData, int numChildren)
+    {
+      this.kind = kind;
+      this.leftPath = leftPath;
+      this.rightPath = rightPath;
+      this.leftData = leftData;
+      this.rightData = rightData;
+      this.numChildren = numChildren;
+    }
+
+    /**
+     * @return the lines of data only the left side has, prefixed by "- ",
+     *         and only the right side has, prefixed by "+ ", with the lines
+     *         both have prefixed by two spaces. Data that is not UTF-8 text
+     *         is described by its length and the first byte that differs
+     */
+    public String getDataDiff()
+    {
+      String left = text(leftData);
+      String right = text(rightData);
+      if (left == null || right == null) {
+        return binaryDiff(leftData, rightData);
+      }
+      return textDiff(left, right);
+    }
+
+    @Override
+    public String toString()
+    {
+      switch (kind) {
+        case ADDED:
+          return "+ " + rightPath + (numChildren > 0 ? " (and " + numChildren
+              + " children)" : "");
+        case REMOVED:
+          return "- " + leftPath + (numChildren > 0 ? " (and " + numChildren
+              + " children)" : "");
+        default:
+          return "~ " + leftPath + (leftPath.equals(rightPath) ? "" : " / " + rightPath);
+      }
+    }
+  }
+
+  /**
+   * @return data as text, "" for none, or null if it is not UTF-8
+   */
+  static String text(byte[] data)
+  {
+    if (data == null) {
+      return "";
+    }
+    try {
+      return UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+          .onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(data))
+          .toString();
+    } catch (CharacterCodingException e) {
+      return null;
+    }
+  }
+
+  static String binaryDiff(byte[] left, byte[] right)
+  {
+    int leftLength = left == null ? 0 : left.length;
+    int rightLength = right == null ? 0 : right.length;
+    int first = 0;
+    while (first < leftLength && first < rightLength && left[first] == right[first]) {
+      first++;
+    }
+    return "binary data, " + leftLength + " bytes -> " + rightLength
+        + " bytes, first difference at byte " + first;
+  }
+
+  /**
+   * a line diff by longest common subsequence, after the lines both ends
+   * share. Too many remaining lines are listed as removed and added
+   */
+  static String textDiff(String left, String right)
+  {
+    List<String> a = Arrays.asList(left.split("\n", -1));
+    List<String> b = Arrays.asList(right.split("\n", -1));
+    int start = 0;
+    while (start < a.size() && start < b.size() && a.get(start).equals(b.get(start))) {
+      start++;
+    }
+    int endA = a.size();
+    int endB = b.size();
+    while (endA > start && endB > start && a.get(endA - 1).equals(b.get(endB - 1))) {
+      endA--;
+      endB--;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < start; i++) {
+      sb.append("  ").append(a.get(i)).append('\n');
+    }
+    int n = endA - start;
+    int m = endB - start;
+    if ((long) n * m > MAX_DIFF_CELLS) {
+      for (int i = start; i < endA; i++) {
+        sb.append("- ").append(a.get(i)).append('\n');
+      }
+      for (int j = start; j < endB; j++) {
+        sb.append("+ ").append(b.get(j)).append('\n');
+      }
+    } else {
+      // common[i][j]: longest common subsequence of a[start + i..] and b[start + j..]
+      int[][] common = new int[n + 1][m + 1];
+      for (int i = n - 1; i >= 0; i--) {
+        for (int j = m - 1; j >= 0; j--) {
+          common[i][j] = a.get(start + i).equals(b.get(start + j)) ? common[i + 1][j + 1] + 1
+              : Math.max(common[i + 1][j], common[i][j + 1]);
+        }
+      }
+      int i = 0;
+      int j = 0;
+      while (i < n || j < m) {
+        if (i < n && j < m && a.get(start + i).equals(b.get(start + j))) {
+          sb.append("  ").append(a.get(start + i)).append('\n');
+          i++;
+          j++;
+        } else if (j == m || (i < n && common[i + 1][j] >= common[i][j + 1])) {
+          sb.append("- ").append(a.get(start + i)).append('\n');
+          i++;
+        } else {
+          sb.append("+ ").append(b.get(start + j)).append('\n');
+          j++;
+        }
+      }
+    }
+    for (int i = endA; i < a.size(); i++) {
+      sb.append("  ").append(a.get(i)).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * One side of a node being compared
+   */
+  private static class Side
+  {
+    final String path;
+    int rc = Code.OK.intValue();
+    byte[] data;
+    Stat stat;
+    List<String> children = Collections.emptyList();
+
+    Side(String path)
+    {
+      this.path = path;
+    }
+  }
+
+  /**
+   * A node read on both sides, compared once both replies arrived. A side
+   * whose parent did not list the node is not read
+   */
+  private static class Pair
+  {
+    final Side left;
+    final Side right;
+    final boolean onLeft;
+    final boolean onRight;
+    final AtomicInteger unread = new AtomicInteger(2);
+
+    Pair(String leftPath, String rightPath, boolean onLeft, boolean onRight)
+    {
+      left = new Side(leftPath);
+      right = new Side(rightPath);
+      this.onLeft = onLeft;
+      this.onRight = onRight;
+    }
+  }
+
+  private final ZooKeeper leftZk;
+  private final String leftRoot;
+  private final ZooKeeper rightZk;
+  private final String rightRoot;
+  private final int maxDifferences;
+  private final BlockingQueue<Pair> queue = new LinkedBlockingQueue<Pair>();
+  // pairs queued or being read, the diff is over when it drops to 0
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Semaphore outstanding;
+  private final List<Difference> differences = new ArrayList<Difference>();
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile boolean cancelled = false;
+
+  private final AtomicLong compared = new AtomicLong();
+  private final AtomicLong added = new AtomicLong();
+  private final AtomicLong removed = new AtomicLong();
+  private final AtomicLong changed = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final long startNanos = System.nanoTime();
+  private volatile long endNanos = 0;
+
+  ZooInspectorDiff(ZooKeeper leftZk, String leftRoot, ZooKeeper rightZk, String rightRoot)
+  {
+    this(leftZk, leftRoot, rightZk, rightRoot, Integer.getInteger(MAX_DIFFERENCES, 1000),
+        Integer.getInteger(ZooInspectorFetchEngine.MAX_IN_FLIGHT, 1000));
+  }
+
+  ZooInspectorDiff(ZooKeeper leftZk, String leftRoot, ZooKeeper rightZk, String rightRoot,
+      int maxDifferences, int maxInFlight)
+  {
+    this.leftZk = leftZk;
+    this.leftRoot = leftRoot;
+    this.rightZk = rightZk;
+    this.rightRoot = rightRoot;
+    this.maxDifferences = maxDifferences;
+    // each pair holds one call on each side
+    this.outstanding = new Semaphore(maxInFlight);
+  }
+
+  @Override
+  public void run()
+  {
+    try {
+      submit(new Pair(leftRoot, rightRoot, true, true));
+      while (!cancelled) {
+        Pair pair = queue.poll(50, TimeUnit.MILLISECONDS);
+        if (pair != null) {
+          outstanding.acquire();
+          read(pair, leftZk, pair.left, pair.onLeft);
+          read(pair, rightZk, pair.right, pair.onRight);
+        } else if (pending.get() == 0) {
+          break;
+        }
+      }
+      pending.addAndGet(-queue.drainTo(new ArrayList<Pair>()));
+      long drainUntil = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+      while (pending.get() > 0 && System.currentTimeMillis() < drainUntil) {
+        Thread.sleep(10);
+      }
+    } catch (InterruptedException e) {
+      cancelled = true;
+    } catch (RuntimeException e) {
+      LoggerFactory.getLogger().error("Error occurred comparing " + leftRoot + " and "
+          + rightRoot, e);
+      failures.incrementAndGet();
+    } finally {
+      endNanos = System.nanoTime();
+      done.countDown();
+    }
+  }
+
+  private void submit(Pair pair)
+  {
+    if (cancelled) {
+      return;
+    }
+    pending.incrementAndGet();
+    queue.add(pair);
+  }
+
+  /**
+   * read the data of one side, then its children if it has any and the
+   * other side has the node too
+   */
+  private void read(final Pair pair, final ZooKeeper zk, final Side side, boolean listed)
+  {
+    if (!listed) {
+      side.rc = Code.NONODE.intValue();
+      arrived(pair);
+      return;
+    }
+    zk.getData(side.path, false, new DataCallback()
+    {
+      @Override
+      public void processResult(int rc, String p, Object ctx, byte[] data, Stat stat)
+      {
+        side.rc = rc;
+        side.data = data;
+        side.stat = stat;
+        if (rc != Code.OK.intValue() || stat.getNumChildren() == 0
+            || !(pair.onLeft && pair.onRight)) {
+          arrived(pair);
+          return;
+        }
+        zk.getChildren(side.path, false, new Children2Callback()
+        {
+          @Override
+          public void processResult(int rc, String p, Object ctx, List<String> children,
+              Stat stat)
+          {
+            if (rc == Code.OK.intValue()) {
+              side.children = children;
+            } else if (rc != Code.NONODE.intValue()) {
+              side.rc = rc;
+            }
+            // a node deleted in between is compared by its data alone
+            arrived(pair);
+          }
+        }, null);
+      }
+    }, null);
+  }
+
+  private void arrived(Pair pair)
+  {
+    if (pair.unread.decrementAndGet() > 0) {
+      return;
+    }
+    outstanding.release();
+    try {
+      compare(pair);
+    } catch (RuntimeException e) {
+      LoggerFactory.getLogger().error("Error occurred comparing " + pair.left.path, e);
+      failures.incrementAndGet();
+    } finally {
+      pending.decrementAndGet();
+    }
+  }
+
+  private void compare(Pair pair)
+  {
+    Side left = pair.left;
+    Side right = pair.right;
+    boolean leftExists = left.rc == Code.OK.intValue();
+    boolean rightExists = right.rc == Code.OK.intValue();
+    if ((!leftExists && left.rc != Code.NONODE.intValue())
+        || (!rightExists && right.rc != Code.NONODE.intValue())) {
+      Side failed = leftExists || left.rc == Code.NONODE.intValue() ? right : left;
+      failures.incrementAndGet();
+      LoggerFactory.getLogger().error("Error occurred comparing node: " + failed.path,
+          KeeperException.create(Code.get(failed.rc), failed.path));
+      return;
+    }
+    if (!leftExists && !rightExists) {
+      // gone from both since their parents were listed
+      return;
+    }
+    compared.incrementAndGet();
+    if (!leftExists) {
+      added.incrementAndGet();
+      add(new Difference(Kind.ADDED, left.path, right.path, null, right.data,
+          right.stat.getNumChildren()));
+      return;
+    }
+    if (!rightExists) {
+      removed.incrementAndGet();
+      add(new Difference(Kind.REMOVED, left.path, right.path, left.data, null,
+          left.stat.getNumChildren()));
+      return;
+    }
+    if (!Arrays.equals(left.data == null ? new byte[0] : left.data,
+        right.data == null ? new byte[0] : right.data)) {
+      changed.incrementAndGet();
+      add(new Difference(Kind.CHANGED, left.path, right.path, left.data, right.data, 0));
+    }
+    Set<String> leftNames = new HashSet<String>(left.children);
+    Set<String> rightNames = new HashSet<String>(right.children);
+    Set<String> names = new HashSet<String>(leftNames);
+    names.addAll(rightNames);
+    List<String> sorted = new ArrayList<String>(names);
+    Collections.sort(sorted);
+    for (String child : sorted) {
+      String leftChild = ZooInspectorManagerCache.childPath(left.path, child);
+      String rightChild = ZooInspectorManagerCache.childPath(right.path, child);
+      if (leftChild.equals("/zookeeper") || rightChild.equals("/zookeeper")) {
+        continue;
+      }
+      submit(new Pair(leftChild, rightChild, leftNames.contains(child),
+          rightNames.contains(child)));
+    }
+  }
+
+  private void add(Difference difference)
+  {
+    synchronized (differences) {
+      if (differences.size() < maxDifferences) {
+        differences.add(difference);
+      }
+    }
+  }
+
+  /**
+   * stop sending calls. Calls already sent still complete
+   */
+  public void cancel()
+  {
+    cancelled = true;
+  }
+
+  public boolean isCancelled()
+  {
+    return cancelled;
+  }
+
+  public boolean isDone()
+  {
+    return done.getCount() == 0;
+  }
+
+  /**
+   * @param timeout
+   * @param unit
+   * @return true if the diff is over
+   * @throws InterruptedException
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    return done.await(timeout, unit);
+  }
+
+  /**
+   * @return the differences found so far, sorted by path, at most
+   *         {@link #MAX_DIFFERENCES}
+   */
+  public List<Difference> getDifferences()
+  {
+    List<Difference> sorted;
+    synchronized (differences) {
+      sorted = new ArrayList<Difference>(differences);
+    }
+    Collections.sort(sorted, new Comparator<Difference>()
+    {
+      @Override
+      public int compare(Difference d1, Difference d2)
+      {
+        return ZooInspectorExportFile.PATH_ORDER.compare(d1.leftPath, d2.leftPath);
+      }
+    });
+    return sorted;
+  }
+
+  /**
+   * @return the number of nodes at least one side has, compared so far
+   */
+  public long getCompared()
+  {
+    return compared.get();
+  }
+
+  public long getAdded()
+  {
+    return added.get();
+  }
+
+  public long getRemoved()
+  {
+    return removed.get();
+  }
+
+  public long getChanged()
+  {
+    return changed.get();
+  }
+
+  /**
+   * @return the number of nodes that could not be read, and were not
+   *         compared with what is below them
+   */
+  public long getFailures()
+  {
+    return failures.get();
+  }
+
+  /**
+   * @return true if the diff ran to the end without a failure
+   */
+  public boolean isCompleted()
+  {
+    return isDone() && !cancelled && failures.get() == 0;
+  }
+
+  /**
+   * @return true if the diff ran to the end and found no difference
+   */
+  public boolean isSame()
+  {
+    return isCompleted() && added.get() == 0 && removed.get() == 0 && changed.get() == 0;
+  }
+
+  /**
+   * @return the time the diff has been running, or took
+   */
+  public long getElapsedMillis()
+  {
+    long end = endNanos != 0 ? endNanos : System.nanoTime();
+    return (end - startNanos) / 1000000L;
+  }
+
+  @Override
+  public String toString()
+  {
+    double seconds = Math.max(1, getElapsedMillis()) / 1000.0;
+    long count = compared.get();
+    return String.format("compared %d nodes in %.1f s (%.0f nodes/s): %d added, %d removed,"
+        + " %d changed%s%s", count, seconds, count / seconds, added.get(), removed.get(),
+        changed.get(), failures.get() > 0 ? ", " + failures.get() + " failed" : "",
+        cancelled ? ", cancelled" : "");
+  }
+}
@@ -0,0 +1,470 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.AsyncCallback.ACLCallback;
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.logger.LoggerFactory;
+import org.apache.zookeeper.inspector.manager.ZooInspectorExportFile.Entry;
+
+/**
+ * Exports the data, {@link Stat} and ACL of every node of a subtree to a
+ * {@link ZooInspectorExportFile}. The tree is walked depth first with the
+ * children of each node in name order, and every node is written as soon as
+ * it and the nodes before it are read, so the file grows while the walk goes
+ * on.
+ * <p>
+ * Reads are asynchronous and run ahead of the walk: the next siblings of the
+ * node being written, and the first children of every node read, are requested
+ * while earlier nodes are still outstanding. Nodes read ahead but not yet
+ * written are bounded by {@link ZooInspectorFetchEngine#MAX_IN_FLIGHT} and by
+ * {@link #MAX_BUFFERED_BYTES} of data, so memory does not grow with the size
+ * of the tree, only with the child names of the nodes on the current path.
+ * <p>
+ * Everything is read through the main session. Like a ZooKeeper snapshot the
+ * export is fuzzy: nodes changed during the export may be seen before or after
+ * the change. Created and started by
+ * {@link ZooInspectorManagerImpl#exportSubtree(String, File)}
+ */
+public class ZooInspectorExport implements Runnable
+{
+  /**
+   * System property for the uncompressed size (bytes) of a block in the
+   * export file
+   */
+  public static final String BLOCK_BYTES = "zooinspector.export.blockBytes";
+  /**
+   * System property for the most node data (bytes) read ahead but not yet
+   * written
+   */
+  public static final String MAX_BUFFERED_BYTES = "zooinspector.export.maxBufferedBytes";
+
+  /**
+   * Where the walk puts the nodes it read, in
+   * {@link ZooInspectorExportFile#PATH_ORDER}
+   */
+  interface Output
+  {
+    void add(Entry entry) throws IOException;
+
+    /**
+     * the walk is over and every node was added
+     */
+    void close() throws IOException;
+
+    /**
+     * the walk stopped early
+     */
+    void abort();
+
+    /**
+     * @return the number of bytes written so far
+     */
+    long getOffset();
+  }
+
+  /**
+   * A node being read: data and Stat, ACL and, if the Stat says it has any,
+   * children
+   */
+  private class Fetch
+  {
+    final String path;
+    // holds a read ahead slot, given back once written
+    final boolean ahead;
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicInteger parts = new AtomicInteger(2);
+    volatile int rc = Code.OK.intValue();
+    byte[] data;
+    Stat stat;
+    List<ACL> acl;
+    String[] children;
+    // reads of the first children, started as soon as they are known
+    final ArrayDeque<Fetch> firstChildren = new ArrayDeque<Fetch>();
+
+    Fetch(String path, boolean ahead)
+    {
+      this.path = path;
+      this.ahead = ahead;
+    }
+
+    void failed(int code)
+    {
+      if (rc == Code.OK.intValue()) {
+        rc = code;
+      }
+    }
+
+    long size()
+    {
+      return data == null ? 0 : data.length;
+    }
+  }
+
+  /**
+   * A node on the current path whose children are being written
+   */
+  private static class Frame
+  {
+    final String path;
+    final String[] children;
+    // fetches of children[next], children[next + 1], ...
+    final ArrayDeque<Fetch> ahead;
+    int next = 0;
+
+    Frame(String path, String[] children, ArrayDeque<Fetch> ahead)
+    {
+      this.path = path;
+      this.children = children;
+      this.ahead = ahead;
+    }
+  }
+
+  private final ZooKeeper zooKeeper;
+  private final String root;
+  private final File file;
+  private final Output writer;
+  private final long maxBuffered;
+  private final Semaphore aheadSlots;
+  private final AtomicLong buffered = new AtomicLong();
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile boolean cancelled = false;
+  private volatile boolean completed = false;
+  private volatile IOException error = null;
+
+  private final AtomicLong nodes = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong fileBytes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final long startNanos = System.nanoTime();
+  private volatile long endNanos = 0;
+
+  ZooInspectorExport(ZooKeeper zooKeeper, String root, File file) throws IOException
+  {
+    this(zooKeeper, root, file, Integer.getInteger(BLOCK_BYTES, 256 * 1024),
+        Long.getLong(MAX_BUFFERED_BYTES, 16 * 1024 * 1024),
+        Integer.getInteger(ZooInspectorFetchEngine.MAX_IN_FLIGHT, 1000));
+  }
+
+  ZooInspectorExport(ZooKeeper zooKeeper, String root, File file, int blockBytes,
+      long maxBuffered, int maxAhead) throws IOException
+  {
+    this(zooKeeper, root, file, new ZooInspectorExportFile.Writer(file, root, blockBytes),
+        maxBuffered, maxAhead);
+  }
+
+  /**
+   * walk the subtree below root into output
+   */
+  ZooInspectorExport(ZooKeeper zooKeeper, String root, Output output)
+  {
+    this(zooKeeper, root, null, output, Long.getLong(MAX_BUFFERED_BYTES, 16 * 1024 * 1024),
+        Integer.getInteger(ZooInspectorFetchEngine.MAX_IN_FLIGHT, 1000));
+  }
+
+  private ZooInspectorExport(ZooKeeper zooKeeper, String root, File file, Output output,
+      long maxBuffered, int maxAhead)
+  {
+    this.zooKeeper = zooKeeper;
+    this.root = root;
+    this.file = file;
+    this.maxBuffered = maxBuffered;
+    this.aheadSlots = new Semaphore(maxAhead);
+    this.writer = output;
+  }
+
+  @Override
+  public void run()
+  {
+    try {
+      Deque<Frame> stack = new ArrayDeque<Frame>();
+      Fetch first = fetch(root, false);
+      first.done.await();
+      if (first.rc != Code.OK.intValue()) {
+        throw new IOException("Unable to read " + root,
+            KeeperException.create(Code.get(first.rc), root));
+      }
+      write(first, stack);
+      while (!stack.isEmpty() && !cancelled) {
+        Frame top = stack.peek();
+        if (top.next >= top.children.length) {
+          stack.pop();
+          continue;
+        }
+        while (top.next + top.ahead.size() < top.children.length && readAhead()) {
+          top.ahead.add(fetch(childPath(top, top.next + top.ahead.size()), true));
+        }
+        Fetch f = top.ahead.poll();
+        if (f == null) {
+          // nothing left to read ahead with, the walk itself still goes on
+          f = fetch(childPath(top, top.next), false);
+        }
+        top.next++;
+        write(f, stack);
+      }
+      if (!cancelled) {
+        writer.close();
+        fileBytes.set(writer.getOffset());
+        completed = true;
+      }
+    } catch (InterruptedException e) {
+      cancelled = true;
+    } catch (IOException e) {
+      error = e;
+      LoggerFactory.getLogger().error("Error occurred exporting " + root
+          + (file != null ? " to " + file.getAbsolutePath() : ""), e);
+    } catch (RuntimeException e) {
+      error = new IOException(e);
+      LoggerFactory.getLogger().error("Error occurred exporting " + root, e);
+    } finally {
+      if (!completed) {
+        writer.abort();
+      }
+      endNanos = System.nanoTime();
+      done.countDown();
+    }
+  }
+
+  private static String childPath(Frame frame, int index)
+  {
+    return ZooInspectorManagerCache.childPath(frame.path, frame.children[index]);
+  }
+
+  /**
+   * @return true if one more node may be read ahead, taking its slot
+   */
+  private boolean readAhead()
+  {
+    return !cancelled && buffered.get() < maxBuffered && aheadSlots.tryAcquire();
+  }
+
+  /**
+   * wait for f and write it, then continue with its children
+   */
+  private void write(Fetch f, Deque<Frame> stack) throws InterruptedException, IOException
+  {
+    f.done.await();
+    buffered.addAndGet(-f.size());
+    if (f.ahead) {
+      aheadSlots.release();
+    }
+    if (f.rc == Code.OK.intValue()) {
+      writer.add(new Entry(f.path, f.data, f.stat, f.acl));
+      nodes.incrementAndGet();
+      bytes.addAndGet(f.size());
+      fileBytes.set(writer.getOffset());
+      if (f.children != null && f.children.length > 0) {
+        stack.push(new Frame(f.path, f.children, f.firstChildren));
+      }
+    } else {
+      if (f.rc != Code.NONODE.intValue()) {
+        failures.incrementAndGet();
+        LoggerFactory.getLogger().error("Error occurred exporting node: " + f.path,
+            KeeperException.create(Code.get(f.rc), f.path));
+      }
+      // a node deleted since its parent was read is left out
+    }
+  }
+
+  private Fetch fetch(String path, boolean ahead)
+  {
+    final Fetch f = new Fetch(path, ahead);
+    zooKeeper.getData(path, false, new DataCallback()
+    {
+      @Override
+      public void processResult(int rc, String p, Object ctx, byte[] data, Stat stat)
+      {
+        if (rc == Code.OK.intValue()) {
+          f.data = data;
+          f.stat = stat;
+          if (stat.getNumChildren() > 0) {
+            f.parts.incrementAndGet();
+            zooKeeper.getChildren(f.path, false, new Children2Callback()
+            {
+              @Override
+              public void processResult(int rc, String p, Object ctx,
+                  List<String> children, Stat stat)
+              {
+                if (rc == Code.OK.intValue()) {
+                  String[] sorted = children.toArray(new String[children.size()]);
+                  Arrays.sort(sorted);
+                  f.children = sorted;
+                } else {
+                  f.failed(rc);
+                }
+                part(f);
+              }
+            }, null);
+          }
+        } else {
+          f.failed(rc);
+        }
+        part(f);
+      }
+    }, null);
+    zooKeeper.getACL(path, new Stat(), new ACLCallback()
+    {
+      @Override
+      public void processResult(int rc, String p, Object ctx, List<ACL> acl, Stat stat)
+      {
+        if (rc == Code.OK.intValue()) {
+          f.acl = acl;
+        } else {
+          f.failed(rc);
+        }
+        part(f);
+      }
+    }, null);
+    return f;
+  }
+
+  /**
+   * one reply for f is in: once it has all, start reading its first children
+   * ahead and hand it to the walk
+   */
+  private void part(Fetch f)
+  {
+    if (f.parts.decrementAndGet() > 0) {
+      return;
+    }
+    buffered.addAndGet(f.size());
+    if (f.rc == Code.OK.intValue() && f.children != null) {
+      for (int i = 0; i < f.children.length && readAhead(); i++) {
+        f.firstChildren.add(fetch(ZooInspectorManagerCache.childPath(f.path, f.children[i]),
+            true));
+      }
+    }
+    f.done.countDown();
+  }
+
+  /**
+   * stop the export and delete the unfinished file
+   */
+  public void cancel()
+  {
+    cancelled = true;
+  }
+
+  public boolean isCancelled()
+  {
+    return cancelled;
+  }
+
+  public boolean isDone()
+  {
+    return done.getCount() == 0;
+  }
+
+  /**
+   * @param timeout
+   * @param unit
+   * @return true if the export is over
+   * @throws InterruptedException
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    return done.await(timeout, unit);
+  }
+
+  /**
+   * @return the export file, or null if the nodes go elsewhere
+   */
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * @return the number of nodes written so far
+   */
+  public long getNodes()
+  {
+    return nodes.get();
+  }
+
+  /**
+   * @return the number of data bytes written so far, before compression
+   */
+  public long getBytes()
+  {
+    return bytes.get();
+  }
+
+  /**
+   * @return the size of the export file so far
+   */
+  public long getFileBytes()
+  {
+    return fileBytes.get();
+  }
+
+  /**
+   * @return the number of nodes left out because they could not be read, for a
+   *         reason other than being deleted meanwhile
+   */
+  public long getFailures()
+  {
+    return failures.get();
+  }
+
+  /**
+   * @return the error that ended the export early, or null
+   */
+  public IOException getError()
+  {
+    return error;
+  }
+
+  /**
+   * @return true if the export file was completed, possibly without nodes
+   *         that failed, see {@link #getFailures()}
+   */
+  public boolean isCompleted()
+  {
+    return completed;
+  }
+
+  /**
+   * @return true if the export file was completed with every node
+   */
+  public boolean isSuccessful()
+  {
+    return completed && failures.get() == 0;
+  }
+
+  /**
+   * @return the time the export has been running, or took
+   */
+  public long getElapsedMillis()
+  {
+    long end = endNanos != 0 ? endNanos : System.nanoTime();
+    return (end - startNanos) / 1000000L;
+  }
+
+  @Override
+  public String toString()
+  {
+    double seconds = Math.max(1, getElapsedMillis()) / 1000.0;
+    return String.format("%d nodes, %.1f MB of data%s in %.1f s (%.0f nodes/s)%s%s",
+        getNodes(), getBytes() / 1048576.0,
+        file != null ? String.format(" (%.1f MB written)", getFileBytes() / 1048576.0) : "",
+        seconds, getNodes() / seconds, failures.get() > 0 ? ", " + failures.get() + " failed" : "",
+        cancelled ? ", cancelled" : error != null ? ", " + error.getMessage() : "");
+  }
+}
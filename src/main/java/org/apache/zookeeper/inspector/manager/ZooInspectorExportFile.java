@@ -0,0 +1,597 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * A subtree exported to disk by {@link ZooInspectorExport}. Nodes are stored in
+ * {@link #PATH_ORDER}, packed into blocks that are deflated one at a time, so
+ * writing and reading only ever hold one block in memory. The index at the end
+ * names the first path of every block, which leads straight to the block
+ * holding any path.
+ *
+ * <pre>
+ * file    := header block* END index footer
+ * header  := MAGIC VERSION root(str) created(long)
+ * block   := compressedLength(int) length(int) count(int) deflated(entry*)
+ * END     := 0(int)
+ * entry   := sharedPrefix(var) pathSuffix(str) stat(11 x var) numAcls(var) acl*
+ *            dataLength(var) data
+ * acl     := perms(var) scheme(str) id(str)
+ * index   := numBlocks(var) (offset(var) count(var) firstPath(str))*
+ * footer  := indexOffset(long) numNodes(long) MAGIC
+ * str     := length(var) utf8-bytes
+ * var     := zigzag LEB128 encoded long
+ * </pre>
+ *
+ * dataLength is -1 for a node without data. The shared path prefix starts over
+ * in every block, so each block decodes on its own, and a file can also be read
+ * front to back up to END without the index.
+ */
+public class ZooInspectorExportFile
+{
+  private static final int MAGIC = 0x5a494558; // "ZIEX"
+  private static final int VERSION = 1;
+  private static final int FOOTER_BYTES = 8 + 8 + 4;
+
+  /**
+   * Depth first order with the children of each node sorted by name, which is
+   * the order the export walks the tree in: "/" sorts before every other
+   * character, so "/a/b" comes before "/a-c"
+   */
+  public static final Comparator<String> PATH_ORDER = new Comparator<String>()
+  {
+    @Override
+    public int compare(String a, String b)
+    {
+      int n = Math.min(a.length(), b.length());
+      for (int i = 0; i < n; i++)
+      {
+        char x = a.charAt(i);
+        char y = b.charAt(i);
+        if (x != y)
+        {
+          if (x == '/')
+          {
+            return -1;
+          }
+          if (y == '/')
+          {
+            return 1;
+          }
+          return x - y;
+        }
+      }
+      return a.length() - b.length();
+    }
+  };
+
+  /**
+   * @param firstInt
+   *          - the first four bytes of a file
+   * @return true if they start an export
+   */
+  static boolean isMagic(int firstInt)
+  {
+    return firstInt == MAGIC;
+  }
+
+  /**
+   * One exported node
+   */
+  public static class Entry
+  {
+    public final String path;
+    public final byte[] data;
+    public final Stat stat;
+    public final List<ACL> acl;
+
+    public Entry(String path, byte[] data, Stat stat, List<ACL> acl)
+    {
+      this.path = path;
+      this.data = data;
+      this.stat = stat;
+      this.acl = acl;
+    }
+  }
+
+  /**
+   * Writes entries in {@link ZooInspectorExportFile#PATH_ORDER}, a block at a
+   * time
+   */
+  static class Writer implements ZooInspectorExport.Output
+  {
+    private final File file;
+    private final DataOutputStream out;
+    private final int blockBytes;
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    private final DataOutputStream blockOut = new DataOutputStream(block);
+    private final Deflater deflater = new Deflater();
+    private final List<Long> offsets = new ArrayList<Long>();
+    private final List<Integer> counts = new ArrayList<Integer>();
+    private final List<String> firstPaths = new ArrayList<String>();
+    private long offset = 0;
+    private int blockCount = 0;
+    private long nodes = 0;
+    private String previousInBlock = "";
+    private String last = null;
+
+    /**
+     * @param file
+     * @param root
+     *          - the path the export starts at
+     * @param blockBytes
+     *          - the uncompressed size a block is closed at
+     * @throws IOException
+     */
+    Writer(File file, String root, int blockBytes) throws IOException
+    {
+      this.file = file;
+      this.blockBytes = blockBytes;
+      this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+          64 * 1024));
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      DataOutputStream headerOut = new DataOutputStream(header);
+      headerOut.writeInt(MAGIC);
+      headerOut.writeInt(VERSION);
+      ZooInspectorCacheSnapshot.writeString(headerOut, root);
+      headerOut.writeLong(System.currentTimeMillis());
+      write(header);
+    }
+
+    private void write(ByteArrayOutputStream bytes) throws IOException
+    {
+      bytes.writeTo(out);
+      offset += bytes.size();
+    }
+
+    /**
+     * @param entry
+     *          - must sort after every entry added before
+     * @throws IOException
+     */
+    @Override
+    public void add(Entry entry) throws IOException
+    {
+      if (last != null && PATH_ORDER.compare(last, entry.path) >= 0)
+      {
+        throw new IllegalArgumentException(entry.path + " does not sort after " + last);
+      }
+      if (blockCount == 0)
+      {
+        firstPaths.add(entry.path);
+      }
+      int shared = ZooInspectorCacheSnapshot.sharedPrefix(previousInBlock, entry.path);
+      ZooInspectorCacheSnapshot.writeVar(blockOut, shared);
+      ZooInspectorCacheSnapshot.writeString(blockOut, entry.path.substring(shared));
+      ZooInspectorCacheSnapshot.writeStat(blockOut, entry.stat);
+      List<ACL> acl = entry.acl == null ? Collections.<ACL> emptyList() : entry.acl;
+      ZooInspectorCacheSnapshot.writeVar(blockOut, acl.size());
+      for (ACL a : acl)
+      {
+        ZooInspectorCacheSnapshot.writeVar(blockOut, a.getPerms());
+        ZooInspectorCacheSnapshot.writeString(blockOut, a.getId().getScheme());
+        ZooInspectorCacheSnapshot.writeString(blockOut, a.getId().getId());
+      }
+      if (entry.data == null)
+      {
+        ZooInspectorCacheSnapshot.writeVar(blockOut, -1);
+      }
+      else
+      {
+        ZooInspectorCacheSnapshot.writeVar(blockOut, entry.data.length);
+        blockOut.write(entry.data);
+      }
+      blockCount++;
+      nodes++;
+      previousInBlock = entry.path;
+      last = entry.path;
+      if (block.size() >= blockBytes)
+      {
+        flushBlock();
+      }
+    }
+
+    private void flushBlock() throws IOException
+    {
+      if (blockCount == 0)
+      {
+        return;
+      }
+      byte[] raw = block.toByteArray();
+      deflater.reset();
+      deflater.setInput(raw);
+      deflater.finish();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+      byte[] buf = new byte[64 * 1024];
+      while (!deflater.finished())
+      {
+        compressed.write(buf, 0, deflater.deflate(buf));
+      }
+      offsets.add(offset);
+      counts.add(blockCount);
+      out.writeInt(compressed.size());
+      out.writeInt(raw.length);
+      out.writeInt(blockCount);
+      offset += 12;
+      write(compressed);
+      block.reset();
+      blockCount = 0;
+      previousInBlock = "";
+    }
+
+    /**
+     * @return the number of bytes written to the file so far
+     */
+    @Override
+    public long getOffset()
+    {
+      return offset;
+    }
+
+    long getNodes()
+    {
+      return nodes;
+    }
+
+    /**
+     * write the last block, the index and the footer
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException
+    {
+      try
+      {
+        flushBlock();
+        out.writeInt(0);
+        offset += 4;
+        long indexOffset = offset;
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        ZooInspectorCacheSnapshot.writeVar(indexOut, offsets.size());
+        for (int i = 0; i < offsets.size(); i++)
+        {
+          ZooInspectorCacheSnapshot.writeVar(indexOut, offsets.get(i));
+          ZooInspectorCacheSnapshot.writeVar(indexOut, counts.get(i));
+          ZooInspectorCacheSnapshot.writeString(indexOut, firstPaths.get(i));
+        }
+        write(index);
+        out.writeLong(indexOffset);
+        out.writeLong(nodes);
+        out.writeInt(MAGIC);
+        offset += FOOTER_BYTES;
+      }
+      finally
+      {
+        out.close();
+        deflater.end();
+      }
+    }
+
+    /**
+     * close and delete the unfinished file
+     */
+    @Override
+    public void abort()
+    {
+      try
+      {
+        out.close();
+      }
+      catch (IOException e)
+      {
+        // deleted below
+      }
+      deflater.end();
+      file.delete();
+    }
+  }
+
+  private final File file;
+  private final String root;
+  private final long created;
+  private final long numNodes;
+  private final long[] offsets;
+  private final int[] counts;
+  private final String[] firstPaths;
+
+  /**
+   * open an export and read its index
+   * @param file
+   * @throws IOException
+   *           if file is not a complete export
+   */
+  public ZooInspectorExportFile(File file) throws IOException
+  {
+    this.file = file;
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try
+    {
+      long length = in.length();
+      if (length < 8 + FOOTER_BYTES || in.readInt() != MAGIC || in.readInt() != VERSION)
+      {
+        throw new IOException("Not a ZooInspector export: " + file.getAbsolutePath());
+      }
+      byte[] header = new byte[(int) Math.min(length - 8, 64 * 1024)];
+      in.readFully(header);
+      ByteBuffer headerBuf = ByteBuffer.wrap(header);
+      root = ZooInspectorCacheSnapshot.readString(headerBuf);
+      created = headerBuf.getLong();
+
+      in.seek(length - FOOTER_BYTES);
+      long indexOffset = in.readLong();
+      numNodes = in.readLong();
+      if (in.readInt() != MAGIC || indexOffset < 0 || indexOffset > length - FOOTER_BYTES)
+      {
+        throw new IOException("Incomplete ZooInspector export: " + file.getAbsolutePath());
+      }
+      byte[] index = new byte[(int) (length - FOOTER_BYTES - indexOffset)];
+      in.seek(indexOffset);
+      in.readFully(index);
+      ByteBuffer buf = ByteBuffer.wrap(index);
+      int numBlocks = (int) ZooInspectorCacheSnapshot.readVar(buf);
+      offsets = new long[numBlocks];
+      counts = new int[numBlocks];
+      firstPaths = new String[numBlocks];
+      for (int i = 0; i < numBlocks; i++)
+      {
+        offsets[i] = ZooInspectorCacheSnapshot.readVar(buf);
+        counts[i] = (int) ZooInspectorCacheSnapshot.readVar(buf);
+        firstPaths[i] = ZooInspectorCacheSnapshot.readString(buf);
+      }
+    }
+    catch (RuntimeException e)
+    {
+      throw new IOException("Invalid ZooInspector export: " + file.getAbsolutePath(), e);
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * @return the path the export started at
+   */
+  public String getRoot()
+  {
+    return root;
+  }
+
+  /**
+   * @return when the export was started, in {@link System#currentTimeMillis()}
+   */
+  public long getCreated()
+  {
+    return created;
+  }
+
+  public long getNumNodes()
+  {
+    return numNodes;
+  }
+
+  public int getNumBlocks()
+  {
+    return offsets.length;
+  }
+
+  /**
+   * @param block
+   * @return the entries of block, in path order
+   * @throws IOException
+   */
+  public List<Entry> readBlock(int block) throws IOException
+  {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try
+    {
+      in.seek(offsets[block]);
+      byte[] compressed = new byte[in.readInt()];
+      byte[] raw = new byte[in.readInt()];
+      int count = in.readInt();
+      in.readFully(compressed);
+      Inflater inflater = new Inflater();
+      try
+      {
+        inflater.setInput(compressed);
+        int length = 0;
+        while (length < raw.length && !inflater.finished() && !inflater.needsInput())
+        {
+          length += inflater.inflate(raw, length, raw.length - length);
+        }
+        if (length != raw.length)
+        {
+          throw new IOException("Truncated block " + block + " in " + file.getAbsolutePath());
+        }
+      }
+      catch (DataFormatException e)
+      {
+        throw new IOException("Corrupt block " + block + " in " + file.getAbsolutePath(), e);
+      }
+      finally
+      {
+        inflater.end();
+      }
+      return decode(ByteBuffer.wrap(raw), count);
+    }
+    catch (RuntimeException e)
+    {
+      throw new IOException("Corrupt block " + block + " in " + file.getAbsolutePath(), e);
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * @return the nodes of the export in path order, read a block at a time
+   */
+  public ZooInspectorImportSource entries()
+  {
+    return new ZooInspectorImportSource()
+    {
+      private int block = 0;
+      private List<Entry> entries = Collections.emptyList();
+      private int next = 0;
+
+      @Override
+      public String getRoot()
+      {
+        return root;
+      }
+
+      @Override
+      public Entry next() throws IOException
+      {
+        while (next >= entries.size())
+        {
+          if (block >= offsets.length)
+          {
+            return null;
+          }
+          entries = readBlock(block++);
+          next = 0;
+        }
+        return entries.get(next++);
+      }
+
+      @Override
+      public long skip(long count) throws IOException
+      {
+        long skipped = 0;
+        while (skipped < count)
+        {
+          if (next < entries.size())
+          {
+            int n = (int) Math.min(entries.size() - next, count - skipped);
+            next += n;
+            skipped += n;
+          }
+          else if (block >= offsets.length)
+          {
+            break;
+          }
+          else if (counts[block] <= count - skipped)
+          {
+            // passed over whole, without reading it
+            skipped += counts[block++];
+          }
+          else
+          {
+            entries = readBlock(block++);
+            next = 0;
+          }
+        }
+        return skipped;
+      }
+
+      @Override
+      public void close()
+      {
+      }
+    };
+  }
+
+  private static List<Entry> decode(ByteBuffer buf, int count)
+  {
+    List<Entry> entries = new ArrayList<Entry>(count);
+    String previous = "";
+    for (int i = 0; i < count; i++)
+    {
+      int shared = (int) ZooInspectorCacheSnapshot.readVar(buf);
+      String path = previous.substring(0, shared) + ZooInspectorCacheSnapshot.readString(buf);
+      Stat stat = ZooInspectorCacheSnapshot.readStat(buf);
+      int numAcls = (int) ZooInspectorCacheSnapshot.readVar(buf);
+      List<ACL> acl = new ArrayList<ACL>(numAcls);
+      for (int j = 0; j < numAcls; j++)
+      {
+        int perms = (int) ZooInspectorCacheSnapshot.readVar(buf);
+        String scheme = ZooInspectorCacheSnapshot.readString(buf);
+        acl.add(new ACL(perms, new Id(scheme, ZooInspectorCacheSnapshot.readString(buf))));
+      }
+      int dataLength = (int) ZooInspectorCacheSnapshot.readVar(buf);
+      byte[] data = null;
+      if (dataLength >= 0)
+      {
+        data = new byte[dataLength];
+        buf.get(data);
+      }
+      entries.add(new Entry(path, data, stat, acl));
+      previous = path;
+    }
+    return entries;
+  }
+
+  /**
+   * @param path
+   * @return the block that holds path if the export has it
+   */
+  public int findBlock(String path)
+  {
+    int low = 0;
+    int high = firstPaths.length - 1;
+    int found = -1;
+    while (low <= high)
+    {
+      int mid = (low + high) >>> 1;
+      if (PATH_ORDER.compare(firstPaths[mid], path) <= 0)
+      {
+        found = mid;
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @param path
+   * @return the exported node at path, or null if the export does not have it.
+   *         Only the one block that can hold it is read
+   * @throws IOException
+   */
+  public Entry get(String path) throws IOException
+  {
+    int block = findBlock(path);
+    if (block < 0)
+    {
+      return null;
+    }
+    for (Entry entry : readBlock(block))
+    {
+      if (entry.path.equals(path))
+      {
+        return entry;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,264 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache.Item;
+import org.apache.zookeeper.inspector.manager.ZooInspectorSingleFlight.AsyncCall;
+import org.apache.zookeeper.inspector.manager.ZooInspectorSingleFlight.Flight;
+import org.apache.zookeeper.inspector.manager.ZooInspectorSingleFlight.Listener;
+
+/**
+ * Batch reads pipelined over the asynchronous ZooKeeper API. The calling thread
+ * issues the requests and the client's event thread collects the replies, so
+ * a batch of any size needs no extra threads. The number of outstanding
+ * requests is kept under a {@link ZooInspectorConcurrencyLimiter}, which adapts
+ * it to the observed latency, up to {@link #MAX_IN_FLIGHT}. The calling thread
+ * blocks until a reply frees a slot.
+ * <p>
+ * Replies arrive on the ZooKeeper event thread, so the batch methods must not
+ * be called from a {@link Watcher} or callback
+ */
+public class ZooInspectorFetchEngine
+{
+  /**
+   * System property for the most outstanding batch requests the limit may grow
+   * to
+   */
+  public static final String MAX_IN_FLIGHT = "zooinspector.fetch.maxInFlight";
+  /**
+   * System property selecting how batches are read: "async" (the default)
+   * pipelines them through this engine, "pool" issues synchronous reads from a
+   * fixed pool of threads
+   */
+  public static final String MODE = "zooinspector.fetch.mode";
+
+  private final ZooInspectorSingleFlight reads;
+  private final ZooInspectorConcurrencyLimiter limiter;
+  private final AtomicLong requests = new AtomicLong();
+  private volatile ZooInspectorReadPool readPool;
+
+  /**
+   * @param reads
+   *          - shares each read with identical reads already in flight
+   */
+  public ZooInspectorFetchEngine(ZooInspectorSingleFlight reads)
+  {
+    this(reads, new ZooInspectorConcurrencyLimiter(Integer.getInteger(MAX_IN_FLIGHT, 1000)));
+  }
+
+  ZooInspectorFetchEngine(ZooInspectorSingleFlight reads, ZooInspectorConcurrencyLimiter limiter)
+  {
+    this.reads = reads;
+    this.limiter = limiter;
+  }
+
+  /**
+   * @param readPool
+   *          - sessions to spread reads without a watch over, or null to read
+   *          everything through the session passed in
+   */
+  public void setReadPool(ZooInspectorReadPool readPool)
+  {
+    this.readPool = readPool;
+  }
+
+  private ZooKeeper route(ZooKeeper zooKeeper, String path, Watcher watcher)
+  {
+    ZooInspectorReadPool pool = readPool;
+    return pool == null || watcher != null ? zooKeeper : pool.route(path, zooKeeper);
+  }
+
+  private void replied(ZooKeeper session)
+  {
+    ZooInspectorReadPool pool = readPool;
+    if (pool != null) {
+      pool.replied(session);
+    }
+  }
+
+  /**
+   * @return true unless {@link #MODE} selects the thread pool
+   */
+  public static boolean isEnabled()
+  {
+    return !"pool".equalsIgnoreCase(System.getProperty(MODE));
+  }
+
+  /**
+   * @param zooKeeper
+   * @param paths
+   * @param watcher
+   *          - a child {@link Watcher} to leave on each path, or null
+   * @return the children and {@link Stat} of each path. A path that does not
+   *         exist maps to an item without children or {@link Stat}, a failed
+   *         read to an item without children
+   * @throws InterruptedException
+   */
+  public Map<String, Item> getChildren(ZooKeeper zooKeeper, List<String> paths,
+      Watcher watcher) throws InterruptedException
+  {
+    if (paths.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    final Map<String, Item> ret = new ConcurrentHashMap<String, Item>();
+    final CountDownLatch replies = new CountDownLatch(paths.size());
+    for (final String path : paths) {
+      getChildren(zooKeeper, path, watcher, new Listener<Item>()
+      {
+        @Override
+        public void completed(Item item, Exception error)
+        {
+          ret.put(path, item);
+          replies.countDown();
+        }
+      });
+    }
+    replies.await();
+    return ret;
+  }
+
+  /**
+   * Issue one read and return as soon as it is sent, blocking only while the
+   * limit of outstanding requests is reached
+   * @param zooKeeper
+   * @param path
+   * @param watcher
+   *          - a child {@link Watcher} to leave on path, or null
+   * @param listener
+   *          - notified with the children and {@link Stat} of path as described
+   *          for {@link #getChildren(ZooKeeper, List, Watcher)}, usually on the
+   *          ZooKeeper event thread
+   * @throws InterruptedException
+   */
+  public void getChildren(final ZooKeeper zooKeeper, final String path,
+      final Watcher watcher, final Listener<Item> listener) throws InterruptedException
+  {
+    final long start = acquire();
+    reads.executeAsync((watcher == null ? "getChildren:" : "getChildrenW:") + path,
+        new AsyncCall<Item>()
+    {
+      @Override
+      public void start(final Flight<Item> flight)
+      {
+        final ZooKeeper session = route(zooKeeper, path, watcher);
+        session.getChildren(path, watcher, new Children2Callback()
+        {
+          @Override
+          public void processResult(int rc, String p, Object ctx,
+              List<String> children, Stat stat)
+          {
+            replied(session);
+            if (rc == Code.OK.intValue()) {
+              flight.complete(new Item(children, stat), null);
+            } else if (rc == Code.NONODE.intValue()) {
+              flight.complete(new Item((List<String>) null, null), null);
+            } else {
+              flight.complete(null, KeeperException.create(Code.get(rc), path));
+            }
+          }
+        }, null);
+      }
+    }, new Listener<Item>()
+    {
+      @Override
+      public void completed(Item item, Exception error)
+      {
+        limiter.release(System.nanoTime() - start, error != null);
+        listener.completed(item != null ? item : new Item((List<String>) null, new Stat()),
+            error);
+      }
+    });
+  }
+
+  /**
+   * @param zooKeeper
+   * @param paths
+   * @return the {@link Stat} of each path that exists. Paths that do not exist
+   *         or could not be read are left out
+   * @throws InterruptedException
+   */
+  public Map<String, Stat> getStats(final ZooKeeper zooKeeper, List<String> paths)
+      throws InterruptedException
+  {
+    if (paths.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    final Map<String, Stat> ret = new ConcurrentHashMap<String, Stat>();
+    final CountDownLatch replies = new CountDownLatch(paths.size());
+    for (final String path : paths) {
+      final long start = acquire();
+      reads.executeAsync("exists:" + path, new AsyncCall<Stat>()
+      {
+        @Override
+        public void start(final Flight<Stat> flight)
+        {
+          final ZooKeeper session = route(zooKeeper, path, null);
+          session.exists(path, false, new StatCallback()
+          {
+            @Override
+            public void processResult(int rc, String p, Object ctx, Stat stat)
+            {
+              replied(session);
+              if (rc == Code.OK.intValue() || rc == Code.NONODE.intValue()) {
+                flight.complete(stat, null);
+              } else {
+                flight.complete(null, KeeperException.create(Code.get(rc), path));
+              }
+            }
+          }, null);
+        }
+      }, new Listener<Stat>()
+      {
+        @Override
+        public void completed(Stat stat, Exception error)
+        {
+          if (stat != null) {
+            ret.put(path, stat);
+          }
+          limiter.release(System.nanoTime() - start, error != null);
+          replies.countDown();
+        }
+      });
+    }
+    replies.await();
+    return ret;
+  }
+
+  /**
+   * @return the time the slot was taken, in {@link System#nanoTime()}
+   */
+  private long acquire() throws InterruptedException
+  {
+    limiter.acquire();
+    requests.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  /**
+   * @return the limiter of outstanding requests
+   */
+  public ZooInspectorConcurrencyLimiter getLimiter()
+  {
+    return limiter;
+  }
+
+  /**
+   * @return the number of requests issued (or joined) so far
+   */
+  public long getRequests()
+  {
+    return requests.get();
+  }
+}
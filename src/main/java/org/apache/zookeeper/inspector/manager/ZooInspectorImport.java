@@ -0,0 +1,641 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.logger.LoggerFactory;
+import org.apache.zookeeper.inspector.manager.ZooInspectorExportFile.Entry;
+
+/**
+ * Writes the nodes of a {@link ZooInspectorImportSource} below a path, as
+ * persistent nodes with the data and ACL of the source. Creates are sent
+ * asynchronously without waiting for each other: a session's requests are
+ * applied in order, so a parent listed before its children is always there
+ * when they are created. What happens to nodes that exist already is up to the
+ * {@link Conflict} policy. Nodes below /zookeeper are left alone.
+ * <p>
+ * A source ACL may keep the importing session from creating children, so
+ * nodes are created open and a node with another ACL gets it once the source
+ * is written, children before their parents. That happens after a cancel or
+ * an error too; only the nodes of an import that dies before it gets there
+ * stay open.
+ * <p>
+ * The calls in flight are bounded by
+ * {@link ZooInspectorFetchEngine#MAX_IN_FLIGHT} and their rate by
+ * {@link #MAX_OPS_PER_SECOND}. Every {@link #CHECKPOINT_INTERVAL_MS} the
+ * number of nodes done so far is saved to a checkpoint file. An import of the
+ * same source to the same place that finds the checkpoint passes over those
+ * nodes and goes on from there; the file is deleted once the whole source is
+ * imported. Nodes in flight when an import stopped are imported again, so
+ * creates that went through then meet their node under the conflict policy.
+ * <p>
+ * Created and started by
+ * {@link ZooInspectorManagerImpl#importSubtree(File, String, Conflict)}
+ */
+public class ZooInspectorImport implements Runnable
+{
+  /**
+   * System property for the most creates and updates an import sends per
+   * second, 0 for no limit
+   */
+  public static final String MAX_OPS_PER_SECOND = "zooinspector.import.maxOpsPerSecond";
+
+  // how often the checkpoint file is written
+  static final long CHECKPOINT_INTERVAL_MS = 2000;
+  // how long replies to calls already sent are waited for after a stop
+  static final long DRAIN_TIMEOUT_MS = 10000;
+
+  /**
+   * What to do when a node to import exists already
+   */
+  public enum Conflict
+  {
+    /** leave the existing node as it is */
+    SKIP,
+    /** replace the data of the existing node */
+    OVERWRITE,
+    /**
+     * replace the data of the existing node only if it still has the version
+     * recorded in the source. A node the source has no version for is a
+     * conflict
+     */
+    VERSION
+  }
+
+  private final ZooKeeper zooKeeper;
+  private final ZooInspectorImportSource source;
+  private final String target;
+  private final Conflict conflict;
+  private final File checkpoint;
+  // names source and target in the checkpoint, which only resumes a match
+  private final String description;
+  private final double maxOpsPerSecond;
+  private final int maxInFlight;
+  private final Semaphore outstanding;
+  // nodes done in source order, all before it are; guarded by this
+  private long done = 0;
+  private final Set<Long> doneAhead = new HashSet<Long>();
+  // path and ACL of the nodes created open that get their source ACL at the
+  // end, in create order
+  private final List<Entry> acls = new ArrayList<Entry>();
+  private final long resumedFrom;
+  private final CountDownLatch over = new CountDownLatch(1);
+  private volatile boolean cancelled = false;
+  private volatile boolean completed = false;
+  private volatile IOException error = null;
+
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong updated = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong conflicts = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final long startNanos = System.nanoTime();
+  private volatile long endNanos = 0;
+
+  ZooInspectorImport(ZooKeeper zooKeeper, ZooInspectorImportSource source, String target,
+      Conflict conflict, File checkpoint, String description)
+  {
+    this(zooKeeper, source, target, conflict, checkpoint, description,
+        Integer.getInteger(MAX_OPS_PER_SECOND, 0),
+        Integer.getInteger(ZooInspectorFetchEngine.MAX_IN_FLIGHT, 1000));
+  }
+
+  ZooInspectorImport(ZooKeeper zooKeeper, ZooInspectorImportSource source, String target,
+      Conflict conflict, File checkpoint, String description, double maxOpsPerSecond,
+      int maxInFlight)
+  {
+    this.zooKeeper = zooKeeper;
+    this.source = source;
+    this.target = target;
+    this.conflict = conflict;
+    this.checkpoint = checkpoint;
+    this.description = description;
+    this.maxOpsPerSecond = maxOpsPerSecond;
+    this.maxInFlight = maxInFlight;
+    this.outstanding = new Semaphore(maxInFlight);
+    this.resumedFrom = loadCheckpoint();
+  }
+
+  /**
+   * @param file
+   *          - an export written by {@link ZooInspectorExport}, or nodes
+   *          described in JSON, see {@link ZooInspectorJsonSource}
+   * @return the nodes in file
+   * @throws IOException
+   */
+  public static ZooInspectorImportSource open(File file) throws IOException
+  {
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    boolean export;
+    try {
+      export = file.length() >= 4 && ZooInspectorExportFile.isMagic(in.readInt());
+    } finally {
+      in.close();
+    }
+    if (export) {
+      return new ZooInspectorExportFile(file).entries();
+    }
+    return new ZooInspectorJsonSource(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+  }
+
+  @Override
+  public void run()
+  {
+    boolean finished = false;
+    try {
+      long index = source.skip(resumedFrom);
+      synchronized (this) {
+        done = index;
+      }
+      long issued = 0;
+      long throttleStart = System.nanoTime();
+      long nextCheckpoint = System.currentTimeMillis() + CHECKPOINT_INTERVAL_MS;
+      while (!cancelled) {
+        Entry entry = source.next();
+        if (entry == null) {
+          finished = true;
+          break;
+        }
+        throttle(throttleStart, issued++);
+        outstanding.acquire();
+        write(index++, entry);
+        if (System.currentTimeMillis() >= nextCheckpoint) {
+          saveCheckpoint();
+          nextCheckpoint = System.currentTimeMillis() + CHECKPOINT_INTERVAL_MS;
+        }
+      }
+      // replies to calls already sent
+      if (!drain()) {
+        finished = false;
+      }
+    } catch (InterruptedException e) {
+      cancelled = true;
+      finished = false;
+    } catch (IOException e) {
+      error = e;
+      finished = false;
+      LoggerFactory.getLogger().error("Error occurred importing to " + target, e);
+    } catch (RuntimeException e) {
+      error = new IOException(e);
+      finished = false;
+      LoggerFactory.getLogger().error("Error occurred importing to " + target, e);
+    }
+    try {
+      // whether the import finished or not, no node it created stays open
+      if (!restoreAcls()) {
+        finished = false;
+      }
+    } catch (InterruptedException e) {
+      cancelled = true;
+      finished = false;
+    } finally {
+      synchronized (acls) {
+        if (!acls.isEmpty()) {
+          LoggerFactory.getLogger().error(acls.size() + " nodes imported to " + target
+              + " were left with an open ACL, such as " + targetPath(acls.get(0).path));
+        }
+      }
+      try {
+        source.close();
+      } catch (IOException e) {
+        // nothing more is read
+      }
+      if (finished) {
+        completed = true;
+        if (checkpoint != null) {
+          checkpoint.delete();
+        }
+      } else {
+        saveCheckpoint();
+      }
+      endNanos = System.nanoTime();
+      over.countDown();
+    }
+  }
+
+  /**
+   * @return true once no call is in flight, false if replies are still
+   *         missing after {@link #DRAIN_TIMEOUT_MS}
+   */
+  private boolean drain() throws InterruptedException
+  {
+    if (!outstanding.tryAcquire(maxInFlight, DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      return false;
+    }
+    outstanding.release(maxInFlight);
+    return true;
+  }
+
+  /**
+   * give the nodes created open their source ACL, the last created first, so
+   * children are done before their parents
+   * @return true if every setACL was sent and answered
+   */
+  private boolean restoreAcls() throws InterruptedException
+  {
+    long issued = 0;
+    long throttleStart = System.nanoTime();
+    while (true) {
+      Entry entry;
+      synchronized (acls) {
+        if (acls.isEmpty()) {
+          break;
+        }
+        entry = acls.get(acls.size() - 1);
+      }
+      throttle(throttleStart, issued++);
+      if (!outstanding.tryAcquire(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        return false;
+      }
+      synchronized (acls) {
+        acls.remove(acls.size() - 1);
+      }
+      setAcl(entry);
+    }
+    return drain();
+  }
+
+  private void setAcl(Entry entry)
+  {
+    final String path = targetPath(entry.path);
+    zooKeeper.setACL(path, entry.acl, -1, new StatCallback()
+    {
+      @Override
+      public void processResult(int rc, String p, Object ctx, Stat stat)
+      {
+        if (rc != Code.OK.intValue()) {
+          failures.incrementAndGet();
+          LoggerFactory.getLogger().error("Error occurred setting the ACL of node: " + path,
+              KeeperException.create(Code.get(rc), path));
+        }
+        outstanding.release();
+      }
+    }, null);
+  }
+
+  /**
+   * keep to {@link #maxOpsPerSecond}
+   */
+  private void throttle(long start, long issued) throws InterruptedException
+  {
+    if (maxOpsPerSecond <= 0) {
+      return;
+    }
+    long wait = start + (long) (issued * 1e9 / maxOpsPerSecond) - System.nanoTime();
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  /**
+   * @param path
+   *          - a path in the source
+   * @return where path goes, or null if it is not below the source's root
+   */
+  String targetPath(String path)
+  {
+    String root = source.getRoot();
+    String rest;
+    if (path.equals(root)) {
+      rest = "";
+    } else if (root.equals("/")) {
+      rest = path;
+    } else if (path.startsWith(root + "/")) {
+      rest = path.substring(root.length());
+    } else {
+      return null;
+    }
+    if (target.equals("/")) {
+      return rest.isEmpty() ? "/" : rest;
+    }
+    return target + rest;
+  }
+
+  private void write(final long index, final Entry entry)
+  {
+    final String path = targetPath(entry.path);
+    if (path == null) {
+      failures.incrementAndGet();
+      LoggerFactory.getLogger().error("Not importing " + entry.path + ", it is not below "
+          + source.getRoot());
+      finish(index);
+      return;
+    }
+    if (path.equals("/zookeeper") || path.startsWith("/zookeeper/")) {
+      skipped.incrementAndGet();
+      finish(index);
+      return;
+    }
+    if (path.equals("/")) {
+      exists(index, path, entry);
+      return;
+    }
+    // an ACL without CREATE for this session would fail the nodes below
+    final boolean open = entry.acl == null || entry.acl.isEmpty()
+        || entry.acl.equals(Ids.OPEN_ACL_UNSAFE);
+    try {
+      zooKeeper.create(path, entry.data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+          new StringCallback()
+      {
+        @Override
+        public void processResult(int rc, String p, Object ctx, String name)
+        {
+          if (rc == Code.OK.intValue()) {
+            created.incrementAndGet();
+            if (!open) {
+              synchronized (acls) {
+                // without the data, which may be large
+                acls.add(new Entry(entry.path, null, null, entry.acl));
+              }
+            }
+            finish(index);
+          } else if (rc == Code.NODEEXISTS.intValue()) {
+            exists(index, path, entry);
+          } else {
+            fail(index, path, rc);
+          }
+        }
+      }, null);
+    } catch (IllegalArgumentException e) {
+      // not a valid path
+      failures.incrementAndGet();
+      LoggerFactory.getLogger().error("Error occurred importing node: " + path, e);
+      finish(index);
+    }
+  }
+
+  /**
+   * path exists already: follow the conflict policy
+   */
+  private void exists(final long index, final String path, Entry entry)
+  {
+    if (conflict == Conflict.SKIP) {
+      skipped.incrementAndGet();
+      finish(index);
+      return;
+    }
+    int version = conflict == Conflict.VERSION ? entry.stat.getVersion() : -1;
+    if (conflict == Conflict.VERSION && version < 0) {
+      // setData would take -1 as any version
+      conflicts.incrementAndGet();
+      LoggerFactory.getLogger().warn("Not importing " + path
+          + ", the source has no version for it");
+      finish(index);
+      return;
+    }
+    zooKeeper.setData(path, entry.data, version, new StatCallback()
+    {
+      @Override
+      public void processResult(int rc, String p, Object ctx, Stat stat)
+      {
+        if (rc == Code.OK.intValue()) {
+          updated.incrementAndGet();
+          finish(index);
+        } else if (rc == Code.BADVERSION.intValue()) {
+          conflicts.incrementAndGet();
+          LoggerFactory.getLogger().warn("Not importing " + path
+              + ", it changed since the version in the source");
+          finish(index);
+        } else {
+          fail(index, path, rc);
+        }
+      }
+    }, null);
+  }
+
+  private void fail(long index, String path, int rc)
+  {
+    failures.incrementAndGet();
+    LoggerFactory.getLogger().error("Error occurred importing node: " + path,
+        KeeperException.create(Code.get(rc), path));
+    finish(index);
+  }
+
+  private void finish(long index)
+  {
+    outstanding.release();
+    synchronized (this) {
+      doneAhead.add(index);
+      while (doneAhead.remove(done)) {
+        done++;
+      }
+    }
+  }
+
+  /**
+   * @return the number of nodes to pass over, as saved by an earlier import
+   *         of the same source to the same place
+   */
+  private long loadCheckpoint()
+  {
+    if (checkpoint == null || !checkpoint.exists()) {
+      return 0;
+    }
+    Properties p = new Properties();
+    try {
+      FileInputStream in = new FileInputStream(checkpoint);
+      try {
+        p.load(in);
+      } finally {
+        in.close();
+      }
+      if (!description.equals(p.getProperty("description"))
+          || !conflict.name().equals(p.getProperty("conflict"))) {
+        return 0;
+      }
+      created.set(Long.parseLong(p.getProperty("created", "0")));
+      updated.set(Long.parseLong(p.getProperty("updated", "0")));
+      skipped.set(Long.parseLong(p.getProperty("skipped", "0")));
+      conflicts.set(Long.parseLong(p.getProperty("conflicts", "0")));
+      failures.set(Long.parseLong(p.getProperty("failures", "0")));
+      return Long.parseLong(p.getProperty("done", "0"));
+    } catch (Exception e) {
+      LoggerFactory.getLogger().warn("Ignoring import checkpoint " + checkpoint.getAbsolutePath()
+          + ": " + e.getMessage());
+      return 0;
+    }
+  }
+
+  private void saveCheckpoint()
+  {
+    if (checkpoint == null) {
+      return;
+    }
+    Properties p = new Properties();
+    p.setProperty("description", description);
+    p.setProperty("conflict", conflict.name());
+    p.setProperty("done", String.valueOf(getDone()));
+    p.setProperty("created", String.valueOf(created.get()));
+    p.setProperty("updated", String.valueOf(updated.get()));
+    p.setProperty("skipped", String.valueOf(skipped.get()));
+    p.setProperty("conflicts", String.valueOf(conflicts.get()));
+    p.setProperty("failures", String.valueOf(failures.get()));
+    File tmp = new File(checkpoint.getPath() + ".tmp");
+    try {
+      OutputStream out = new FileOutputStream(tmp);
+      try {
+        p.store(out, "ZooInspector import checkpoint");
+      } finally {
+        out.close();
+      }
+      if ((checkpoint.exists() && !checkpoint.delete()) || !tmp.renameTo(checkpoint)) {
+        throw new IOException("Failed to replace " + checkpoint.getAbsolutePath());
+      }
+    } catch (IOException e) {
+      LoggerFactory.getLogger().error("Error occurred saving import checkpoint", e);
+    }
+  }
+
+  /**
+   * stop sending calls. Calls already sent still complete, and the checkpoint
+   * is saved to resume from
+   */
+  public void cancel()
+  {
+    cancelled = true;
+  }
+
+  public boolean isCancelled()
+  {
+    return cancelled;
+  }
+
+  public boolean isDone()
+  {
+    return over.getCount() == 0;
+  }
+
+  /**
+   * @param timeout
+   * @param unit
+   * @return true if the import is over
+   * @throws InterruptedException
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    return over.await(timeout, unit);
+  }
+
+  /**
+   * @return the number of nodes of the source done, counting only those
+   *         without an earlier node still in flight
+   */
+  public synchronized long getDone()
+  {
+    return done;
+  }
+
+  /**
+   * @return the number of nodes passed over because a checkpoint had them done
+   */
+  public long getResumedFrom()
+  {
+    return resumedFrom;
+  }
+
+  public long getCreated()
+  {
+    return created.get();
+  }
+
+  /**
+   * @return the number of existing nodes whose data was replaced
+   */
+  public long getUpdated()
+  {
+    return updated.get();
+  }
+
+  /**
+   * @return the number of existing nodes left as they were under
+   *         {@link Conflict#SKIP}, and of nodes below /zookeeper
+   */
+  public long getSkipped()
+  {
+    return skipped.get();
+  }
+
+  /**
+   * @return the number of existing nodes not replaced under
+   *         {@link Conflict#VERSION} because their version differed
+   */
+  public long getConflicts()
+  {
+    return conflicts.get();
+  }
+
+  public long getFailures()
+  {
+    return failures.get();
+  }
+
+  /**
+   * @return the error that ended the import early, or null
+   */
+  public IOException getError()
+  {
+    return error;
+  }
+
+  /**
+   * @return true if every node of the source was imported, skipped or found
+   *         in conflict, possibly with failures
+   */
+  public boolean isCompleted()
+  {
+    return completed;
+  }
+
+  /**
+   * @return true if the whole source was imported without a failure or a
+   *         conflict
+   */
+  public boolean isSuccessful()
+  {
+    return completed && failures.get() == 0 && conflicts.get() == 0;
+  }
+
+  /**
+   * @return the time the import has been running, or took
+   */
+  public long getElapsedMillis()
+  {
+    long end = endNanos != 0 ? endNanos : System.nanoTime();
+    return (end - startNanos) / 1000000L;
+  }
+
+  @Override
+  public String toString()
+  {
+    double seconds = Math.max(1, getElapsedMillis()) / 1000.0;
+    long count = getDone() - resumedFrom;
+    return String.format("%d nodes (%d created, %d updated, %d skipped) in %.1f s "
+        + "(%.0f nodes/s)%s%s%s%s", getDone(), getCreated(), getUpdated(), getSkipped(),
+        seconds, count / seconds, resumedFrom > 0 ? ", resumed after " + resumedFrom : "",
+        conflicts.get() > 0 ? ", " + conflicts.get() + " conflicts" : "",
+        failures.get() > 0 ? ", " + failures.get() + " failed" : "",
+        cancelled ? ", cancelled" : error != null ? ", " + error.getMessage() : "");
+  }
+}
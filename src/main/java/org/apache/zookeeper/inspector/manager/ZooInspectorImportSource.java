@@ -0,0 +1,34 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.IOException;
+
+import org.apache.zookeeper.inspector.manager.ZooInspectorExportFile.Entry;
+
+/**
+ * The nodes a {@link ZooInspectorImport} writes, read one at a time with
+ * parents before their children
+ */
+public interface ZooInspectorImportSource
+{
+  /**
+   * @return the path the nodes were taken from, which is replaced by the path
+   *         they are imported to
+   */
+  public String getRoot();
+
+  /**
+   * @return the next node, or null after the last
+   * @throws IOException
+   */
+  public Entry next() throws IOException;
+
+  /**
+   * pass over nodes without returning them, to resume an import
+   * @param count
+   * @return the number of nodes passed over, less than count at the end
+   * @throws IOException
+   */
+  public long skip(long count) throws IOException;
+
+  public void close() throws IOException;
+}
@@ -0,0 +1,347 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.manager.ZooInspectorExportFile.Entry;
+
+/**
+ * Nodes described in JSON, either one object per line (NDJSON) or an array of
+ * objects. Each object describes one node:
+ *
+ * <pre>
+ * {"path": "/app/config", "data": "text", "version": 3,
+ *  "acl": [{"perms": 31, "scheme": "world", "id": "anyone"}]}
+ * </pre>
+ *
+ * Only path is required. data is stored as UTF-8 and a node without it has no
+ * data. version is the version an existing node must have to be overwritten
+ * under {@link ZooInspectorImport.Conflict#VERSION}, an existing node without
+ * it is not overwritten then. A node without acl is open to everyone, each
+ * entry of an acl needs perms. Paths are absolute and parents come before their
+ * children. The input is parsed as it is read, one object at a time.
+ */
+public class ZooInspectorJsonSource implements ZooInspectorImportSource
+{
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final BufferedReader in;
+  private int peeked = -2;
+  private int line = 1;
+  private boolean started = false;
+  private boolean inArray = false;
+  private boolean ended = false;
+
+  /**
+   * @param in
+   */
+  public ZooInspectorJsonSource(Reader in)
+  {
+    this.in = new BufferedReader(in);
+  }
+
+  @Override
+  public String getRoot()
+  {
+    return "/";
+  }
+
+  @Override
+  public Entry next() throws IOException
+  {
+    if (ended) {
+      return null;
+    }
+    skipSpace();
+    if (!started) {
+      started = true;
+      if (peek() == '[') {
+        read();
+        inArray = true;
+      }
+    }
+    while (true) {
+      skipSpace();
+      if (peek() != ',') {
+        break;
+      }
+      read();
+    }
+    int c = peek();
+    if (c == -1) {
+      if (inArray) {
+        throw error("unterminated array");
+      }
+      ended = true;
+      return null;
+    }
+    if (c == ']' && inArray) {
+      read();
+      ended = true;
+      return null;
+    }
+    if (c != '{') {
+      throw error("expected an object");
+    }
+    return entry(readObject());
+  }
+
+  @Override
+  public long skip(long count) throws IOException
+  {
+    long skipped = 0;
+    while (skipped < count && next() != null) {
+      skipped++;
+    }
+    return skipped;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    in.close();
+  }
+
+  private Entry entry(Map<String, Object> node) throws IOException
+  {
+    Object path = node.get("path");
+    if (!(path instanceof String) || !((String) path).startsWith("/")) {
+      throw error("expected an absolute \"path\"");
+    }
+    Object data = node.get("data");
+    if (data != null && !(data instanceof String)) {
+      throw error("expected \"data\" to be a string");
+    }
+    Stat stat = new Stat();
+    Object version = node.get("version");
+    stat.setVersion(version instanceof Number ? ((Number) version).intValue() : -1);
+    List<ACL> acl = Collections.emptyList();
+    Object acls = node.get("acl");
+    if (acls instanceof List) {
+      acl = new ArrayList<ACL>();
+      for (Object a : (List<?>) acls) {
+        if (!(a instanceof Map)) {
+          throw error("expected \"acl\" to hold objects");
+        }
+        Map<?, ?> m = (Map<?, ?>) a;
+        Object perms = m.get("perms");
+        if (!(perms instanceof Number)) {
+          throw error("expected \"perms\" in each \"acl\" entry");
+        }
+        acl.add(new ACL(((Number) perms).intValue(),
+            new Id(String.valueOf(m.get("scheme")), String.valueOf(m.get("id")))));
+      }
+    }
+    return new Entry((String) path, data == null ? null : ((String) data).getBytes(UTF8),
+        stat, acl);
+  }
+
+  private int peek() throws IOException
+  {
+    if (peeked == -2) {
+      peeked = in.read();
+    }
+    return peeked;
+  }
+
+  private int read() throws IOException
+  {
+    int c = peek();
+    peeked = -2;
+    if (c == '\n') {
+      line++;
+    }
+    return c;
+  }
+
+  private void skipSpace() throws IOException
+  {
+    while (Character.isWhitespace(peek())) {
+      read();
+    }
+  }
+
+  private IOException error(String message)
+  {
+    return new IOException("Invalid JSON at line " + line + ": " + message);
+  }
+
+  private Object readValue() throws IOException
+  {
+    skipSpace();
+    int c = peek();
+    switch (c) {
+      case '{':
+        return readObject();
+      case '[':
+        return readArray();
+      case '"':
+        return readString();
+      case 't':
+        readLiteral("true");
+        return Boolean.TRUE;
+      case 'f':
+        readLiteral("false");
+        return Boolean.FALSE;
+      case 'n':
+        readLiteral("null");
+        return null;
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return readNumber();
+        }
+        throw error(c == -1 ? "unexpected end" : "unexpected '" + (char) c + "'");
+    }
+  }
+
+  private Map<String, Object> readObject() throws IOException
+  {
+    Map<String, Object> object = new LinkedHashMap<String, Object>();
+    read();
+    skipSpace();
+    if (peek() == '}') {
+      read();
+      return object;
+    }
+    while (true) {
+      skipSpace();
+      if (peek() != '"') {
+        throw error("expected a name");
+      }
+      String name = readString();
+      skipSpace();
+      if (read() != ':') {
+        throw error("expected ':'");
+      }
+      object.put(name, readValue());
+      skipSpace();
+      int c = read();
+      if (c == '}') {
+        return object;
+      }
+      if (c != ',') {
+        throw error("expected ',' or '}'");
+      }
+    }
+  }
+
+  private List<Object> readArray() throws IOException
+  {
+    List<Object> array = new ArrayList<Object>();
+    read();
+    skipSpace();
+    if (peek() == ']') {
+      read();
+      return array;
+    }
+    while (true) {
+      array.add(readValue());
+      skipSpace();
+      int c = read();
+      if (c == ']') {
+        return array;
+      }
+      if (c != ',') {
+        throw error("expected ',' or ']'");
+      }
+    }
+  }
+
+  private String readString() throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    read();
+    while (true) {
+      int c = read();
+      if (c == -1) {
+        throw error("unterminated string");
+      } else if (c == '"') {
+        return sb.toString();
+      } else if (c != '\\') {
+        sb.append((char) c);
+        continue;
+      }
+      c = read();
+      switch (c) {
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 't':
+          sb.append('\t');
+          break;
+        case 'u':
+          int code = 0;
+          for (int i = 0; i < 4; i++) {
+            c = read();
+            if (c == -1) {
+              throw error("unexpected end of input");
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+              throw error("invalid escape, '" + (char) c + "' is not a hex digit");
+            }
+            code = code * 16 + digit;
+          }
+          sb.append((char) code);
+          break;
+        case '"':
+        case '\\':
+        case '/':
+          sb.append((char) c);
+          break;
+        default:
+          throw error("invalid escape");
+      }
+    }
+  }
+
+  private Number readNumber() throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      int c = peek();
+      if (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+        sb.append((char) read());
+      } else {
+        break;
+      }
+    }
+    String number = sb.toString();
+    try {
+      if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+        return Long.valueOf(number);
+      }
+      return Double.valueOf(number);
+    } catch (NumberFormatException e) {
+      throw error("invalid number " + number);
+    }
+  }
+
+  private void readLiteral(String literal) throws IOException
+  {
+    for (int i = 0; i < literal.length(); i++) {
+      if (read() != literal.charAt(i)) {
+        throw error("expected " + literal);
+      }
+    }
+  }
+}
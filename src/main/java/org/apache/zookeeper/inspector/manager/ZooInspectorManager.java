@@ -137,4 +137,11 @@ public interface ZooInspectorManager extends ZooInspectorNodeManager,
     public void saveDefaultConnectionFile(Properties props) throws IOException;
 
     public void updateDefaultConnectionFile(Properties props) throws IOException;
+
+    /**
+     * @param listener
+     *            - notified with the path of every cached parent whose
+     *            children were updated outside of an explicit refresh
+     */
+    public void addCacheListener(NodeListener listener);
 }
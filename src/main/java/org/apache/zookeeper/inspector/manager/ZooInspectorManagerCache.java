@@ -1,37 +1,385 @@
 package org.apache.zookeeper.inspector.manager;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.Watcher.WatcherType;
+import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.ZooInspectorExecutors;
 import org.apache.zookeeper.inspector.logger.LoggerFactory;
+import org.apache.zookeeper.inspector.manager.ZooInspectorPriority.Lane;
 
 public class ZooInspectorManagerCache
 {
-  final Map<String, Item> cache;
+  // sorted by path, so that all the descendants of a node are stored in one
+  // contiguous key range right after the node itself
+  final NavigableMap<String, Item> cache;
   ZooInspectorManagerImpl manager;
 
   static class Item
   {
-    List<String> childs;
+    // sorted once on construction and never modified afterwards, so readers on
+    // the EDT can index into it without copying or locking
+    final String[] childs;
+    final List<String> childList;
     Stat zkStat;
+    // estimated heap footprint, used for the byte budget
+    final long size;
+    // CLOCK reference bit, set on every read and cleared by the eviction hand
+    volatile boolean referenced = true;
 
     public Item(List<String> childs, Stat zkStat)
     {
-      this.childs = childs;
+      if (childs == null) {
+        this.childs = null;
+        this.childList = null;
+      } else {
+        this.childs = childs.toArray(new String[childs.size()]);
+        Arrays.sort(this.childs);
+        this.childList = Collections.unmodifiableList(Arrays.asList(this.childs));
+      }
+      this.zkStat = zkStat;
+      this.size = estimateSize(this.childs);
+    }
+
+    /**
+     * @param item
+     *          - an item whose children are known to be unchanged
+     * @param zkStat
+     *          - the newer {@link Stat} of the same node
+     */
+    Item(Item item, Stat zkStat)
+    {
+      this.childs = item.childs;
+      this.childList = item.childList;
       this.zkStat = zkStat;
+      this.size = item.size;
+    }
+
+    private static long estimateSize(String[] childs)
+    {
+      // item, Stat, list view and map node headers
+      long size = 200;
+      if (childs != null) {
+        size += 16 + 4 * childs.length;
+        for (String child : childs) {
+          size += 40 + 2 * child.length();
+        }
+      }
+      return size;
+    }
+
+    /**
+     * @return true if the read behind this item found no node at all, as
+     *         opposed to failing for another reason
+     */
+    boolean isNoNode()
+    {
+      return childs == null && zkStat == null;
+    }
+
+    /**
+     * @param stat
+     * @return true if stat describes the same child set as this item, i.e. the
+     *         node was not re-created and no child was added or removed since
+     */
+    boolean isChildSetUnchanged(Stat stat)
+    {
+      return zkStat != null && stat != null
+          && zkStat.getCzxid() == stat.getCzxid()
+          && zkStat.getCversion() == stat.getCversion()
+          && zkStat.getPzxid() == stat.getPzxid();
+    }
+  }
+
+  /**
+   * System property for the number of children from which a cached parent is
+   * first probed with exists() on refresh, instead of re-listing its children
+   */
+  public static final String PROBE_THRESHOLD = "zooinspector.cache.probeThreshold";
+  private final int probeThreshold = Integer.getInteger(PROBE_THRESHOLD, 32);
+
+  /**
+   * System property to turn on the watch mode: every cached parent keeps a
+   * child watch and is refetched on its own when its children change
+   */
+  public static final String WATCH = "zooinspector.cache.watch";
+  /**
+   * System property for the maximum number of outstanding child watches
+   */
+  public static final String MAX_WATCHES = "zooinspector.cache.maxWatches";
+  /**
+   * System property for how long (ms) watch events are collected before the
+   * changed parents are refetched in one batch
+   */
+  public static final String WATCH_COALESCE_MS = "zooinspector.cache.watchCoalesceMs";
+  private final boolean watchMode = Boolean.getBoolean(WATCH);
+  private final int maxWatches = Integer.getInteger(MAX_WATCHES, 10000);
+  private final long watchCoalesceMs = Long.getLong(WATCH_COALESCE_MS, 200);
+
+  // paths with a child watch registered on the server. An entry is dropped
+  // once its watch fires, or when the path leaves the cache and its watch is
+  // removed
+  final Set<String> watchedPaths =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final Set<String> dirtyPaths =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  private final Watcher childWatcher = new ChildWatcher();
+  // runs watch flushes and read-through loads, one at a time
+  private final ScheduledExecutorService executor;
+  private volatile boolean closed = false;
+
+  /**
+   * System property to turn off the read-through mode. When off, a cache miss
+   * fetches the node synchronously on the calling thread
+   */
+  public static final String READ_THROUGH = "zooinspector.cache.readThrough";
+  /**
+   * System property for how long (ms) a path found not to exist is answered
+   * from the cache before it is read again
+   */
+  public static final String NEGATIVE_TTL_MS = "zooinspector.cache.negativeTtlMs";
+  private final boolean readThrough =
+      !"false".equalsIgnoreCase(System.getProperty(READ_THROUGH));
+  private final long negativeTtlMs = Long.getLong(NEGATIVE_TTL_MS, 2000);
+
+  /**
+   * name of the single child shown for a parent whose children are still
+   * being loaded. A real znode can never be named "."
+   */
+  public static final String LOADING = ".";
+  private static final Item LOADING_ITEM =
+      new Item(Collections.singletonList(LOADING), null);
+  /**
+   * name of the single child shown for a parent whose children failed to
+   * load in the background. A real znode can never be named ".." either
+   */
+  public static final String LOAD_FAILED = "..";
+  private static final Item LOAD_FAILED_ITEM =
+      new Item(Collections.singletonList(LOAD_FAILED), null);
+
+  // misses waiting for (or in) a background load, so each is read only once
+  private final Set<String> pendingLoads =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final AtomicBoolean loadScheduled = new AtomicBoolean(false);
+  // paths found not to exist, with the time until which that is trusted
+  final Map<String, Long> negatives = new ConcurrentHashMap<String, Long>();
+  // paths whose background load failed, with the time until which they are
+  // shown as failed instead of being read again
+  private final Map<String, Long> failedLoads = new ConcurrentHashMap<String, Long>();
+  private final AtomicLong negativeHits = new AtomicLong();
+
+  /**
+   * System property for how old (ms) a {@link Stat} read earlier may be to
+   * answer metadata and ACL requests without a round trip
+   */
+  public static final String STAT_MAX_AGE_MS = "zooinspector.cache.statMaxAgeMs";
+  private final long statMaxAgeMs = Long.getLong(STAT_MAX_AGE_MS, 5000);
+
+  static class StatEntry
+  {
+    final Stat stat;
+    final long time;
+    // ACLs read under stat's ACL version, or null if not read yet
+    final List<ACL> acls;
+
+    // estimated heap footprint, counted in the byte budget with the items
+    final long size;
+
+    StatEntry(String path, Stat stat, long time, List<ACL> acls)
+    {
+      this.stat = stat;
+      this.time = time;
+      this.acls = acls;
+      long size = 250 + 2 * path.length();
+      if (acls != null) {
+        for (ACL acl : acls) {
+          size += 100 + 2 * (acl.getId().getScheme().length() + acl.getId().getId().length());
+        }
+      }
+      this.size = size;
     }
   }
 
+  // the last Stat read for a path by any request, with the time it was read.
+  // Entries of paths without a cached item are dropped first when the cache
+  // is over its budget
+  final Map<String, StatEntry> stats = new ConcurrentHashMap<String, StatEntry>();
+  // Stats waiting for (or in) a background read, see getStatOrLoad()
+  private final Set<String> pendingStatLoads =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final AtomicBoolean statLoadScheduled = new AtomicBoolean(false);
+
+  /**
+   * System property for the maximum number of cached parents
+   */
+  public static final String MAX_ENTRIES = "zooinspector.cache.maxEntries";
+  /**
+   * System property for the maximum estimated size of the cache in bytes
+   */
+  public static final String MAX_BYTES = "zooinspector.cache.maxBytes";
+  private final int maxEntries = Integer.getInteger(MAX_ENTRIES, 200000);
+  private final long maxBytes = Long.getLong(MAX_BYTES, 128L * 1024 * 1024);
+
+  // ConcurrentSkipListMap.size() is O(n), so entries and bytes are counted here
+  private final AtomicInteger numEntries = new AtomicInteger();
+  private final AtomicLong numBytes = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final Object evictLock = new Object();
+  // last path looked at by the CLOCK hand
+  private String clockHand = null;
+  // expanded and visible paths in the tree, these are never evicted
+  private volatile Set<String> pinnedPaths = Collections.emptySet();
+
+  // reads ahead of expands, null if prefetching is off
+  volatile ZooInspectorPrefetcher prefetcher;
+
   public ZooInspectorManagerCache(ZooInspectorManagerImpl manager)
   {
     this.manager = manager;
-    this.cache = new ConcurrentHashMap<String, Item>();
+    this.cache = new ConcurrentSkipListMap<String, Item>();
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread thread = new Thread(r, "ZooInspectorCache");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * stop processing watch events and background loads
+   */
+  public void close()
+  {
+    closed = true;
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return the prefetcher reading ahead of expands, or null if prefetching is
+   *         off
+   */
+  public ZooInspectorPrefetcher getPrefetcher()
+  {
+    return prefetcher;
+  }
+
+  /**
+   * @return true if cached parents are kept up to date by child watches
+   */
+  public boolean isWatchMode()
+  {
+    return watchMode;
+  }
+
+  /**
+   * @return the number of child watches currently registered by the cache
+   */
+  public int getNumWatches()
+  {
+    return watchedPaths.size();
+  }
+
+  /**
+   * @param paths
+   *          - the paths currently expanded or visible in the tree. They are
+   *          kept in the cache regardless of the budget
+   */
+  public void setPinnedPaths(Collection<String> paths)
+  {
+    pinnedPaths = new HashSet<String>(paths);
+  }
+
+  public int getNumEntries()
+  {
+    return numEntries.get();
+  }
+
+  public long getEstimatedBytes()
+  {
+    return numBytes.get();
+  }
+
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  public long getMisses()
+  {
+    return misses.get();
+  }
+
+  public long getEvictions()
+  {
+    return evictions.get();
+  }
+
+  /**
+   * @return the number of lookups answered by a negative entry
+   */
+  public long getNegativeHits()
+  {
+    return negativeHits.get();
+  }
+
+  /**
+   * @return true if a cache miss is loaded in the background
+   */
+  public boolean isReadThrough()
+  {
+    return readThrough;
+  }
+
+  /**
+   * @param nodePath
+   * @return true if nodePath is the placeholder child of a parent whose
+   *         children are still being loaded, or failed to load
+   */
+  public static boolean isLoadingPath(String nodePath)
+  {
+    return nodePath != null
+        && (nodePath.endsWith("/" + LOADING) || isLoadFailedPath(nodePath));
+  }
+
+  /**
+   * @param nodePath
+   * @return true if nodePath is the placeholder child of a parent whose
+   *         children failed to load
+   */
+  public static boolean isLoadFailedPath(String nodePath)
+  {
+    return nodePath != null && nodePath.endsWith("/" + LOAD_FAILED);
   }
 
   /**
@@ -50,7 +398,60 @@ public class ZooInspectorManagerCache
       return;
     }
 
-    Map<String, Item> childItems = manager.getChildren(paths);
+    // parents with many children are probed with a cheap exists() first and
+    // only re-listed if their child set changed. Small parents are re-listed
+    // directly, that costs the same single round trip as the probe
+    Map<String, Item> childItems = new HashMap<String, Item>();
+    List<String> probePaths = new ArrayList<String>();
+    List<String> fetchPaths = new ArrayList<String>();
+    for (String path : paths) {
+      Item cached = cache.get(path);
+      if (cached != null && watchedPaths.contains(path)) {
+        // the watch has not fired, so the cached children are still current
+        childItems.put(path, cached);
+      } else if (cached != null && cached.childs != null
+          && cached.childs.length >= probeThreshold) {
+        probePaths.add(path);
+      } else {
+        fetchPaths.add(path);
+      }
+    }
+
+    Map<String, Stat> stats = manager.getStats(probePaths);
+    for (String path : probePaths) {
+      Item cached = cache.get(path);
+      Stat stat = stats.get(path);
+      if (cached != null && cached.isChildSetUnchanged(stat)) {
+        childItems.put(path, new Item(cached, stat));
+      } else {
+        // changed, deleted or failed to probe: let getChildren() decide
+        fetchPaths.add(path);
+      }
+    }
+    if (watchMode) {
+      List<String> unwatchedPaths = new ArrayList<String>();
+      List<String> watchPaths = new ArrayList<String>();
+      for (String path : fetchPaths) {
+        if (watchedPaths.contains(path)
+            || (watchedPaths.size() < maxWatches && watchedPaths.add(path))) {
+          watchPaths.add(path);
+        } else {
+          unwatchedPaths.add(path);
+        }
+      }
+      Map<String, Item> watchedItems = manager.getChildren(watchPaths, childWatcher);
+      for (String path : watchPaths) {
+        Item item = watchedItems.get(path);
+        if (item == null || item.childs == null) {
+          // no watch is left behind when the read fails
+          watchedPaths.remove(path);
+        }
+      }
+      childItems.putAll(watchedItems);
+      childItems.putAll(manager.getChildren(unwatchedPaths, null));
+    } else {
+      childItems.putAll(manager.getChildren(fetchPaths, null));
+    }
 
     List<String> childPaths = new ArrayList<String>();
 
@@ -59,16 +460,9 @@ public class ZooInspectorManagerCache
       String path = paths.get(i);
       // Item item = manager.getChildrenAndStat(path);
       Item item = childItems.get(path);
-      if (item == null || item.childs == null) {
-        cache.remove(path);
-      } else  // if item != null && item.childs != null
-      {
-        cache.put(path, item);
-        if (depth > 0) {
-          for (String child : item.childs) {
-            String childPath = path.equals("/") ? path + child : path + "/" + child;
-            childPaths.add(childPath);
-          }
+      if (store(path, item) && depth > 0) {
+        for (String child : item.childs) {
+          childPaths.add(childPath(path, child));
         }
       }
     }
@@ -76,65 +470,698 @@ public class ZooInspectorManagerCache
     if (childPaths.size() > 0) {
       refresh(childPaths, depth - 1);
     }
+    evictIfNeeded();
   }
 
-  public String getNodeChild(String nodePath, int childIndex)
+  /**
+   * @param path
+   * @param item
+   *          - the result of reading path
+   * @return true if item had children and was cached, false if path was
+   *         dropped because it does not exist or could not be read
+   */
+  boolean store(String path, Item item)
+  {
+    if (item == null || item.childs == null) {
+      removeItem(path);
+      if (item != null && item.isNoNode() && negativeTtlMs > 0) {
+        putNegative(path);
+      }
+      return false;
+    }
+    negatives.remove(path);
+    // a new read, not an item kept because its watch has not fired
+    boolean read = cache.get(path) != item;
+    putItem(path, item);
+    if (read) {
+      putStat(path, item.zkStat);
+    }
+    return true;
+  }
+
+  /**
+   * Start a streaming crawl: every read that completes queues the children of
+   * its node right away, there is no barrier between the levels
+   * @param roots
+   * @param maxDepth
+   *          - how many levels below the roots to read, 0 for the roots only
+   * @return the running crawl, to follow or cancel it
+   */
+  public ZooInspectorCrawl crawl(List<String> roots, int maxDepth)
+  {
+    return crawl(roots, maxDepth, Long.MAX_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Start a streaming crawl within a budget
+   * @param roots
+   * @param maxDepth
+   *          - how many levels below the roots to read, 0 for the roots only
+   * @param maxNodes
+   *          - the most nodes to read
+   * @param deadline
+   *          - when to stop, in {@link System#currentTimeMillis()}
+   * @return the running crawl, to follow or cancel it
+   */
+  public ZooInspectorCrawl crawl(List<String> roots, int maxDepth, long maxNodes,
+      long deadline)
+  {
+    ZooInspectorCrawl crawl = new ZooInspectorCrawl(this, roots, maxDepth, maxNodes, deadline);
+    ZooInspectorExecutors.start(crawl, "ZooInspectorCrawl");
+    return crawl;
+  }
+
+  void putItem(String path, Item item)
   {
-    if (!cache.containsKey(nodePath)) {
-    // if (!manager.watchers.containsKey(nodePath)) {
-      LoggerFactory.getLogger().error("CACHE MISS! getNodeChild(). path: " + nodePath);
+    Item old = cache.put(path, item);
+    if (old == null) {
+      numEntries.incrementAndGet();
+      numBytes.addAndGet(item.size);
+    } else {
+      numBytes.addAndGet(item.size - old.size);
+    }
+  }
+
+  private void removeItem(String path)
+  {
+    removeStat(path);
+    unwatch(path);
+    unprepare(path);
+    Item old = cache.remove(path);
+    if (old != null) {
+      numEntries.decrementAndGet();
+      numBytes.addAndGet(-old.size);
+    }
+  }
+
+  /**
+   * remove the child watch of a path that left the cache, so evicted entries
+   * do not keep watches on the server
+   */
+  private void unwatch(String path)
+  {
+    if (watchedPaths.remove(path) && manager != null) {
+      manager.removeWatch(path, childWatcher, WatcherType.Children);
+    }
+  }
 
+  /**
+   * tell the prefetcher a path it may have read ahead left the cache
+   */
+  private void unprepare(String path)
+  {
+    ZooInspectorPrefetcher p = prefetcher;
+    if (p != null) {
+      p.dropped(path);
+    }
+  }
+
+  /**
+   * Drop the {@link Stat}s of paths that are not cached parents, then CLOCK
+   * eviction: sweep the paths in order from where the last sweep stopped,
+   * give recently read items a second chance and evict the others until the
+   * cache fits its budget again. Pinned paths are skipped
+   */
+  void evictIfNeeded()
+  {
+    evictIfNeeded(null);
+  }
+
+  /**
+   * @param keep
+   *          - a path whose {@link Stat} was just stored and is kept, or null
+   */
+  private void evictIfNeeded(String keep)
+  {
+    if (numEntries.get() <= maxEntries && stats.size() <= maxEntries
+        && numBytes.get() <= maxBytes) {
+      return;
+    }
+    synchronized (evictLock) {
+      Set<String> pinned = pinnedPaths;
+      // Stats of nodes that are not cached parents are the cheapest to lose
+      for (String path : stats.keySet()) {
+        if (stats.size() <= maxEntries && numBytes.get() <= maxBytes) {
+          break;
+        }
+        if (!cache.containsKey(path) && !pinned.contains(path) && !path.equals(keep)) {
+          removeStat(path);
+        }
+      }
+      // two full turns: one to clear the reference bits, one to evict
+      int budget = 2 * numEntries.get();
+      while ((numEntries.get() > maxEntries || numBytes.get() > maxBytes)
+          && budget-- > 0) {
+        Map.Entry<String, Item> entry = clockHand == null ? null
+            : cache.higherEntry(clockHand);
+        if (entry == null) {
+          entry = cache.firstEntry();
+          if (entry == null) {
+            break;
+          }
+        }
+        clockHand = entry.getKey();
+        Item item = entry.getValue();
+        if (pinned.contains(clockHand)) {
+          continue;
+        }
+        if (item.referenced) {
+          item.referenced = false;
+        } else if (cache.remove(clockHand, item)) {
+          removeStat(clockHand);
+          unwatch(clockHand);
+          unprepare(clockHand);
+          numEntries.decrementAndGet();
+          numBytes.addAndGet(-item.size);
+          evictions.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * remove all entries
+   */
+  void clear()
+  {
+    for (String path : cache.keySet()) {
+      removeItem(path);
+    }
+    for (String path : stats.keySet()) {
+      removeStat(path);
+    }
+    negatives.clear();
+    failedLoads.clear();
+  }
+
+  /**
+   * @param nodePath
+   * @param stat
+   *          - a {@link Stat} of nodePath just read from the server
+   */
+  public void putStat(String nodePath, Stat stat)
+  {
+    if (stat == null) {
+      return;
+    }
+    StatEntry old = stats.get(nodePath);
+    List<ACL> acls = null;
+    if (old != null && old.acls != null
+        && old.stat.getCzxid() == stat.getCzxid()
+        && old.stat.getAversion() == stat.getAversion()) {
+      acls = old.acls;
+    }
+    putStatEntry(nodePath, new StatEntry(nodePath, stat, System.currentTimeMillis(), acls));
+  }
+
+  /**
+   * forget the {@link Stat} and ACLs of nodePath, e.g. after a write whose
+   * outcome is unknown
+   * @param nodePath
+   */
+  public void invalidateStat(String nodePath)
+  {
+    removeStat(nodePath);
+  }
+
+  /**
+   * @param nodePath
+   * @param stat
+   *          - the {@link Stat} returned together with acls
+   * @param acls
+   */
+  public void putACLs(String nodePath, Stat stat, List<ACL> acls)
+  {
+    if (stat != null) {
+      putStatEntry(nodePath, new StatEntry(nodePath, stat, System.currentTimeMillis(), acls));
+    }
+  }
+
+  private void putStatEntry(String nodePath, StatEntry entry)
+  {
+    StatEntry old = stats.put(nodePath, entry);
+    numBytes.addAndGet(entry.size - (old == null ? 0 : old.size));
+    evictIfNeeded(nodePath);
+  }
+
+  private void removeStat(String nodePath)
+  {
+    StatEntry old = stats.remove(nodePath);
+    if (old != null) {
+      numBytes.addAndGet(-old.size);
+    }
+  }
+
+  /**
+   * @param nodePath
+   * @return the last {@link Stat} read for nodePath, of any age. On a miss
+   *         null is returned and the Stat is read in the background, batched
+   *         with other misses, and published through the cache listeners once
+   *         it is in
+   */
+  public Stat getStatOrLoad(String nodePath)
+  {
+    Stat stat = getStat(nodePath, -1);
+    if (stat == null && manager != null && !isLoadingPath(nodePath)
+        && pendingStatLoads.add(nodePath) && statLoadScheduled.compareAndSet(false, true)
+        && !closed) {
+      executor.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          loadPendingStats();
+        }
+      });
+    }
+    return stat;
+  }
+
+  private void loadPendingStats()
+  {
+    statLoadScheduled.set(false);
+    List<String> paths = new ArrayList<String>(pendingStatLoads);
+    Lane previous = ZooInspectorPriority.set(Lane.VISIBLE);
+    Map<String, Stat> loaded;
+    try {
+      loaded = manager.getStats(paths);
+    } finally {
+      ZooInspectorPriority.set(previous);
+      pendingStatLoads.removeAll(paths);
+    }
+    for (Map.Entry<String, Stat> entry : loaded.entrySet()) {
+      putStat(entry.getKey(), entry.getValue());
+    }
+    if (!loaded.isEmpty()) {
+      fireCacheChanged(new ArrayList<String>(loaded.keySet()));
+    }
+  }
+
+  /**
+   * @param nodePath
+   * @param maxAgeMillis
+   *          - how old the {@link Stat} may be, or -1 for any age
+   * @return the last {@link Stat} read for nodePath, or null if there is none
+   *         recent enough
+   */
+  public Stat getStat(String nodePath, long maxAgeMillis)
+  {
+    StatEntry entry = getStatEntry(nodePath, maxAgeMillis);
+    return entry == null ? null : entry.stat;
+  }
+
+  /**
+   * @param nodePath
+   * @param maxAgeMillis
+   *          - how old the {@link Stat} may be, or -1 for any age
+   * @return the ACLs of nodePath if they were read under a recent enough
+   *         {@link Stat} with the same ACL version, otherwise null
+   */
+  public List<ACL> getACLs(String nodePath, long maxAgeMillis)
+  {
+    StatEntry entry = getStatEntry(nodePath, maxAgeMillis);
+    return entry == null ? null : entry.acls;
+  }
+
+  /**
+   * @return how old (ms) a cached {@link Stat} may be to answer metadata
+   *         requests, from {@link #STAT_MAX_AGE_MS}
+   */
+  public long getStatMaxAge()
+  {
+    return statMaxAgeMs;
+  }
+
+  private StatEntry getStatEntry(String nodePath, long maxAgeMillis)
+  {
+    StatEntry entry = stats.get(nodePath);
+    if (entry == null
+        || (maxAgeMillis >= 0 && System.currentTimeMillis() - entry.time > maxAgeMillis)) {
       return null;
     }
+    return entry;
+  }
 
-    List<String> childs = getChildren(nodePath);
-    if (childs == null || childIndex >= childs.size()) {
+  /**
+   * Check a cache loaded from a snapshot against the server. The root and the
+   * paths shown in the tree are refreshed; every other parent only costs an
+   * exists() probe, batched, and is dropped if its child set changed, to be
+   * read again when it is next looked at
+   * @throws KeeperException
+   */
+  public void revalidate() throws KeeperException
+  {
+    Set<String> shown = new HashSet<String>(pinnedPaths);
+    shown.add("/");
+    List<String> refreshPaths = new ArrayList<String>();
+    for (String path : shown) {
+      if (cache.containsKey(path)) {
+        refreshPaths.add(path);
+      }
+    }
+    refresh(refreshPaths, 0);
+
+    List<String> paths = new ArrayList<String>();
+    for (String path : cache.keySet()) {
+      if (!shown.contains(path)) {
+        paths.add(path);
+      }
+    }
+    int batch = 1000;
+    for (int i = 0; i < paths.size() && !closed; i += batch) {
+      List<String> probePaths = paths.subList(i, Math.min(i + batch, paths.size()));
+      Map<String, Stat> stats = manager.getStats(probePaths);
+      for (String path : probePaths) {
+        Item cached = cache.get(path);
+        Stat stat = stats.get(path);
+        if (cached == null) {
+          continue;
+        }
+        if (cached.isChildSetUnchanged(stat)) {
+          if (cache.replace(path, cached, new Item(cached, stat))) {
+            putStat(path, stat);
+          }
+        } else {
+          removeItem(path);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param nodePath
+   * @param caller
+   *          - for logging
+   * @return the cached item for nodePath, or null if nodePath is known not to
+   *         exist. On a miss the node is fetched again, so evicted entries
+   *         come back transparently. In read-through mode the fetch runs in
+   *         the background and a single {@link #LOADING} child is returned
+   *         until it completes
+   */
+  private Item lookup(String nodePath, String caller)
+  {
+    Item item = cache.get(nodePath);
+    if (item != null) {
+      hits.incrementAndGet();
+      item.referenced = true;
+      return item;
+    }
+    if (isLoadingPath(nodePath)) {
       return null;
     }
-    return childs.get(childIndex);
+    Long expiry = negatives.get(nodePath);
+    if (expiry != null) {
+      if (expiry > System.currentTimeMillis()) {
+        negativeHits.incrementAndGet();
+        return null;
+      }
+      negatives.remove(nodePath, expiry);
+    }
+    Long retry = failedLoads.get(nodePath);
+    if (retry != null) {
+      if (retry > System.currentTimeMillis()) {
+        return LOAD_FAILED_ITEM;
+      }
+      failedLoads.remove(nodePath, retry);
+    }
+
+    misses.incrementAndGet();
+    LoggerFactory.getLogger().debug("CACHE MISS! " + caller + "(). path: " + nodePath);
+    if (manager == null) {
+      return null;
+    }
+    if (readThrough) {
+      scheduleLoad(nodePath);
+      return LOADING_ITEM;
+    }
+    try {
+      refresh(Collections.singletonList(nodePath), 0);
+    } catch (KeeperException e) {
+      LoggerFactory.getLogger().error("Error occurred reloading node: " + nodePath, e);
+    }
+    return cache.get(nodePath);
+  }
+
+  private void putNegative(String nodePath)
+  {
+    long now = System.currentTimeMillis();
+    if (negatives.size() >= maxEntries) {
+      // drop the expired ones before growing further
+      for (Map.Entry<String, Long> entry : negatives.entrySet()) {
+        if (entry.getValue() <= now) {
+          negatives.remove(entry.getKey(), entry.getValue());
+        }
+      }
+      if (negatives.size() >= maxEntries) {
+        return;
+      }
+    }
+    negatives.put(nodePath, now + negativeTtlMs);
+  }
+
+  private void scheduleLoad(String nodePath)
+  {
+    if (pendingLoads.add(nodePath) && loadScheduled.compareAndSet(false, true)
+        && !closed) {
+      executor.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          loadPending();
+        }
+      });
+    }
+  }
+
+  /**
+   * fetch all pending misses in one batch and publish them. A path whose read
+   * failed is shown with a {@link #LOAD_FAILED} child and only read again
+   * after the negative TTL, and at least a second, so an unreachable server
+   * does not make the tree reload in a loop
+   */
+  private void loadPending()
+  {
+    loadScheduled.set(false);
+    List<String> paths = new ArrayList<String>(pendingLoads);
+    // misses come from rows the tree is drawing
+    Lane previous = ZooInspectorPriority.set(Lane.VISIBLE);
+    try {
+      refresh(paths, 0);
+    } catch (Exception e) {
+      LoggerFactory.getLogger().error("Error occurred loading nodes: " + paths, e);
+    } finally {
+      ZooInspectorPriority.set(previous);
+      pendingLoads.removeAll(paths);
+    }
+    long retry = System.currentTimeMillis() + Math.max(negativeTtlMs, 1000);
+    for (String path : paths) {
+      if (cache.containsKey(path) || negatives.containsKey(path)) {
+        failedLoads.remove(path);
+      } else {
+        failedLoads.put(path, retry);
+      }
+    }
+    if (!paths.isEmpty()) {
+      fireCacheChanged(paths);
+    }
+  }
+
+  public String getNodeChild(String nodePath, int childIndex)
+  {
+    Item item = lookup(nodePath, "getNodeChild");
+    if (item == null) {
+      return null;
+    }
+
+    if (item.childs == null || childIndex < 0 || childIndex >= item.childs.length) {
+      return null;
+    }
+    return item.childs[childIndex];
   }
 
   public int getNumChildren(String nodePath)
   {
-    if (!cache.containsKey(nodePath)) {
-    // if (!manager.watchers.containsKey(nodePath)) {
-      LoggerFactory.getLogger().error("CACHE MISS! getNumChildren(). path: " + nodePath);
+    Item item = lookup(nodePath, "getNumChildren");
+    if (item == null) {
       return 0;
     }
-    Item item = cache.get(nodePath);
-    if (item == null || item.childs == null) {
+    if (item.childs == null) {
       return 0;
     }
-    return item.childs.size();
+    return item.childs.length;
   }
 
+  /**
+   * @param nodePath
+   * @return the sorted children of nodePath. The returned list is shared and
+   *         unmodifiable
+   */
   public List<String> getChildren(String nodePath) {
-    if (!cache.containsKey(nodePath)) {
-    // if (!manager.watchers.containsKey(nodePath)) {
-      LoggerFactory.getLogger().error("CACHE MISS! getChildren(). path: " + nodePath);
+    Item item = lookup(nodePath, "getChildren");
+    if (item == null) {
       return Collections.emptyList();
     }
-    // sort it
-    List<String> childs = cache.get(nodePath).childs;
-    // List<String> childs = manager.watchers.get(nodePath).getChilds();
-    Collections.sort(childs);
-    // System.out.println("getChilds: " + childs);
+    if (item.childList == null) {
+      return Collections.emptyList();
+    }
+    return item.childList;
+  }
 
-    return childs;
+  /**
+   * @param nodePath
+   * @param child
+   *          - the name of the child
+   * @return the index of child among the sorted children of nodePath, or -1
+   *         if it is not a cached child of nodePath
+   */
+  public int getChildIndex(String nodePath, String child) {
+    Item item = cache.get(nodePath);
+    if (item == null || item.childs == null) {
+      return -1;
+    }
+    int index = Arrays.binarySearch(item.childs, child);
+    return index < 0 ? -1 : index;
   }
 
   /**
-   * remove all cached items start with prefix
-   * @param prefix
+   * @param nodePath
+   * @return the cached path of the parent of nodePath, or null if nodePath is
+   *         the root or its parent is not cached
    */
-  public void removePrefix(String prefix) {
-    Iterator<Map.Entry<String, Item>> iter = cache.entrySet().iterator();
-    // Iterator<Map.Entry<String, NodeWatcher>> iter = manager.watchers.entrySet().iterator(); // cache.entrySet().iterator();
-    while (iter.hasNext()) {
-      String path = iter.next().getKey();
-      if (path.startsWith(prefix)) {
-        iter.remove();
+  public String getParent(String nodePath) {
+    String parent = parentPath(nodePath);
+    if (parent == null || !cache.containsKey(parent)) {
+      return null;
+    }
+    return parent;
+  }
+
+  /**
+   * @param nodePath
+   * @return all cached paths in the subtree rooted at nodePath (including
+   *         nodePath itself), in path order
+   */
+  public List<String> getSubtree(String nodePath) {
+    List<String> paths = new ArrayList<String>();
+    if (cache.containsKey(nodePath)) {
+      paths.add(nodePath);
+    }
+    paths.addAll(descendants(nodePath).keySet());
+    return paths;
+  }
+
+  /**
+   * remove nodePath and all its cached descendants. Only touches the key range
+   * of the subtree, so the cost is O(log(cache size) + subtree size)
+   * @param nodePath
+   */
+  public void removeSubtree(String nodePath) {
+    removeItem(nodePath);
+    for (String path : descendants(nodePath).keySet()) {
+      removeItem(path);
+    }
+  }
+
+  /**
+   * drop the cached children, {@link Stat} and negative entry of each path
+   * after it was written through this client, so the next lookup reads it
+   * again
+   * @param paths
+   */
+  public void invalidate(Collection<String> paths) {
+    for (String path : paths) {
+      removeItem(path);
+      negatives.remove(path);
+      failedLoads.remove(path);
+    }
+  }
+
+  /**
+   * @param nodePath
+   * @return a live view of the cache entries strictly below nodePath
+   */
+  private NavigableMap<String, Item> descendants(String nodePath) {
+    // every descendant starts with "nodePath/", and '0' is the character right
+    // after '/', so [nodePath + "/", nodePath + "0") is exactly the subtree
+    String from = nodePath.endsWith("/") ? nodePath : nodePath + "/";
+    String to = from.substring(0, from.length() - 1) + (char) ('/' + 1);
+    return cache.subMap(from, !from.equals(nodePath), to, false);
+  }
+
+  /**
+   * Collects child watch events and refetches the affected cached parents in
+   * one batch per {@link #WATCH_COALESCE_MS}
+   */
+  private class ChildWatcher implements Watcher
+  {
+    @Override
+    public void process(WatchedEvent event)
+    {
+      String path = event.getPath();
+      if (path == null) {
+        if (event.getState() == KeeperState.Expired) {
+          watchedPaths.clear();
+        }
+        return;
+      }
+
+      if (event.getType() == EventType.ChildWatchRemoved) {
+        // removed by unwatch(), the path may already be watched again
+        return;
+      }
+      watchedPaths.remove(path);
+      if (event.getType() == EventType.NodeDeleted) {
+        removeSubtree(path);
+        fireCacheChanged(Collections.singletonList(path));
+      } else if (cache.containsKey(path)) {
+        dirtyPaths.add(path);
+        if (flushScheduled.compareAndSet(false, true)) {
+          executor.schedule(new Runnable()
+          {
+            @Override
+            public void run()
+            {
+              flushDirtyPaths();
+            }
+          }, watchCoalesceMs, TimeUnit.MILLISECONDS);
+        }
       }
     }
   }
+
+  private void flushDirtyPaths()
+  {
+    flushScheduled.set(false);
+    List<String> paths = new ArrayList<String>(dirtyPaths);
+    dirtyPaths.removeAll(paths);
+    Lane previous = ZooInspectorPriority.set(Lane.EXPANDED);
+    try {
+      refresh(paths, 0);
+      fireCacheChanged(paths);
+    } catch (Exception e) {
+      LoggerFactory.getLogger().error("Error occurred refreshing watched nodes: " + paths, e);
+    } finally {
+      ZooInspectorPriority.set(previous);
+    }
+  }
+
+  void fireCacheChanged(List<String> paths)
+  {
+    if (manager != null) {
+      manager.fireCacheChanged(paths);
+    }
+  }
+
+  static String childPath(String parent, String child) {
+    return parent.equals("/") ? parent + child : parent + "/" + child;
+  }
+
+  static String parentPath(String nodePath) {
+    int index = nodePath.lastIndexOf('/');
+    if (index < 0 || nodePath.equals("/")) {
+      return null;
+    }
+    return index == 0 ? "/" : nodePath.substring(0, index);
+  }
 }
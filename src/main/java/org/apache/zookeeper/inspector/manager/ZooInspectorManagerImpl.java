@@ -34,29 +34,39 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.KeeperException.NoNodeException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.Watcher.WatcherType;
 import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.ZooDefs.Perms;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.ZooKeeper.States;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.ZooInspectorExecutors;
 import org.apache.zookeeper.inspector.encryption.BasicDataEncryptionManager;
 import org.apache.zookeeper.inspector.encryption.DataEncryptionManager;
 import org.apache.zookeeper.inspector.logger.LoggerFactory;
 import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache.Item;
+import org.apache.zookeeper.inspector.manager.ZooInspectorPriority.Lane;
+import org.apache.zookeeper.inspector.manager.ZooInspectorSingleFlight.Listener;
 import org.apache.zookeeper.retry.ZooKeeperRetry;
 
 /**
@@ -81,6 +91,24 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
   private static final String ACL_ID = "Id";
   private static final String SESSION_STATE = "Session State";
   private static final String SESSION_ID = "Session ID";
+  private static final String CACHE_ENTRIES = "Cache Entries";
+  private static final String CACHE_BYTES = "Cache Size (estimated bytes)";
+  private static final String CACHE_HITS = "Cache Hits";
+  private static final String CACHE_MISSES = "Cache Misses";
+  private static final String CACHE_EVICTIONS = "Cache Evictions";
+  private static final String CACHE_NEGATIVE_HITS = "Cache Negative Hits";
+  private static final String READS_SAVED = "Coalesced Reads Saved";
+  private static final String FETCH_IN_FLIGHT = "Batch Reads In Flight / Limit";
+  private static final String FETCH_P99 = "Batch Read p99 Latency (ms)";
+  private static final String FETCH_WAITING = "Reads Waiting by Lane";
+  private static final String PREFETCH_HITS = "Prefetch Hits / Expands";
+  private static final String READ_SESSIONS = "Read Sessions (Reads Routed)";
+  private static final String READ_SESSIONS_CONSISTENT = "Read Sessions Consistent";
+  private static final String PREFETCH_USED = "Prefetch Used / Prepared";
+  private static final String PREFETCH_READ = "Prefetched Nodes / Bytes";
+  private static final String DATA_CACHE_BYTES = "Data Cache Size (estimated bytes)";
+  private static final String DATA_CACHE_HITS = "Data Cache Hits";
+  private static final String DATA_CACHE_MISSES = "Data Cache Misses";
   /**
    * The key used for the connect string in the connection properties file
    */
@@ -99,6 +127,9 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
       new File(homeDir + "/.zooinspector/defaultNodeVeiwers.cfg");
   private static final File defaultConnectionFile =
       new File(homeDir + "/.zooinspector/defaultConnectionSettings.cfg");
+  private static final ZooInspectorCacheSnapshot cacheSnapshot =
+      new ZooInspectorCacheSnapshot(new File(homeDir + "/.zooinspector/cache"));
+  private static final File prefetchDir = new File(homeDir + "/.zooinspector/prefetch");
 
 //  private static final File defaultNodeViewersFile =
 //      new File("./config/defaultNodeVeiwers.cfg");
@@ -109,8 +140,16 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
   private String connectString;
   private int sessionTimeout;
   private ZooKeeper zooKeeper;
+  // extra sessions for reads without a watch, null if not configured
+  private volatile ZooInspectorReadPool readPool;
   // private
   final Map<String, NodeWatcher> watchers = new HashMap<String, NodeWatcher>();
+  private final List<NodeListener> cacheListeners = new CopyOnWriteArrayList<NodeListener>();
+  // the tree, the node viewers and background loads often ask for the same
+  // path at the same moment, such reads share one server call
+  private final ZooInspectorSingleFlight reads = new ZooInspectorSingleFlight();
+  private final ZooInspectorFetchEngine fetchEngine = new ZooInspectorFetchEngine(reads);
+  private final boolean asyncFetch = ZooInspectorFetchEngine.isEnabled();
   protected boolean connected = true;
   private Properties lastConnectionProps;
   private String defaultEncryptionManager;
@@ -124,6 +163,8 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
   // - treeExpansion event fired
   // - selectPth event fired
   ZooInspectorManagerCache cache;
+  // node data, valid while its data watch has not fired
+  ZooInspectorDataCache dataCache;
 
   /**
    * @throws IOException
@@ -151,29 +192,11 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
       {
         String connectString = connectionProps.getProperty(CONNECT_STRING);
         String sessionTimeout = connectionProps.getProperty(SESSION_TIMEOUT);
-        String encryptionManager = connectionProps.getProperty(DATA_ENCRYPTION_MANAGER);
         if (connectString == null || sessionTimeout == null)
         {
           throw new IllegalArgumentException("Both connect string and session timeout are required.");
         }
-        if (encryptionManager == null)
-        {
-          this.encryptionManager = new BasicDataEncryptionManager();
-        }
-        else
-        {
-          Class<?> clazz = Class.forName(encryptionManager);
-
-          if (Arrays.asList(clazz.getInterfaces()).contains(DataEncryptionManager.class))
-          {
-            this.encryptionManager =
-                (DataEncryptionManager) Class.forName(encryptionManager).newInstance();
-          }
-          else
-          {
-            throw new IllegalArgumentException("Data encryption manager must implement DataEncryptionManager interface");
-          }
-        }
+        this.encryptionManager = createEncryptionManager(connectionProps);
         this.connectString = connectString;
         this.sessionTimeout = Integer.valueOf(sessionTimeout);
 
@@ -210,9 +233,23 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     if (connected == true)
     {
       cache = new ZooInspectorManagerCache(this);
+      dataCache = new ZooInspectorDataCache(zooKeeper);
+      if (ZooInspectorReadPool.getNumSessions() > 0)
+      {
+        openReadPool();
+      }
+      if (ZooInspectorPrefetcher.isEnabled())
+      {
+        startPrefetcher();
+      }
+      long snapshotZxid = loadCacheSnapshot();
+      boolean warmStart = snapshotZxid >= 0;
       try
       {
-        cache.refresh(Arrays.asList("/"), 1);
+        if (!warmStart)
+        {
+          cache.refresh(Arrays.asList("/"), 1);
+        }
       }
       catch (KeeperException e)
       {
@@ -220,6 +257,12 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
         disconnect();
         e.printStackTrace();
       }
+      // an ensemble still at the snapshot's zxid has not been written since
+      if (warmStart && connected
+          && ((ZooKeeperRetry) zooKeeper).getLastZxid() != snapshotZxid)
+      {
+        revalidateCache(cache);
+      }
     }
     else
     {
@@ -241,9 +284,25 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     {
       if (this.zooKeeper != null)
       {
+        saveCacheSnapshot();
         this.zooKeeper.close();
         this.zooKeeper = null;
         connected = false;
+        if (readPool != null)
+        {
+          fetchEngine.setReadPool(null);
+          readPool.close();
+          readPool = null;
+        }
+        if (cache != null)
+        {
+          cache.close();
+          stopPrefetcher();
+        }
+        if (dataCache != null)
+        {
+          dataCache.clear();
+        }
         removeWatchers(this.watchers.keySet());
         return true;
       }
@@ -256,6 +315,183 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     return false;
   }
 
+  /**
+   * fill the new cache from the snapshot saved for this connect string
+   *
+   * @return the zxid the loaded snapshot was taken at, or -1 if the cache was
+   *         not loaded
+   */
+  private long loadCacheSnapshot()
+  {
+    if (!ZooInspectorCacheSnapshot.isEnabled())
+    {
+      return -1;
+    }
+    try
+    {
+      long snapshotZxid = cacheSnapshot.load(cache, connectString);
+      if (snapshotZxid < 0 || !cache.cache.containsKey("/"))
+      {
+        cache.clear();
+        return -1;
+      }
+      long zxid = ((ZooKeeperRetry) zooKeeper).getLastZxid();
+      if (zxid < snapshotZxid)
+      {
+        // zxids never go backwards, so this is a different or rebuilt ensemble
+        LoggerFactory.getLogger().warn("Discarding cache snapshot for " + connectString
+            + ": ensemble is at zxid 0x" + Long.toHexString(zxid)
+            + ", snapshot was taken at 0x" + Long.toHexString(snapshotZxid));
+        cache.clear();
+        cacheSnapshot.delete(connectString);
+        return -1;
+      }
+      cache.evictIfNeeded();
+      return snapshotZxid;
+    }
+    catch (IOException e)
+    {
+      LoggerFactory.getLogger().warn("Error occurred loading cache snapshot for "
+          + connectString, e);
+      cache.clear();
+      return -1;
+    }
+  }
+
+  /**
+   * @param connectionProps
+   * @return the {@link DataEncryptionManager} named by
+   *         {@link #DATA_ENCRYPTION_MANAGER}, or the basic one if none is
+   * @throws Exception
+   *           - if the class cannot be loaded or does not implement
+   *           {@link DataEncryptionManager}
+   */
+  static DataEncryptionManager createEncryptionManager(Properties connectionProps)
+      throws Exception
+  {
+    String encryptionManager = connectionProps.getProperty(DATA_ENCRYPTION_MANAGER);
+    if (encryptionManager == null)
+    {
+      return new BasicDataEncryptionManager();
+    }
+    Class<?> clazz = Class.forName(encryptionManager);
+
+    if (Arrays.asList(clazz.getInterfaces()).contains(DataEncryptionManager.class))
+    {
+      return (DataEncryptionManager) clazz.newInstance();
+    }
+    throw new IllegalArgumentException("Data encryption manager must implement DataEncryptionManager interface");
+  }
+
+  private void openReadPool()
+  {
+    try
+    {
+      readPool = new ZooInspectorReadPool(connectString, sessionTimeout,
+          ZooInspectorReadPool.getNumSessions());
+      fetchEngine.setReadPool(readPool);
+    }
+    catch (IOException e)
+    {
+      LoggerFactory.getLogger().warn("Error occurred opening read sessions to "
+          + connectString + ", reading through one session", e);
+    }
+  }
+
+  /**
+   * sync the read sessions, if there are any, and check they are consistent
+   * with the main session
+   * @return the result of the check, or null if there are no read sessions
+   * @throws InterruptedException
+   */
+  Boolean checkReadSessions() throws InterruptedException
+  {
+    ZooInspectorReadPool pool = readPool;
+    ZooKeeper zk = zooKeeper;
+    if (pool == null || !(zk instanceof ZooKeeperRetry))
+    {
+      return null;
+    }
+    return pool.checkConsistency(((ZooKeeperRetry) zk).getLastZxid());
+  }
+
+  private void startPrefetcher()
+  {
+    ZooInspectorPrefetcher prefetcher = new ZooInspectorPrefetcher(cache, new File(prefetchDir,
+        ZooInspectorCacheSnapshot.fileName(connectString, ".properties")));
+    try
+    {
+      prefetcher.load();
+    }
+    catch (IOException e)
+    {
+      LoggerFactory.getLogger().warn("Error occurred loading prefetch history for "
+          + connectString, e);
+    }
+    cache.prefetcher = prefetcher;
+  }
+
+  private void stopPrefetcher()
+  {
+    ZooInspectorPrefetcher prefetcher = cache.getPrefetcher();
+    if (prefetcher == null)
+    {
+      return;
+    }
+    prefetcher.close();
+    try
+    {
+      prefetcher.save();
+    }
+    catch (IOException e)
+    {
+      LoggerFactory.getLogger().warn("Error occurred saving prefetch history for "
+          + connectString, e);
+    }
+  }
+
+  private void saveCacheSnapshot()
+  {
+    if (cache == null || cache.getNumEntries() == 0 || !ZooInspectorCacheSnapshot.isEnabled())
+    {
+      return;
+    }
+    try
+    {
+      cacheSnapshot.save(cache, connectString, ((ZooKeeperRetry) zooKeeper).getLastZxid());
+    }
+    catch (IOException e)
+    {
+      LoggerFactory.getLogger().warn("Error occurred saving cache snapshot for "
+          + connectString, e);
+    }
+  }
+
+  /**
+   * re-read a cache loaded from a snapshot in the background, and redraw the
+   * tree once it is done
+   */
+  private void revalidateCache(final ZooInspectorManagerCache cache)
+  {
+    ZooInspectorExecutors.start(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        ZooInspectorPriority.set(Lane.BACKGROUND);
+        try
+        {
+          cache.revalidate();
+          fireCacheChanged(Arrays.asList("/"));
+        }
+        catch (Exception e)
+        {
+          LoggerFactory.getLogger().error("Error occurred revalidating the cache", e);
+        }
+      }
+    }, "ZooInspectorCacheRevalidate");
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -313,11 +549,117 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     return null;
   }
 
-  // experiments show that multi-thread sync-read is faster than single-thread async-read
-  // let's try it
-  ExecutorService service = Executors.newFixedThreadPool(40);
+  // synchronous batch reads, only used when ZooInspectorFetchEngine.MODE is "pool".
+  // Measured against a local server, the pipelined async reads of the fetch
+  // engine list 20k paths about twice as fast, see ZooInspectorFetchBenchmark
+  ExecutorService service = ZooInspectorExecutors.newPool(40);
 
   Map<String, Item> getChildren(List<String> paths)
+  {
+    return getChildren(paths, null);
+  }
+
+  /**
+   * @param paths
+   * @param watcher
+   *          - a child {@link Watcher} to leave on each path, or null
+   * @return the children and {@link Stat} of each path, fetched in parallel
+   */
+  Map<String, Item> getChildren(List<String> paths, Watcher watcher)
+  {
+    return asyncFetch ? getChildrenAsync(paths, watcher) : getChildrenPooled(paths, watcher);
+  }
+
+  Map<String, Item> getChildrenAsync(List<String> paths, Watcher watcher)
+  {
+    try
+    {
+      return fetchEngine.getChildren(zooKeeper, paths, watcher);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return Collections.emptyMap();
+    }
+  }
+
+  /**
+   * read the children of one path without waiting for the reply, blocking
+   * only while the limit of outstanding batch reads is reached
+   * @param path
+   * @param listener
+   *          - notified with the result as described for
+   *          {@link #getChildren(List, Watcher)}
+   * @throws InterruptedException
+   */
+  void getChildren(final String path, final Listener<Item> listener)
+      throws InterruptedException
+  {
+    if (asyncFetch)
+    {
+      fetchEngine.getChildren(zooKeeper, path, null, listener);
+      return;
+    }
+    service.submit(new Callable<String>()
+    {
+      @Override
+      public String call() throws Exception
+      {
+        listener.completed(readChildren(path, null), null);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * synchronous read shared with identical reads in flight
+   * @return the children and {@link Stat} of path, without {@link Stat} if
+   *         path does not exist, or without children if the read failed
+   */
+  private Item readChildren(final String path, final Watcher watcher)
+  {
+    try
+    {
+      return reads.execute((watcher == null ? "getChildren:" : "getChildrenW:") + path,
+          new Callable<Item>()
+          {
+            @Override
+            public Item call() throws Exception
+            {
+              Stat stat = new Stat();
+              try
+              {
+                ZooInspectorReadPool pool = readPool;
+                ZooKeeper zk = pool == null || watcher != null ? zooKeeper
+                    : pool.route(path, zooKeeper);
+                try
+                {
+                  return new Item(zk.getChildren(path, watcher, stat), stat);
+                }
+                finally
+                {
+                  if (pool != null)
+                  {
+                    pool.replied(zk);
+                  }
+                }
+              }
+              catch (NoNodeException e)
+              {
+                // no Stat either, so the cache can tell it from a failed read
+                return new Item((List<String>) null, null);
+              }
+            }
+          });
+    }
+    catch (Exception e)
+    {
+      // System.out.println("exception: " + e);
+      return new Item((List<String>) null, new Stat());
+    }
+  }
+
+  Map<String, Item> getChildrenPooled(List<String> paths, final Watcher watcher)
   {
     int n = paths.size();
     if (n > 0)
@@ -334,19 +676,13 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
           @Override
           public String call() throws Exception
           {
-            Stat stat = null;
-            List<String> childs = null;
             try
             {
-              stat = new Stat();
-              childs = zooKeeper.getChildren(path, false, stat);
-            } catch (Exception e) {
-              // System.out.println("exception: " + e);
+              // ret.add(new Item(childs, stat));
+              ret.put(path, readChildren(path, watcher));
             }
             finally
             {
-              // ret.add(new Item(childs, stat));
-              ret.put(path, new Item(childs, stat));
               cntDown.countDown();
             }
             return null;
@@ -369,6 +705,77 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     return Collections.emptyMap();
   }
 
+  /**
+   * @param paths
+   * @return the {@link Stat} of each path that exists, fetched in parallel.
+   *         Paths that do not exist or could not be read are left out
+   */
+  Map<String, Stat> getStats(List<String> paths)
+  {
+    if (asyncFetch)
+    {
+      try
+      {
+        return fetchEngine.getStats(zooKeeper, paths);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return Collections.emptyMap();
+      }
+    }
+    return getStatsPooled(paths);
+  }
+
+  Map<String, Stat> getStatsPooled(List<String> paths)
+  {
+    int n = paths.size();
+    if (n > 0)
+    {
+      final Map<String, Stat> ret = new ConcurrentHashMap<String, Stat>();
+      final CountDownLatch cntDown = new CountDownLatch(n);
+
+      for (final String path : paths)
+      {
+        service.submit(new Callable<String>()
+        {
+
+          @Override
+          public String call() throws Exception
+          {
+            try
+            {
+              Stat stat = exists(path, null);
+              if (stat != null)
+              {
+                ret.put(path, stat);
+              }
+            } catch (Exception e) {
+              // leave it out, the caller falls back to a full read
+            }
+            finally
+            {
+              cntDown.countDown();
+            }
+            return null;
+          }
+        });
+      }
+
+      try
+      {
+        cntDown.await();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      return ret;
+    }
+
+    return Collections.emptyMap();
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -386,11 +793,32 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
         {
           nodePath = "/";
         }
-        Stat s = zooKeeper.exists(nodePath, false);
-        if (s != null)
+        ZooInspectorDataCache.Entry entry =
+            dataCache.get(nodePath, cache.getStat(nodePath, cache.getStatMaxAge()));
+        if (entry != null)
         {
-          return this.encryptionManager.decryptData(zooKeeper.getData(nodePath, false, s));
+          return this.encryptionManager.decryptData(entry.data);
         }
+        // one read fills the cache and sets the watch that keeps it valid
+        final String path = nodePath;
+        byte[] data = limitedRead("getData:" + path, Lane.SELECTED, new Callable<byte[]>()
+        {
+          @Override
+          public byte[] call() throws Exception
+          {
+            long readToken = dataCache.startRead();
+            Stat s = new Stat();
+            byte[] data = zooKeeper.getData(path, dataCache.getWatcher(), s);
+            dataCache.put(path, data, s, readToken);
+            cache.putStat(path, s);
+            return data;
+          }
+        });
+        return this.encryptionManager.decryptData(data);
+      }
+      catch (NoNodeException e)
+      {
+        // OK to return null
       }
       catch (Exception e)
       {
@@ -402,6 +830,31 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     return null;
   }
 
+  /**
+   * remove a watch set through the main session, without waiting for the
+   * server. The watch is dropped on the client even if the server cannot be
+   * reached
+   * @param nodePath
+   * @param watcher
+   * @param type
+   */
+  void removeWatch(String nodePath, Watcher watcher, WatcherType type)
+  {
+    ZooKeeper zk = zooKeeper;
+    if (zk == null)
+    {
+      return;
+    }
+    zk.removeWatches(nodePath, watcher, type, true, new VoidCallback()
+    {
+      @Override
+      public void processResult(int rc, String path, Object ctx)
+      {
+        // NOWATCHER: it fired meanwhile
+      }
+    }, null);
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -456,15 +909,11 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
       {
         throw new IllegalArgumentException("Invalid node path: " + nodePath);
       }
-      String parentPath = nodePath.substring(0, index);
+      String parentPath = ZooInspectorManagerCache.parentPath(nodePath);
       String child = nodePath.substring(index + 1);
-      if (parentPath != null && parentPath.length() > 0)
+      if (parentPath != null)
       {
-        List<String> children = this.getChildren(parentPath);
-        if (children != null)
-        {
-          return children.indexOf(child);
-        }
+        return cache.getChildIndex(parentPath, child);
       }
     }
     return -1;
@@ -488,76 +937,108 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
         {
           nodePath = "/";
         }
-        Stat s = zooKeeper.exists(nodePath, false);
-        if (s != null)
+        List<ACL> acls = cache.getACLs(nodePath, cache.getStatMaxAge());
+        if (acls == null)
         {
-          List<ACL> acls = zooKeeper.getACL(nodePath, s);
-          for (ACL acl : acls)
+          final String path = nodePath;
+          acls = limitedRead("getACL:" + path, Lane.SELECTED, new Callable<List<ACL>>()
           {
-            Map<String, String> aclMap = new LinkedHashMap<String, String>();
-            aclMap.put(ACL_SCHEME, acl.getId().getScheme());
-            aclMap.put(ACL_ID, acl.getId().getId());
-            StringBuilder sb = new StringBuilder();
-            int perms = acl.getPerms();
-            boolean addedPerm = false;
-            if ((perms & Perms.READ) == Perms.READ)
-            {
-              sb.append("Read");
-              addedPerm = true;
-            }
-            if (addedPerm)
-            {
-              sb.append(", ");
-            }
-            if ((perms & Perms.WRITE) == Perms.WRITE)
-            {
-              sb.append("Write");
-              addedPerm = true;
-            }
-            if (addedPerm)
-            {
-              sb.append(", ");
-            }
-            if ((perms & Perms.CREATE) == Perms.CREATE)
-            {
-              sb.append("Create");
-              addedPerm = true;
-            }
-            if (addedPerm)
-            {
-              sb.append(", ");
-            }
-            if ((perms & Perms.DELETE) == Perms.DELETE)
-            {
-              sb.append("Delete");
-              addedPerm = true;
-            }
-            if (addedPerm)
-            {
-              sb.append(", ");
-            }
-            if ((perms & Perms.ADMIN) == Perms.ADMIN)
+            @Override
+            public List<ACL> call() throws Exception
             {
-              sb.append("Admin");
-              addedPerm = true;
+              Stat s = new Stat();
+              List<ACL> acls = zooKeeper.getACL(path, s);
+              if (acls != null)
+              {
+                cache.putACLs(path, s, acls);
+              }
+              return acls;
             }
-            aclMap.put(ACL_PERMS, sb.toString());
-            returnACLs.add(aclMap);
-          }
+          });
         }
+        if (acls != null)
+        {
+          returnACLs = aclMaps(acls);
+        }
+      }
+      catch (NoNodeException e)
+      {
+        // OK to return no ACLs
+      }
+      catch (InterruptedException e)
+      {
+        LoggerFactory.getLogger().error("Error occurred retrieving ACLs of node: "
+                                            + nodePath,
+                                        e);
+      }
+      catch (Exception e)
+      {
+        LoggerFactory.getLogger().error("Error occurred retrieving ACLs of node: "
+                                            + nodePath,
+                                        e);
+      }
+    }
+    return returnACLs;
+  }
+
+  /**
+   * @param acls
+   * @return acls as shown by the ACL viewer
+   */
+  static List<Map<String, String>> aclMaps(List<ACL> acls)
+  {
+    List<Map<String, String>> returnACLs = new ArrayList<Map<String, String>>();
+    for (ACL acl : acls)
+    {
+      Map<String, String> aclMap = new LinkedHashMap<String, String>();
+      aclMap.put(ACL_SCHEME, acl.getId().getScheme());
+      aclMap.put(ACL_ID, acl.getId().getId());
+      StringBuilder sb = new StringBuilder();
+      int perms = acl.getPerms();
+      boolean addedPerm = false;
+      if ((perms & Perms.READ) == Perms.READ)
+      {
+        sb.append("Read");
+        addedPerm = true;
+      }
+      if (addedPerm)
+      {
+        sb.append(", ");
+      }
+      if ((perms & Perms.WRITE) == Perms.WRITE)
+      {
+        sb.append("Write");
+        addedPerm = true;
       }
-      catch (InterruptedException e)
+      if (addedPerm)
       {
-        LoggerFactory.getLogger().error("Error occurred retrieving ACLs of node: "
-                                            + nodePath,
-                                        e);
+        sb.append(", ");
       }
-      catch (KeeperException e)
+      if ((perms & Perms.CREATE) == Perms.CREATE)
       {
-        LoggerFactory.getLogger().error("Error occurred retrieving ACLs of node: "
-                                            + nodePath,
-                                        e);
+        sb.append("Create");
+        addedPerm = true;
+      }
+      if (addedPerm)
+      {
+        sb.append(", ");
+      }
+      if ((perms & Perms.DELETE) == Perms.DELETE)
+      {
+        sb.append("Delete");
+        addedPerm = true;
+      }
+      if (addedPerm)
+      {
+        sb.append(", ");
+      }
+      if ((perms & Perms.ADMIN) == Perms.ADMIN)
+      {
+        sb.append("Admin");
+        addedPerm = true;
       }
+      aclMap.put(ACL_PERMS, sb.toString());
+      returnACLs.add(aclMap);
     }
     return returnACLs;
   }
@@ -580,23 +1061,10 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
         {
           nodePath = "/";
         }
-        Stat s = zooKeeper.exists(nodePath, false);
+        Stat s = getStat(nodePath, cache.getStatMaxAge(), Lane.SELECTED);
         if (s != null)
         {
-          SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS z");
-          nodeMeta.put(A_VERSION, String.valueOf(s.getAversion()));
-          // nodeMeta.put(C_TIME, String.valueOf(s.getCtime()));
-          nodeMeta.put(C_TIME, format.format(new Date(s.getCtime())));
-          nodeMeta.put(C_VERSION, String.valueOf(s.getCversion()));
-          nodeMeta.put(CZXID, "0x" + Long.toHexString(s.getCzxid()));
-          nodeMeta.put(DATA_LENGTH, String.valueOf(s.getDataLength()));
-          nodeMeta.put(EPHEMERAL_OWNER, "0x" + Long.toHexString(s.getEphemeralOwner()));
-          // nodeMeta.put(M_TIME, String.valueOf(s.getMtime()));
-          nodeMeta.put(M_TIME, format.format(new Date(s.getMtime())));
-          nodeMeta.put(MZXID, "0x" + Long.toHexString(s.getMzxid()));
-          nodeMeta.put(NUM_CHILDREN, String.valueOf(s.getNumChildren()));
-          nodeMeta.put(PZXID, "0x" + Long.toHexString(s.getPzxid()));
-          nodeMeta.put(VERSION, String.valueOf(s.getVersion()));
+          nodeMeta = nodeMeta(s);
         }
       }
       catch (Exception e)
@@ -609,6 +1077,142 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     return nodeMeta;
   }
 
+  /**
+   * @param s
+   * @return s as shown by the meta data viewer
+   */
+  static Map<String, String> nodeMeta(Stat s)
+  {
+    Map<String, String> nodeMeta = new LinkedHashMap<String, String>();
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS z");
+    nodeMeta.put(A_VERSION, String.valueOf(s.getAversion()));
+    // nodeMeta.put(C_TIME, String.valueOf(s.getCtime()));
+    nodeMeta.put(C_TIME, format.format(new Date(s.getCtime())));
+    nodeMeta.put(C_VERSION, String.valueOf(s.getCversion()));
+    nodeMeta.put(CZXID, "0x" + Long.toHexString(s.getCzxid()));
+    nodeMeta.put(DATA_LENGTH, String.valueOf(s.getDataLength()));
+    nodeMeta.put(EPHEMERAL_OWNER, "0x" + Long.toHexString(s.getEphemeralOwner()));
+    // nodeMeta.put(M_TIME, String.valueOf(s.getMtime()));
+    nodeMeta.put(M_TIME, format.format(new Date(s.getMtime())));
+    nodeMeta.put(MZXID, "0x" + Long.toHexString(s.getMzxid()));
+    nodeMeta.put(NUM_CHILDREN, String.valueOf(s.getNumChildren()));
+    nodeMeta.put(PZXID, "0x" + Long.toHexString(s.getPzxid()));
+    nodeMeta.put(VERSION, String.valueOf(s.getVersion()));
+    return nodeMeta;
+  }
+
+  /**
+   * @param nodePath
+   * @param maxAgeMillis
+   *          - how old a cached {@link Stat} may be, or -1 for any age
+   * @param lane
+   *          - the lane of a read from the server
+   * @return the {@link Stat} of nodePath, from the cache if there is a recent
+   *         enough one, otherwise from the server. null if the node does not
+   *         exist
+   * @throws KeeperException
+   * @throws InterruptedException
+   */
+  private Stat getStat(String nodePath, long maxAgeMillis, Lane lane) throws KeeperException,
+      InterruptedException
+  {
+    Stat s = cache.getStat(nodePath, maxAgeMillis);
+    if (s == null)
+    {
+      s = exists(nodePath, lane);
+    }
+    return s;
+  }
+
+  /**
+   * exists() shared with any identical call in flight, the result is also
+   * stored in the cache
+   * @param nodePath
+   * @param lane
+   *          - the lane to wait for a slot under the batch read limit in, or
+   *          null to read right away
+   * @return the {@link Stat} of nodePath, or null if it does not exist
+   * @throws KeeperException
+   * @throws InterruptedException
+   */
+  private Stat exists(final String nodePath, Lane lane) throws KeeperException,
+      InterruptedException
+  {
+    try
+    {
+      return limitedRead("exists:" + nodePath, lane, new Callable<Stat>()
+      {
+        @Override
+        public Stat call() throws Exception
+        {
+          Stat s = zooKeeper.exists(nodePath, false);
+          cache.putStat(nodePath, s);
+          return s;
+        }
+      });
+    }
+    catch (KeeperException e)
+    {
+      throw e;
+    }
+    catch (InterruptedException e)
+    {
+      throw e;
+    }
+    catch (RuntimeException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      // exists() throws nothing else
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param key
+   *          - identifies the read for sharing it with identical reads
+   * @param lane
+   *          - the lane of the read, or null to read right away
+   * @param read
+   *          - a single synchronous read
+   * @return the result of read, or of the identical read in flight. A slot
+   *         under the batch read limit is taken for the duration, so the read
+   *         is ordered with the queued batch reads by lane. As in
+   *         {@link ZooInspectorFetchEngine}, the slot is taken before the
+   *         read is shared: a read still queued in a low lane never holds a
+   *         flight that a read in a higher lane then has to wait behind
+   * @throws Exception
+   *           - the exception thrown by the shared read
+   */
+  private <V> V limitedRead(String key, Lane lane, Callable<V> read) throws Exception
+  {
+    if (!asyncFetch || lane == null)
+    {
+      return reads.execute(key, read);
+    }
+    ZooInspectorConcurrencyLimiter limiter = fetchEngine.getLimiter();
+    limiter.acquire(lane);
+    long start = System.nanoTime();
+    boolean error = true;
+    try
+    {
+      V value = reads.execute(key, read);
+      error = false;
+      return value;
+    }
+    catch (NoNodeException e)
+    {
+      error = false;
+      throw e;
+    }
+    finally
+    {
+      limiter.release(System.nanoTime() - start, error);
+    }
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -669,11 +1273,11 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     {
       try
       {
-        Stat s = zooKeeper.exists(nodePath, false);
-        if (s != null)
-        {
-          return s.getEphemeralOwner() == 0;
-        }
+        // the ephemeral owner never changes, so a Stat of any age will do.
+        // Without one the node is taken to allow children, as all but
+        // ephemeral nodes do, until the Stat read in the background is in
+        Stat s = cache.getStatOrLoad(nodePath);
+        return s == null || s.getEphemeralOwner() == 0;
       }
       catch (Exception e)
       {
@@ -706,6 +1310,56 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
         sessionMeta.put(CONNECT_STRING, this.connectString);
         sessionMeta.put(SESSION_TIMEOUT, String.valueOf(this.sessionTimeout));
       }
+      if (cache != null)
+      {
+        sessionMeta.put(CACHE_ENTRIES, String.valueOf(cache.getNumEntries()));
+        sessionMeta.put(CACHE_BYTES, String.valueOf(cache.getEstimatedBytes()));
+        sessionMeta.put(CACHE_HITS, String.valueOf(cache.getHits()));
+        sessionMeta.put(CACHE_MISSES, String.valueOf(cache.getMisses()));
+        sessionMeta.put(CACHE_EVICTIONS, String.valueOf(cache.getEvictions()));
+        sessionMeta.put(CACHE_NEGATIVE_HITS, String.valueOf(cache.getNegativeHits()));
+        ZooInspectorPrefetcher prefetcher = cache.getPrefetcher();
+        if (prefetcher != null)
+        {
+          sessionMeta.put(PREFETCH_HITS, prefetcher.getHits() + " / "
+              + prefetcher.getExpands());
+          sessionMeta.put(PREFETCH_USED, prefetcher.getHits() + " / "
+              + prefetcher.getPreparedNodes());
+          sessionMeta.put(PREFETCH_READ, prefetcher.getPrefetchedNodes() + " / "
+              + prefetcher.getPrefetchedBytes());
+        }
+      }
+      sessionMeta.put(READS_SAVED, String.valueOf(reads.getSaved()));
+      ZooInspectorReadPool pool = readPool;
+      if (pool != null)
+      {
+        sessionMeta.put(READ_SESSIONS, pool.toString());
+        Boolean consistent = pool.isConsistent();
+        sessionMeta.put(READ_SESSIONS_CONSISTENT, consistent == null ? "not checked"
+            : String.valueOf(consistent));
+      }
+      if (asyncFetch)
+      {
+        ZooInspectorConcurrencyLimiter limiter = fetchEngine.getLimiter();
+        sessionMeta.put(FETCH_IN_FLIGHT, limiter.getInFlight() + " / "
+            + limiter.getLimit());
+        sessionMeta.put(FETCH_P99, String.format("%.1f (target %d)",
+            limiter.getRecentP99Millis(), limiter.getLatencyTargetMillis()));
+        StringBuilder waiting = new StringBuilder();
+        for (Lane lane : Lane.values())
+        {
+          waiting.append(waiting.length() == 0 ? "" : ", ")
+              .append(lane.name().toLowerCase()).append(' ')
+              .append(limiter.getWaiting(lane));
+        }
+        sessionMeta.put(FETCH_WAITING, waiting.toString());
+      }
+      if (dataCache != null)
+      {
+        sessionMeta.put(DATA_CACHE_BYTES, String.valueOf(dataCache.getEstimatedBytes()));
+        sessionMeta.put(DATA_CACHE_HITS, String.valueOf(dataCache.getHits()));
+        sessionMeta.put(DATA_CACHE_MISSES, String.valueOf(dataCache.getMisses()));
+      }
     }
     catch (Exception e)
     {
@@ -727,19 +1381,38 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     {
       try
       {
+        // one round trip for all segments: a session's requests are applied
+        // in order, so each parent is there before its child is created
         String[] nodeElements = nodeName.split("/");
+        final CountDownLatch done = new CountDownLatch(nodeElements.length);
+        final List<KeeperException> errors = new CopyOnWriteArrayList<KeeperException>();
+        String node = parent;
         for (String nodeElement : nodeElements)
         {
-          String node = parent + "/" + nodeElement;
-          Stat s = zooKeeper.exists(node, false);
-          if (s == null)
-          {
-            zooKeeper.create(node,
-                             this.encryptionManager.encryptData(null),
-                             Ids.OPEN_ACL_UNSAFE,
-                             CreateMode.PERSISTENT);
-            parent = node;
-          }
+          node = ZooInspectorManagerCache.childPath(node, nodeElement);
+          zooKeeper.create(node,
+                           this.encryptionManager.encryptData(null),
+                           Ids.OPEN_ACL_UNSAFE,
+                           CreateMode.PERSISTENT,
+                           new StringCallback()
+                           {
+                             @Override
+                             public void processResult(int rc, String path, Object ctx,
+                                 String name)
+                             {
+                               if (rc != Code.OK.intValue() && rc != Code.NODEEXISTS.intValue())
+                               {
+                                 errors.add(KeeperException.create(Code.get(rc), path));
+                               }
+                               done.countDown();
+                             }
+                           },
+                           null);
+        }
+        done.await();
+        if (!errors.isEmpty())
+        {
+          throw errors.get(0);
         }
         return true;
       }
@@ -762,33 +1435,226 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
   @Override
   public boolean deleteNode(String nodePath)
   {
-    if (zooKeeper.getState() == States.CONNECTED)
+    ZooInspectorDeleter deleter = deleteSubtrees(Arrays.asList(nodePath), false);
+    if (deleter == null)
     {
-      try
+      return false;
+    }
+    try
+    {
+      deleter.await(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      deleter.cancel();
+      Thread.currentThread().interrupt();
+    }
+    return deleter.isSuccessful();
+  }
+
+  @Override
+  public boolean createNodes(List<String> nodePaths)
+  {
+    List<String> sorted = new ArrayList<String>(nodePaths);
+    // parents sort before their children
+    Collections.sort(sorted);
+    ZooInspectorMulti multi = new ZooInspectorMulti();
+    try
+    {
+      for (String nodePath : sorted)
+      {
+        multi.create(nodePath, this.encryptionManager.encryptData(null), Ids.OPEN_ACL_UNSAFE,
+            CreateMode.PERSISTENT);
+      }
+    }
+    catch (Exception e)
+    {
+      LoggerFactory.getLogger().error("Error occurred creating nodes: " + nodePaths, e);
+      return false;
+    }
+    try
+    {
+      return commit(multi, "creating nodes", sorted);
+    }
+    finally
+    {
+      invalidateParents(sorted, false);
+    }
+  }
+
+  @Override
+  public boolean deleteNodes(List<String> nodePaths)
+  {
+    List<String> sorted = new ArrayList<String>(nodePaths);
+    // children sort before their parents
+    Collections.sort(sorted, Collections.reverseOrder());
+    ZooInspectorMulti multi = new ZooInspectorMulti();
+    for (String nodePath : sorted)
+    {
+      multi.delete(nodePath, -1);
+    }
+    try
+    {
+      return commit(multi, "deleting nodes", sorted);
+    }
+    finally
+    {
+      invalidateParents(sorted, true);
+    }
+  }
+
+  /**
+   * drop the cached children of the parents of nodePaths after nodes were
+   * created or deleted under them, and have the tree read them again
+   */
+  private void invalidateParents(List<String> nodePaths, boolean deleted)
+  {
+    ZooInspectorManagerCache cached = cache;
+    if (cached == null)
+    {
+      return;
+    }
+    Set<String> parents = new TreeSet<String>();
+    for (String nodePath : nodePaths)
+    {
+      String parent = ZooInspectorManagerCache.parentPath(nodePath);
+      if (parent != null)
+      {
+        parents.add(parent);
+      }
+      if (deleted)
+      {
+        cached.removeSubtree(nodePath);
+      }
+    }
+    cached.invalidate(nodePaths);
+    cached.invalidate(parents);
+    fireCacheChanged(new ArrayList<String>(parents));
+  }
+
+  @Override
+  public boolean setData(Map<String, String> data)
+  {
+    ZooInspectorMulti multi = new ZooInspectorMulti();
+    try
+    {
+      for (Map.Entry<String, String> entry : data.entrySet())
+      {
+        multi.setData(entry.getKey(), this.encryptionManager.encryptData(entry.getValue()), -1);
+      }
+    }
+    catch (Exception e)
+    {
+      LoggerFactory.getLogger().error("Error occurred setting data for nodes: "
+          + data.keySet(), e);
+      return false;
+    }
+    try
+    {
+      return commit(multi, "setting data for nodes", data.keySet());
+    }
+    finally
+    {
+      ZooInspectorDataCache cachedData = dataCache;
+      ZooInspectorManagerCache cached = cache;
+      Map<String, Stat> stats = multi.getSetDataStats();
+      for (String nodePath : data.keySet())
       {
-        // Stat s = zooKeeper.exists(nodePath, false);
-        // if (s != null) {
-        List<String> children = zooKeeper.getChildren(nodePath, false);
-        if (children != null)
+        if (cachedData != null)
         {
-          for (String child : children)
+          cachedData.remove(nodePath);
+        }
+        if (cached != null)
+        {
+          // the Stat of a node not written is unknown, so it is read again
+          Stat stat = stats.get(nodePath);
+          if (stat != null)
+          {
+            cached.putStat(nodePath, stat);
+          }
+          else
           {
-            String node = nodePath + "/" + child;
-            deleteNode(node);
+            cached.invalidateStat(nodePath);
           }
         }
-        zooKeeper.delete(nodePath, -1);
-        // }
-        return true;
-      }
-      catch (Exception e)
-      {
-        LoggerFactory.getLogger().error("Error occurred deleting node: " + nodePath, e);
       }
     }
+  }
+
+  private boolean commit(ZooInspectorMulti multi, String action, Collection<String> nodePaths)
+  {
+    if (!connected || zooKeeper == null)
+    {
+      return false;
+    }
+    try
+    {
+      multi.commit(zooKeeper);
+      return true;
+    }
+    catch (Exception e)
+    {
+      LoggerFactory.getLogger().error("Error occurred " + action + ", " + multi.getCommittedOps()
+          + " of " + multi.getNumOps() + " applied: " + nodePaths, e);
+    }
     return false;
   }
 
+  @Override
+  public ZooInspectorImport importSubtree(File file, String nodePath,
+      ZooInspectorImport.Conflict conflict) throws IOException
+  {
+    ZooKeeper zk = zooKeeper;
+    if (zk == null || zk.getState() != States.CONNECTED)
+    {
+      return null;
+    }
+    ZooInspectorImportSource source = ZooInspectorImport.open(file);
+    // a changed file or another target starts over
+    String description = file.getAbsolutePath() + " (" + file.length() + " bytes, modified "
+        + file.lastModified() + ") to " + connectString + nodePath;
+    ZooInspectorImport importer = new ZooInspectorImport(zk, source, nodePath, conflict,
+        new File(file.getPath() + ".checkpoint"), description);
+    ZooInspectorExecutors.start(importer, "ZooInspectorImport");
+    return importer;
+  }
+
+  @Override
+  public ZooInspectorCopy copySubtree(String nodePath, ZooInspectorNodeTreeManager target,
+      String targetPath, ZooInspectorImport.Conflict conflict, boolean move)
+  {
+    ZooKeeper zk = getSession();
+    ZooKeeper targetZk = sessionOf(target);
+    if (zk == null || zk.getState() != States.CONNECTED || targetZk == null
+        || targetZk.getState() != States.CONNECTED)
+    {
+      return null;
+    }
+    if ((target == this || connectString.equals(target.getConnectString()))
+        && (targetPath.equals(nodePath)
+            || targetPath.startsWith(ZooInspectorManagerCache.childPath(nodePath, ""))))
+    {
+      throw new IllegalArgumentException("Cannot copy " + nodePath + " into itself");
+    }
+    ZooInspectorCopy copy = new ZooInspectorCopy(zk, nodePath, targetZk, targetPath, conflict,
+        move);
+    ZooInspectorExecutors.start(copy, "ZooInspectorCopy");
+    return copy;
+  }
+
+  @Override
+  public ZooInspectorDeleter deleteSubtrees(List<String> nodePaths, boolean dryRun)
+  {
+    ZooKeeper zk = zooKeeper;
+    if (zk == null || zk.getState() != States.CONNECTED)
+    {
+      return null;
+    }
+    ZooInspectorDeleter deleter = new ZooInspectorDeleter(zk, nodePaths, dryRun);
+    ZooInspectorExecutors.start(deleter, "ZooInspectorDeleter");
+    return deleter;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -802,7 +1668,9 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     {
       try
       {
-        zooKeeper.setData(nodePath, this.encryptionManager.encryptData(data), -1);
+        Stat stat = zooKeeper.setData(nodePath, this.encryptionManager.encryptData(data), -1);
+        dataCache.remove(nodePath);
+        cache.putStat(nodePath, stat);
         return true;
       }
       catch (Exception e)
@@ -1226,6 +2094,69 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     return cache;
   }
 
+  @Override
+  public ZooInspectorCrawl crawl(String nodePath, int maxDepth, long maxNodes, long deadline)
+  {
+    ZooInspectorManagerCache current = cache;
+    if (!connected || current == null)
+    {
+      return null;
+    }
+    return current.crawl(Arrays.asList(nodePath), maxDepth, maxNodes, deadline);
+  }
+
+  @Override
+  public ZooInspectorExport exportSubtree(String nodePath, File file) throws IOException
+  {
+    ZooKeeper zk = zooKeeper;
+    if (zk == null || zk.getState() != States.CONNECTED)
+    {
+      return null;
+    }
+    ZooInspectorExport export = new ZooInspectorExport(zk, nodePath, file);
+    ZooInspectorExecutors.start(export, "ZooInspectorExport");
+    return export;
+  }
+
+  @Override
+  public ZooInspectorDiff diffSubtree(String nodePath, ZooInspectorReadOnlyManager other,
+      String otherPath)
+  {
+    ZooKeeper zk = getSession();
+    ZooKeeper otherZk = sessionOf(other);
+    if (zk == null || zk.getState() != States.CONNECTED || otherZk == null
+        || otherZk.getState() != States.CONNECTED)
+    {
+      return null;
+    }
+    ZooInspectorDiff diff = new ZooInspectorDiff(zk, nodePath, otherZk, otherPath);
+    ZooInspectorExecutors.start(diff, "ZooInspectorDiff");
+    return diff;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @seeorg.apache.zookeeper.inspector.manager.ZooInspectorManager#
+   * addCacheListener(org.apache.zookeeper.inspector.manager.NodeListener)
+   */
+  @Override
+  public void addCacheListener(NodeListener listener)
+  {
+    cacheListeners.add(listener);
+  }
+
+  void fireCacheChanged(List<String> paths)
+  {
+    for (NodeListener listener : cacheListeners)
+    {
+      for (String path : paths)
+      {
+        listener.processEvent(path, EventType.NodeChildrenChanged.name(), null);
+      }
+    }
+  }
+
   @Override
   public States getZookeeperStates()
   {
@@ -1237,4 +2168,38 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager
     return zooKeeper.getState();
   }
 
+  /**
+   * @return the session of this manager, for subtree operations that read or
+   *         write through two managers, or null if not connected
+   * @throws IllegalArgumentException
+   *           - if this manager has no session to take part with
+   */
+  ZooKeeper getSession()
+  {
+    return zooKeeper;
+  }
+
+  /**
+   * @param manager
+   *          - the other side of a subtree operation
+   * @return the session of manager, or null if it is not connected
+   * @throws IllegalArgumentException
+   *           - if manager has no ZooKeeper session to take part with
+   */
+  static ZooKeeper sessionOf(ZooInspectorReadOnlyManager manager)
+  {
+    if (!(manager instanceof ZooInspectorManagerImpl))
+    {
+      throw new IllegalArgumentException(manager.getClass().getName()
+          + " has no ZooKeeper session to work with");
+    }
+    return ((ZooInspectorManagerImpl) manager).getSession();
+  }
+
+  @Override
+  public String getConnectString()
+  {
+    return connectString;
+  }
+
 }
@@ -0,0 +1,167 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Bulk writes as a series of multi() transactions. Operations are collected
+ * in order and split into chunks that each serialize to less than
+ * jute.maxbuffer, the largest request a server accepts, and hold at most
+ * {@link #MAX_OPS} operations. Each chunk is one round trip and is applied
+ * atomically; the chunks are applied one after the other, so a failure leaves
+ * the chunks before it applied and the ones after it not.
+ */
+public class ZooInspectorMulti
+{
+  /**
+   * System property for the most operations in one transaction
+   */
+  public static final String MAX_OPS = "zooinspector.multi.maxOps";
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  // request header, length prefix and the multi end marker, with room to spare
+  private static final int SLACK = 1024;
+  // type, done flag and error code before each operation
+  private static final int OP_HEADER = 9;
+
+  private final int maxBytes;
+  private final int maxOps;
+  private final List<List<Op>> chunks = new ArrayList<List<Op>>();
+  private int chunkBytes = 0;
+  private int numOps = 0;
+  private int committedChunks = 0;
+  private int committedOps = 0;
+  // new Stats of the nodes whose data was set by the applied chunks
+  private final Map<String, Stat> setDataStats = new HashMap<String, Stat>();
+
+  public ZooInspectorMulti()
+  {
+    this(Integer.getInteger("jute.maxbuffer", 0xfffff) - SLACK,
+        Integer.getInteger(MAX_OPS, 1000));
+  }
+
+  ZooInspectorMulti(int maxBytes, int maxOps)
+  {
+    this.maxBytes = maxBytes;
+    this.maxOps = Math.max(1, maxOps);
+  }
+
+  public void create(String path, byte[] data, List<ACL> acl, CreateMode mode)
+  {
+    int size = string(path) + bytes(data) + 4 + 4;
+    for (ACL entry : acl) {
+      size += 4 + string(entry.getId().getScheme()) + string(entry.getId().getId());
+    }
+    add(Op.create(path, data, acl, mode), size);
+  }
+
+  public void delete(String path, int version)
+  {
+    add(Op.delete(path, version), string(path) + 4);
+  }
+
+  public void setData(String path, byte[] data, int version)
+  {
+    add(Op.setData(path, data, version), string(path) + bytes(data) + 4);
+  }
+
+  private void add(Op op, int size)
+  {
+    size += OP_HEADER;
+    List<Op> chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+    if (chunk == null || chunks.size() == committedChunks
+        || chunk.size() >= maxOps || chunkBytes + size > maxBytes) {
+      // an operation larger than the limit still gets a chunk of its own,
+      // for the server to reject
+      chunk = new ArrayList<Op>();
+      chunks.add(chunk);
+      chunkBytes = 0;
+    }
+    chunk.add(op);
+    chunkBytes += size;
+    numOps++;
+  }
+
+  private static int string(String s)
+  {
+    return 4 + (s == null ? 0 : s.getBytes(UTF8).length);
+  }
+
+  private static int bytes(byte[] b)
+  {
+    return 4 + (b == null ? 0 : b.length);
+  }
+
+  /**
+   * apply the chunks not applied yet, in order. After a failure, calling it
+   * again retries from the chunk that failed
+   * @param zooKeeper
+   * @throws KeeperException
+   *           - if a chunk failed, none of its operations were applied
+   * @throws InterruptedException
+   */
+  public void commit(ZooKeeper zooKeeper) throws KeeperException, InterruptedException
+  {
+    while (committedChunks < chunks.size()) {
+      List<Op> chunk = chunks.get(committedChunks);
+      List<OpResult> results = zooKeeper.multi(chunk);
+      for (int i = 0; i < results.size(); i++) {
+        if (results.get(i) instanceof OpResult.SetDataResult) {
+          setDataStats.put(chunk.get(i).getPath(),
+              ((OpResult.SetDataResult) results.get(i)).getStat());
+        }
+      }
+      committedChunks++;
+      committedOps += chunk.size();
+    }
+  }
+
+  /**
+   * @return the number of operations added
+   */
+  public int getNumOps()
+  {
+    return numOps;
+  }
+
+  /**
+   * @return the number of transactions the operations are split into
+   */
+  public int getNumChunks()
+  {
+    return chunks.size();
+  }
+
+  /**
+   * @return the number of operations applied so far
+   */
+  public int getCommittedOps()
+  {
+    return committedOps;
+  }
+
+  /**
+   * @return the {@link Stat} each setData() operation applied so far left its
+   *         node with, by path
+   */
+  public Map<String, Stat> getSetDataStats()
+  {
+    return setDataStats;
+  }
+
+  List<List<Op>> getChunks()
+  {
+    return chunks;
+  }
+}
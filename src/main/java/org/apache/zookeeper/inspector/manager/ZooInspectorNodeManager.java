@@ -17,6 +17,8 @@
  */
 package org.apache.zookeeper.inspector.manager;
 
+import java.util.Map;
+
 /**
  * A Manager for all interactions between the application and the nodes in a
  * Zookeeper instance
@@ -30,4 +32,12 @@ public interface ZooInspectorNodeManager extends ZooInspectorReadOnlyManager {
      * @return true if the data for the node was successfully updated
      */
     public boolean setData(String nodePath, String data);
+
+    /**
+     * @param data
+     *            - the data to set on each node, by node path
+     * @return true if the data for all nodes was updated, in as few multi()
+     *         transactions as the request size limit allows
+     */
+    public boolean setData(Map<String, String> data);
 }
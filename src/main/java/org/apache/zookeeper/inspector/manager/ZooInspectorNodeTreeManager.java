@@ -17,6 +17,10 @@
  */
 package org.apache.zookeeper.inspector.manager;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
 /**
  * A Manager for all interactions between the application and the node tree in a
  * Zookeeper instance
@@ -40,4 +44,75 @@ public interface ZooInspectorNodeTreeManager extends
      */
     public abstract boolean deleteNode(String nodePath);
 
+    /**
+     * @param nodePaths
+     *            - the roots of the subtrees to delete
+     * @param dryRun
+     *            - true to only count the nodes that would be deleted
+     * @return the running delete, to follow or cancel it, or null if not
+     *         connected
+     */
+    public abstract ZooInspectorDeleter deleteSubtrees(List<String> nodePaths,
+            boolean dryRun);
+
+    /**
+     * @param nodePaths
+     *            - the paths of the nodes to create, parents before or along
+     *            with their children
+     * @return true if all nodes were created, in as few multi() transactions
+     *         as the request size limit allows
+     */
+    public abstract boolean createNodes(List<String> nodePaths);
+
+    /**
+     * @param nodePaths
+     *            - the paths of the nodes to delete, children along with their
+     *            parents
+     * @return true if all nodes were deleted, in as few multi() transactions
+     *         as the request size limit allows
+     */
+    public abstract boolean deleteNodes(List<String> nodePaths);
+
+    /**
+     * import nodes below nodePath in the background. An earlier import of the
+     * same file to the same place that did not finish is resumed
+     * @param file
+     *            - an export, or nodes described in JSON, see
+     *            {@link ZooInspectorImport#open(File)}
+     * @param nodePath
+     *            - the path the root of the imported nodes goes to
+     * @param conflict
+     *            - what to do about nodes that exist already
+     * @return the running import, to follow or cancel it, or null if not
+     *         connected
+     * @throws IOException
+     *             if file cannot be read
+     */
+    public abstract ZooInspectorImport importSubtree(File file,
+            String nodePath, ZooInspectorImport.Conflict conflict)
+            throws IOException;
+
+    /**
+     * @param nodePath
+     *            - the root of the subtree to copy
+     * @param target
+     *            - the manager to copy to, this one or one connected to
+     *            another ensemble
+     * @param targetPath
+     *            - the path the root of the subtree goes to
+     * @param conflict
+     *            - what to do about nodes that exist already
+     * @param move
+     *            - delete the subtree once the copy is checked against it
+     * @return the running copy, to follow or cancel it, or null if either
+     *         side is not connected
+     * @throws IllegalArgumentException
+     *             if the subtree would be copied into itself, or if either
+     *             side is not backed by a ZooKeeper session, such as a
+     *             snapshot
+     */
+    public abstract ZooInspectorCopy copySubtree(String nodePath,
+            ZooInspectorNodeTreeManager target, String targetPath,
+            ZooInspectorImport.Conflict conflict, boolean move);
+
 }
\ No newline at end of file
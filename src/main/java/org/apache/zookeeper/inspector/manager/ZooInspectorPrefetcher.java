@@ -0,0 +1,438 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.inspector.logger.LoggerFactory;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache.Item;
+import org.apache.zookeeper.inspector.manager.ZooInspectorPriority.Lane;
+
+/**
+ * Speculative reads for the next expand. Expanding a node in the tree reads
+ * its children; once the tree has been idle for {@link #IDLE_MS} the children
+ * of those children are read as well, in {@link Lane#BACKGROUND}, so
+ * expanding any of them is served from the {@link ZooInspectorManagerCache}
+ * without a server round trip.
+ * <p>
+ * Children are prepared in the order users of the ensemble opened them
+ * before, then by name, until the node or byte budget of the expand is spent
+ * or the user expands another node. The open counts are kept in one file per
+ * connect string.
+ * <p>
+ * Without child watches a prepared node is shown as it was when it was read,
+ * at most {@link #MAX_AGE_MS} ago. A prepared node is forgotten once it is
+ * that old, once the cache drops it, or when {@link #MAX_PREPARED} newer ones
+ * were prepared since
+ */
+public class ZooInspectorPrefetcher
+{
+  /**
+   * System property to turn off prefetching
+   */
+  public static final String PREFETCH = "zooinspector.prefetch";
+  /**
+   * System property for the number of nodes read per expand
+   */
+  public static final String MAX_NODES = "zooinspector.prefetch.maxNodes";
+  /**
+   * System property for the approximate bytes received per expand
+   */
+  public static final String MAX_BYTES = "zooinspector.prefetch.maxBytes";
+  /**
+   * System property for the time (ms) without an expand before prefetching
+   * starts
+   */
+  public static final String IDLE_MS = "zooinspector.prefetch.idleMs";
+  /**
+   * System property for the time (ms) a prepared node may be shown from the
+   * cache
+   */
+  public static final String MAX_AGE_MS = "zooinspector.prefetch.maxAgeMs";
+
+  /**
+   * The most prepared nodes remembered at a time
+   */
+  public static final int MAX_PREPARED = 1000;
+
+  // the most opened paths kept in the file
+  private static final int MAX_LEARNED = 2000;
+
+  private final ZooInspectorManagerCache cache;
+  private final File file;
+  private final int maxNodes = Integer.getInteger(MAX_NODES, 500);
+  private final long maxBytes = Long.getLong(MAX_BYTES, 256 * 1024);
+  private final long idleMs = Long.getLong(IDLE_MS, 300);
+  private final long maxAgeMs = Long.getLong(MAX_AGE_MS, 30000);
+
+  // times each path was expanded, across sessions
+  private final Map<String, Integer> opens = new HashMap<String, Integer>();
+  // nodes whose children were read ahead, with the time they were read,
+  // oldest first
+  private final Map<String, Long> prepared = new LinkedHashMap<String, Long>()
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+    {
+      return size() > MAX_PREPARED;
+    }
+  };
+  // bumped on every expand, a prefetch stops when it no longer matches
+  private final AtomicLong generation = new AtomicLong();
+  private final ScheduledExecutorService executor;
+
+  private final AtomicLong expands = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong preparedNodes = new AtomicLong();
+  private final AtomicLong prefetchedNodes = new AtomicLong();
+  private final AtomicLong prefetchedBytes = new AtomicLong();
+
+  /**
+   * @param cache
+   *          - the cache to fill
+   * @param file
+   *          - where the open counts are kept, or null to not keep them
+   */
+  public ZooInspectorPrefetcher(ZooInspectorManagerCache cache, File file)
+  {
+    this.cache = cache;
+    this.file = file;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread thread = new Thread(r, "ZooInspectorPrefetch");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * @return false if prefetching was turned off with {@link #PREFETCH}
+   */
+  public static boolean isEnabled()
+  {
+    return !"false".equalsIgnoreCase(System.getProperty(PREFETCH));
+  }
+
+  /**
+   * stop prefetching
+   */
+  public void close()
+  {
+    generation.incrementAndGet();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Called before nodePath is expanded
+   * @param nodePath
+   * @return true if nodePath and its children were read ahead recently enough
+   *         to expand it from the cache
+   */
+  public boolean isReady(String nodePath)
+  {
+    expands.incrementAndGet();
+    Long readAt;
+    synchronized (prepared) {
+      readAt = prepared.remove(nodePath);
+    }
+    if (readAt == null || System.currentTimeMillis() - readAt > maxAgeMs) {
+      return false;
+    }
+    Item item = cache.cache.get(nodePath);
+    if (item == null || item.childs == null) {
+      return false;
+    }
+    for (String child : item.childs) {
+      if (!cache.cache.containsKey(ZooInspectorManagerCache.childPath(nodePath, child))) {
+        // evicted since
+        return false;
+      }
+    }
+    hits.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Called once nodePath is expanded and its children are cached: learn the
+   * open and read ahead for the next expand once the tree is idle
+   * @param nodePath
+   */
+  public void expanded(final String nodePath)
+  {
+    synchronized (opens) {
+      Integer count = opens.get(nodePath);
+      opens.put(nodePath, count == null ? 1 : count + 1);
+    }
+    final long current = generation.incrementAndGet();
+    try {
+      executor.schedule(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          prefetch(nodePath, current);
+        }
+      }, idleMs, TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      // closed
+    }
+  }
+
+  /**
+   * read the children of the children of nodePath, within the budgets
+   * @param nodePath
+   * @param expand
+   *          - the generation of the expand that asked for it
+   */
+  void prefetch(String nodePath, long expand)
+  {
+    Item item = cache.cache.get(nodePath);
+    if (item == null || item.childs == null || cache.manager == null) {
+      return;
+    }
+    int nodes = 0;
+    long bytes = 0;
+    Lane previous = ZooInspectorPriority.set(Lane.BACKGROUND);
+    try {
+      for (String child : rank(nodePath, item.childs)) {
+        if (generation.get() != expand || bytes >= maxBytes) {
+          // the user moved on, or the budget is spent
+          break;
+        }
+        Item childItem = cache.cache.get(child);
+        if (childItem == null || childItem.childs == null || childItem.childs.length == 0
+            || nodes + childItem.childs.length > maxNodes) {
+          continue;
+        }
+        List<String> grandchildren = new ArrayList<String>(childItem.childs.length);
+        for (String grandchild : childItem.childs) {
+          grandchildren.add(ZooInspectorManagerCache.childPath(child, grandchild));
+        }
+        cache.refresh(grandchildren, 0);
+        long childBytes = 0;
+        for (String grandchild : grandchildren) {
+          Item read = cache.cache.get(grandchild);
+          if (read != null) {
+            childBytes += ZooInspectorCrawl.responseBytes(read);
+          }
+        }
+        nodes += grandchildren.size();
+        bytes += childBytes;
+        prepared(child);
+        preparedNodes.incrementAndGet();
+        prefetchedNodes.addAndGet(grandchildren.size());
+        prefetchedBytes.addAndGet(childBytes);
+      }
+    } catch (Exception e) {
+      LoggerFactory.getLogger().warn("Error occurred prefetching below " + nodePath, e);
+    } finally {
+      ZooInspectorPriority.set(previous);
+    }
+  }
+
+  /**
+   * remember that the children of nodePath were just read ahead, and forget
+   * the nodes prepared longer than {@link #MAX_AGE_MS} ago
+   * @param nodePath
+   */
+  void prepared(String nodePath)
+  {
+    long now = System.currentTimeMillis();
+    synchronized (prepared) {
+      // re-inserted, so the map stays in the order of the read times
+      prepared.remove(nodePath);
+      prepared.put(nodePath, now);
+      Iterator<Long> it = prepared.values().iterator();
+      while (it.hasNext() && now - it.next() > maxAgeMs) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Called when the cache drops nodePath: it has to be read again before it
+   * can be expanded from the cache
+   * @param nodePath
+   */
+  void dropped(String nodePath)
+  {
+    synchronized (prepared) {
+      prepared.remove(nodePath);
+    }
+  }
+
+  /**
+   * @return the number of prepared nodes remembered
+   */
+  int getNumPrepared()
+  {
+    synchronized (prepared) {
+      return prepared.size();
+    }
+  }
+
+  /**
+   * @param nodePath
+   * @param childs
+   * @return the paths of childs, the most opened first, then by name
+   */
+  List<String> rank(String nodePath, String[] childs)
+  {
+    List<String> paths = new ArrayList<String>(childs.length);
+    final Map<String, Integer> counts = new HashMap<String, Integer>();
+    synchronized (opens) {
+      for (String child : childs) {
+        String path = ZooInspectorManagerCache.childPath(nodePath, child);
+        paths.add(path);
+        Integer count = opens.get(path);
+        if (count != null) {
+          counts.put(path, count);
+        }
+      }
+    }
+    if (!counts.isEmpty()) {
+      // stable, so the name order of childs is kept among equal counts
+      Collections.sort(paths, new Comparator<String>()
+      {
+        @Override
+        public int compare(String a, String b)
+        {
+          Integer ca = counts.get(a);
+          Integer cb = counts.get(b);
+          return (cb == null ? 0 : cb) - (ca == null ? 0 : ca);
+        }
+      });
+    }
+    return paths;
+  }
+
+  /**
+   * load the open counts kept for this ensemble
+   * @throws IOException
+   */
+  public void load() throws IOException
+  {
+    if (file == null || !file.exists()) {
+      return;
+    }
+    Properties props = new Properties();
+    FileReader reader = new FileReader(file);
+    try {
+      props.load(reader);
+    } finally {
+      reader.close();
+    }
+    synchronized (opens) {
+      for (String path : props.stringPropertyNames()) {
+        try {
+          opens.put(path, Integer.valueOf(props.getProperty(path)));
+        } catch (NumberFormatException e) {
+          // skip the entry
+        }
+      }
+    }
+  }
+
+  /**
+   * save the open counts of the {@link #MAX_LEARNED} most opened paths
+   * @throws IOException
+   */
+  public void save() throws IOException
+  {
+    if (file == null) {
+      return;
+    }
+    List<Map.Entry<String, Integer>> entries;
+    synchronized (opens) {
+      if (opens.isEmpty()) {
+        return;
+      }
+      entries = new ArrayList<Map.Entry<String, Integer>>(opens.entrySet());
+    }
+    Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>()
+    {
+      @Override
+      public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b)
+      {
+        return b.getValue() - a.getValue();
+      }
+    });
+    Properties props = new Properties();
+    for (Map.Entry<String, Integer> entry : entries.subList(0,
+        Math.min(MAX_LEARNED, entries.size()))) {
+      props.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+    }
+    File dir = file.getParentFile();
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Failed to create prefetch directory: " + dir.getAbsolutePath());
+    }
+    FileWriter writer = new FileWriter(file);
+    try {
+      props.store(writer, "Paths opened in ZooInspector");
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * @return the number of expands so far
+   */
+  public long getExpands()
+  {
+    return expands.get();
+  }
+
+  /**
+   * @return the number of expands served from nodes read ahead
+   */
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of nodes whose children were read ahead, expanded or
+   *         not
+   */
+  public long getPreparedNodes()
+  {
+    return preparedNodes.get();
+  }
+
+  /**
+   * @return the number of nodes read ahead
+   */
+  public long getPrefetchedNodes()
+  {
+    return prefetchedNodes.get();
+  }
+
+  /**
+   * @return the approximate bytes received reading ahead
+   */
+  public long getPrefetchedBytes()
+  {
+    return prefetchedBytes.get();
+  }
+}
@@ -0,0 +1,62 @@
+package org.apache.zookeeper.inspector.manager;
+
+/**
+ * The lane a read is scheduled in. When reads have to wait for a slot under
+ * the {@link ZooInspectorConcurrencyLimiter}, a lane is only served once no
+ * read of a higher lane is waiting.
+ * <p>
+ * The lane is a property of the calling thread, set around the work, e.g.
+ *
+ * <pre>
+ * Lane previous = ZooInspectorPriority.set(Lane.BACKGROUND);
+ * try {
+ *   ...
+ * } finally {
+ *   ZooInspectorPriority.set(previous);
+ * }
+ * </pre>
+ *
+ * Threads that never set one, such as the Swing event thread, read in
+ * {@link Lane#VISIBLE}
+ */
+public class ZooInspectorPriority
+{
+  public enum Lane
+  {
+    /** the node shown in the node viewers */
+    SELECTED,
+    /** rows shown in the tree, including the ones an expand click reveals */
+    VISIBLE,
+    /** keeping expanded but possibly scrolled away subtrees up to date */
+    EXPANDED,
+    /** crawls, revalidation and speculative reads */
+    BACKGROUND
+  }
+
+  private static final ThreadLocal<Lane> current = new ThreadLocal<Lane>();
+
+  /**
+   * @return the lane of the calling thread
+   */
+  public static Lane current()
+  {
+    Lane lane = current.get();
+    return lane == null ? Lane.VISIBLE : lane;
+  }
+
+  /**
+   * @param lane
+   *          - the lane for the calling thread, or null for the default
+   * @return the lane set before, to restore it afterwards
+   */
+  public static Lane set(Lane lane)
+  {
+    Lane previous = current.get();
+    if (lane == null) {
+      current.remove();
+    } else {
+      current.set(lane);
+    }
+    return previous;
+  }
+}
@@ -17,6 +17,8 @@
  */
 package org.apache.zookeeper.inspector.manager;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -102,6 +104,61 @@ public interface ZooInspectorReadOnlyManager {
      * get cache
      */
     public ZooInspectorManagerCache getCache();
+
+    /**
+     * read the subtree below nodePath into the cache in the background
+     * @param nodePath
+     *            - the root of the subtree
+     * @param maxDepth
+     *            - how many levels below nodePath to read
+     * @param maxNodes
+     *            - the most nodes to read
+     * @param deadline
+     *            - when to stop, in {@link System#currentTimeMillis()}
+     * @return the running crawl, to follow or cancel it, or null if not
+     *         connected
+     */
+    public ZooInspectorCrawl crawl(String nodePath, int maxDepth,
+            long maxNodes, long deadline);
+
+    /**
+     * export the subtree below nodePath to file in the background
+     * @param nodePath
+     *            - the root of the subtree
+     * @param file
+     *            - the file to write, see {@link ZooInspectorExportFile}
+     * @return the running export, to follow or cancel it, or null if not
+     *         connected
+     * @throws IOException
+     *             if file cannot be created
+     */
+    public ZooInspectorExport exportSubtree(String nodePath, File file)
+            throws IOException;
+
+    /**
+     * compare the subtree below nodePath with the one below otherPath in the
+     * background
+     * @param nodePath
+     *            - the root of the subtree on the left
+     * @param other
+     *            - the manager of the subtree on the right, this one or one
+     *            connected to another ensemble
+     * @param otherPath
+     *            - the root of the subtree on the right
+     * @return the running diff, to follow or cancel it, or null if either
+     *         side is not connected
+     * @throws IllegalArgumentException
+     *             if either side is not backed by a ZooKeeper session, such
+     *             as a snapshot
+     */
+    public ZooInspectorDiff diffSubtree(String nodePath,
+            ZooInspectorReadOnlyManager other, String otherPath);
     
     public States getZookeeperStates();
+
+    /**
+     * @return the connect string of the ensemble this manager last connected
+     *         to, or null if it never connected
+     */
+    public String getConnectString();
 }
\ No newline at end of file
@@ -0,0 +1,262 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.logger.LoggerFactory;
+import org.apache.zookeeper.retry.ZooKeeperRetry;
+
+/**
+ * Extra sessions for reads without a watch, each pinned to one host of the
+ * connect string, so a crawl is spread over the request pipelines of several
+ * ensemble members instead of queueing behind one. Paths are routed by hash,
+ * so repeated reads of a path go to the same member. Reads that leave a watch
+ * stay on the main session, whose watches survive a change of server.
+ * <p>
+ * Members may lag behind the leader by different amounts.
+ * {@link #checkConsistency(long)} syncs every session with the leader and
+ * compares what they see; crawls run it before and after reading. In between,
+ * each reply to a routed read is checked against the zxid the main session
+ * had seen at the last check, see {@link #replied(ZooKeeper)}
+ */
+public class ZooInspectorReadPool
+{
+  /**
+   * System property for the number of read sessions, 0 (the default) to read
+   * everything through the main session
+   */
+  public static final String READ_SESSIONS = "zooinspector.readSessions";
+
+  private final List<String> hosts = new ArrayList<String>();
+  private final List<ZooKeeperRetry> sessions = new ArrayList<ZooKeeperRetry>();
+  private final AtomicLongArray routed;
+  private final int sessionTimeout;
+  private volatile Boolean consistent = null;
+  // the main session's zxid at the last check, no read session may be behind it
+  private volatile long floorZxid = 0;
+  // replies since the last check from a session behind floorZxid
+  private final AtomicLong laggingReads = new AtomicLong();
+
+  /**
+   * @param connectString
+   * @param sessionTimeout
+   * @param numSessions
+   *          - sessions to open, spread over the hosts of connectString in
+   *          order and wrapping around if there are fewer hosts
+   * @throws IOException
+   */
+  public ZooInspectorReadPool(String connectString, int sessionTimeout, int numSessions)
+      throws IOException
+  {
+    this.sessionTimeout = sessionTimeout;
+    List<String> members = hosts(connectString);
+    Watcher ignore = new Watcher()
+    {
+      @Override
+      public void process(WatchedEvent event)
+      {
+        // no watches are set through read sessions
+      }
+    };
+    try {
+      for (int i = 0; i < numSessions && !members.isEmpty(); i++) {
+        String host = members.get(i % members.size());
+        hosts.add(host);
+        sessions.add(new ZooKeeperRetry(host, sessionTimeout, ignore));
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    routed = new AtomicLongArray(sessions.size());
+  }
+
+  /**
+   * @param hosts
+   * @param sessions
+   *          - sessions opened already, one per entry of hosts
+   * @param sessionTimeout
+   */
+  ZooInspectorReadPool(List<String> hosts, List<ZooKeeperRetry> sessions, int sessionTimeout)
+  {
+    this.sessionTimeout = sessionTimeout;
+    this.hosts.addAll(hosts);
+    this.sessions.addAll(sessions);
+    routed = new AtomicLongArray(sessions.size());
+  }
+
+  /**
+   * @return the number of read sessions configured with {@link #READ_SESSIONS}
+   */
+  public static int getNumSessions()
+  {
+    return Integer.getInteger(READ_SESSIONS, 0);
+  }
+
+  /**
+   * @param connectString
+   *          - host:port pairs separated by commas, optionally followed by a
+   *          chroot path
+   * @return one connect string per host, each with the chroot path
+   */
+  static List<String> hosts(String connectString)
+  {
+    String chroot = "";
+    int slash = connectString.indexOf('/');
+    if (slash >= 0) {
+      chroot = connectString.substring(slash);
+      connectString = connectString.substring(0, slash);
+    }
+    List<String> hosts = new ArrayList<String>();
+    for (String host : connectString.split(",")) {
+      host = host.trim();
+      if (host.length() > 0) {
+        hosts.add(host + chroot);
+      }
+    }
+    return hosts;
+  }
+
+  /**
+   * @param path
+   * @param main
+   *          - the main session
+   * @return the session path is routed to, or main if that session is not
+   *         connected
+   */
+  public ZooKeeper route(String path, ZooKeeper main)
+  {
+    if (sessions.isEmpty()) {
+      return main;
+    }
+    int i = (path.hashCode() & 0x7fffffff) % sessions.size();
+    ZooKeeper session = sessions.get(i);
+    if (session.getState() != States.CONNECTED) {
+      return main;
+    }
+    routed.incrementAndGet(i);
+    return session;
+  }
+
+  /**
+   * note the reply to a read sent through session. The reply carries the zxid
+   * its server was at, a read session's must not be behind what the main
+   * session had seen at the last check
+   * @param session
+   *          - as returned by {@link #route(String, ZooKeeper)}, the main
+   *          session is ignored
+   */
+  public void replied(ZooKeeper session)
+  {
+    if (session instanceof ZooKeeperRetry && sessions.contains(session)
+        && ((ZooKeeperRetry) session).getLastZxid() < floorZxid) {
+      laggingReads.incrementAndGet();
+    }
+  }
+
+  /**
+   * sync every connected session with the leader, then check that each has
+   * seen at least zxid, that all of them see the same root and that no read
+   * since the last check was answered from behind the zxid given then
+   * @param zxid
+   *          - the last zxid seen by the main session
+   * @return true if the sessions are consistent
+   * @throws InterruptedException
+   */
+  public boolean checkConsistency(long zxid) throws InterruptedException
+  {
+    List<ZooKeeperRetry> connected = new ArrayList<ZooKeeperRetry>();
+    for (ZooKeeperRetry session : sessions) {
+      if (session.getState() == States.CONNECTED) {
+        connected.add(session);
+      }
+    }
+    final CountDownLatch synced = new CountDownLatch(connected.size());
+    final AtomicBoolean syncFailed = new AtomicBoolean();
+    for (ZooKeeperRetry session : connected) {
+      session.sync("/", new VoidCallback()
+      {
+        @Override
+        public void processResult(int rc, String path, Object ctx)
+        {
+          if (rc != Code.OK.intValue()) {
+            syncFailed.set(true);
+          }
+          synced.countDown();
+        }
+      }, null);
+    }
+    boolean ok = synced.await(sessionTimeout, TimeUnit.MILLISECONDS) && !syncFailed.get();
+    Stat root = null;
+    for (ZooKeeperRetry session : connected) {
+      try {
+        Stat stat = session.exists("/", false);
+        if (stat == null || session.getLastZxid() < zxid
+            || (root != null && (stat.getPzxid() != root.getPzxid()
+                || stat.getCversion() != root.getCversion()))) {
+          ok = false;
+        }
+        root = root == null ? stat : root;
+      } catch (Exception e) {
+        ok = false;
+      }
+    }
+    long lagging = laggingReads.getAndSet(0);
+    if (lagging > 0) {
+      ok = false;
+    }
+    floorZxid = Math.max(floorZxid, zxid);
+    if (!ok) {
+      LoggerFactory.getLogger().warn("Read sessions are not consistent with the main session"
+          + (lagging > 0 ? ", " + lagging + " reads were answered from behind it" : ""));
+    }
+    consistent = ok;
+    return ok;
+  }
+
+  /**
+   * @return the result of the last consistency check, or null if there was
+   *         none
+   */
+  public Boolean isConsistent()
+  {
+    return consistent;
+  }
+
+  /**
+   * @return each session's host with the number of reads routed to it
+   */
+  @Override
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < sessions.size(); i++) {
+      sb.append(i == 0 ? "" : ", ").append(hosts.get(i)).append(' ').append(routed.get(i));
+    }
+    return sb.toString();
+  }
+
+  public void close()
+  {
+    for (ZooKeeperRetry session : sessions) {
+      try {
+        session.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls with the same key: the first caller runs the call,
+ * callers arriving while it is in flight wait for it and share its result (or
+ * its exception). Nothing is remembered once the call completes, so a later
+ * caller always starts a fresh call. Synchronous and asynchronous callers of
+ * the same key share calls with each other
+ */
+public class ZooInspectorSingleFlight
+{
+  /**
+   * notified once with the outcome of a call
+   */
+  public interface Listener<V>
+  {
+    /**
+     * @param value
+     *          - the result, or null if the call failed
+     * @param error
+     *          - the failure, or null if the call succeeded
+     */
+    void completed(V value, Exception error);
+  }
+
+  /**
+   * a call that completes later, e.g. from a ZooKeeper callback, by calling
+   * {@link Flight#complete(Object, Exception)}
+   */
+  public interface AsyncCall<V>
+  {
+    void start(Flight<V> flight);
+  }
+
+  /**
+   * one call in flight and the callers waiting for it
+   */
+  public final class Flight<V>
+  {
+    private final String key;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private List<Listener<V>> listeners = new ArrayList<Listener<V>>();
+    private V value;
+    private Exception error;
+
+    private Flight(String key)
+    {
+      this.key = key;
+    }
+
+    /**
+     * @param value
+     * @param error
+     *          - null if the call succeeded
+     */
+    public void complete(V value, Exception error)
+    {
+      List<Listener<V>> toNotify;
+      synchronized (this) {
+        if (listeners == null) {
+          return;
+        }
+        this.value = value;
+        this.error = error;
+        toNotify = listeners;
+        listeners = null;
+      }
+      inFlight.remove(key, this);
+      done.countDown();
+      for (Listener<V> listener : toNotify) {
+        listener.completed(value, error);
+      }
+    }
+
+    /**
+     * @return false if the call already completed
+     */
+    private synchronized boolean addListener(Listener<V> listener)
+    {
+      if (listeners == null) {
+        return false;
+      }
+      listeners.add(listener);
+      return true;
+    }
+
+    private V get() throws Exception
+    {
+      done.await();
+      if (error != null) {
+        throw error;
+      }
+      return value;
+    }
+  }
+
+  private final ConcurrentMap<String, Flight<?>> inFlight =
+      new ConcurrentHashMap<String, Flight<?>>();
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong saved = new AtomicLong();
+
+  /**
+   * @param key
+   *          - identifies the operation and its arguments, e.g. "getData:/a"
+   * @param call
+   * @return the result of call, or of the identical call already in flight
+   * @throws Exception
+   *           - the exception thrown by the shared call
+   */
+  public <V> V execute(String key, Callable<V> call) throws Exception
+  {
+    Flight<V> flight = new Flight<V>(key);
+    Flight<V> running = join(key, flight);
+    if (running != null) {
+      return running.get();
+    }
+
+    V value = null;
+    Exception error = null;
+    try {
+      value = call.call();
+    } catch (Exception e) {
+      error = e;
+    } finally {
+      // an Error still releases the callers waiting for this call
+      flight.complete(value, error);
+    }
+    return flight.get();
+  }
+
+  /**
+   * Start call unless an identical call is in flight. listener is notified
+   * with the shared outcome, on the thread completing the call or on the
+   * calling thread if that call has just completed
+   * @param key
+   * @param call
+   * @param listener
+   */
+  public <V> void executeAsync(String key, AsyncCall<V> call, Listener<V> listener)
+  {
+    Flight<V> flight = new Flight<V>(key);
+    Flight<V> running = join(key, flight);
+    if (running != null) {
+      if (!running.addListener(listener)) {
+        listener.completed(running.value, running.error);
+      }
+      return;
+    }
+
+    flight.addListener(listener);
+    try {
+      call.start(flight);
+    } catch (RuntimeException e) {
+      flight.complete(null, e);
+    }
+  }
+
+  /**
+   * @return the flight already running for key, or null if flight was
+   *         registered and the caller has to run the call
+   */
+  @SuppressWarnings("unchecked")
+  private <V> Flight<V> join(String key, Flight<V> flight)
+  {
+    Flight<V> running = (Flight<V>) inFlight.putIfAbsent(key, flight);
+    if (running == null) {
+      calls.incrementAndGet();
+    } else {
+      saved.incrementAndGet();
+    }
+    return running;
+  }
+
+  /**
+   * @return the number of calls actually made
+   */
+  public long getCalls()
+  {
+    return calls.get();
+  }
+
+  /**
+   * @return the number of calls answered by sharing an in-flight call
+   */
+  public long getSaved()
+  {
+    return saved.get();
+  }
+}
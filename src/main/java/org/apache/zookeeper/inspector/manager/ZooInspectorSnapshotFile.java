@@ -0,0 +1,628 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * A ZooKeeper server snapshot (a snapshot.&lt;zxid&gt; file of a data
+ * directory) read in place, without a server. The file is memory mapped, in
+ * segments since a single map is limited to 2 GB, and opening it reads it once
+ * from start to end to index the nodes. The index holds a few numbers per
+ * node: where its path starts and how long it is, and its children. Paths,
+ * data, ACLs and stats stay in the file and are read when asked for, so the
+ * heap needed is a small fraction of the file and of what the server needed.
+ * <p>
+ * The file is the jute serialization written by the server's FileSnap:
+ *
+ * <pre>
+ * header   magic "ZKSN", version, dbid
+ * sessions count, then (id, timeout) per session
+ * acls     count, then (id, ACL list) per ACL the nodes refer to
+ * nodes    (path, data, acl id, persisted stat) per node, depth first with
+ *          the root, whose path is "", first
+ * end      the path "/", followed by a checksum
+ * </pre>
+ *
+ * Snapshots written while the server took writes are fuzzy, each node is as
+ * it was at some point during the snapshot, which is what the server itself
+ * would load before replaying its transaction logs.
+ */
+public class ZooInspectorSnapshotFile
+{
+  /**
+   * the magic number of a snapshot, "ZKSN"
+   */
+  public static final int MAGIC = 0x5a4b534e;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // the ACL id ZooKeeper uses for OPEN_ACL_UNSAFE without storing it
+  private static final long OPEN_ACL_ID = -1;
+
+  // czxid, mzxid, ctime, mtime, version, cversion, aversion, ephemeralOwner, pzxid
+  private static final int STAT_BYTES = 4 * 8 + 3 * 4 + 2 * 8;
+
+  private final File file;
+  private final long length;
+  private final int segmentShift;
+  private final MappedByteBuffer[] segments;
+  private final int version;
+  private final long dbid;
+  private final int numSessions;
+  private final Map<Long, List<ACL>> acls = new HashMap<Long, List<ACL>>();
+
+  private int numNodes = 0;
+  // node i: its path is the pathLength[i] bytes at pathPos[i], and its name
+  // the bytes from nameOffset[i] on
+  private long[] pathPos = new long[1024];
+  private int[] pathLength = new int[1024];
+  private int[] nameOffset = new int[1024];
+  // the children of node i are children[childStart[i]] to
+  // children[childStart[i + 1] - 1], in file order until sorted by name
+  private int[] childStart;
+  private int[] children;
+  private final BitSet sorted = new BitSet();
+  private long dataBytes = 0;
+  private final long indexMillis;
+
+  /**
+   * map and index file
+   * @param file
+   * @throws IOException
+   *           if file cannot be read or is not a snapshot
+   */
+  public ZooInspectorSnapshotFile(File file) throws IOException
+  {
+    this(file, 30);
+  }
+
+  /**
+   * @param file
+   * @param segmentShift
+   *          - the log2 of the size of each mapped segment
+   * @throws IOException
+   */
+  ZooInspectorSnapshotFile(File file, int segmentShift) throws IOException
+  {
+    long start = System.currentTimeMillis();
+    this.file = file;
+    this.segmentShift = segmentShift;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      length = channel.size();
+      long segmentBytes = 1L << segmentShift;
+      segments = new MappedByteBuffer[(int) ((length + segmentBytes - 1) >>> segmentShift)];
+      for (int i = 0; i < segments.length; i++) {
+        long offset = (long) i << segmentShift;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+            Math.min(segmentBytes, length - offset));
+      }
+    } finally {
+      // the maps stay valid
+      raf.close();
+    }
+    check(0, 16);
+    if (getInt(0) != MAGIC) {
+      throw new IOException(file + " is not a ZooKeeper snapshot");
+    }
+    version = getInt(4);
+    dbid = getLong(8);
+    long pos = 16;
+    check(pos, 4);
+    numSessions = getInt(pos);
+    if (numSessions < 0) {
+      throw new IOException("Invalid session count in " + file);
+    }
+    pos += 4 + (long) numSessions * 12;
+    pos = readACLs(pos);
+    index(pos);
+    indexMillis = System.currentTimeMillis() - start;
+  }
+
+  private long readACLs(long pos) throws IOException
+  {
+    check(pos, 4);
+    int count = getInt(pos);
+    pos += 4;
+    for (int i = 0; i < count; i++) {
+      check(pos, 12);
+      long id = getLong(pos);
+      int size = getInt(pos + 8);
+      pos += 12;
+      List<ACL> list = new ArrayList<ACL>();
+      for (int j = 0; j < size; j++) {
+        check(pos, 4);
+        int perms = getInt(pos);
+        pos += 4;
+        String scheme = readString(pos);
+        pos += 4 + Math.max(0, getInt(pos));
+        String aclId = readString(pos);
+        pos += 4 + Math.max(0, getInt(pos));
+        list.add(new ACL(perms, new Id(scheme, aclId)));
+      }
+      acls.put(id, list);
+    }
+    return pos;
+  }
+
+  private String readString(long pos) throws IOException
+  {
+    check(pos, 4);
+    int size = getInt(pos);
+    if (size < 0) {
+      return null;
+    }
+    check(pos + 4, size);
+    byte[] bytes = new byte[size];
+    get(pos + 4, bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * walk the nodes from pos to the end marker, recording where each path is
+   * and which node is its parent
+   */
+  private void index(long pos) throws IOException
+  {
+    int[] parents = new int[1024];
+    // the nodes from the root down to the last one read
+    int[] ancestors = new int[64];
+    int depth = 0;
+    while (true) {
+      check(pos, 4);
+      int size = getInt(pos);
+      if (size < 0) {
+        throw new IOException("Invalid node path at byte " + pos + " of " + file);
+      }
+      check(pos + 4, size);
+      if (size == 1 && get(pos + 4) == '/') {
+        break;
+      }
+      long path = pos + 4;
+      // the parent's path is everything before the last '/'
+      int lastSlash = -1;
+      for (int i = size - 1; i >= 0; i--) {
+        if (get(path + i) == '/') {
+          lastSlash = i;
+          break;
+        }
+      }
+      int parent = -1;
+      if (numNodes > 0) {
+        while (depth > 0 && pathLength[ancestors[depth - 1]] > lastSlash) {
+          depth--;
+        }
+        if (lastSlash < 0 || depth == 0 || pathLength[ancestors[depth - 1]] != lastSlash) {
+          throw new IOException("Node at byte " + pos + " of " + file
+              + " does not follow its parent");
+        }
+        parent = ancestors[depth - 1];
+      } else if (size != 0) {
+        throw new IOException("Snapshot " + file + " does not start at the root");
+      }
+      if (numNodes == pathPos.length) {
+        int grown = numNodes * 2;
+        pathPos = Arrays.copyOf(pathPos, grown);
+        pathLength = Arrays.copyOf(pathLength, grown);
+        nameOffset = Arrays.copyOf(nameOffset, grown);
+        parents = Arrays.copyOf(parents, grown);
+      }
+      pathPos[numNodes] = path;
+      pathLength[numNodes] = size;
+      nameOffset[numNodes] = lastSlash + 1;
+      parents[numNodes] = parent;
+      if (depth == ancestors.length) {
+        ancestors = Arrays.copyOf(ancestors, depth * 2);
+      }
+      ancestors[depth++] = numNodes;
+      numNodes++;
+      pos = path + size;
+      check(pos, 4);
+      int dataLength = getInt(pos);
+      pos += 4 + Math.max(0, dataLength);
+      dataBytes += Math.max(0, dataLength);
+      check(pos, 8 + STAT_BYTES);
+      pos += 8 + STAT_BYTES;
+    }
+    childStart = new int[numNodes + 1];
+    for (int i = 1; i < numNodes; i++) {
+      childStart[parents[i] + 1]++;
+    }
+    for (int i = 0; i < numNodes; i++) {
+      childStart[i + 1] += childStart[i];
+    }
+    children = new int[Math.max(0, numNodes - 1)];
+    int[] next = Arrays.copyOf(childStart, numNodes);
+    for (int i = 1; i < numNodes; i++) {
+      children[next[parents[i]]++] = i;
+    }
+  }
+
+  private void check(long pos, long size) throws IOException
+  {
+    if (size < 0 || pos + size > length) {
+      throw new IOException("Snapshot " + file + " ends at byte " + length
+          + ", expected " + (pos + size));
+    }
+  }
+
+  private byte get(long pos)
+  {
+    return segments[(int) (pos >>> segmentShift)].get((int) (pos & ((1L << segmentShift) - 1)));
+  }
+
+  private int getInt(long pos)
+  {
+    ByteBuffer segment = segments[(int) (pos >>> segmentShift)];
+    int offset = (int) (pos & ((1L << segmentShift) - 1));
+    if (offset + 4 <= segment.limit()) {
+      return segment.getInt(offset);
+    }
+    // across two segments
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      value = (value << 8) | (get(pos + i) & 0xff);
+    }
+    return value;
+  }
+
+  private long getLong(long pos)
+  {
+    return ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xffffffffL);
+  }
+
+  private void get(long pos, byte[] bytes)
+  {
+    int done = 0;
+    while (done < bytes.length) {
+      ByteBuffer segment = segments[(int) ((pos + done) >>> segmentShift)].duplicate();
+      int offset = (int) ((pos + done) & ((1L << segmentShift) - 1));
+      int count = Math.min(bytes.length - done, segment.limit() - offset);
+      segment.position(offset);
+      segment.get(bytes, done, count);
+      done += count;
+    }
+  }
+
+  /**
+   * @param node
+   * @return the name of node, "" for the root
+   */
+  public String getName(int node)
+  {
+    byte[] bytes = new byte[pathLength[node] - nameOffset[node]];
+    get(pathPos[node] + nameOffset[node], bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * @param node
+   * @return the path of node
+   */
+  public String getPath(int node)
+  {
+    if (pathLength[node] == 0) {
+      return "/";
+    }
+    byte[] bytes = new byte[pathLength[node]];
+    get(pathPos[node], bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * compare the name of node with name, as unsigned UTF-8 bytes
+   */
+  private int compareName(int node, byte[] name)
+  {
+    long pos = pathPos[node] + nameOffset[node];
+    int size = pathLength[node] - nameOffset[node];
+    for (int i = 0; i < size && i < name.length; i++) {
+      int c = (get(pos + i) & 0xff) - (name[i] & 0xff);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return size - name.length;
+  }
+
+  /**
+   * the children of node, sorted by name the first time they are asked for
+   */
+  private synchronized void sortChildren(final int node)
+  {
+    if (sorted.get(node)) {
+      return;
+    }
+    int from = childStart[node];
+    int to = childStart[node + 1];
+    if (to - from > 1) {
+      Integer[] range = new Integer[to - from];
+      final byte[][] names = new byte[range.length][];
+      for (int i = 0; i < range.length; i++) {
+        int child = children[from + i];
+        range[i] = i;
+        names[i] = new byte[pathLength[child] - nameOffset[child]];
+        get(pathPos[child] + nameOffset[child], names[i]);
+      }
+      Arrays.sort(range, new Comparator<Integer>()
+      {
+        @Override
+        public int compare(Integer a, Integer b)
+        {
+          byte[] x = names[a];
+          byte[] y = names[b];
+          for (int i = 0; i < x.length && i < y.length; i++) {
+            int c = (x[i] & 0xff) - (y[i] & 0xff);
+            if (c != 0) {
+              return c;
+            }
+          }
+          return x.length - y.length;
+        }
+      });
+      int[] order = new int[range.length];
+      for (int i = 0; i < range.length; i++) {
+        order[i] = children[from + range[i]];
+      }
+      System.arraycopy(order, 0, children, from, order.length);
+    }
+    sorted.set(node);
+  }
+
+  /**
+   * @param path
+   * @return the node at path, or -1 if there is none
+   */
+  public int find(String path)
+  {
+    if (numNodes == 0 || !path.startsWith("/")) {
+      return -1;
+    }
+    int node = 0;
+    for (String name : path.split("/")) {
+      if (name.length() == 0) {
+        continue;
+      }
+      node = findChild(node, name.getBytes(UTF8));
+      if (node < 0) {
+        return -1;
+      }
+    }
+    return node;
+  }
+
+  private int findChild(int node, byte[] name)
+  {
+    int slot = findSlot(node, name);
+    return slot < 0 ? -1 : children[slot];
+  }
+
+  /**
+   * @param node
+   * @param name
+   * @return the index of the child called name among the children of node by
+   *         name, or -1 if there is none
+   */
+  public int indexOfChild(int node, String name)
+  {
+    int slot = findSlot(node, name.getBytes(UTF8));
+    return slot < 0 ? -1 : slot - childStart[node];
+  }
+
+  /**
+   * binary search of the sorted children of node
+   * @return the position of the child called name in children, or -1
+   */
+  private int findSlot(int node, byte[] name)
+  {
+    sortChildren(node);
+    int low = childStart[node];
+    int high = childStart[node + 1] - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int c = compareName(children[mid], name);
+      if (c < 0) {
+        low = mid + 1;
+      } else if (c > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  public int getNumChildren(int node)
+  {
+    return childStart[node + 1] - childStart[node];
+  }
+
+  /**
+   * @param node
+   * @param index
+   * @return the index-th child of node by name
+   */
+  public int getChild(int node, int index)
+  {
+    sortChildren(node);
+    return children[childStart[node] + index];
+  }
+
+  /**
+   * @param node
+   * @return the names of the children of node, sorted
+   */
+  public List<String> getChildren(int node)
+  {
+    sortChildren(node);
+    List<String> names = new ArrayList<String>(getNumChildren(node));
+    for (int i = childStart[node]; i < childStart[node + 1]; i++) {
+      names.add(getName(children[i]));
+    }
+    return names;
+  }
+
+  /**
+   * @param node
+   * @return the position of the data length of node, which its ACL id and
+   *         stat follow
+   */
+  private long dataPos(int node)
+  {
+    return pathPos[node] + pathLength[node];
+  }
+
+  /**
+   * @param node
+   * @return the data of node, read from the file, null if it has none
+   */
+  public byte[] getData(int node)
+  {
+    long pos = dataPos(node);
+    int size = getInt(pos);
+    if (size < 0) {
+      return null;
+    }
+    byte[] data = new byte[size];
+    get(pos + 4, data);
+    return data;
+  }
+
+  /**
+   * @param node
+   * @return the stat of node as a server would return it
+   */
+  public Stat getStat(int node)
+  {
+    long pos = dataPos(node);
+    int size = getInt(pos);
+    pos += 4 + Math.max(0, size) + 8;
+    Stat stat = new Stat();
+    stat.setCzxid(getLong(pos));
+    stat.setMzxid(getLong(pos + 8));
+    stat.setCtime(getLong(pos + 16));
+    stat.setMtime(getLong(pos + 24));
+    stat.setVersion(getInt(pos + 32));
+    stat.setCversion(getInt(pos + 36));
+    stat.setAversion(getInt(pos + 40));
+    stat.setEphemeralOwner(getLong(pos + 44));
+    stat.setPzxid(getLong(pos + 52));
+    stat.setDataLength(Math.max(0, size));
+    stat.setNumChildren(getNumChildren(node));
+    return stat;
+  }
+
+  /**
+   * @param node
+   * @return the ACL of node, empty if the snapshot lacks it
+   */
+  public List<ACL> getACL(int node)
+  {
+    long pos = dataPos(node);
+    long id = getLong(pos + 4 + Math.max(0, getInt(pos)));
+    if (id == OPEN_ACL_ID) {
+      return Ids.OPEN_ACL_UNSAFE;
+    }
+    List<ACL> acl = acls.get(id);
+    return acl == null ? Collections.<ACL> emptyList() : acl;
+  }
+
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * @return the size of the file in bytes
+   */
+  public long getLength()
+  {
+    return length;
+  }
+
+  /**
+   * @return the zxid in the name of the file, the last transaction the
+   *         snapshot surely holds, or -1 if the name has none
+   */
+  public long getZxid()
+  {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    try {
+      return Long.parseLong(name.substring(dot + 1), 16);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  public int getVersion()
+  {
+    return version;
+  }
+
+  public long getDbid()
+  {
+    return dbid;
+  }
+
+  public int getNumSessions()
+  {
+    return numSessions;
+  }
+
+  public int getNumNodes()
+  {
+    return numNodes;
+  }
+
+  /**
+   * @return the number of distinct ACLs the nodes refer to
+   */
+  public int getNumACLs()
+  {
+    return acls.size();
+  }
+
+  /**
+   * @return the data of all nodes together, in bytes
+   */
+  public long getDataBytes()
+  {
+    return dataBytes;
+  }
+
+  /**
+   * @return the time indexing the file took
+   */
+  public long getIndexMillis()
+  {
+    return indexMillis;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("%s: %d nodes, %.1f MB of data, %d sessions, indexed in %.1f s",
+        file.getName(), numNodes, dataBytes / (1024.0 * 1024.0), numSessions,
+        indexMillis / 1000.0);
+  }
+}
@@ -0,0 +1,316 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.inspector.encryption.DataEncryptionManager;
+import org.apache.zookeeper.inspector.logger.LoggerFactory;
+
+/**
+ * A {@link ZooInspectorManager} for a server snapshot file instead of a
+ * running ensemble, to look into the data of an ensemble that is down or
+ * broken. "Connecting" opens the file given by {@link #SNAPSHOT_FILE} as a
+ * {@link ZooInspectorSnapshotFile}, which indexes the tree and reads data,
+ * ACLs and stats from the mapped file as nodes are selected.
+ * <p>
+ * A snapshot is read only: creating, deleting and changing nodes fail, and
+ * what needs a session (watches, the cache, crawls, imports and exports)
+ * answers as when not connected. Copies and diffs with a snapshot on either
+ * side are rejected. The node viewers and their
+ * configuration are shared with {@link ZooInspectorManagerImpl}.
+ */
+public class ZooInspectorSnapshotManager extends ZooInspectorManagerImpl
+{
+  /**
+   * The key used for the snapshot file in the connection properties
+   */
+  public static final String SNAPSHOT_FILE = "snapshot";
+
+  private static final String FILE = "Snapshot File";
+  private static final String ZXID = "Snapshot Zxid";
+  private static final String DBID = "Database ID";
+  private static final String NODES = "Nodes";
+  private static final String SESSIONS = "Sessions";
+  private static final String ACLS = "Distinct ACLs";
+  private static final String DATA_BYTES = "Data Size (bytes)";
+  private static final String FILE_BYTES = "File Size (bytes)";
+  private static final String INDEX_TIME = "Index Time (ms)";
+
+  private volatile ZooInspectorSnapshotFile snapshot;
+  private volatile DataEncryptionManager encryptionManager;
+
+  /**
+   * @throws IOException
+   *           - thrown if the default connection settings cannot be loaded
+   */
+  public ZooInspectorSnapshotManager() throws IOException
+  {
+    super();
+    connected = false;
+  }
+
+  /**
+   * @return the open snapshot, or null
+   */
+  public ZooInspectorSnapshotFile getSnapshot()
+  {
+    return snapshot;
+  }
+
+  @Override
+  public boolean connect(Properties connectionProps)
+  {
+    String fileName = connectionProps.getProperty(SNAPSHOT_FILE);
+    if (fileName == null || fileName.trim().length() == 0)
+    {
+      throw new IllegalArgumentException("A snapshot file is required.");
+    }
+    try
+    {
+      encryptionManager = createEncryptionManager(connectionProps);
+      snapshot = new ZooInspectorSnapshotFile(new File(fileName.trim()));
+      LoggerFactory.getLogger().info("Opened " + snapshot);
+      return true;
+    }
+    catch (IOException e)
+    {
+      LoggerFactory.getLogger().error("Error occurred opening snapshot " + fileName, e);
+    }
+    catch (Exception e)
+    {
+      LoggerFactory.getLogger().error("Error occurred loading the data encryption manager", e);
+    }
+    return false;
+  }
+
+  @Override
+  public boolean disconnect()
+  {
+    // the file stays mapped until the maps are garbage collected
+    snapshot = null;
+    return true;
+  }
+
+  @Override
+  public Pair<Map<String, List<String>>, Map<String, String>> getConnectionPropertiesTemplate()
+  {
+    Map<String, List<String>> template = new LinkedHashMap<String, List<String>>();
+    Properties last = getLastConnectionProps();
+    String lastFile = last == null ? null : last.getProperty(SNAPSHOT_FILE);
+    template.put(SNAPSHOT_FILE, Arrays.asList(new String[] { lastFile == null ? "" : lastFile }));
+    Map<String, String> labels = new LinkedHashMap<String, String>();
+    labels.put(SNAPSHOT_FILE, "Snapshot File");
+    return new Pair<Map<String, List<String>>, Map<String, String>>(template, labels);
+  }
+
+  @Override
+  public void updateDefaultConnectionFile(Properties connectionProps) throws IOException
+  {
+    // a snapshot is not a connect string to remember
+  }
+
+  /**
+   * @return CONNECTEDREADONLY while a snapshot is open, otherwise null
+   */
+  @Override
+  public States getZookeeperStates()
+  {
+    return snapshot == null ? null : States.CONNECTEDREADONLY;
+  }
+
+  private int find(ZooInspectorSnapshotFile current, String nodePath)
+  {
+    return nodePath.length() == 0 ? 0 : current.find(nodePath);
+  }
+
+  @Override
+  public String getData(String nodePath)
+  {
+    ZooInspectorSnapshotFile current = snapshot;
+    int node = current == null ? -1 : find(current, nodePath);
+    if (node < 0)
+    {
+      return null;
+    }
+    byte[] data = current.getData(node);
+    if (data == null)
+    {
+      return null;
+    }
+    try
+    {
+      return encryptionManager.decryptData(data);
+    }
+    catch (Exception e)
+    {
+      LoggerFactory.getLogger().error("Error occurred getting data for node: " + nodePath, e);
+    }
+    return null;
+  }
+
+  @Override
+  public Map<String, String> getNodeMeta(String nodePath)
+  {
+    ZooInspectorSnapshotFile current = snapshot;
+    int node = current == null ? -1 : find(current, nodePath);
+    if (node < 0)
+    {
+      return new LinkedHashMap<String, String>();
+    }
+    return nodeMeta(current.getStat(node));
+  }
+
+  @Override
+  public List<Map<String, String>> getACLs(String nodePath)
+  {
+    ZooInspectorSnapshotFile current = snapshot;
+    int node = current == null ? -1 : find(current, nodePath);
+    if (node < 0)
+    {
+      return new ArrayList<Map<String, String>>();
+    }
+    return aclMaps(current.getACL(node));
+  }
+
+  @Override
+  public Map<String, String> getSessionMeta()
+  {
+    Map<String, String> sessionMeta = new LinkedHashMap<String, String>();
+    ZooInspectorSnapshotFile current = snapshot;
+    if (current != null)
+    {
+      sessionMeta.put(FILE, current.getFile().getAbsolutePath());
+      sessionMeta.put(ZXID, "0x" + Long.toHexString(current.getZxid()));
+      sessionMeta.put(DBID, String.valueOf(current.getDbid()));
+      sessionMeta.put(NODES, String.valueOf(current.getNumNodes()));
+      sessionMeta.put(SESSIONS, String.valueOf(current.getNumSessions()));
+      sessionMeta.put(ACLS, String.valueOf(current.getNumACLs()));
+      sessionMeta.put(DATA_BYTES, String.valueOf(current.getDataBytes()));
+      sessionMeta.put(FILE_BYTES, String.valueOf(current.getLength()));
+      sessionMeta.put(INDEX_TIME, String.valueOf(current.getIndexMillis()));
+    }
+    return sessionMeta;
+  }
+
+  @Override
+  public List<String> getChildren(String nodePath)
+  {
+    ZooInspectorSnapshotFile current = snapshot;
+    int node = current == null ? -1 : find(current, nodePath);
+    return node < 0 ? null : current.getChildren(node);
+  }
+
+  @Override
+  public int getNumChildren(String nodePath)
+  {
+    ZooInspectorSnapshotFile current = snapshot;
+    int node = current == null ? -1 : find(current, nodePath);
+    return node < 0 ? -1 : current.getNumChildren(node);
+  }
+
+  @Override
+  public String getNodeChild(String nodePath, int childIndex)
+  {
+    ZooInspectorSnapshotFile current = snapshot;
+    int node = current == null ? -1 : find(current, nodePath);
+    if (node < 0 || childIndex < 0 || childIndex >= current.getNumChildren(node))
+    {
+      return null;
+    }
+    return current.getName(current.getChild(node, childIndex));
+  }
+
+  @Override
+  public int getNodeIndex(String nodePath)
+  {
+    ZooInspectorSnapshotFile current = snapshot;
+    String parentPath = ZooInspectorManagerCache.parentPath(nodePath);
+    int parent = current == null || parentPath == null ? -1 : find(current, parentPath);
+    if (parent < 0)
+    {
+      return -1;
+    }
+    return current.indexOfChild(parent, nodePath.substring(nodePath.lastIndexOf('/') + 1));
+  }
+
+  @Override
+  public boolean isAllowsChildren(String nodePath)
+  {
+    ZooInspectorSnapshotFile current = snapshot;
+    int node = current == null ? -1 : find(current, nodePath);
+    return node >= 0 && current.getStat(node).getEphemeralOwner() == 0;
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *           - always, a snapshot has no session to read or write through
+   */
+  @Override
+  ZooKeeper getSession()
+  {
+    throw new IllegalArgumentException("A snapshot cannot be copied or compared, open its ensemble instead");
+  }
+
+  @Override
+  public ZooInspectorManagerCache getCache()
+  {
+    // the index of the snapshot serves every read
+    return null;
+  }
+
+  @Override
+  public void addWatchers(Collection<String> selectedNodes, NodeListener nodeListener)
+  {
+    // a snapshot never changes
+  }
+
+  @Override
+  public void removeWatchers(Collection<String> selectedNodes)
+  {
+  }
+
+  @Override
+  public boolean createNode(String parent, String nodeName)
+  {
+    return false;
+  }
+
+  @Override
+  public boolean deleteNode(String nodePath)
+  {
+    return false;
+  }
+
+  @Override
+  public boolean createNodes(List<String> nodePaths)
+  {
+    return false;
+  }
+
+  @Override
+  public boolean deleteNodes(List<String> nodePaths)
+  {
+    return false;
+  }
+
+  @Override
+  public boolean setData(String nodePath, String data)
+  {
+    return false;
+  }
+
+  @Override
+  public boolean setData(Map<String, String> data)
+  {
+    return false;
+  }
+}
@@ -38,6 +38,8 @@ import java.awt.*;
 import javax.swing.*;
 import javax.swing.border.*;
 
+import org.apache.zookeeper.inspector.ZooInspectorExecutors;
+
 /**
  * Class to show tosters in multiplatform
  *
@@ -174,7 +176,7 @@ public class Toaster
      */
     public void animate()
     {
-      (new Animation(this)).start();
+      ZooInspectorExecutors.start(new Animation(this), "Toaster Animation");
     }
 
   }
@@ -182,7 +184,7 @@ public class Toaster
   /***
    * Class that manage the animation
    */
-  class Animation extends Thread
+  class Animation implements Runnable
   {
     SingleToaster toaster;
 
@@ -33,6 +33,8 @@ import org.apache.zookeeper.inspector.logger.LoggerFactory;
  * A Class which extends {@link ZooKeeper} and will automatically retry calls to
  * zookeeper if a {@link KeeperException.ConnectionLossException} occurs
  */
+// close() keeps ZooKeeper's InterruptedException; callers already handle it
+@SuppressWarnings("try")
 public class ZooKeeperRetry extends ZooKeeper {
 
     private boolean closed = false;
@@ -269,6 +271,13 @@ public class ZooKeeperRetry extends ZooKeeper {
         this.limit = limit;
     }
 
+    /**
+     * @return the zxid of the last response received on this session
+     */
+    public long getLastZxid() {
+        return cnxn.getLastZxid();
+    }
+
     /**
      * @return true if successfully connected to zookeeper
      */
@@ -0,0 +1,449 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.zookeeper.AsyncCallback.ACLCallback;
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.Perms;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.client.HostProvider;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * A ZooKeeper session for tests. It keeps a tree in memory and answers the
+ * asynchronous calls right away, from whichever thread makes them. It never
+ * connects: its connection waits for a server address that never comes.
+ * <p>
+ * Every call is recorded, see {@link #calls(String)} and
+ * {@link #changes(String)}, and {@link #fail(String, String, Code)} makes a
+ * call answer with an error instead. Writes check the ACLs as a server does
+ * for a client that is only world:anyone.
+ */
+class FakeZooKeeper extends ZooKeeper
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static class Node
+    {
+        byte[] data;
+        int version;
+        List<ACL> acl = Ids.OPEN_ACL_UNSAFE;
+    }
+
+    /**
+     * Holds the connection back until the session is closed
+     */
+    private static class NoHosts implements HostProvider
+    {
+        private boolean closed = false;
+
+        @Override
+        public int size()
+        {
+            return 1;
+        }
+
+        @Override
+        public synchronized InetSocketAddress next(long spinDelay)
+        {
+            while (!closed)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    break;
+                }
+            }
+            throw new IllegalStateException("No server to connect to");
+        }
+
+        @Override
+        public void onConnected()
+        {
+        }
+
+        @Override
+        public boolean updateServerList(Collection<InetSocketAddress> serverAddresses,
+                                        InetSocketAddress currentHost)
+        {
+            return false;
+        }
+
+        synchronized void close()
+        {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    private final NoHosts hosts;
+    private final TreeMap<String, Node> nodes = new TreeMap<String, Node>();
+    private final Map<String, Code> failures = new HashMap<String, Code>();
+    // "operation path" of every call, and of every write that went through
+    private final List<String> calls = new ArrayList<String>();
+    private final List<String> changes = new ArrayList<String>();
+
+    /**
+     * @param paths
+     *            - nodes without data to add, besides the root
+     * @throws IOException
+     */
+    FakeZooKeeper(String... paths) throws IOException
+    {
+        this(new NoHosts(), paths);
+    }
+
+    private FakeZooKeeper(NoHosts hosts, String[] paths) throws IOException
+    {
+        super("fake:2181", 1000, new Watcher()
+        {
+            @Override
+            public void process(WatchedEvent event)
+            {
+            }
+        }, false, hosts);
+        this.hosts = hosts;
+        add("/", null);
+        for (String path : paths)
+        {
+            add(path, null);
+        }
+    }
+
+    /**
+     * stops the connection, which never sent anything
+     */
+    @Override
+    public void close()
+    {
+        hosts.close();
+        cnxn.disconnect();
+    }
+
+    synchronized void add(String path, String data)
+    {
+        Node node = new Node();
+        node.data = data == null ? null : data.getBytes(UTF8);
+        nodes.put(path, node);
+    }
+
+    synchronized void setVersion(String path, int version)
+    {
+        nodes.get(path).version = version;
+    }
+
+    synchronized void setAcl(String path, List<ACL> acl)
+    {
+        nodes.get(path).acl = acl;
+    }
+
+    /**
+     * @param operation
+     *            - the name of the ZooKeeper method
+     * @param path
+     * @param rc
+     *            - what calls of operation on path answer from now on
+     */
+    synchronized void fail(String operation, String path, Code rc)
+    {
+        failures.put(operation + " " + path, rc);
+    }
+
+    synchronized boolean exists(String path)
+    {
+        return nodes.containsKey(path);
+    }
+
+    /**
+     * @return the data of path as a string, or null if it has none or does
+     *         not exist
+     */
+    synchronized String get(String path)
+    {
+        Node node = nodes.get(path);
+        return node == null || node.data == null ? null : new String(node.data, UTF8);
+    }
+
+    synchronized byte[] getBytes(String path)
+    {
+        return nodes.get(path).data;
+    }
+
+    synchronized void setBytes(String path, byte[] data)
+    {
+        nodes.get(path).data = data;
+    }
+
+    synchronized int getVersion(String path)
+    {
+        return nodes.get(path).version;
+    }
+
+    synchronized List<ACL> getAcl(String path)
+    {
+        Node node = nodes.get(path);
+        return node == null ? null : node.acl;
+    }
+
+    synchronized List<String> paths()
+    {
+        return new ArrayList<String>(nodes.keySet());
+    }
+
+    /**
+     * @param operation
+     * @return the paths operation was called on, in order
+     */
+    synchronized List<String> calls(String operation)
+    {
+        return select(calls, operation);
+    }
+
+    /**
+     * @param operation
+     *            - create, setData, setACL or delete
+     * @return the paths operation changed, in order
+     */
+    synchronized List<String> changes(String operation)
+    {
+        return select(changes, operation);
+    }
+
+    private static List<String> select(List<String> calls, String operation)
+    {
+        List<String> paths = new ArrayList<String>();
+        for (String call : calls)
+        {
+            if (call.startsWith(operation + " "))
+            {
+                paths.add(call.substring(operation.length() + 1));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * runs for every call, before it is answered. Override to act on it
+     * @param operation
+     * @param path
+     */
+    void called(String operation, String path)
+    {
+    }
+
+    private Code check(String operation, String path)
+    {
+        calls.add(operation + " " + path);
+        called(operation, path);
+        Code rc = failures.get(operation + " " + path);
+        if (rc != null)
+        {
+            return rc;
+        }
+        return nodes.containsKey(path) ? Code.OK : Code.NONODE;
+    }
+
+    /**
+     * @return true if world:anyone may do perm on path
+     */
+    private boolean allowed(String path, int perm)
+    {
+        for (ACL acl : nodes.get(path).acl)
+        {
+            if (acl.getId().equals(Ids.ANYONE_ID_UNSAFE) && (acl.getPerms() & perm) != 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> children(String path)
+    {
+        List<String> children = new ArrayList<String>();
+        String prefix = path.equals("/") ? "/" : path + "/";
+        for (String node : nodes.tailMap(prefix).keySet())
+        {
+            if (!node.startsWith(prefix))
+            {
+                break;
+            }
+            if (node.length() > prefix.length() && node.indexOf('/', prefix.length()) < 0)
+            {
+                children.add(node.substring(prefix.length()));
+            }
+        }
+        return children;
+    }
+
+    private Stat stat(String path)
+    {
+        Stat stat = new Stat();
+        stat.setCzxid(path.length());
+        stat.setVersion(nodes.get(path).version);
+        stat.setNumChildren(children(path).size());
+        return stat;
+    }
+
+    @Override
+    public synchronized void getData(String path, boolean watch, DataCallback cb, Object ctx)
+    {
+        Code rc = check("getData", path);
+        if (rc != Code.OK)
+        {
+            cb.processResult(rc.intValue(), path, ctx, null, null);
+        }
+        else
+        {
+            cb.processResult(rc.intValue(), path, ctx, nodes.get(path).data, stat(path));
+        }
+    }
+
+    @Override
+    public synchronized void getACL(String path, Stat stat, ACLCallback cb, Object ctx)
+    {
+        Code rc = check("getACL", path);
+        if (rc != Code.OK)
+        {
+            cb.processResult(rc.intValue(), path, ctx, null, null);
+        }
+        else
+        {
+            cb.processResult(rc.intValue(), path, ctx, nodes.get(path).acl, stat(path));
+        }
+    }
+
+    @Override
+    public synchronized void getChildren(String path, boolean watch, Children2Callback cb,
+                                         Object ctx)
+    {
+        Code rc = check("getChildren", path);
+        if (rc != Code.OK)
+        {
+            cb.processResult(rc.intValue(), path, ctx, null, null);
+        }
+        else
+        {
+            cb.processResult(rc.intValue(), path, ctx, children(path), stat(path));
+        }
+    }
+
+    @Override
+    public synchronized void create(String path, byte[] bytes, List<ACL> acl,
+                                    CreateMode createMode, StringCallback cb, Object ctx)
+    {
+        Code rc = check("create", path);
+        String parent = ZooInspectorManagerCache.parentPath(path);
+        if (rc == Code.OK)
+        {
+            rc = Code.NODEEXISTS;
+        }
+        else if (rc == Code.NONODE && nodes.containsKey(parent))
+        {
+            if (!allowed(parent, Perms.CREATE))
+            {
+                rc = Code.NOAUTH;
+            }
+            else
+            {
+                Node node = new Node();
+                node.data = bytes;
+                node.acl = acl;
+                nodes.put(path, node);
+                changes.add("create " + path);
+                rc = Code.OK;
+            }
+        }
+        cb.processResult(rc.intValue(), path, ctx, rc == Code.OK ? path : null);
+    }
+
+    @Override
+    public synchronized void setData(String path, byte[] bytes, int version, StatCallback cb,
+                                     Object ctx)
+    {
+        Code rc = check("setData", path);
+        if (rc == Code.OK)
+        {
+            Node node = nodes.get(path);
+            if (!allowed(path, Perms.WRITE))
+            {
+                rc = Code.NOAUTH;
+            }
+            else if (version != -1 && version != node.version)
+            {
+                rc = Code.BADVERSION;
+            }
+            else
+            {
+                node.data = bytes;
+                node.version++;
+                changes.add("setData " + path);
+            }
+        }
+        cb.processResult(rc.intValue(), path, ctx, rc == Code.OK ? stat(path) : null);
+    }
+
+    @Override
+    public synchronized void setACL(String path, List<ACL> acl, int aclVersion, StatCallback cb,
+                                    Object ctx)
+    {
+        Code rc = check("setACL", path);
+        if (rc == Code.OK)
+        {
+            if (!allowed(path, Perms.ADMIN))
+            {
+                rc = Code.NOAUTH;
+            }
+            else
+            {
+                nodes.get(path).acl = acl;
+                changes.add("setACL " + path);
+            }
+        }
+        cb.processResult(rc.intValue(), path, ctx, rc == Code.OK ? stat(path) : null);
+    }
+
+    @Override
+    public synchronized void delete(String path, int version, VoidCallback cb, Object ctx)
+    {
+        Code rc = check("delete", path);
+        if (rc == Code.OK)
+        {
+            if (!children(path).isEmpty())
+            {
+                rc = Code.NOTEMPTY;
+            }
+            else if (!allowed(ZooInspectorManagerCache.parentPath(path), Perms.DELETE))
+            {
+                rc = Code.NOAUTH;
+            }
+            else
+            {
+                nodes.remove(path);
+                changes.add("delete " + path);
+            }
+        }
+        cb.processResult(rc.intValue(), path, ctx);
+    }
+}
@@ -0,0 +1,212 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache.Item;
+
+/**
+ * Unit test for {@link ZooInspectorCacheSnapshot}.
+ */
+public class ZooInspectorCacheSnapshotTest
+    extends TestCase
+{
+    private static final String HOSTS = "zk1:2181,zk2:2181/chroot";
+
+    private File dir;
+    private ZooInspectorCacheSnapshot snapshot;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = File.createTempFile("ZooInspectorCacheSnapshotTest", "");
+        dir.delete();
+        snapshot = new ZooInspectorCacheSnapshot(dir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static Stat stat(long czxid, int cversion)
+    {
+        Stat stat = new Stat();
+        stat.setCzxid(czxid);
+        stat.setCversion(cversion);
+        stat.setPzxid(czxid + cversion);
+        return stat;
+    }
+
+    private static ZooInspectorManagerCache filled()
+    {
+        ZooInspectorManagerCache cache = new ZooInspectorManagerCache(null);
+        cache.putItem("/", new Item(Arrays.asList("app", "zookeeper"), stat(0, 2)));
+        cache.putItem("/app", new Item(Arrays.asList("b", "a", "été"), stat(5, 3)));
+        cache.putItem("/app/a", new Item(Collections.<String>emptyList(), stat(6, 0)));
+        cache.putItem("/zookeeper", new Item(Arrays.asList("quota"), stat(0, 1)));
+        return cache;
+    }
+
+    /**
+     * Answers probes from fixed Stats and records what was read
+     */
+    private static class FakeManager extends ZooInspectorManagerImpl
+    {
+        final Map<String, Stat> stats = new HashMap<String, Stat>();
+        final List<String> listed = new ArrayList<String>();
+        final List<String> probed = new ArrayList<String>();
+
+        FakeManager() throws IOException
+        {
+        }
+
+        @Override
+        Map<String, Item> getChildren(List<String> paths, Watcher watcher)
+        {
+            Map<String, Item> ret = new HashMap<String, Item>();
+            for (String path : paths)
+            {
+                listed.add(path);
+                ret.put(path, new Item(Arrays.asList("listed"), stats.get(path)));
+            }
+            return ret;
+        }
+
+        @Override
+        Map<String, Stat> getStats(List<String> paths)
+        {
+            Map<String, Stat> ret = new HashMap<String, Stat>();
+            for (String path : paths)
+            {
+                probed.add(path);
+                if (stats.containsKey(path))
+                {
+                    ret.put(path, stats.get(path));
+                }
+            }
+            return ret;
+        }
+    }
+
+    public void testRoundTrip() throws Exception
+    {
+        snapshot.save(filled(), HOSTS, 0x1234);
+
+        ZooInspectorManagerCache loaded = new ZooInspectorManagerCache(null);
+        assertEquals(0x1234, snapshot.load(loaded, HOSTS));
+        assertEquals(Arrays.asList("/", "/app", "/app/a", "/zookeeper"), loaded.getSubtree("/"));
+        assertEquals(Arrays.asList("a", "b", "été"), loaded.getChildren("/app"));
+        assertTrue(loaded.getChildren("/app/a").isEmpty());
+        assertEquals(stat(5, 3), loaded.cache.get("/app").zkStat);
+        assertEquals(4, loaded.getNumEntries());
+
+        // another ensemble does not see it
+        assertEquals(-1, snapshot.load(new ZooInspectorManagerCache(null), "zk3:2181"));
+    }
+
+    public void testRejectsTruncatedAndCorruptFiles() throws Exception
+    {
+        snapshot.save(filled(), HOSTS, 7);
+        File file = snapshot.getFile(HOSTS);
+        long length = file.length();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(length - 5);
+        }
+        finally
+        {
+            raf.close();
+        }
+        ZooInspectorManagerCache loaded = new ZooInspectorManagerCache(null);
+        try
+        {
+            snapshot.load(loaded, HOSTS);
+            fail("a truncated snapshot must be rejected");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        assertEquals(0, loaded.getNumEntries());
+
+        // a child count far larger than the file is not allocated
+        snapshot.save(filled(), HOSTS, 7);
+        raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            // the first entry: no shared prefix, "/", a zero Stat, then the count
+            raf.seek(8 + 1 + HOSTS.length() + 8 + 4 + 1 + 2 + 11);
+            raf.write(new byte[] { (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0x7f });
+        }
+        finally
+        {
+            raf.close();
+        }
+        try
+        {
+            snapshot.load(loaded, HOSTS);
+            fail("a corrupt snapshot must be rejected");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        assertEquals(0, loaded.getNumEntries());
+
+        raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.writeInt(0);
+        }
+        finally
+        {
+            raf.close();
+        }
+        assertEquals(-1, snapshot.load(loaded, HOSTS));
+    }
+
+    public void testRevalidateDropsStaleParents() throws Exception
+    {
+        FakeManager manager = new FakeManager();
+        ZooInspectorManagerCache cache = new ZooInspectorManagerCache(manager);
+        snapshot.save(filled(), HOSTS, 7);
+        assertEquals(7, snapshot.load(cache, HOSTS));
+
+        // /app gained a child, /app/a was deleted, /zookeeper is unchanged
+        manager.stats.put("/", stat(0, 2));
+        manager.stats.put("/app", stat(5, 4));
+        manager.stats.put("/zookeeper", stat(0, 1));
+        cache.revalidate();
+
+        // only the root is re-listed, the others are probed
+        assertEquals(Arrays.asList("/"), manager.listed);
+        assertEquals(Arrays.asList("/app", "/app/a", "/zookeeper"), manager.probed);
+        assertEquals(Arrays.asList("/", "/zookeeper"), cache.getSubtree("/"));
+        assertEquals(Arrays.asList("quota"), cache.getChildren("/zookeeper"));
+        assertEquals(stat(0, 1), cache.getStat("/zookeeper", -1));
+        cache.close();
+    }
+}
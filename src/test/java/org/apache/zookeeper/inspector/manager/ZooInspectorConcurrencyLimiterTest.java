@@ -0,0 +1,153 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.inspector.manager.ZooInspectorPriority.Lane;
+
+/**
+ * Unit test for {@link ZooInspectorConcurrencyLimiter}.
+ */
+public class ZooInspectorConcurrencyLimiterTest
+    extends TestCase
+{
+    private static final long FAST = 1000000L;
+    private static final long SLOW = 100000000L;
+
+    /**
+     * complete one window of requests, at least 16 or one limit's worth
+     */
+    private static void window(ZooInspectorConcurrencyLimiter limiter, long latency,
+                               boolean error) throws InterruptedException
+    {
+        int n = Math.max(16, limiter.getLimit());
+        for (int i = 0; i < n; i++)
+        {
+            limiter.acquire();
+            limiter.release(latency, error);
+        }
+    }
+
+    public void testGrowsWhileFastAndSaturated() throws Exception
+    {
+        final ZooInspectorConcurrencyLimiter limiter = new ZooInspectorConcurrencyLimiter(1, 1, 100, 50);
+        // nothing waited for a slot: the limit stays
+        window(limiter, FAST, false);
+        assertEquals(1, limiter.getLimit());
+
+        // a caller blocked on the full limit: it grows by one
+        limiter.acquire();
+        Thread blocked = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    limiter.acquire();
+                    limiter.release(FAST, false);
+                }
+                catch (InterruptedException e)
+                {
+                    // ends the test thread
+                }
+            }
+        };
+        blocked.start();
+        while (blocked.getState() != Thread.State.WAITING)
+        {
+            Thread.sleep(1);
+        }
+        limiter.release(FAST, false);
+        blocked.join();
+        window(limiter, FAST, false);
+        assertEquals(2, limiter.getLimit());
+        assertTrue(limiter.getRecentP99Millis() <= 1.0);
+    }
+
+    public void testShrinksOnSlowRepliesAndErrors() throws Exception
+    {
+        ZooInspectorConcurrencyLimiter limiter = new ZooInspectorConcurrencyLimiter(1, 40, 100, 50);
+        window(limiter, SLOW, false);
+        assertEquals(30, limiter.getLimit());
+        assertEquals(100.0, limiter.getRecentP99Millis(), 0.001);
+
+        // one error in a window is enough
+        for (int i = 0; i < 30; i++)
+        {
+            limiter.acquire();
+            limiter.release(FAST, i == 0);
+        }
+        assertEquals(22, limiter.getLimit());
+    }
+
+    public void testStaysWithinBounds() throws Exception
+    {
+        ZooInspectorConcurrencyLimiter limiter = new ZooInspectorConcurrencyLimiter(2, 3, 100, 50);
+        for (int i = 0; i < 5; i++)
+        {
+            window(limiter, SLOW, false);
+        }
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private static Thread waiter(final ZooInspectorConcurrencyLimiter limiter, final Lane lane,
+                                 final List<Lane> served) throws InterruptedException
+    {
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    limiter.acquire(lane);
+                    served.add(lane);
+                }
+                catch (InterruptedException e)
+                {
+                    // ends the test thread
+                }
+            }
+        };
+        thread.start();
+        while (limiter.getWaiting(lane) == 0)
+        {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+
+    public void testHigherLaneServedFirst() throws Exception
+    {
+        ZooInspectorConcurrencyLimiter limiter = new ZooInspectorConcurrencyLimiter(1, 4, 4, 50);
+        // background work may only take three of the four slots
+        for (int i = 0; i < 3; i++)
+        {
+            limiter.acquire(Lane.BACKGROUND);
+        }
+        List<Lane> served = new CopyOnWriteArrayList<Lane>();
+        Thread background = waiter(limiter, Lane.BACKGROUND, served);
+        assertEquals(3, limiter.getInFlight());
+
+        // the last slot still goes to a visible read
+        limiter.acquire(Lane.VISIBLE);
+        Thread visible = waiter(limiter, Lane.VISIBLE, served);
+
+        // the visible read queued last but gets the first free slot
+        limiter.release(FAST, false);
+        visible.join();
+        assertEquals(1, served.size());
+        assertEquals(Lane.VISIBLE, served.get(0));
+        assertEquals(1, limiter.getWaiting(Lane.BACKGROUND));
+
+        limiter.release(FAST, false);
+        limiter.release(FAST, false);
+        background.join();
+        assertEquals(Lane.BACKGROUND, served.get(1));
+        assertEquals(0, limiter.getWaiting(Lane.BACKGROUND));
+    }
+}
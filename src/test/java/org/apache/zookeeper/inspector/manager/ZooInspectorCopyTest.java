@@ -0,0 +1,87 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.inspector.manager.ZooInspectorImport.Conflict;
+
+/**
+ * Unit test for {@link ZooInspectorCopy}.
+ */
+public class ZooInspectorCopyTest
+    extends TestCase
+{
+    private static FakeZooKeeper source() throws IOException
+    {
+        FakeZooKeeper zk = new FakeZooKeeper();
+        zk.add("/r", "root data");
+        zk.add("/r/a", "a");
+        zk.add("/r/a/x", null);
+        zk.add("/r/a/y", "y data that is longer than the buffer holds");
+        zk.add("/r/b", "");
+        zk.add("/s", "outside");
+        zk.setAcl("/r/b", Ids.READ_ACL_UNSAFE);
+        return zk;
+    }
+
+    private static ZooInspectorCopy run(ZooKeeper source, ZooKeeper target, Conflict conflict,
+                                        boolean move) throws Exception
+    {
+        // a buffer of two nodes, and of one node for larger data
+        ZooInspectorCopy copy = new ZooInspectorCopy(source, "/r", target, "/dst", conflict,
+                                                     move, 2, 16);
+        new Thread(copy).start();
+        assertTrue(copy.await(5, TimeUnit.SECONDS));
+        return copy;
+    }
+
+    public void testCopiesThroughBoundedBuffer() throws Exception
+    {
+        FakeZooKeeper source = source();
+        source.setAcl("/r/a", Ids.READ_ACL_UNSAFE);
+        FakeZooKeeper target = new FakeZooKeeper();
+        ZooInspectorCopy copy = run(source, target, Conflict.SKIP, false);
+        assertTrue(copy.isSuccessful());
+        assertEquals(5, copy.getWriter().getCreated());
+        assertNull(copy.isVerified());
+        assertEquals("root data", target.get("/dst"));
+        assertNull(target.get("/dst/a/x"));
+        assertEquals("y data that is longer than the buffer holds",
+                     target.get("/dst/a/y"));
+        assertEquals(Ids.READ_ACL_UNSAFE, target.getAcl("/dst/b"));
+        assertEquals(Ids.READ_ACL_UNSAFE, target.getAcl("/dst/a"));
+        assertFalse(target.exists("/dst/s"));
+        assertEquals(7, source.paths().size());
+
+        // within one session
+        copy = run(source, source, Conflict.SKIP, false);
+        assertTrue(copy.isSuccessful());
+        assertEquals("a", source.get("/dst/a"));
+        assertEquals("root data", source.get("/r"));
+    }
+
+    public void testMovesOnlyMatchingCopy() throws Exception
+    {
+        FakeZooKeeper source = source();
+        FakeZooKeeper target = new FakeZooKeeper();
+        target.add("/dst", null);
+        target.add("/dst/a", "changed");
+        ZooInspectorCopy copy = run(source, target, Conflict.SKIP, true);
+        assertTrue(copy.getWriter().isSuccessful());
+        assertFalse(copy.isSuccessful());
+        assertEquals(Boolean.FALSE, copy.isVerified());
+        assertEquals("root data", source.get("/r"));
+        assertTrue(copy.toString(), copy.toString().endsWith("source kept"));
+
+        target = new FakeZooKeeper();
+        copy = run(source, target, Conflict.SKIP, true);
+        assertTrue(copy.isSuccessful());
+        assertEquals(Boolean.TRUE, copy.isVerified());
+        assertEquals("[/, /s]", source.paths().toString());
+        assertEquals("a", target.get("/dst/a"));
+    }
+}
@@ -0,0 +1,145 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.Watcher.WatcherType;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Unit test for {@link ZooInspectorDataCache}.
+ */
+public class ZooInspectorDataCacheTest
+    extends TestCase
+{
+    /**
+     * Records the watches removed through it. The session itself never
+     * connects
+     */
+    private static class FakeZooKeeper extends ZooKeeper
+    {
+        final List<String> removed = new ArrayList<String>();
+
+        FakeZooKeeper() throws Exception
+        {
+            super("127.0.0.1:1", 1000, new Watcher()
+            {
+                @Override
+                public void process(WatchedEvent event)
+                {
+                }
+            });
+        }
+
+        @Override
+        public void removeWatches(String path, Watcher watcher, WatcherType watcherType,
+                                  boolean local, VoidCallback cb, Object ctx)
+        {
+            assertEquals(WatcherType.Data, watcherType);
+            removed.add(path);
+        }
+    }
+
+    private static Stat stat(long mzxid)
+    {
+        Stat stat = new Stat();
+        stat.setMzxid(mzxid);
+        return stat;
+    }
+
+    private static void fire(ZooInspectorDataCache cache, EventType type, String path)
+    {
+        cache.getWatcher().process(new WatchedEvent(type, KeeperState.SyncConnected, path));
+    }
+
+    public void testHitWhileWatchedOrSameVersion()
+    {
+        ZooInspectorDataCache cache = new ZooInspectorDataCache(null);
+        cache.put("/a", new byte[] { 1 }, stat(5), cache.startRead());
+        assertNotNull(cache.get("/a", null));
+
+        // read without a watch: only valid while the Stat matches
+        cache.put("/b", new byte[] { 2 }, stat(6), -1);
+        assertNull(cache.get("/b", null));
+        assertNull(cache.get("/b", stat(7)));
+        assertEquals(2, cache.get("/b", stat(6)).data[0]);
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testInvalidatedByDataWatch()
+    {
+        ZooInspectorDataCache cache = new ZooInspectorDataCache(null);
+        cache.put("/a", new byte[] { 1 }, stat(5), cache.startRead());
+        fire(cache, EventType.NodeDataChanged, "/a");
+        assertNull(cache.get("/a", null));
+
+        // a watch firing during a read means the read's watch is not trusted
+        long token = cache.startRead();
+        fire(cache, EventType.NodeDeleted, "/other");
+        cache.put("/a", new byte[] { 2 }, stat(6), token);
+        assertNull(cache.get("/a", null));
+        assertNotNull(cache.get("/a", stat(6)));
+    }
+
+    public void testEvictionRemovesWatches() throws Exception
+    {
+        FakeZooKeeper zk = new FakeZooKeeper();
+        // each entry below is 150 + 2 * 2 + 100 bytes
+        System.setProperty(ZooInspectorDataCache.MAX_BYTES, "600");
+        ZooInspectorDataCache cache;
+        try
+        {
+            cache = new ZooInspectorDataCache(zk);
+        }
+        finally
+        {
+            System.clearProperty(ZooInspectorDataCache.MAX_BYTES);
+        }
+        try
+        {
+            cache.put("/a", new byte[100], stat(1), cache.startRead());
+            cache.put("/b", new byte[100], stat(2), -1);
+            assertNotNull(cache.get("/a", null));
+
+            // the least recently used is evicted, only a watched one holds a watch
+            cache.put("/c", new byte[100], stat(3), cache.startRead());
+            assertNull(cache.get("/b", stat(2)));
+            assertTrue(zk.removed.isEmpty());
+            cache.put("/d", new byte[100], stat(4), cache.startRead());
+            assertNull(cache.get("/a", null));
+            assertNotNull(cache.get("/c", null));
+            assertEquals(2 * 254, cache.getEstimatedBytes());
+            assertEquals("[/a]", zk.removed.toString());
+
+            // too large to cache at all
+            cache.put("/f", new byte[1000], stat(6), cache.startRead());
+            assertEquals("[/a, /f]", zk.removed.toString());
+        }
+        finally
+        {
+            zk.close();
+        }
+    }
+
+    public void testExpiryClearsAndInvalidatesReads()
+    {
+        ZooInspectorDataCache cache = new ZooInspectorDataCache(null);
+        cache.put("/a", new byte[] { 1 }, stat(5), cache.startRead());
+        long token = cache.startRead();
+        cache.getWatcher().process(new WatchedEvent(EventType.None, KeeperState.Expired, null));
+        assertNull(cache.get("/a", stat(5)));
+        assertEquals(0, cache.getEstimatedBytes());
+
+        cache.put("/b", new byte[] { 2 }, stat(6), token);
+        assertNull(cache.get("/b", null));
+    }
+}
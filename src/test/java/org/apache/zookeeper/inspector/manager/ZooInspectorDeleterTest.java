@@ -0,0 +1,82 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * Unit test for {@link ZooInspectorDeleter}.
+ */
+public class ZooInspectorDeleterTest
+    extends TestCase
+{
+    private static ZooInspectorDeleter run(ZooKeeper zk, boolean dryRun, String... roots)
+        throws InterruptedException
+    {
+        ZooInspectorDeleter deleter = new ZooInspectorDeleter(zk, Arrays.asList(roots), dryRun);
+        new Thread(deleter).start();
+        assertTrue(deleter.await(5, TimeUnit.SECONDS));
+        return deleter;
+    }
+
+    public void testDryRunOnlyCounts() throws Exception
+    {
+        FakeZooKeeper zk = new FakeZooKeeper("/r", "/r/a", "/r/a/x", "/r/a/y", "/r/b", "/s");
+        try
+        {
+            ZooInspectorDeleter deleter = run(zk, true, "/r", "/missing");
+            assertEquals(5, deleter.getListed());
+            assertEquals(0, deleter.getDeleted());
+            assertTrue(zk.calls("delete").isEmpty());
+        }
+        finally
+        {
+            zk.close();
+        }
+    }
+
+    public void testDeletesLeavesFirstAndChildrenAddedMeanwhile() throws Exception
+    {
+        // a child is created below /r on the first attempt to delete it
+        FakeZooKeeper zk = new FakeZooKeeper("/r", "/r/a", "/r/a/x", "/r/a/y", "/r/b", "/s")
+        {
+            private boolean late = true;
+
+            @Override
+            void called(String operation, String path)
+            {
+                if (late && operation.equals("delete") && path.equals("/r"))
+                {
+                    add("/r/late", null);
+                    late = false;
+                }
+            }
+        };
+        try
+        {
+            ZooInspectorDeleter deleter = run(zk, false, "/r");
+            assertTrue(deleter.isSuccessful());
+            assertEquals(6, deleter.getDeleted());
+            assertEquals(Arrays.asList("/", "/s"), zk.paths());
+            List<String> deletes = zk.changes("delete");
+            for (String path : deletes)
+            {
+                String parent = ZooInspectorManagerCache.parentPath(path);
+                if (deletes.contains(parent))
+                {
+                    assertTrue(path + " before " + parent,
+                               deletes.indexOf(path) < deletes.indexOf(parent));
+                }
+            }
+            assertEquals("/r", deletes.get(deletes.size() - 1));
+        }
+        finally
+        {
+            zk.close();
+        }
+    }
+}
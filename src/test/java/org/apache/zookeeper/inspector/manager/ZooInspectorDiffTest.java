@@ -0,0 +1,88 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.inspector.manager.ZooInspectorDiff.Difference;
+import org.apache.zookeeper.inspector.manager.ZooInspectorDiff.Kind;
+
+/**
+ * Unit test for {@link ZooInspectorDiff}.
+ */
+public class ZooInspectorDiffTest
+    extends TestCase
+{
+    private static ZooInspectorDiff run(ZooKeeper left, String leftRoot, ZooKeeper right,
+                                        String rightRoot, int maxDifferences) throws Exception
+    {
+        ZooInspectorDiff diff = new ZooInspectorDiff(left, leftRoot, right, rightRoot,
+                                                     maxDifferences, 2);
+        new Thread(diff).start();
+        assertTrue(diff.await(5, TimeUnit.SECONDS));
+        return diff;
+    }
+
+    public void testFindsAddedRemovedAndChangedNodes() throws Exception
+    {
+        FakeZooKeeper primary = new FakeZooKeeper();
+        primary.add("/app", "v1");
+        primary.add("/app/config", "a=1\nb=2\nc=3");
+        primary.add("/app/old", null);
+        primary.add("/app/old/x", "x");
+        primary.add("/app/same", "same");
+        primary.add("/app/same/leaf", null);
+        FakeZooKeeper dr = new FakeZooKeeper();
+        dr.add("/app", "v1");
+        dr.add("/app/config", "a=1\nb=20\nc=3");
+        dr.add("/app/same", "same");
+        dr.add("/app/same/leaf", "");
+        dr.add("/app/new", "n");
+
+        ZooInspectorDiff diff = run(primary, "/app", dr, "/app", 100);
+        assertTrue(diff.isCompleted());
+        assertFalse(diff.isSame());
+        assertEquals(1, diff.getAdded());
+        assertEquals(1, diff.getRemoved());
+        // no data and empty data are the same
+        assertEquals(1, diff.getChanged());
+        assertEquals(6, diff.getCompared());
+        List<Difference> differences = diff.getDifferences();
+        assertEquals("[~ /app/config, + /app/new, - /app/old (and 1 children)]",
+                     differences.toString());
+        assertEquals(Kind.CHANGED, differences.get(0).kind);
+        assertEquals("  a=1\n- b=2\n+ b=20\n  c=3\n", differences.get(0).getDataDiff());
+        // below a removed node nothing is read
+        assertFalse(primary.calls("getChildren").contains("/app/old"));
+        // nor are leaves listed
+        assertFalse(dr.calls("getChildren").contains("/app/same/leaf"));
+
+        diff = run(primary, "/app", dr, "/app", 1);
+        assertEquals(1, diff.getDifferences().size());
+        assertEquals(3, diff.getAdded() + diff.getRemoved() + diff.getChanged());
+    }
+
+    public void testComparesPathsOfOneSession() throws Exception
+    {
+        FakeZooKeeper zk = new FakeZooKeeper();
+        zk.add("/a", "root");
+        zk.add("/a/x", "x");
+        zk.add("/b", "root");
+        zk.add("/b/x", "x");
+        ZooInspectorDiff diff = run(zk, "/a", zk, "/b", 100);
+        assertTrue(diff.isSame());
+        assertEquals(2, diff.getCompared());
+
+        zk.setBytes("/b/x", new byte[] {(byte) 0xff});
+        diff = run(zk, "/a", zk, "/b", 100);
+        Difference changed = diff.getDifferences().get(0);
+        assertEquals("~ /a/x / /b/x", changed.toString());
+        assertEquals("binary data, 1 bytes -> 1 bytes, first difference at byte 0",
+                     changed.getDataDiff());
+
+        diff = run(zk, "/a", zk, "/missing", 100);
+        assertEquals("[- /a (and 1 children)]", diff.getDifferences().toString());
+    }
+}
@@ -0,0 +1,123 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.inspector.manager.ZooInspectorExportFile.Entry;
+
+/**
+ * Unit test for {@link ZooInspectorExport} and {@link ZooInspectorExportFile}.
+ */
+public class ZooInspectorExportTest
+    extends TestCase
+{
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile("ZooInspectorExportTest", ".zie");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    private ZooInspectorExport run(ZooKeeper zk, String root) throws Exception
+    {
+        // small blocks and a short read ahead to get several of each
+        ZooInspectorExport export = new ZooInspectorExport(zk, root, file, 64, 1024, 2);
+        new Thread(export).start();
+        assertTrue(export.await(5, TimeUnit.SECONDS));
+        return export;
+    }
+
+    private static List<String> paths(ZooInspectorExportFile exported) throws IOException
+    {
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < exported.getNumBlocks(); i++)
+        {
+            for (Entry entry : exported.readBlock(i))
+            {
+                paths.add(entry.path);
+            }
+        }
+        return paths;
+    }
+
+    public void testExportsDepthFirstInBlocks() throws Exception
+    {
+        FakeZooKeeper zk = new FakeZooKeeper();
+        zk.add("/r", "root data");
+        zk.add("/r/a", "a");
+        zk.add("/r/a/x", null);
+        zk.add("/r/a/y", "y data that is long enough to fill a block on its own");
+        zk.add("/r/a-b", "");
+        zk.add("/r/b", "b");
+        zk.add("/s", "outside");
+        try
+        {
+            ZooInspectorExport export = run(zk, "/r");
+            assertTrue(export.isSuccessful());
+            assertEquals(6, export.getNodes());
+            assertEquals(file.length(), export.getFileBytes());
+
+            ZooInspectorExportFile exported = new ZooInspectorExportFile(file);
+            assertEquals("/r", exported.getRoot());
+            assertEquals(6, exported.getNumNodes());
+            assertTrue(exported.getNumBlocks() > 1);
+            // "/r/a/x" sorts before "/r/a-b" although '-' comes before '/'
+            assertEquals(Arrays.asList("/r", "/r/a", "/r/a/x", "/r/a/y", "/r/a-b", "/r/b"),
+                         paths(exported));
+
+            Entry entry = exported.get("/r/a/y");
+            assertEquals("y data that is long enough to fill a block on its own",
+                         new String(entry.data));
+            assertEquals("/r/a/y".length(), entry.stat.getCzxid());
+            assertEquals(Ids.OPEN_ACL_UNSAFE, entry.acl);
+            assertNull(exported.get("/r/a/x").data);
+            assertEquals(0, exported.get("/r/a-b").data.length);
+            assertEquals(2, exported.get("/r/a").stat.getNumChildren());
+            assertNull(exported.get("/r/a/z"));
+            assertNull(exported.get("/s"));
+        }
+        finally
+        {
+            zk.close();
+        }
+    }
+
+    public void testLeavesOutUnreadableAndDeletedNodes() throws Exception
+    {
+        FakeZooKeeper zk = new FakeZooKeeper("/r", "/r/gone", "/r/gone/child", "/r/secret",
+                                             "/r/z");
+        // listed by its parent but gone when read
+        zk.fail("getData", "/r/gone", Code.NONODE);
+        zk.fail("getChildren", "/r/gone", Code.NONODE);
+        zk.fail("getACL", "/r/gone", Code.NONODE);
+        zk.fail("getACL", "/r/secret", Code.NOAUTH);
+        try
+        {
+            ZooInspectorExport export = run(zk, "/r");
+            assertTrue(export.isCompleted());
+            assertFalse(export.isSuccessful());
+            assertEquals(1, export.getFailures());
+            assertEquals(Arrays.asList("/r", "/r/z"), paths(new ZooInspectorExportFile(file)));
+        }
+        finally
+        {
+            zk.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.NodeExistsException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.inspector.ZooInspectorExecutors;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache.Item;
+
+/**
+ * Compares the batch reads of the fixed thread pool with the pipelined async
+ * reads of {@link ZooInspectorFetchEngine} against a live server.
+ * <p>
+ * usage: ZooInspectorFetchBenchmark [connectString] [nodes] [rounds]
+ * <p>
+ * Creates /zooinspector-bench with the given number of children (once) and
+ * lists every child with both implementations. Run with
+ * -Dzooinspector.virtualThreads=true on Java 21+ to measure the pool mode on
+ * virtual threads
+ */
+public class ZooInspectorFetchBenchmark
+{
+    private static final String ROOT = "/zooinspector-bench";
+
+    public static void main(String[] args) throws Exception
+    {
+        String connectString = args.length > 0 ? args[0] : "localhost:2181";
+        int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        List<String> paths = populate(connectString, nodes);
+
+        ZooInspectorManagerImpl manager = new ZooInspectorManagerImpl();
+        Properties props = new Properties();
+        props.setProperty(ZooInspectorManagerImpl.CONNECT_STRING, connectString);
+        props.setProperty(ZooInspectorManagerImpl.SESSION_TIMEOUT, "30000");
+        if (!manager.connect(props))
+        {
+            throw new IllegalStateException("cannot connect to " + connectString);
+        }
+        try
+        {
+            String pool = ZooInspectorExecutors.isVirtual() ? "virtual threads" : "40 threads";
+            // warm up both paths before measuring
+            manager.getChildrenPooled(paths, null);
+            manager.getChildrenAsync(paths, null);
+            for (int round = 1; round <= rounds; round++)
+            {
+                long start = System.nanoTime();
+                Map<String, Item> pooled = manager.getChildrenPooled(paths, null);
+                long pooledNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                Map<String, Item> async = manager.getChildrenAsync(paths, null);
+                long asyncNanos = System.nanoTime() - start;
+
+                check(paths, pooled);
+                check(paths, async);
+                System.out.println(String.format(
+                    "round %d, %d paths: pool(%s) %d ms (%.0f reads/s), async %d ms (%.0f reads/s)",
+                    round, paths.size(), pool,
+                    pooledNanos / 1000000, paths.size() * 1e9 / pooledNanos,
+                    asyncNanos / 1000000, paths.size() * 1e9 / asyncNanos));
+            }
+            System.out.println(manager.getSessionMeta());
+        }
+        finally
+        {
+            manager.disconnect();
+        }
+        // the batch thread pool of the manager is not a daemon
+        System.exit(0);
+    }
+
+    private static List<String> populate(String connectString, int nodes) throws Exception
+    {
+        ZooKeeper zooKeeper = new ZooKeeper(connectString, 30000, new Watcher()
+        {
+            @Override
+            public void process(WatchedEvent event)
+            {
+            }
+        });
+        try
+        {
+            try
+            {
+                zooKeeper.create(ROOT, null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            }
+            catch (NodeExistsException e)
+            {
+                // created by an earlier run
+            }
+            int existing = zooKeeper.getChildren(ROOT, false).size();
+            for (int i = existing; i < nodes; i++)
+            {
+                zooKeeper.create(ROOT + "/n" + i, null, Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            }
+        }
+        finally
+        {
+            zooKeeper.close();
+        }
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < nodes; i++)
+        {
+            paths.add(ROOT + "/n" + i);
+        }
+        return paths;
+    }
+
+    private static void check(List<String> paths, Map<String, Item> items)
+    {
+        for (String path : paths)
+        {
+            Item item = items.get(path);
+            if (item == null || item.childs == null)
+            {
+                throw new IllegalStateException("failed to read " + path);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.inspector.manager.ZooInspectorExportFile.Entry;
+import org.apache.zookeeper.inspector.manager.ZooInspectorImport.Conflict;
+
+/**
+ * Unit test for {@link ZooInspectorImport} and {@link ZooInspectorJsonSource}.
+ */
+public class ZooInspectorImportTest
+    extends TestCase
+{
+    /**
+     * Cancels the import at the first create sent once cancelCount nodes
+     * were created
+     */
+    private static class CancellingZooKeeper extends FakeZooKeeper
+    {
+        ZooInspectorImport cancelAfter;
+        int cancelCount;
+
+        CancellingZooKeeper() throws IOException
+        {
+        }
+
+        @Override
+        void called(String operation, String path)
+        {
+            if (cancelAfter != null && operation.equals("create")
+                && changes("create").size() == cancelCount)
+            {
+                cancelAfter.cancel();
+            }
+        }
+    }
+
+    private static void put(FakeZooKeeper zk, String path, int version)
+    {
+        zk.add(path, "old");
+        zk.setVersion(path, version);
+    }
+
+    private static final String NODES =
+        "{\"path\": \"/src\", \"data\": \"root\"}\n"
+      + "{\"path\": \"/src/a\", \"data\": \"a\\n\\u00e9\", \"version\": 2}\n"
+      + "{\"path\": \"/src/a/x\", \"acl\": [{\"perms\": 1, \"scheme\": \"world\", \"id\": \"anyone\"}]}\n"
+      + "{\"path\": \"/src/b\", \"data\": \"b\", \"version\": 5}\n"
+      + "{\"path\": \"/elsewhere\"}\n";
+
+    private File checkpoint;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        checkpoint = File.createTempFile("ZooInspectorImportTest", ".checkpoint");
+        checkpoint.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        checkpoint.delete();
+    }
+
+    /**
+     * nodes with their root at /src
+     */
+    private static ZooInspectorImportSource source(String nodes)
+    {
+        return new ZooInspectorJsonSource(new StringReader(nodes))
+        {
+            @Override
+            public String getRoot()
+            {
+                return "/src";
+            }
+        };
+    }
+
+    private ZooInspectorImport run(FakeZooKeeper zk, Conflict conflict) throws Exception
+    {
+        return run(zk, NODES, conflict);
+    }
+
+    private ZooInspectorImport run(FakeZooKeeper zk, String nodes, Conflict conflict)
+        throws Exception
+    {
+        ZooInspectorImport importer = new ZooInspectorImport(zk, source(nodes), "/dst", conflict,
+                                                             checkpoint, "nodes to /dst", 0, 2);
+        if (zk instanceof CancellingZooKeeper)
+        {
+            CancellingZooKeeper cancelling = (CancellingZooKeeper) zk;
+            cancelling.cancelAfter = cancelling.cancelCount > 0 ? importer : null;
+        }
+        new Thread(importer).start();
+        assertTrue(importer.await(5, TimeUnit.SECONDS));
+        return importer;
+    }
+
+    public void testReadsJsonLinesAndArrays() throws Exception
+    {
+        ZooInspectorJsonSource lines = new ZooInspectorJsonSource(new StringReader(NODES));
+        Entry a = null;
+        int count = 0;
+        for (Entry entry = lines.next(); entry != null; entry = lines.next())
+        {
+            count++;
+            if (entry.path.equals("/src/a"))
+            {
+                a = entry;
+            }
+        }
+        assertEquals(5, count);
+        assertEquals("a\né", new String(a.data, "UTF-8"));
+        assertEquals(2, a.stat.getVersion());
+
+        ZooInspectorJsonSource array = new ZooInspectorJsonSource(new StringReader(
+            " [ {\"path\": \"/p\", \"data\": null, \"extra\": {\"n\": [1, 2.5, true]}},\n"
+          + "   {\"path\": \"/p/q\"} ] "));
+        Entry p = array.next();
+        assertEquals("/p", p.path);
+        assertNull(p.data);
+        assertEquals(-1, p.stat.getVersion());
+        assertTrue(p.acl.isEmpty());
+        assertEquals("/p/q", array.next().path);
+        assertNull(array.next());
+
+        try
+        {
+            new ZooInspectorJsonSource(new StringReader("{\"path\": \"/p\"}\n{\"data\": 1}")).skip(2);
+            fail("a node without a path");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 2"));
+        }
+
+        String[] invalid = {
+            "{\"path\": \"/p\", \"acl\": [{\"scheme\": \"world\", \"id\": \"anyone\"}]}",
+            "{\"path\": \"/p\", \"data\": \"\\u00",
+            "{\"path\": \"/p\", \"data\": \"\\u+0ab\"}" };
+        String[] messages = { "perms", "unexpected end of input", "not a hex digit" };
+        for (int i = 0; i < invalid.length; i++)
+        {
+            try
+            {
+                new ZooInspectorJsonSource(new StringReader(invalid[i])).next();
+                fail(invalid[i]);
+            }
+            catch (IOException e)
+            {
+                assertTrue(e.getMessage(), e.getMessage().contains(messages[i]));
+            }
+        }
+    }
+
+    public void testMapsPathsAndFollowsConflictPolicy() throws Exception
+    {
+        FakeZooKeeper zk = new FakeZooKeeper();
+        put(zk, "/dst", 0);
+        put(zk, "/dst/a", 2);
+        put(zk, "/dst/b", 3);
+        ZooInspectorImport importer = run(zk, Conflict.SKIP);
+        assertTrue(importer.isCompleted());
+        assertEquals(1, importer.getCreated());
+        assertEquals(3, importer.getSkipped());
+        // /elsewhere is not below /src
+        assertEquals(1, importer.getFailures());
+        assertEquals("old", zk.get("/dst/a"));
+        assertEquals("[/dst/a/x]", zk.changes("create").toString());
+        assertNull(zk.get("/dst/a/x"));
+        assertFalse(checkpoint.exists());
+
+        zk = new FakeZooKeeper();
+        put(zk, "/dst", 0);
+        put(zk, "/dst/a", 2);
+        put(zk, "/dst/b", 3);
+        importer = run(zk, Conflict.VERSION);
+        // /dst/b changed since version 5 of the source, /dst has no version
+        assertEquals(1, importer.getUpdated());
+        assertEquals(2, importer.getConflicts());
+        assertEquals("old", zk.get("/dst"));
+        assertEquals("a\né", zk.get("/dst/a"));
+        assertEquals("old", zk.get("/dst/b"));
+
+        zk = new FakeZooKeeper();
+        put(zk, "/dst", 0);
+        put(zk, "/dst/b", 3);
+        importer = run(zk, Conflict.OVERWRITE);
+        assertEquals(2, importer.getCreated());
+        assertEquals(2, importer.getUpdated());
+        assertEquals("b", zk.get("/dst/b"));
+        assertEquals("[/dst/a, /dst/a/x]", zk.changes("create").toString());
+    }
+
+    public void testCreatesBelowReadOnlyNodes() throws Exception
+    {
+        String readOnly = "\"acl\": [{\"perms\": 1, \"scheme\": \"world\", \"id\": \"anyone\"}]";
+        String nodes = "{\"path\": \"/src\", " + readOnly + "}\n"
+                     + "{\"path\": \"/src/a\", " + readOnly + "}\n"
+                     + "{\"path\": \"/src/a/x\", \"data\": \"x\"}\n"
+                     + "{\"path\": \"/src/b\", " + readOnly + "}\n";
+        FakeZooKeeper zk = new FakeZooKeeper();
+        ZooInspectorImport importer = run(zk, nodes, Conflict.SKIP);
+        // a create below a read only node would fail
+        assertTrue(importer.toString(), importer.isSuccessful());
+        assertEquals(4, importer.getCreated());
+        assertEquals("x", zk.get("/dst/a/x"));
+        assertEquals(Ids.READ_ACL_UNSAFE, zk.getAcl("/dst"));
+        assertEquals(Ids.READ_ACL_UNSAFE, zk.getAcl("/dst/a"));
+        assertEquals(Ids.OPEN_ACL_UNSAFE, zk.getAcl("/dst/a/x"));
+        // once everything is created, children before their parents
+        assertEquals("[/dst/b, /dst/a, /dst]", zk.changes("setACL").toString());
+    }
+
+    public void testResumesFromCheckpoint() throws Exception
+    {
+        CancellingZooKeeper zk = new CancellingZooKeeper();
+        put(zk, "/dst", 0);
+        zk.cancelCount = 2;
+        ZooInspectorImport first = run(zk, Conflict.SKIP);
+        assertTrue(first.isCancelled());
+        assertFalse(first.isCompleted());
+        assertTrue(checkpoint.exists());
+        assertTrue(first.getDone() >= 3);
+
+        zk.cancelCount = 0;
+        ZooInspectorImport second = run(zk, Conflict.SKIP);
+        assertTrue(second.isCompleted());
+        assertEquals(first.getDone(), second.getResumedFrom());
+        // counts carry over from the first run
+        assertEquals(3, second.getCreated());
+        assertEquals("[/dst/a, /dst/a/x, /dst/b]", zk.changes("create").toString());
+        assertFalse(checkpoint.exists());
+    }
+}
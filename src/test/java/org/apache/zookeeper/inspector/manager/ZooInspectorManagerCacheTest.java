@@ -0,0 +1,651 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.Watcher.WatcherType;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache.Item;
+import org.apache.zookeeper.inspector.manager.ZooInspectorSingleFlight.Listener;
+
+/**
+ * Unit test for {@link ZooInspectorManagerCache}.
+ */
+public class ZooInspectorManagerCacheTest
+    extends TestCase
+{
+    private ZooInspectorManagerCache cache;
+
+    @Override
+    protected void setUp()
+    {
+        cache = new ZooInspectorManagerCache(null);
+        put("/", "a", "ab", "a-b");
+        put("/a", "x", "y");
+        put("/a/x");
+        put("/a/y", "z");
+        put("/a/y/z");
+        put("/ab", "c");
+        put("/ab/c");
+        put("/a-b");
+    }
+
+    private void put(String path, String... childs)
+    {
+        cache.putItem(path, new Item(Arrays.asList(childs), new Stat()));
+    }
+
+    private static Stat stat(int cversion)
+    {
+        Stat stat = new Stat();
+        stat.setCversion(cversion);
+        return stat;
+    }
+
+    /**
+     * Serves a fixed tree and records which paths were read
+     */
+    private static class FakeManager extends ZooInspectorManagerImpl
+    {
+        final Map<String, List<String>> tree = new HashMap<String, List<String>>();
+        final Map<String, Integer> cversions = new HashMap<String, Integer>();
+        final List<String> listed = new ArrayList<String>();
+        final List<String> probed = new ArrayList<String>();
+        final List<String> unwatched = new ArrayList<String>();
+        // paths whose reads fail
+        final List<String> failing = new ArrayList<String>();
+        // the last child watcher passed in
+        Watcher watcher;
+        int published = 0;
+
+        FakeManager() throws IOException
+        {
+        }
+
+        @Override
+        Map<String, Item> getChildren(List<String> paths, Watcher watcher)
+        {
+            Map<String, Item> ret = new HashMap<String, Item>();
+            if (watcher != null)
+            {
+                this.watcher = watcher;
+            }
+            for (String path : paths)
+            {
+                listed.add(path);
+                List<String> childs = tree.get(path);
+                if (failing.contains(path))
+                {
+                    ret.put(path, new Item((List<String>) null, new Stat()));
+                    continue;
+                }
+                ret.put(path, new Item(childs, childs == null ? null : stat(cversions.get(path))));
+            }
+            return ret;
+        }
+
+        @Override
+        void getChildren(String path, Listener<Item> listener)
+        {
+            listener.completed(getChildren(Collections.singletonList(path), null).get(path), null);
+        }
+
+        @Override
+        void fireCacheChanged(List<String> paths)
+        {
+            published++;
+        }
+
+        @Override
+        void removeWatch(String nodePath, Watcher watcher, WatcherType type)
+        {
+            assertEquals(WatcherType.Children, type);
+            unwatched.add(nodePath);
+        }
+
+        @Override
+        Map<String, Stat> getStats(List<String> paths)
+        {
+            Map<String, Stat> ret = new HashMap<String, Stat>();
+            for (String path : paths)
+            {
+                probed.add(path);
+                if (tree.containsKey(path))
+                {
+                    ret.put(path, stat(cversions.get(path)));
+                }
+            }
+            return ret;
+        }
+    }
+
+    public void testRefreshSkipsUnchangedLargeParents() throws Exception
+    {
+        FakeManager manager = new FakeManager();
+        List<String> many = new ArrayList<String>();
+        for (int i = 0; i < 100; i++)
+        {
+            many.add("n" + i);
+        }
+        manager.tree.put("/big", many);
+        manager.cversions.put("/big", 100);
+        manager.tree.put("/small", Arrays.asList("s"));
+        manager.cversions.put("/small", 1);
+
+        ZooInspectorManagerCache cache = new ZooInspectorManagerCache(manager);
+        cache.refresh(Arrays.asList("/big", "/small"), 0);
+        assertEquals(Arrays.asList("/big", "/small"), manager.listed);
+        assertTrue(manager.probed.isEmpty());
+
+        // unchanged: the big parent is only probed, the small one re-listed
+        manager.listed.clear();
+        cache.refresh(Arrays.asList("/big", "/small"), 0);
+        assertEquals(Arrays.asList("/big"), manager.probed);
+        assertEquals(Arrays.asList("/small"), manager.listed);
+        assertEquals(100, cache.getNumChildren("/big"));
+
+        // a child was added: the probe sees the new cversion and re-lists
+        manager.probed.clear();
+        manager.listed.clear();
+        many.add("n100");
+        manager.cversions.put("/big", 101);
+        cache.refresh(Collections.singletonList("/big"), 0);
+        assertEquals(Arrays.asList("/big"), manager.probed);
+        assertEquals(Arrays.asList("/big"), manager.listed);
+        assertEquals(101, cache.getNumChildren("/big"));
+
+        // deleted: the failed probe falls back to a read, which drops it
+        manager.tree.remove("/big");
+        cache.refresh(Collections.singletonList("/big"), 0);
+        assertTrue(cache.getSubtree("/big").isEmpty());
+    }
+
+    public void testRemoveSubtreeDoesNotTouchSiblingsWithSamePrefix()
+    {
+        cache.removeSubtree("/a");
+        assertEquals(Arrays.asList("/", "/a-b", "/ab", "/ab/c"),
+                     cache.getSubtree("/"));
+    }
+
+    public void testInvalidateDropsOnlyGivenPaths()
+    {
+        cache.putStat("/a", stat(2));
+        cache.negatives.put("/a/new", Long.MAX_VALUE);
+        cache.invalidate(Arrays.asList("/a", "/a/new"));
+        assertNull(cache.getStat("/a", -1));
+        assertFalse(cache.negatives.containsKey("/a/new"));
+        assertEquals(Arrays.asList("/a/x", "/a/y", "/a/y/z"), cache.getSubtree("/a"));
+    }
+
+    public void testGetSubtree()
+    {
+        assertEquals(Arrays.asList("/a", "/a/x", "/a/y", "/a/y/z"),
+                     cache.getSubtree("/a"));
+        assertEquals(Arrays.asList("/ab/c"), cache.getSubtree("/ab/c"));
+        assertTrue(cache.getSubtree("/missing").isEmpty());
+    }
+
+    public void testGetParent()
+    {
+        assertEquals("/a/y", cache.getParent("/a/y/z"));
+        assertEquals("/", cache.getParent("/a"));
+        assertNull(cache.getParent("/"));
+        assertNull(cache.getParent("/missing/child"));
+    }
+
+    public void testChildren()
+    {
+        assertEquals(3, cache.getNumChildren("/"));
+        assertEquals("a", cache.getNodeChild("/", 0));
+        assertEquals("ab", cache.getNodeChild("/", 2));
+        assertNull(cache.getNodeChild("/", 3));
+        assertEquals(0, cache.getNumChildren("/missing"));
+    }
+
+    public void testChildrenAreSortedOnceAndShared()
+    {
+        put("/seq", "n-0000000002", "n-0000000000", "n-0000000001");
+        assertEquals(Arrays.asList("n-0000000000", "n-0000000001", "n-0000000002"),
+                     cache.getChildren("/seq"));
+        assertSame(cache.getChildren("/seq"), cache.getChildren("/seq"));
+        try
+        {
+            cache.getChildren("/seq").clear();
+            fail("cached children must not be modifiable");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+    }
+
+    public void testEvictionKeepsPinnedPathsAndReloadsOnMiss() throws Exception
+    {
+        FakeManager manager = new FakeManager();
+        List<String> childs = new ArrayList<String>();
+        for (int i = 0; i < 10; i++)
+        {
+            childs.add("n" + i);
+            manager.tree.put("/a/n" + i, Collections.<String>emptyList());
+            manager.cversions.put("/a/n" + i, 0);
+        }
+        manager.tree.put("/a", childs);
+        manager.cversions.put("/a", 10);
+
+        System.setProperty(ZooInspectorManagerCache.MAX_ENTRIES, "4");
+        System.setProperty(ZooInspectorManagerCache.READ_THROUGH, "false");
+        try
+        {
+            cache = new ZooInspectorManagerCache(manager);
+        }
+        finally
+        {
+            System.clearProperty(ZooInspectorManagerCache.MAX_ENTRIES);
+            System.clearProperty(ZooInspectorManagerCache.READ_THROUGH);
+        }
+        cache.setPinnedPaths(Arrays.asList("/a", "/a/n5"));
+        cache.refresh(Arrays.asList("/a"), 1);
+
+        assertEquals(4, cache.getNumEntries());
+        assertEquals(7, cache.getEvictions());
+        assertTrue(cache.getSubtree("/a").containsAll(Arrays.asList("/a", "/a/n5")));
+
+        // an evicted entry is fetched again on access
+        String evicted = null;
+        for (int i = 0; i < 10 && evicted == null; i++)
+        {
+            if (!cache.getSubtree("/a/n" + i).contains("/a/n" + i))
+            {
+                evicted = "/a/n" + i;
+            }
+        }
+        assertNotNull(evicted);
+        manager.listed.clear();
+        assertEquals(0, cache.getNumChildren(evicted));
+        assertEquals(Arrays.asList(evicted), manager.listed);
+        assertEquals(1, cache.getMisses());
+        assertTrue(cache.getSubtree(evicted).contains(evicted));
+    }
+
+    public void testReadThroughLoadsMissInBackground() throws Exception
+    {
+        final List<String> changed = new ArrayList<String>();
+        final CountDownLatch gate = new CountDownLatch(1);
+        FakeManager manager = new FakeManager()
+        {
+            @Override
+            Map<String, Item> getChildren(List<String> paths, Watcher watcher)
+            {
+                try
+                {
+                    gate.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getChildren(paths, watcher);
+            }
+
+            @Override
+            void fireCacheChanged(List<String> paths)
+            {
+                synchronized (changed)
+                {
+                    changed.addAll(paths);
+                    changed.notifyAll();
+                }
+            }
+        };
+        manager.tree.put("/a", Arrays.asList("x", "y"));
+        manager.cversions.put("/a", 2);
+        cache = new ZooInspectorManagerCache(manager);
+
+        // the miss answers with the placeholder, repeated misses load once
+        assertEquals(Arrays.asList(ZooInspectorManagerCache.LOADING), cache.getChildren("/a"));
+        assertEquals(1, cache.getNumChildren("/a"));
+        assertEquals(0, cache.getNumChildren("/a/" + ZooInspectorManagerCache.LOADING));
+        gate.countDown();
+        waitFor(changed, "/a");
+        assertEquals(Arrays.asList("/a"), manager.listed);
+        assertEquals(Arrays.asList("x", "y"), cache.getChildren("/a"));
+
+        // a missing path is remembered and not read again within the TTL
+        manager.listed.clear();
+        cache.getNumChildren("/gone");
+        waitFor(changed, "/gone");
+        assertEquals(0, cache.getNumChildren("/gone"));
+        assertEquals(0, cache.getNumChildren("/gone"));
+        assertEquals(Arrays.asList("/gone"), manager.listed);
+        assertEquals(2, cache.getNegativeHits());
+
+        // a failed load replaces the placeholder and is not retried at once
+        manager.listed.clear();
+        manager.failing.add("/broken");
+        manager.tree.put("/broken", Arrays.asList("b"));
+        manager.cversions.put("/broken", 1);
+        assertEquals(Arrays.asList(ZooInspectorManagerCache.LOADING),
+                     cache.getChildren("/broken"));
+        waitFor(changed, "/broken");
+        assertEquals(Arrays.asList(ZooInspectorManagerCache.LOAD_FAILED),
+                     cache.getChildren("/broken"));
+        assertTrue(ZooInspectorManagerCache.isLoadingPath("/broken/"
+                                                          + ZooInspectorManagerCache.LOAD_FAILED));
+        assertEquals(Arrays.asList("/broken"), manager.listed);
+
+        // until it is invalidated
+        manager.failing.clear();
+        cache.invalidate(Arrays.asList("/broken"));
+        synchronized (changed)
+        {
+            changed.clear();
+        }
+        cache.getChildren("/broken");
+        waitFor(changed, "/broken");
+        assertEquals(Arrays.asList("b"), cache.getChildren("/broken"));
+        cache.close();
+    }
+
+    private static void waitFor(List<String> changed, String path) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (changed)
+        {
+            while (!changed.contains(path) && System.currentTimeMillis() < deadline)
+            {
+                changed.wait(100);
+            }
+        }
+        assertTrue(changed.contains(path));
+    }
+
+    public void testCrawlStreamsWholeSubtree() throws Exception
+    {
+        FakeManager manager = new FakeManager();
+        manager.tree.put("/r", Arrays.asList("a", "b"));
+        manager.tree.put("/r/a", Arrays.asList("c"));
+        manager.tree.put("/r/a/c", Collections.<String>emptyList());
+        manager.tree.put("/r/b", Collections.<String>emptyList());
+        for (String path : manager.tree.keySet())
+        {
+            manager.cversions.put(path, 0);
+        }
+        cache = new ZooInspectorManagerCache(manager);
+
+        ZooInspectorCrawl crawl = cache.crawl(Arrays.asList("/r"), 1);
+        assertTrue(crawl.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("/r", "/r/a", "/r/b"), cache.getSubtree("/r"));
+        assertEquals(3, crawl.getNodes());
+        assertTrue(crawl.getBytes() > 0);
+
+        crawl = cache.crawl(Arrays.asList("/r", "/missing"), Integer.MAX_VALUE);
+        assertTrue(crawl.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("/r", "/r/a", "/r/a/c", "/r/b"), cache.getSubtree("/r"));
+        assertEquals(4, crawl.getNodes());
+        assertEquals(0, crawl.getFailures());
+        cache.close();
+    }
+
+    public void testCrawlStopsAtBudgetAndPublishesOnce() throws Exception
+    {
+        FakeManager manager = new FakeManager();
+        manager.tree.put("/r", Arrays.asList("a", "b", "c"));
+        for (String child : Arrays.asList("a", "b", "c"))
+        {
+            manager.tree.put("/r/" + child, Collections.<String>emptyList());
+        }
+        for (String path : manager.tree.keySet())
+        {
+            manager.cversions.put(path, 0);
+        }
+        cache = new ZooInspectorManagerCache(manager);
+
+        ZooInspectorCrawl crawl = cache.crawl(Arrays.asList("/r"), Integer.MAX_VALUE, 2,
+                                              Long.MAX_VALUE);
+        assertTrue(crawl.await(5, TimeUnit.SECONDS));
+        assertEquals("node budget reached", crawl.getStopReason());
+        assertEquals(2, crawl.getNodes());
+        assertEquals(1, manager.published);
+
+        crawl = cache.crawl(Arrays.asList("/r"), Integer.MAX_VALUE, Long.MAX_VALUE, 0);
+        assertTrue(crawl.await(5, TimeUnit.SECONDS));
+        assertEquals("deadline reached", crawl.getStopReason());
+        assertEquals(0, crawl.getNodes());
+
+        crawl = cache.crawl(Arrays.asList("/r"), Integer.MAX_VALUE);
+        assertTrue(crawl.await(5, TimeUnit.SECONDS));
+        assertNull(crawl.getStopReason());
+        assertEquals(4, crawl.getNodes());
+        assertEquals(2, manager.published);
+        cache.close();
+    }
+
+    public void testStatStoreKeepsACLsOfSameVersion()
+    {
+        Stat stat = stat(1);
+        stat.setAversion(3);
+        List<ACL> acls = Ids.OPEN_ACL_UNSAFE;
+        cache.putACLs("/n", stat, acls);
+        assertSame(acls, cache.getACLs("/n", -1));
+        assertEquals(stat, cache.getStat("/n", 60000));
+
+        // a newer Stat under the same ACL version keeps them
+        Stat newer = stat(2);
+        newer.setAversion(3);
+        cache.putStat("/n", newer);
+        assertSame(acls, cache.getACLs("/n", -1));
+        assertEquals(newer, cache.getStat("/n", -1));
+
+        // a changed ACL version drops them
+        Stat changed = stat(2);
+        changed.setAversion(4);
+        cache.putStat("/n", changed);
+        assertNull(cache.getACLs("/n", -1));
+        assertNotNull(cache.getStat("/n", -1));
+
+        cache.invalidateStat("/n");
+        assertNull(cache.getStat("/n", -1));
+    }
+
+    public void testStatStoreCountsInBudget() throws Exception
+    {
+        long bytes = cache.getEstimatedBytes();
+        cache.putStat("/a", stat(1));
+        long withStat = cache.getEstimatedBytes();
+        assertTrue(withStat > bytes);
+        cache.putStat("/a", stat(2));
+        assertEquals(withStat, cache.getEstimatedBytes());
+        // dropped together with its item
+        cache.removeSubtree("/a");
+        assertNull(cache.getStat("/a", -1));
+        assertTrue(cache.getEstimatedBytes() < bytes);
+
+        // over the entry limit, Stats of paths that are not cached parents go
+        // first, and the one just stored stays
+        System.setProperty(ZooInspectorManagerCache.MAX_ENTRIES, "3");
+        try
+        {
+            cache = new ZooInspectorManagerCache(null);
+        }
+        finally
+        {
+            System.clearProperty(ZooInspectorManagerCache.MAX_ENTRIES);
+        }
+        put("/p", "leaf");
+        cache.putStat("/p", stat(1));
+        for (int i = 0; i < 10; i++)
+        {
+            cache.putStat("/p/leaf" + i, stat(1));
+        }
+        assertTrue(cache.stats.size() <= 3);
+        assertNotNull(cache.getStat("/p", -1));
+        assertNotNull(cache.getStat("/p/leaf9", -1));
+        cache.clear();
+        assertEquals(0, cache.getEstimatedBytes());
+    }
+
+    public void testStatOrLoadReadsInBackground() throws Exception
+    {
+        final List<String> changed = new ArrayList<String>();
+        FakeManager manager = new FakeManager()
+        {
+            @Override
+            void fireCacheChanged(List<String> paths)
+            {
+                synchronized (changed)
+                {
+                    changed.addAll(paths);
+                    changed.notifyAll();
+                }
+            }
+        };
+        manager.tree.put("/e", Collections.<String>emptyList());
+        manager.cversions.put("/e", 7);
+        cache = new ZooInspectorManagerCache(manager);
+
+        assertNull(cache.getStatOrLoad("/e"));
+        waitFor(changed, "/e");
+        assertEquals(Arrays.asList("/e"), manager.probed);
+        assertEquals(7, cache.getStatOrLoad("/e").getCversion());
+        assertEquals(1, manager.probed.size());
+        cache.close();
+    }
+
+    public void testWatchModeFollowsChildEvents() throws Exception
+    {
+        final List<String> changed = new ArrayList<String>();
+        FakeManager manager = new FakeManager()
+        {
+            @Override
+            void fireCacheChanged(List<String> paths)
+            {
+                synchronized (changed)
+                {
+                    changed.addAll(paths);
+                    changed.notifyAll();
+                }
+            }
+        };
+        manager.tree.put("/w", new ArrayList<String>(Arrays.asList("a")));
+        manager.cversions.put("/w", 1);
+        System.setProperty(ZooInspectorManagerCache.WATCH, "true");
+        System.setProperty(ZooInspectorManagerCache.WATCH_COALESCE_MS, "0");
+        try
+        {
+            cache = new ZooInspectorManagerCache(manager);
+        }
+        finally
+        {
+            System.clearProperty(ZooInspectorManagerCache.WATCH);
+            System.clearProperty(ZooInspectorManagerCache.WATCH_COALESCE_MS);
+        }
+        cache.refresh(Arrays.asList("/w"), 0);
+        assertNotNull(manager.watcher);
+        assertEquals(1, cache.getNumWatches());
+
+        // a parent whose watch has not fired is not read again
+        manager.listed.clear();
+        cache.refresh(Arrays.asList("/w"), 0);
+        assertTrue(manager.listed.isEmpty());
+
+        // a child was added: the event alone refetches the parent
+        manager.tree.get("/w").add("b");
+        manager.cversions.put("/w", 2);
+        manager.watcher.process(new WatchedEvent(EventType.NodeChildrenChanged,
+                                                 KeeperState.SyncConnected, "/w"));
+        waitFor(changed, "/w");
+        assertEquals(Arrays.asList("/w"), manager.listed);
+        assertEquals(Arrays.asList("a", "b"), cache.getChildren("/w"));
+        assertEquals(1, cache.getNumWatches());
+
+        // deleted: the entry goes, the fired watch needs no removal
+        manager.watcher.process(new WatchedEvent(EventType.NodeDeleted,
+                                                 KeeperState.SyncConnected, "/w"));
+        assertTrue(cache.getSubtree("/w").isEmpty());
+        assertEquals(0, cache.getNumWatches());
+        assertTrue(manager.unwatched.isEmpty());
+
+        // a watched entry that leaves the cache has its watch removed
+        cache.refresh(Arrays.asList("/w"), 0);
+        assertEquals(1, cache.getNumWatches());
+        cache.invalidate(Arrays.asList("/w"));
+        assertEquals(Arrays.asList("/w"), manager.unwatched);
+        assertEquals(0, cache.getNumWatches());
+        cache.close();
+    }
+
+    public void testStoppedCrawlEndsWithoutDrainTimeout() throws Exception
+    {
+        final List<String> paths = new ArrayList<String>();
+        final List<Listener<Item>> replies = new ArrayList<Listener<Item>>();
+        FakeManager manager = new FakeManager()
+        {
+            @Override
+            void getChildren(String path, Listener<Item> listener)
+            {
+                // held back until the crawl was stopped
+                synchronized (replies)
+                {
+                    paths.add(path);
+                    replies.add(listener);
+                }
+            }
+        };
+        cache = new ZooInspectorManagerCache(manager);
+        ZooInspectorCrawl crawl = cache.crawl(Arrays.asList("/r"), Integer.MAX_VALUE);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline)
+        {
+            synchronized (replies)
+            {
+                if (!replies.isEmpty())
+                {
+                    break;
+                }
+            }
+            Thread.sleep(10);
+        }
+        crawl.cancel();
+        // let the crawl stop and drain its queue before the reply comes in
+        Thread.sleep(200);
+        assertFalse(crawl.isDone());
+
+        long start = System.currentTimeMillis();
+        List<String> childs = new ArrayList<String>();
+        for (int i = 0; i < 100; i++)
+        {
+            childs.add("n" + i);
+        }
+        replies.get(0).completed(new Item(childs, new Stat()), null);
+        assertTrue(crawl.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start < ZooInspectorCrawl.DRAIN_TIMEOUT_MS / 2);
+        assertEquals("cancelled", crawl.getStopReason());
+        assertEquals(Arrays.asList("/r"), paths);
+        assertEquals(1, crawl.getNodes());
+        cache.close();
+    }
+
+    public void testGetChildIndex()
+    {
+        assertEquals(0, cache.getChildIndex("/", "a"));
+        assertEquals(1, cache.getChildIndex("/", "a-b"));
+        assertEquals(2, cache.getChildIndex("/", "ab"));
+        assertEquals(-1, cache.getChildIndex("/", "b"));
+        assertEquals(-1, cache.getChildIndex("/missing", "a"));
+    }
+}
@@ -0,0 +1,112 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Unit test for {@link ZooInspectorMulti}.
+ */
+public class ZooInspectorMultiTest
+    extends TestCase
+{
+    public void testChunksStayUnderByteLimit()
+    {
+        // each create of a 6 char path with 100 bytes and the open ACL is about
+        // 10 + 104 + 8 + 23 + 9 = 154 bytes
+        ZooInspectorMulti multi = new ZooInspectorMulti(1000, 1000);
+        for (int i = 0; i < 20; i++)
+        {
+            multi.create("/n" + (1000 + i), new byte[100], Ids.OPEN_ACL_UNSAFE,
+                         CreateMode.PERSISTENT);
+        }
+        assertEquals(20, multi.getNumOps());
+        List<List<Op>> chunks = multi.getChunks();
+        assertEquals(4, chunks.size());
+        for (List<Op> chunk : chunks.subList(0, 3))
+        {
+            assertEquals(6, chunk.size());
+        }
+        assertEquals(2, chunks.get(3).size());
+    }
+
+    public void testChunksStayUnderOpLimit()
+    {
+        ZooInspectorMulti multi = new ZooInspectorMulti(1000000, 3);
+        for (int i = 0; i < 7; i++)
+        {
+            multi.delete("/n" + i, -1);
+        }
+        assertEquals(3, multi.getNumChunks());
+        assertEquals(1, multi.getChunks().get(2).size());
+    }
+
+    public void testOversizedOperationGetsOwnChunk()
+    {
+        ZooInspectorMulti multi = new ZooInspectorMulti(1000, 1000);
+        multi.setData("/a", new byte[10], -1);
+        multi.setData("/b", new byte[5000], -1);
+        multi.setData("/c", new byte[10], -1);
+        assertEquals(3, multi.getNumChunks());
+        assertEquals(0, multi.getCommittedOps());
+    }
+
+    public void testKeepsStatsOfSetData() throws Exception
+    {
+        ZooKeeper zk = new ZooKeeper("127.0.0.1:1", 1000, new Watcher()
+        {
+            @Override
+            public void process(WatchedEvent event)
+            {
+            }
+        })
+        {
+            @Override
+            public List<OpResult> multi(Iterable<Op> ops)
+            {
+                List<OpResult> results = new ArrayList<OpResult>();
+                for (Op op : ops)
+                {
+                    if (op.getType() == ZooDefs.OpCode.setData)
+                    {
+                        Stat stat = new Stat();
+                        stat.setVersion(op.getPath().length());
+                        results.add(new OpResult.SetDataResult(stat));
+                    }
+                    else
+                    {
+                        results.add(new OpResult.DeleteResult());
+                    }
+                }
+                return results;
+            }
+        };
+        try
+        {
+            ZooInspectorMulti multi = new ZooInspectorMulti(1000000, 2);
+            multi.setData("/a", new byte[1], -1);
+            multi.delete("/b", -1);
+            multi.setData("/ccc", new byte[1], -1);
+            multi.commit(zk);
+            assertEquals(3, multi.getCommittedOps());
+            assertEquals(2, multi.getSetDataStats().size());
+            assertEquals(2, multi.getSetDataStats().get("/a").getVersion());
+            assertEquals(4, multi.getSetDataStats().get("/ccc").getVersion());
+        }
+        finally
+        {
+            zk.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache.Item;
+
+/**
+ * Unit test for {@link ZooInspectorPrefetcher}.
+ */
+public class ZooInspectorPrefetcherTest
+    extends TestCase
+{
+    /**
+     * Serves a fixed tree and records which paths were read
+     */
+    private static class FakeManager extends ZooInspectorManagerImpl
+    {
+        final Map<String, List<String>> tree = new HashMap<String, List<String>>();
+        final List<String> listed = new ArrayList<String>();
+
+        FakeManager() throws IOException
+        {
+        }
+
+        void put(String path, String... childs)
+        {
+            tree.put(path, Arrays.asList(childs));
+        }
+
+        @Override
+        Map<String, Item> getChildren(List<String> paths, Watcher watcher)
+        {
+            Map<String, Item> ret = new HashMap<String, Item>();
+            for (String path : paths)
+            {
+                listed.add(path);
+                List<String> childs = tree.get(path);
+                ret.put(path, new Item(childs, childs == null ? null : new Stat()));
+            }
+            return ret;
+        }
+    }
+
+    private FakeManager manager;
+    private ZooInspectorManagerCache cache;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        manager = new FakeManager();
+        manager.put("/", "a", "b", "c");
+        manager.put("/a", "a1", "a2", "a3");
+        manager.put("/a/a1");
+        manager.put("/a/a2");
+        manager.put("/a/a3");
+        manager.put("/b", "b1");
+        manager.put("/b/b1");
+        manager.put("/c");
+        cache = new ZooInspectorManagerCache(manager);
+        // what expanding the root reads
+        cache.refresh(Arrays.asList("/"), 1);
+        manager.listed.clear();
+        file = File.createTempFile("prefetch", ".properties");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        cache.close();
+        file.delete();
+    }
+
+    public void testPrefetchServesNextExpandWithinBudget() throws Exception
+    {
+        System.setProperty(ZooInspectorPrefetcher.MAX_NODES, "2");
+        ZooInspectorPrefetcher prefetcher;
+        try
+        {
+            prefetcher = new ZooInspectorPrefetcher(cache, file);
+        }
+        finally
+        {
+            System.clearProperty(ZooInspectorPrefetcher.MAX_NODES);
+        }
+        prefetcher.prefetch("/", 0);
+        prefetcher.close();
+
+        // /a has more children than the budget, /c none
+        assertEquals(Arrays.asList("/b/b1"), manager.listed);
+        assertEquals(1, prefetcher.getPreparedNodes());
+        assertEquals(1, prefetcher.getPrefetchedNodes());
+
+        assertTrue(prefetcher.isReady("/b"));
+        assertFalse(prefetcher.isReady("/a"));
+        // used once
+        assertFalse(prefetcher.isReady("/b"));
+        assertEquals(1, prefetcher.getHits());
+        assertEquals(3, prefetcher.getExpands());
+    }
+
+    public void testLearnedOpensRankFirstAcrossSessions() throws Exception
+    {
+        ZooInspectorPrefetcher prefetcher = new ZooInspectorPrefetcher(cache, file);
+        String[] childs = new String[] {"a", "b", "c"};
+        assertEquals(Arrays.asList("/a", "/b", "/c"), prefetcher.rank("/", childs));
+        prefetcher.close();
+        prefetcher.expanded("/c");
+        prefetcher.expanded("/c");
+        prefetcher.expanded("/b");
+        assertEquals(Arrays.asList("/c", "/b", "/a"), prefetcher.rank("/", childs));
+        prefetcher.save();
+
+        ZooInspectorPrefetcher next = new ZooInspectorPrefetcher(cache, file);
+        next.load();
+        next.close();
+        assertEquals(Arrays.asList("/c", "/b", "/a"), next.rank("/", childs));
+    }
+
+    public void testPreparedNodesAreBoundedAndExpire() throws Exception
+    {
+        ZooInspectorPrefetcher prefetcher = new ZooInspectorPrefetcher(cache, file);
+        cache.prefetcher = prefetcher;
+        prefetcher.prefetch("/", 0);
+        prefetcher.close();
+        assertEquals(2, prefetcher.getNumPrepared());
+
+        // the cache dropped /a, it is read again on expand
+        cache.invalidate(Arrays.asList("/a"));
+        assertEquals(1, prefetcher.getNumPrepared());
+        assertFalse(prefetcher.isReady("/a"));
+        assertTrue(prefetcher.isReady("/b"));
+
+        for (int i = 0; i < ZooInspectorPrefetcher.MAX_PREPARED + 10; i++)
+        {
+            prefetcher.prepared("/n" + i);
+        }
+        assertEquals(ZooInspectorPrefetcher.MAX_PREPARED, prefetcher.getNumPrepared());
+
+        System.setProperty(ZooInspectorPrefetcher.MAX_AGE_MS, "50");
+        try
+        {
+            prefetcher = new ZooInspectorPrefetcher(cache, file);
+        }
+        finally
+        {
+            System.clearProperty(ZooInspectorPrefetcher.MAX_AGE_MS);
+        }
+        prefetcher.close();
+        prefetcher.prepared("/a");
+        prefetcher.prepared("/b");
+        Thread.sleep(100);
+        prefetcher.prepared("/c");
+        assertEquals(1, prefetcher.getNumPrepared());
+        assertFalse(prefetcher.isReady("/a"));
+    }
+}
@@ -0,0 +1,127 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.retry.ZooKeeperRetry;
+
+/**
+ * Unit test for {@link ZooInspectorReadPool}.
+ */
+public class ZooInspectorReadPoolTest
+    extends TestCase
+{
+    /**
+     * A connected session at a settable zxid. It never talks to a server
+     */
+    private static class FakeSession extends ZooKeeperRetry
+    {
+        volatile long lastZxid = 10;
+        volatile int syncRc = Code.OK.intValue();
+
+        FakeSession() throws Exception
+        {
+            super("127.0.0.1:1", 1000, new Watcher()
+            {
+                @Override
+                public void process(WatchedEvent event)
+                {
+                }
+            });
+        }
+
+        @Override
+        public States getState()
+        {
+            return States.CONNECTED;
+        }
+
+        @Override
+        public void sync(String path, VoidCallback cb, Object ctx)
+        {
+            cb.processResult(syncRc, path, ctx);
+        }
+
+        @Override
+        public Stat exists(String path, boolean watch)
+        {
+            Stat stat = new Stat();
+            stat.setPzxid(7);
+            stat.setCversion(2);
+            return stat;
+        }
+
+        @Override
+        public long getLastZxid()
+        {
+            return lastZxid;
+        }
+    }
+
+    public void testHostsKeepChroot()
+    {
+        assertEquals(Arrays.asList("a:2181", "b:2181"),
+                     ZooInspectorReadPool.hosts("a:2181, b:2181"));
+        assertEquals(Arrays.asList("a:2181/app", "b:2181/app"),
+                     ZooInspectorReadPool.hosts("a:2181,b:2181/app"));
+    }
+
+    public void testUnconnectedSessionsFallBackToMain() throws Exception
+    {
+        // nothing listens there, the sessions never connect
+        ZooInspectorReadPool pool = new ZooInspectorReadPool("127.0.0.1:1,127.0.0.1:2", 1000, 3);
+        try
+        {
+            assertNull(pool.route("/a", null));
+            assertEquals("127.0.0.1:1 0, 127.0.0.1:2 0, 127.0.0.1:1 0", pool.toString());
+            assertNull(pool.isConsistent());
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+
+    public void testLaggingSessionIsInconsistent() throws Exception
+    {
+        FakeSession a = new FakeSession();
+        FakeSession b = new FakeSession();
+        ZooInspectorReadPool pool = new ZooInspectorReadPool(Arrays.asList("a", "b"),
+                                                             Arrays.<ZooKeeperRetry>asList(a, b), 1000);
+        try
+        {
+            assertTrue(pool.checkConsistency(10));
+
+            // a read answered by a member behind the main session, which has
+            // caught up again by the next check
+            ZooKeeper session = pool.route("/a", null);
+            FakeSession routed = session == a ? a : b;
+            routed.lastZxid = 5;
+            pool.replied(session);
+            pool.replied(null);
+            routed.lastZxid = 12;
+            assertFalse(pool.checkConsistency(10));
+            assertEquals(Boolean.FALSE, pool.isConsistent());
+            assertTrue(pool.checkConsistency(10));
+
+            // a session still behind after its sync
+            b.lastZxid = 9;
+            assertFalse(pool.checkConsistency(10));
+            b.lastZxid = 10;
+
+            a.syncRc = Code.CONNECTIONLOSS.intValue();
+            assertFalse(pool.checkConsistency(10));
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+}
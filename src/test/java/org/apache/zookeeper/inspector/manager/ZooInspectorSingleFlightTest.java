@@ -0,0 +1,98 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ZooInspectorSingleFlight}.
+ */
+public class ZooInspectorSingleFlightTest
+    extends TestCase
+{
+    public void testConcurrentCallsShareOneCall() throws Exception
+    {
+        final ZooInspectorSingleFlight flight = new ZooInspectorSingleFlight();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger invocations = new AtomicInteger();
+        final Callable<String> call = new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                invocations.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "data";
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try
+        {
+            Future<String> leader = pool.submit(new Callable<String>()
+            {
+                @Override
+                public String call() throws Exception
+                {
+                    return flight.execute("getData:/a", call);
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> follower = pool.submit(new Callable<String>()
+            {
+                @Override
+                public String call() throws Exception
+                {
+                    return flight.execute("getData:/a", call);
+                }
+            });
+            while (flight.getSaved() == 0)
+            {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            assertEquals("data", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("data", follower.get(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        assertEquals(1, invocations.get());
+        assertEquals(1, flight.getCalls());
+        assertEquals(1, flight.getSaved());
+
+        // nothing is kept once the call completed
+        assertEquals("data", flight.execute("getData:/a", call));
+        assertEquals(2, invocations.get());
+    }
+
+    public void testExceptionIsRethrown() throws Exception
+    {
+        ZooInspectorSingleFlight flight = new ZooInspectorSingleFlight();
+        try
+        {
+            flight.execute("exists:/a", new Callable<Object>()
+            {
+                @Override
+                public Object call() throws Exception
+                {
+                    throw new IllegalArgumentException("bad path");
+                }
+            });
+            fail("the exception of the call must be rethrown");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertEquals("bad path", e.getMessage());
+        }
+    }
+}
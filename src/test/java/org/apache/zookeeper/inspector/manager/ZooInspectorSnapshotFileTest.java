@@ -0,0 +1,221 @@
+package org.apache.zookeeper.inspector.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.Perms;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.encryption.DataEncryptionManager;
+import org.apache.zookeeper.inspector.manager.ZooInspectorImport.Conflict;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.persistence.FileSnap;
+
+/**
+ * Unit test for {@link ZooInspectorSnapshotFile}.
+ */
+public class ZooInspectorSnapshotFileTest
+    extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final List<ACL> DIGEST_ACL = Arrays.asList(
+        new ACL(Perms.READ | Perms.WRITE, new Id("digest", "admin:secret")));
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = File.createTempFile("snapshot", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for (File file : dir.listFiles())
+        {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * write a snapshot the way a server does
+     */
+    private File write() throws Exception
+    {
+        DataTree tree = new DataTree();
+        tree.createNode("/app", "app data".getBytes(), Ids.OPEN_ACL_UNSAFE, 0, 0, 1, 1);
+        tree.createNode("/app/zeta", null, Ids.OPEN_ACL_UNSAFE, 0, 0, 2, 2);
+        tree.createNode("/app/alpha", "a".getBytes(), DIGEST_ACL, 0, 0, 3, 3);
+        tree.createNode("/app/été", "é".getBytes("UTF-8"), Ids.OPEN_ACL_UNSAFE,
+                        0, 0, 4, 4);
+        tree.createNode("/app/beta", new byte[300], Ids.READ_ACL_UNSAFE, 0x1234L, 0, 5, 5);
+        tree.createNode("/app/alpha/leaf", "leaf".getBytes(), DIGEST_ACL, 0, 0, 6, 6);
+        tree.createNode("/other", null, Ids.OPEN_ACL_UNSAFE, 0, 0, 7, 7);
+        HashMap<Long, Integer> sessions = new HashMap<Long, Integer>();
+        sessions.put(0x1234L, 30000);
+        File file = new File(dir, "snapshot.1f");
+        new FileSnap(dir).serialize(tree, sessions, file, false);
+        return file;
+    }
+
+    public void testIndexesAndReadsNodes() throws Exception
+    {
+        // segments of 64 bytes, so that most values are read across two
+        ZooInspectorSnapshotFile snapshot = new ZooInspectorSnapshotFile(write(), 6);
+        // the root, /zookeeper, /zookeeper/config and /zookeeper/quota as well
+        assertEquals(11, snapshot.getNumNodes());
+        assertEquals(1, snapshot.getNumSessions());
+        assertEquals(0x1f, snapshot.getZxid());
+
+        int app = snapshot.find("/app");
+        assertEquals("/app", snapshot.getPath(app));
+        assertEquals("[alpha, beta, zeta, été]", snapshot.getChildren(app).toString());
+        assertEquals("beta", snapshot.getName(snapshot.getChild(app, 1)));
+        assertEquals("app data", new String(snapshot.getData(app)));
+        assertEquals(-1, snapshot.find("/app/missing"));
+        assertEquals(-1, snapshot.find("/app/alpha/leaf/deeper"));
+        assertEquals(0, snapshot.find("/"));
+
+        int alpha = snapshot.find("/app/alpha");
+        assertEquals(DIGEST_ACL, snapshot.getACL(alpha));
+        assertEquals(DIGEST_ACL, snapshot.getACL(snapshot.find("/app/alpha/leaf")));
+        assertEquals("leaf", new String(snapshot.getData(snapshot.find("/app/alpha/leaf"))));
+        assertNull(snapshot.getData(snapshot.find("/app/zeta")));
+        assertEquals("é", new String(snapshot.getData(snapshot.find("/app/été")), "UTF-8"));
+
+        int beta = snapshot.find("/app/beta");
+        assertEquals(Ids.READ_ACL_UNSAFE, snapshot.getACL(beta));
+        Stat stat = snapshot.getStat(beta);
+        assertEquals(300, stat.getDataLength());
+        assertEquals(0x1234L, stat.getEphemeralOwner());
+        assertEquals(5, stat.getCzxid());
+        assertEquals(1, snapshot.getStat(alpha).getNumChildren());
+    }
+
+    public void testRejectsDamagedFiles() throws Exception
+    {
+        File file = write();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(raf.length() - 40);
+        }
+        finally
+        {
+            raf.close();
+        }
+        try
+        {
+            new ZooInspectorSnapshotFile(file);
+            fail("a truncated snapshot was read");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+
+        File other = new File(dir, "snapshot.0");
+        raf = new RandomAccessFile(other, "rw");
+        try
+        {
+            raf.writeInt(0x12345678);
+            raf.writeInt(2);
+        }
+        finally
+        {
+            raf.close();
+        }
+        try
+        {
+            new ZooInspectorSnapshotFile(other);
+            fail("a file without the snapshot magic was read");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    public void testManagerServesTreeFromSnapshot() throws Exception
+    {
+        ZooInspectorSnapshotManager manager = new ZooInspectorSnapshotManager();
+        assertNull(manager.getZookeeperStates());
+        Properties props = new Properties();
+        props.setProperty(ZooInspectorSnapshotManager.SNAPSHOT_FILE, write().getPath());
+        assertTrue(manager.connect(props));
+
+        assertEquals(Arrays.asList("app", "other", "zookeeper"), manager.getChildren("/"));
+        assertEquals(4, manager.getNumChildren("/app"));
+        assertEquals("beta", manager.getNodeChild("/app", 1));
+        assertEquals(1, manager.getNodeIndex("/app/beta"));
+        assertEquals(-1, manager.getNodeIndex("/app/missing"));
+        assertEquals("app data", manager.getData("/app"));
+        assertEquals("300", manager.getNodeMeta("/app/beta").get("Data Length"));
+        assertEquals("digest", manager.getACLs("/app/alpha").get(0).get("Scheme"));
+        assertTrue(manager.isAllowsChildren("/app"));
+        assertFalse(manager.isAllowsChildren("/app/beta"));
+        assertFalse(manager.createNode("/app", "new"));
+        assertFalse(manager.setData("/app", "changed"));
+        assertEquals("app data", manager.getData("/app"));
+        assertNull(manager.getCache());
+        try
+        {
+            manager.diffSubtree("/app", manager, "/other");
+            fail("a snapshot has no session to compare through");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        try
+        {
+            manager.copySubtree("/app", manager, "/copy", Conflict.SKIP, false);
+            fail("a snapshot has no session to copy through");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        assertTrue(manager.disconnect());
+        assertNull(manager.getZookeeperStates());
+        assertNull(manager.getData("/app"));
+
+        // data goes through the configured encryption manager
+        props.setProperty(ZooInspectorManagerImpl.DATA_ENCRYPTION_MANAGER,
+                          UpperCaseEncryptionManager.class.getName());
+        assertTrue(manager.connect(props));
+        assertEquals("APP DATA", manager.getData("/app"));
+        manager.disconnect();
+    }
+
+    public static class UpperCaseEncryptionManager implements DataEncryptionManager
+    {
+        @Override
+        public byte[] encryptData(String data)
+        {
+            return data.toLowerCase().getBytes(UTF8);
+        }
+
+        @Override
+        public String decryptData(byte[] encrypted)
+        {
+            return new String(encrypted, UTF8).toUpperCase();
+        }
+    }
+}